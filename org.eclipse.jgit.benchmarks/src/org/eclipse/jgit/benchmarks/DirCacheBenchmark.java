@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Reads, writes and searches a {@link DirCache} of synthetic entries. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DirCacheBenchmark {
+	@Param({ "1000", "100000" })
+	int entries;
+
+	private File dir;
+
+	private File indexFile;
+
+	private DirCache dc;
+
+	private String[] paths;
+
+	private int next;
+
+	@Setup
+	public void setupBenchmark() throws IOException {
+		dir = Files.createTempDirectory("dircache").toFile(); //$NON-NLS-1$
+		indexFile = new File(dir, "index"); //$NON-NLS-1$
+		Random rng = new Random(42);
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		paths = new String[entries];
+		dc = new DirCache(indexFile, FS.DETECTED);
+		DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < entries; i++) {
+			paths[i] = "d" + (i % 100) + "/f" + i + ".txt"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			rng.nextBytes(raw);
+			DirCacheEntry e = new DirCacheEntry(paths[i]);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setObjectId(ObjectId.fromRaw(raw));
+			e.setLength(rng.nextInt(1 << 20));
+			e.setLastModified(1500000000000L + rng.nextInt());
+			b.add(e);
+		}
+		b.finish();
+		write();
+	}
+
+	@TearDown
+	public void teardown() throws IOException {
+		FileUtils.delete(dir, FileUtils.RECURSIVE | FileUtils.RETRY);
+	}
+
+	@Benchmark
+	public int read() throws IOException {
+		return DirCache.read(indexFile, FS.DETECTED).getEntryCount();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		if (!dc.lock()) {
+			throw new IOException("cannot lock " + indexFile); //$NON-NLS-1$
+		}
+		try {
+			dc.write();
+			dc.commit();
+		} finally {
+			dc.unlock();
+		}
+	}
+
+	@Benchmark
+	public int findEntry() {
+		if (++next == paths.length) {
+			next = 0;
+		}
+		return dc.findEntry(paths[next]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(DirCacheBenchmark.class.getSimpleName())
+				.build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Generates repositories of a configurable shape for benchmarks.
+ * <p>
+ * All content is derived from a seeded {@link Random}, so two repositories
+ * created with the same parameters contain identical objects and benchmark
+ * results are comparable across runs and machines.
+ */
+public class SyntheticRepository implements AutoCloseable {
+	private static final long SEED = 0x6a67697442656e63L;
+
+	/**
+	 * Create an empty non-bare repository in a new temporary directory.
+	 *
+	 * @param name
+	 *            prefix of the temporary directory.
+	 * @return the repository; close it to delete the directory.
+	 * @throws IOException
+	 *             the repository could not be created.
+	 */
+	public static SyntheticRepository create(String name) throws IOException {
+		File root = Files.createTempDirectory(name).toFile();
+		FileRepository repo = new FileRepository(
+				new File(root, Constants.DOT_GIT));
+		repo.create();
+		return new SyntheticRepository(root, repo);
+	}
+
+	/**
+	 * Generate random text of the given number of lines.
+	 *
+	 * @param rng
+	 *            source of randomness.
+	 * @param lines
+	 *            number of lines.
+	 * @return the text, each line terminated by LF.
+	 */
+	public static byte[] randomText(Random rng, int lines) {
+		StringBuilder b = new StringBuilder(lines * 40);
+		for (int i = 0; i < lines; i++) {
+			appendLine(rng, b);
+		}
+		return b.toString().getBytes(UTF_8);
+	}
+
+	/**
+	 * Apply random line insertions, deletions and replacements to text.
+	 *
+	 * @param rng
+	 *            source of randomness.
+	 * @param text
+	 *            LF terminated lines to edit.
+	 * @param edits
+	 *            number of edits to apply.
+	 * @return the edited text.
+	 */
+	public static byte[] mutate(Random rng, byte[] text, int edits) {
+		List<String> lines = new ArrayList<>();
+		for (String l : new String(text, UTF_8).split("\n")) { //$NON-NLS-1$
+			if (!l.isEmpty()) {
+				lines.add(l);
+			}
+		}
+		StringBuilder tmp = new StringBuilder();
+		for (int i = 0; i < edits; i++) {
+			int pos = lines.isEmpty() ? 0 : rng.nextInt(lines.size());
+			tmp.setLength(0);
+			appendLine(rng, tmp);
+			String line = tmp.substring(0, tmp.length() - 1);
+			switch (lines.isEmpty() ? 0 : rng.nextInt(3)) {
+			case 0:
+				lines.add(pos, line);
+				break;
+			case 1:
+				lines.remove(pos);
+				break;
+			default:
+				lines.set(pos, line);
+				break;
+			}
+		}
+		StringBuilder b = new StringBuilder(text.length + edits * 40);
+		for (String l : lines) {
+			b.append(l).append('\n');
+		}
+		return b.toString().getBytes(UTF_8);
+	}
+
+	private static void appendLine(Random rng, StringBuilder b) {
+		int words = 2 + rng.nextInt(10);
+		for (int w = 0; w < words; w++) {
+			if (w > 0) {
+				b.append(' ');
+			}
+			int len = 1 + rng.nextInt(8);
+			for (int c = 0; c < len; c++) {
+				b.append((char) ('a' + rng.nextInt(26)));
+			}
+		}
+		b.append('\n');
+	}
+
+	private final File root;
+
+	private final FileRepository repo;
+
+	private final Random rng = new Random(SEED);
+
+	private final Map<String, byte[]> files = new TreeMap<>();
+
+	private final Map<String, ObjectId> blobs = new TreeMap<>();
+
+	private final PersonIdent ident = new PersonIdent("J. Author", //$NON-NLS-1$
+			"jauthor@example.com", 1250379778000L, 0); //$NON-NLS-1$
+
+	private int time;
+
+	private SyntheticRepository(File root, FileRepository repo) {
+		this.root = root;
+		this.repo = repo;
+	}
+
+	/** @return the repository. */
+	public FileRepository getRepository() {
+		return repo;
+	}
+
+	/** @return the source of randomness used by this generator. */
+	public Random getRandom() {
+		return rng;
+	}
+
+	/** @return paths of the files in the current tip, in tree order. */
+	public List<String> getPaths() {
+		return new ArrayList<>(files.keySet());
+	}
+
+	/** @return blobs of the files in the current tip, in tree order. */
+	public List<ObjectId> getBlobs() {
+		return new ArrayList<>(blobs.values());
+	}
+
+	/**
+	 * Populate the tip with files spread across directories.
+	 *
+	 * @param count
+	 *            number of files.
+	 * @param dirs
+	 *            number of directories to distribute the files over.
+	 * @param lines
+	 *            number of lines in each file.
+	 * @return {@code this}
+	 */
+	public SyntheticRepository files(int count, int dirs, int lines) {
+		for (int i = 0; i < count; i++) {
+			String path = "d" + (i % dirs) + "/f" + i + ".txt"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			files.put(path, randomText(rng, lines));
+			blobs.remove(path);
+		}
+		return this;
+	}
+
+	/**
+	 * Append commits to {@code master}, each editing a few random files.
+	 * <p>
+	 * Every {@code mergeEvery} commits a side commit is created from the
+	 * current tip and merged back, giving the history merge commits.
+	 *
+	 * @param count
+	 *            number of commits to append.
+	 * @param changesPerCommit
+	 *            number of files to edit in each commit.
+	 * @param mergeEvery
+	 *            interval between merges; 0 for a linear history.
+	 * @return the new tip of {@code master}.
+	 * @throws IOException
+	 *             objects could not be written.
+	 */
+	public ObjectId commits(int count, int changesPerCommit, int mergeEvery)
+			throws IOException {
+		ObjectId tip = repo.resolve(Constants.MASTER);
+		List<String> paths = getPaths();
+		try (ObjectInserter ins = repo.newObjectInserter()) {
+			for (int i = 0; i < count; i++) {
+				if (tip != null && !paths.isEmpty()) {
+					edit(paths, changesPerCommit);
+				}
+				if (mergeEvery > 0 && tip != null && i % mergeEvery == 0) {
+					ObjectId side = commit(ins, tree(ins), tip);
+					edit(paths, changesPerCommit);
+					tip = commit(ins, tree(ins), tip, side);
+				} else if (tip == null) {
+					tip = commit(ins, tree(ins));
+				} else {
+					tip = commit(ins, tree(ins), tip);
+				}
+			}
+			ins.flush();
+		}
+		RefUpdate u = repo.updateRef(Constants.R_HEADS + Constants.MASTER);
+		u.setNewObjectId(tip);
+		u.setForceUpdate(true);
+		u.update();
+		return tip;
+	}
+
+	/**
+	 * Write the files of the current tip into the working tree.
+	 *
+	 * @throws IOException
+	 *             a file could not be written.
+	 */
+	public void checkout() throws IOException {
+		File work = repo.getWorkTree();
+		for (Map.Entry<String, byte[]> e : files.entrySet()) {
+			File f = new File(work, e.getKey());
+			FileUtils.mkdirs(f.getParentFile(), true);
+			Files.write(f.toPath(), e.getValue());
+		}
+	}
+
+	/**
+	 * Repack all objects into a single pack.
+	 *
+	 * @throws Exception
+	 *             the repository could not be repacked.
+	 */
+	public void gc() throws Exception {
+		GC gc = new GC(repo);
+		gc.setExpireAgeMillis(0);
+		gc.gc();
+	}
+
+	private void edit(List<String> paths, int n) {
+		for (int i = 0; i < n; i++) {
+			String path = paths.get(rng.nextInt(paths.size()));
+			files.put(path, mutate(rng, files.get(path), 1 + rng.nextInt(3)));
+			blobs.remove(path);
+		}
+	}
+
+	private ObjectId tree(ObjectInserter ins) throws IOException {
+		DirCache dc = DirCache.newInCore();
+		DirCacheBuilder b = dc.builder();
+		for (Map.Entry<String, byte[]> e : files.entrySet()) {
+			ObjectId id = blobs.get(e.getKey());
+			if (id == null) {
+				id = ins.insert(Constants.OBJ_BLOB, e.getValue());
+				blobs.put(e.getKey(), id);
+			}
+			DirCacheEntry ent = new DirCacheEntry(e.getKey());
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(id);
+			b.add(ent);
+		}
+		b.finish();
+		return dc.writeTree(ins);
+	}
+
+	private ObjectId commit(ObjectInserter ins, ObjectId tree,
+			ObjectId... parents) throws IOException {
+		PersonIdent who = new PersonIdent(ident, ident.getWhen().getTime()
+				+ (time++) * 1000L, 0);
+		CommitBuilder c = new CommitBuilder();
+		c.setTreeId(tree);
+		c.setParentIds(parents);
+		c.setAuthor(who);
+		c.setCommitter(who);
+		c.setMessage("commit " + time + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		return ins.insert(c);
+	}
+
+	@Override
+	public void close() throws IOException {
+		repo.close();
+		FileUtils.delete(root, FileUtils.RECURSIVE | FileUtils.RETRY);
+	}
+}
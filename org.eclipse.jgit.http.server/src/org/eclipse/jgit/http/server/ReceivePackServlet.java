@@ -116,6 +116,7 @@ protected void advertise(HttpServletRequest req,
 				ServiceNotEnabledException, ServiceNotAuthorizedException {
 			ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
 			try {
+				rp.setBiDirectionalPipe(false);
 				rp.sendAdvertisedRefs(pck);
 			} finally {
 				rp.getRevWalk().close();
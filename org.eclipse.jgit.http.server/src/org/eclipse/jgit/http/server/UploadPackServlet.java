@@ -58,10 +58,12 @@
 import static org.eclipse.jgit.http.server.ServletUtils.consumeRequestBody;
 import static org.eclipse.jgit.http.server.ServletUtils.getInputStream;
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.servlet.Filter;
@@ -105,6 +107,7 @@ protected void begin(HttpServletRequest req, Repository db)
 			InternalHttpServerGlue.setPeerUserAgent(
 					up,
 					req.getHeader(HDR_USER_AGENT));
+			setExtraParameters(req, up);
 			req.setAttribute(ATTRIBUTE_HANDLER, up);
 		}
 
@@ -190,6 +193,7 @@ public void flush() throws IOException {
 		UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			up.setBiDirectionalPipe(false);
+			setExtraParameters(req, up);
 			rsp.setContentType(UPLOAD_PACK_RESULT_TYPE);
 
 			up.upload(getInputStream(req), out, null);
@@ -221,6 +225,13 @@ public void flush() throws IOException {
 		}
 	}
 
+	static void setExtraParameters(HttpServletRequest req, UploadPack up) {
+		String params = req.getHeader(HDR_GIT_PROTOCOL);
+		if (params != null) {
+			up.setExtraParameters(Arrays.asList(params.split(":"))); //$NON-NLS-1$
+		}
+	}
+
 	private void log(Repository git, Throwable e) {
 		getServletContext().log(MessageFormat.format(
 				HttpServerText.get().internalErrorDuringUploadPack,
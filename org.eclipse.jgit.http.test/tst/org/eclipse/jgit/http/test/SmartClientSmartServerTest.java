@@ -47,6 +47,7 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_LENGTH;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -543,6 +544,40 @@ private void initialClone_Redirect(int nofRedirects, int code)
 				service.getResponseHeader(HDR_CONTENT_TYPE));
 	}
 
+	@Test
+	public void testInitialClone_ProtocolV2() throws Exception {
+		remoteRepository.getConfig().setString("protocol", null, "version",
+				"2");
+		Repository dst = createBareRepository();
+		dst.getConfig().setString("protocol", null, "version", "2");
+
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+
+		assertTrue(dst.hasObject(A_txt));
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> requests = getRequests();
+		assertEquals(3, requests.size());
+
+		AccessEvent info = requests.get(0);
+		assertEquals("GET", info.getMethod());
+		assertEquals(join(remoteURI, "info/refs"), info.getPath());
+		assertEquals("version=2", info.getRequestHeader(HDR_GIT_PROTOCOL));
+
+		// One request lists the references, the next fetches the pack.
+		for (AccessEvent service : requests.subList(1, 3)) {
+			assertEquals("POST", service.getMethod());
+			assertEquals(join(remoteURI, "git-upload-pack"),
+					service.getPath());
+			assertEquals("version=2",
+					service.getRequestHeader(HDR_GIT_PROTOCOL));
+			assertEquals(200, service.getStatus());
+		}
+	}
+
 	@Test
 	public void testInitialClone_Redirect301Small() throws Exception {
 		initialClone_Redirect(1, 301);
@@ -45,6 +45,8 @@
 package org.eclipse.jgit.pgm;
 
 import java.io.BufferedInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.jgit.internal.storage.file.ObjectDirectoryPackParser;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -60,6 +62,9 @@ class IndexPack extends TextBuiltin {
 	@Option(name = "--index-version", usage = "usage_indexFileFormatToCreate")
 	private int indexVersion = -1;
 
+	@Option(name = "--threads", metaVar = "metaVar_n", usage = "usage_resolveDeltasThreads")
+	private int threads = 1;
+
 	/** {@inheritDoc} */
 	@Override
 	protected void run() throws Exception {
@@ -71,7 +76,17 @@ protected void run() throws Exception {
 				ObjectDirectoryPackParser imp = (ObjectDirectoryPackParser) p;
 				imp.setIndexVersion(indexVersion);
 			}
-			p.parse(new TextProgressMonitor(errw));
+			ExecutorService pool = null;
+			if (1 < threads) {
+				pool = Executors.newFixedThreadPool(threads);
+				p.setDeltaResolutionExecutor(pool, threads);
+			}
+			try {
+				p.parse(new TextProgressMonitor(errw));
+			} finally {
+				if (pool != null)
+					pool.shutdown();
+			}
 			inserter.flush();
 		}
 	}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitGraphTest {
+	private TestRepository<InMemoryRepository> git;
+
+	private InMemoryRepository repo;
+
+	@Before
+	public void setUp() throws Exception {
+		DfsRepositoryDescription desc = new DfsRepositoryDescription("test");
+		git = new TestRepository<>(new InMemoryRepository(desc));
+		repo = git.getRepository();
+	}
+
+	@Test
+	public void emptyGraph() throws Exception {
+		CommitGraph graph = write(Collections.<ObjectId> emptyList());
+		assertEquals(0, graph.getCommitCount());
+		assertEquals(-1, graph.findGraphPosition(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void linearHistory() throws Exception {
+		RevCommit a = git.commit().add("a", "a").create();
+		RevCommit b = git.commit().parent(a).add("b", "b").create();
+		RevCommit c = git.commit().parent(b).add("c", "c").create();
+
+		CommitGraph graph = write(Collections.singleton(c));
+		assertEquals(3, graph.getCommitCount());
+		assertCommit(graph, a, 1);
+		assertCommit(graph, b, 2);
+		assertCommit(graph, c, 3);
+	}
+
+	@Test
+	public void octopusMerge() throws Exception {
+		RevCommit root = git.commit().create();
+		RevCommit p1 = git.commit().parent(root).add("1", "1").create();
+		RevCommit p2 = git.commit().parent(root).add("2", "2").create();
+		RevCommit p3 = git.commit().parent(p2).add("3", "3").create();
+		RevCommit m = git.commit().parent(p1).parent(p2).parent(p3).create();
+		RevCommit n = git.commit().parent(p1).parent(m).create();
+
+		CommitGraph graph = write(Arrays.asList(n, p3));
+		assertEquals(6, graph.getCommitCount());
+		assertCommit(graph, root, 1);
+		assertCommit(graph, p1, 2);
+		assertCommit(graph, p2, 2);
+		assertCommit(graph, p3, 3);
+		assertCommit(graph, m, 4);
+		assertCommit(graph, n, 5);
+	}
+
+	@Test
+	public void rejectsCorruptGraph() throws Exception {
+		RevCommit a = git.commit().create();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectReader reader = repo.newObjectReader()) {
+			new CommitGraphWriter(reader).write(NullProgressMonitor.INSTANCE,
+					out, Collections.singleton(a));
+		}
+		byte[] buf = out.toByteArray();
+		buf[4] = 2;
+		try {
+			CommitGraph.read(buf);
+			fail("accepted unsupported version");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void revWalkUsesGraphFromGc() throws Exception {
+		RevCommit a = git.commit().add("a", "a").create();
+		RevCommit b = git.commit().parent(a).add("b", "b").create();
+		RevCommit c = git.commit().parent(a).add("c", "c").create();
+		RevCommit m = git.commit().parent(b).parent(c).message("merge")
+				.create();
+		git.update("master", m);
+		git.getRevWalk().parseBody(m);
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertNull(reader.getCommitGraph());
+		}
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.setWriteCommitGraph(true);
+		gc.pack(null);
+		assertTrue(gc.getNewPacks().get(0).hasFileExt(COMMIT_GRAPH));
+
+		try (ObjectReader reader = repo.newObjectReader();
+				RevWalk rw = new RevWalk(reader)) {
+			assertNotNull(reader.getCommitGraph());
+			rw.setRetainBody(false);
+			RevCommit p = rw.parseCommit(m);
+			assertEquals(m.getTree(), p.getTree());
+			assertEquals(m.getCommitTime(), p.getCommitTime());
+			assertEquals(2, p.getParentCount());
+			assertEquals(b, p.getParent(0));
+			assertEquals(c, p.getParent(1));
+			assertNull(p.getRawBuffer());
+
+			rw.parseBody(p);
+			assertEquals("merge", p.getFullMessage());
+
+			rw.markStart(p);
+			assertSame(p, rw.next());
+			assertEquals(c, rw.next());
+			assertEquals(b, rw.next());
+			assertEquals(a, rw.next());
+			assertNull(rw.next());
+		}
+	}
+
+	private CommitGraph write(Collection<? extends ObjectId> tips)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectReader reader = repo.newObjectReader()) {
+			new CommitGraphWriter(reader).write(NullProgressMonitor.INSTANCE,
+					out, tips);
+		}
+		return CommitGraph.read(out.toByteArray());
+	}
+
+	private void assertCommit(CommitGraph graph, RevCommit c, int generation)
+			throws IOException {
+		git.getRevWalk().parseBody(c);
+		int pos = graph.findGraphPosition(c);
+		assertTrue(pos >= 0);
+		assertEquals(c, graph.getObjectId(pos));
+		assertEquals(generation, graph.getGeneration(pos));
+		assertEquals(c.getCommitTime(), graph.getCommitTime(pos));
+
+		MutableObjectId id = new MutableObjectId();
+		graph.copyTreeTo(pos, id);
+		assertEquals(c.getTree(), id.toObjectId());
+
+		int[] parents = graph.getParentPositions(pos);
+		ObjectId[] actual = new ObjectId[parents.length];
+		for (int i = 0; i < parents.length; i++) {
+			actual[i] = graph.getObjectId(parents[i]);
+		}
+		assertArrayEquals(c.getParents(), actual);
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsAsyncObjectQueueTest {
+	private InMemoryRepository db;
+
+	private ExecutorService executor;
+
+	private Map<ObjectId, byte[]> blobs;
+
+	@Before
+	public void setUp() throws IOException {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20));
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		executor = Executors.newFixedThreadPool(4);
+		db.getObjectDatabase().getReaderOptions().setAsyncExecutor(executor)
+				.setAsyncReadLimit(3);
+
+		TestRng rng = new TestRng("DfsAsyncObjectQueueTest");
+		blobs = new HashMap<>();
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			for (int i = 0; i < 200; i++) {
+				byte[] data = rng.nextBytes(10 + i * 7);
+				blobs.put(ins.insert(Constants.OBJ_BLOB, data), data);
+			}
+			ins.flush();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		db.getObjectDatabase().getReaderOptions().setAsyncExecutor(null);
+	}
+
+	@Test
+	public void openLoadsEveryObject() throws IOException {
+		Map<ObjectId, byte[]> found = new HashMap<>();
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(blobs.keySet(),
+					true);
+			try {
+				while (q.next()) {
+					found.put(q.getCurrent().copy(), q.open().getCachedBytes());
+				}
+			} finally {
+				q.release();
+			}
+			DfsReaderIoStats stats = reader.getIoStats();
+			assertTrue(stats.getBlockCacheHits() + stats.getReadBlocksCount() > 0);
+		}
+		assertEquals(blobs.size(), found.size());
+		for (Map.Entry<ObjectId, byte[]> e : blobs.entrySet()) {
+			assertArrayEquals(e.getValue(), found.get(e.getKey()));
+		}
+	}
+
+	@Test
+	public void rejectedBatchesLoadOnCallerThread() throws IOException {
+		executor.shutdown();
+		Map<ObjectId, Long> found = new HashMap<>();
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			AsyncObjectSizeQueue<ObjectId> q = reader
+					.getObjectSize(blobs.keySet(), true);
+			try {
+				while (q.next()) {
+					found.put(q.getCurrent().copy(),
+							Long.valueOf(q.getSize()));
+				}
+			} finally {
+				q.release();
+			}
+		}
+		assertEquals(blobs.size(), found.size());
+	}
+
+	@Test
+	public void getObjectSizeReturnsEverySize() throws IOException {
+		Map<ObjectId, Long> found = new HashMap<>();
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			AsyncObjectSizeQueue<ObjectId> q = reader
+					.getObjectSize(blobs.keySet(), true);
+			try {
+				while (q.next()) {
+					found.put(q.getCurrent().copy(),
+							Long.valueOf(q.getSize()));
+				}
+			} finally {
+				q.release();
+			}
+		}
+		assertEquals(blobs.size(), found.size());
+		for (Map.Entry<ObjectId, byte[]> e : blobs.entrySet()) {
+			assertEquals(e.getValue().length,
+					found.get(e.getKey()).longValue());
+		}
+	}
+
+	@Test
+	public void openReportsMissingObject() throws IOException {
+		ObjectId missing = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		List<ObjectId> ids = new ArrayList<>(blobs.keySet());
+		ids.add(missing);
+
+		int loaded = 0;
+		boolean reported = false;
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(ids, true);
+			try {
+				while (q.next()) {
+					try {
+						q.open();
+						loaded++;
+					} catch (MissingObjectException e) {
+						assertEquals(missing, q.getObjectId());
+						reported = true;
+					}
+				}
+			} finally {
+				q.release();
+			}
+		}
+		assertTrue(reported);
+		assertEquals(blobs.size(), loaded);
+	}
+
+	@Test
+	public void getObjectSizeReportsMissingObject() throws IOException {
+		ObjectId missing = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		List<ObjectId> ids = new ArrayList<>();
+		ids.add(missing);
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			AsyncObjectSizeQueue<ObjectId> q = reader.getObjectSize(ids,
+					true);
+			try {
+				q.next();
+				fail("expected MissingObjectException");
+			} catch (MissingObjectException e) {
+				assertEquals(missing, e.getObjectId());
+			} finally {
+				q.release();
+			}
+			assertFalse(q.next());
+		}
+	}
+}
@@ -38,10 +38,14 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.internal.storage.dfs.DfsBlockCacheConfig.MB;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -85,4 +89,46 @@ public void validBlockSize() {
 
 		assertThat(config.getBlockSize(), is(65536));
 	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void shardsFromConfig() {
+		Config rc = new Config();
+		rc.setInt("core", "dfs", "blockCacheShards", 16);
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig().fromConfig(rc);
+
+		assertThat(config.getShards(), is(16));
+	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void partitionLimitsFromConfig() {
+		Config rc = new Config();
+		rc.setLong("core", "dfs", "idxBlockLimit", 4 * MB);
+		rc.setLong("core", "dfs", "bitmapBlockLimit", 2 * MB);
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig().fromConfig(rc);
+
+		assertThat(config.getPartitionLimit(PackExt.INDEX), is(4L * MB));
+		assertThat(config.getPartitionLimit(PackExt.BITMAP_INDEX),
+				is(2L * MB));
+		assertThat(config.getPartitionLimit(PackExt.PACK), is(0L));
+		assertThat(config.getPartitionLimits().size(), is(2));
+
+		config.setPartitionLimit(PackExt.INDEX, 0);
+		assertThat(config.getPartitionLimits().size(), is(1));
+	}
+
+	@Test
+	public void shardCountIsPowerOfTwoAndFitsBlockLimit() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig().setBlockSize(512)
+				.setBlockLimit(4 * 512).setShards(3));
+		assertEquals(2, DfsBlockCache.getInstance().getShardCount());
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig().setBlockSize(512)
+				.setBlockLimit(4 * 512).setShards(64));
+		assertEquals(4, DfsBlockCache.getInstance().getShardCount());
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		assertEquals(1, DfsBlockCache.getInstance().getShardCount());
+	}
 }
@@ -47,11 +47,17 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.LongStream;
 
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.junit.TestRng;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -66,6 +72,7 @@ public class DfsBlockCacheTest {
 	public TestName testName = new TestName();
 	private TestRng rng;
 	private DfsBlockCache cache;
+	private int shards = 1;
 
 	@Before
 	public void setUp() {
@@ -136,10 +143,116 @@ public void weirdBlockSize() throws Exception {
 		}
 	}
 
+	@Test
+	public void shardedStreamKeyReusesBlocks() throws Exception {
+		shards = 8;
+		resetCache();
+		assertEquals(8, cache.getShardCount());
+		streamKeyReusesBlocks();
+	}
+
+	@Test
+	public void shardedWeirdBlockSize() throws Exception {
+		shards = 8;
+		resetCache();
+		weirdBlockSize();
+		assertEquals(8, cache.getShardCount());
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void shardedConcurrentReadsLoadEachBlockOnce() throws Exception {
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		InMemoryRepository r1 = new InMemoryRepository(repo);
+		byte[] content = rng.nextBytes(424242);
+		ObjectId id;
+		try (ObjectInserter ins = r1.newObjectInserter()) {
+			id = ins.insert(OBJ_BLOB, content);
+			ins.flush();
+		}
+		shards = 4;
+		resetCache();
+
+		InMemoryRepository r2 = new InMemoryRepository(repo);
+		r2.getObjectDatabase().commitPack(r1.getObjectDatabase().listPacks(),
+				Collections.emptyList());
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[]>> reads = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				reads.add(pool.submit(() -> {
+					try (ObjectReader rdr = r2.newObjectReader()) {
+						return rdr.open(id, OBJ_BLOB).getBytes();
+					}
+				}));
+			}
+			for (Future<byte[]> f : reads) {
+				assertTrue(Arrays.equals(content, f.get()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		long blocks = LongStream.of(cache.getCurrentSize()).sum() / 512;
+		assertTrue(LongStream.of(cache.getMissCount()).sum() <= blocks + 8);
+		assertTrue(LongStream.of(cache.getHitCount()).sum() > 0);
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void partitionKeepsIndexWhilePackDataStreams() throws Exception {
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		InMemoryRepository r1 = new InMemoryRepository(repo);
+		List<byte[]> contents = new ArrayList<>();
+		List<ObjectId> ids = new ArrayList<>();
+		Random random = new Random(42);
+		try (ObjectInserter ins = r1.newObjectInserter()) {
+			for (int i = 0; i < 100; i++) {
+				byte[] content = new byte[2000];
+				random.nextBytes(content);
+				contents.add(content);
+				ids.add(ins.insert(OBJ_BLOB, content));
+			}
+			ins.flush();
+		}
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(64 * 512)
+				.setPartitionLimit(PackExt.INDEX, 8 * 512));
+		cache = DfsBlockCache.getInstance();
+
+		InMemoryRepository r2 = new InMemoryRepository(repo);
+		r2.getObjectDatabase().commitPack(r1.getObjectDatabase().listPacks(),
+				Collections.emptyList());
+		try (ObjectReader rdr = r2.newObjectReader()) {
+			for (int i = 0; i < ids.size(); i++) {
+				byte[] actual = rdr.open(ids.get(i), OBJ_BLOB).getBytes();
+				assertTrue(Arrays.equals(contents.get(i), actual));
+			}
+		}
+
+		int pack = PackExt.PACK.getPosition();
+		int idx = PackExt.INDEX.getPosition();
+		assertTrue(cache.getEvictions()[pack] > 0);
+		assertEquals(0, cache.getEvictions()[idx]);
+		assertTrue(cache.getCurrentSize()[idx] > 0);
+		assertTrue(cache.getFillPercentage(PackExt.INDEX) > 0);
+		assertTrue(cache.getFillPercentage(PackExt.PACK) <= 100);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void partitionsMustLeaveSharedSpace() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(4 * 512)
+				.setPartitionLimit(PackExt.INDEX, 4 * 512));
+	}
+
 	private void resetCache() {
 		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
 				.setBlockSize(512)
-				.setBlockLimit(1 << 20));
+				.setBlockLimit(1 << 20)
+				.setShards(shards));
 		cache = DfsBlockCache.getInstance();
 	}
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DfsDiskBlockCacheTest {
+	private static final int BLOCK_SIZE = 512;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File dir;
+
+	private DfsRepositoryDescription repo;
+
+	private InMemoryRepository src;
+
+	private List<ObjectId> ids;
+
+	private List<byte[]> contents;
+
+	private int firstPackId;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = tmp.newFolder("blocks");
+		repo = new DfsRepositoryDescription("test");
+		firstPackId = InMemoryRepository.packId.get();
+		ids = new ArrayList<>();
+		contents = new ArrayList<>();
+		src = createSource(new Random(42), 1000, ids, contents, true);
+	}
+
+	private InMemoryRepository createSource(Random random, int size,
+			List<ObjectId> newIds, List<byte[]> newContents,
+			boolean persistent) throws IOException {
+		InMemoryRepository r = new InMemoryRepository(repo);
+		r.getObjectDatabase().setPersistentStreamKeysForTest(persistent);
+		try (ObjectInserter ins = r.newObjectInserter()) {
+			for (int i = 0; i < 20; i++) {
+				byte[] content = new byte[size];
+				random.nextBytes(content);
+				newContents.add(content);
+				newIds.add(ins.insert(OBJ_BLOB, content));
+			}
+			ins.flush();
+		}
+		return r;
+	}
+
+	@After
+	public void tearDown() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+	}
+
+	@Test
+	public void blocksSurviveRestart() throws Exception {
+		restart(1 << 20);
+		assertTrue(readAll() > 0);
+		assertEquals(0, diskHits());
+		DfsBlockCache.getInstance().diskCache.flush();
+
+		restart(1 << 20);
+		assertEquals(0, readAll());
+		assertTrue(diskHits() > 0);
+	}
+
+	@Test
+	public void corruptBlocksAreReadAgain() throws Exception {
+		restart(1 << 20);
+		readAll();
+		DfsBlockCache.getInstance().diskCache.flush();
+		List<File> files = blockFiles();
+		assertTrue(files.size() > 0);
+		for (File f : files) {
+			try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+				raf.seek(raf.length() - 1);
+				int b = raf.read();
+				raf.seek(raf.length() - 1);
+				raf.write(b ^ 0xff);
+			}
+		}
+
+		restart(1 << 20);
+		assertTrue(readAll() > 0);
+		assertEquals(0, diskHits());
+	}
+
+	@Test
+	public void corruptDataLengthIsReadAgain() throws Exception {
+		restart(1 << 20);
+		readAll();
+		DfsBlockCache.getInstance().diskCache.flush();
+		List<File> files = blockFiles();
+		assertTrue(files.size() > 0);
+		for (int i = 0; i < files.size(); i++) {
+			try (RandomAccessFile raf = new RandomAccessFile(files.get(i),
+					"rw")) {
+				// magic, name, position, length, block size and checksum
+				raf.seek(4);
+				raf.seek(4 + 2 + raf.readUnsignedShort() + 8 + 8 + 4);
+				raf.seek(raf.getFilePointer() + 1 + raf.readUnsignedByte());
+				raf.writeInt(i % 2 == 0 ? Integer.MAX_VALUE : -1);
+			}
+		}
+
+		restart(1 << 20);
+		assertTrue(readAll() > 0);
+		assertEquals(0, diskHits());
+	}
+
+	@Test
+	public void blocksAreNotPersistentByDefault() throws Exception {
+		List<ObjectId> otherIds = new ArrayList<>();
+		List<byte[]> otherContents = new ArrayList<>();
+		InMemoryRepository other = createSource(new Random(7), 1000,
+				otherIds, otherContents, false);
+		restart(1 << 20);
+		assertTrue(readAll(other, otherIds, otherContents) > 0);
+		DfsBlockCache.getInstance().diskCache.flush();
+		assertEquals(0, blockFiles().size());
+	}
+
+	@Test
+	public void reusedPackNameIsReadAgain() throws Exception {
+		restart(1 << 20);
+		readAll();
+		DfsBlockCache.getInstance().diskCache.flush();
+		assertTrue(blockFiles().size() > 0);
+
+		// A restarted process numbers its packs from the start again, and
+		// gives the same names to packs of other content.
+		InMemoryRepository.packId.set(firstPackId);
+		List<ObjectId> otherIds = new ArrayList<>();
+		List<byte[]> otherContents = new ArrayList<>();
+		InMemoryRepository other = createSource(new Random(7), 1500,
+				otherIds, otherContents, true);
+		assertEquals(src.getObjectDatabase().listPacks().get(0)
+				.getFileName(PackExt.PACK),
+				other.getObjectDatabase().listPacks().get(0)
+						.getFileName(PackExt.PACK));
+
+		restart(1 << 20);
+		assertTrue(readAll(other, otherIds, otherContents) > 0);
+		assertEquals(0, diskHits());
+	}
+
+	@Test
+	public void limitIsEnforced() throws Exception {
+		long limit = 4 * BLOCK_SIZE;
+		restart(limit);
+		readAll();
+		DfsDiskBlockCache disk = DfsBlockCache.getInstance().diskCache;
+		disk.flush();
+		assertTrue(disk.getLiveBytes() <= limit);
+		long onDisk = 0;
+		for (File f : blockFiles()) {
+			onDisk += f.length();
+		}
+		assertEquals(disk.getLiveBytes(), onDisk);
+	}
+
+	private void restart(long diskLimit) {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(BLOCK_SIZE)
+				.setBlockLimit(1 << 20)
+				.setDiskCacheDirectory(dir)
+				.setDiskCacheLimit(diskLimit));
+	}
+
+	/** @return number of blocks read from the backing store. */
+	private long readAll() throws IOException {
+		return readAll(src, ids, contents);
+	}
+
+	private long readAll(InMemoryRepository from, List<ObjectId> objects,
+			List<byte[]> expected) throws IOException {
+		InMemoryRepository db = new InMemoryRepository(repo);
+		db.getObjectDatabase().setReadableChannelBlockSizeForTest(BLOCK_SIZE);
+		db.getObjectDatabase().commitPack(
+				from.getObjectDatabase().listPacks(),
+				Collections.emptyList());
+		try (DfsReader rdr = db.getObjectDatabase().newReader()) {
+			for (int i = 0; i < objects.size(); i++) {
+				assertArrayEquals(expected.get(i),
+						rdr.open(objects.get(i), OBJ_BLOB).getBytes());
+			}
+			return rdr.stats.readBlock;
+		}
+	}
+
+	private static long diskHits() {
+		return LongStream.of(DfsBlockCache.getInstance().getDiskHitCount())
+				.sum();
+	}
+
+	private List<File> blockFiles() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			return paths.filter(Files::isRegularFile).map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+}
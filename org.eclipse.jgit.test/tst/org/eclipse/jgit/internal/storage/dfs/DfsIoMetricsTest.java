@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC;
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsIoMetricsTest {
+	private InMemoryRepository db;
+
+	private List<ObjectId> blobs;
+
+	@Before
+	public void setUp() throws IOException {
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+
+		TestRng rng = new TestRng("DfsIoMetricsTest");
+		blobs = new ArrayList<>();
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			for (int i = 0; i < 50; i++) {
+				blobs.add(ins.insert(Constants.OBJ_BLOB,
+						rng.nextBytes(100 + i * 37)));
+			}
+			ins.flush();
+		}
+
+		// Start from a cold cache so that reads have to hit the packs.
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20));
+		db.getObjectDatabase().clearCache();
+	}
+
+	@Test
+	public void closedReadersAreFoldedIntoRepositoryAndGlobal()
+			throws IOException {
+		DfsIoMetrics metrics = db.getObjectDatabase().getIoMetrics();
+		long globalBefore = DfsIoMetrics.getGlobal().getTotals()
+				.getReadBlocksCount();
+
+		DfsReaderIoStats stats;
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			for (ObjectId id : blobs) {
+				reader.open(id).getCachedBytes();
+			}
+			stats = reader.getIoStats();
+		}
+		assertTrue(stats.getReadBlocksCount() > 0);
+		assertEquals(stats.getReadBlocksCount(),
+				stats.getReadBlocksCount(INSERT));
+		assertEquals(stats.getReadBlocksBytes(),
+				stats.getReadBlocksBytes(INSERT));
+		assertEquals(0, stats.getReadBlocksCount(GC));
+		assertEquals(stats.getReadBlocksCount(),
+				sum(stats.getReadBlocksLatencyHistogram()));
+		// Object filters are loaded like indexes, and counted alongside.
+		assertTrue(sum(stats.getReadIndexLatencyHistogram()) >= stats
+				.getReadPackIndexCount());
+
+		DfsReaderIoStats totals = metrics.getTotals();
+		assertEquals(stats.getReadBlocksCount(), totals.getReadBlocksCount());
+		assertEquals(stats.getReadBlocksBytes(), totals.getReadBlocksBytes());
+		assertEquals(stats.getBlockCacheHits(), totals.getBlockCacheHits());
+		assertEquals(stats.getReadPackIndexCount(),
+				totals.getReadPackIndexCount());
+		assertTrue(DfsIoMetrics.getGlobal().getTotals()
+				.getReadBlocksCount() >= globalBefore
+						+ stats.getReadBlocksCount());
+	}
+
+	@Test
+	public void closingTwiceReportsOnce() throws IOException {
+		DfsReader reader = db.getObjectDatabase().newReader();
+		reader.open(blobs.get(0)).getCachedBytes();
+		reader.close();
+		long hits = db.getObjectDatabase().getIoMetrics().getTotals()
+				.getBlockCacheHits();
+		reader.close();
+		assertEquals(hits, db.getObjectDatabase().getIoMetrics().getTotals()
+				.getBlockCacheHits());
+	}
+
+	@Test
+	public void listenerSeesEveryClosedReader() throws IOException {
+		List<DfsRepositoryDescription> seen = new ArrayList<>();
+		List<DfsReaderIoStats> reported = new ArrayList<>();
+		DfsIoMetrics.Listener l = (repo, stats) -> {
+			seen.add(repo);
+			reported.add(stats);
+		};
+		DfsIoMetrics metrics = db.getObjectDatabase().getIoMetrics();
+		metrics.addListener(l);
+		try {
+			try (DfsReader reader = db.getObjectDatabase().newReader()) {
+				reader.open(blobs.get(1)).getCachedBytes();
+			}
+			try (DfsReader reader = db.getObjectDatabase().newReader()) {
+				reader.has(blobs.get(2));
+			}
+		} finally {
+			metrics.removeListener(l);
+		}
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			reader.has(blobs.get(3));
+		}
+
+		assertEquals(2, seen.size());
+		assertSame(db.getDescription(), seen.get(0));
+		assertTrue(reported.get(0).getBlockCacheHits()
+				+ reported.get(0).getReadBlocksCount() > 0);
+	}
+
+	@Test
+	public void concurrentReadersAreAllCounted() throws Exception {
+		DfsIoMetrics metrics = new DfsIoMetrics(null);
+		DfsReaderIoStats.Accumulator one = new DfsReaderIoStats.Accumulator();
+		one.blockCacheHit = 3;
+		one.recordBlockRead(100);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					metrics.add(db.getDescription(), one);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		DfsReaderIoStats totals = metrics.getTotals();
+		assertEquals(8 * 1000 * 3, totals.getBlockCacheHits());
+		assertEquals(8 * 1000 * 100, totals.getReadBlocksMicros());
+		assertEquals(8 * 1000, sum(totals.getReadBlocksLatencyHistogram()));
+	}
+
+	private static long sum(long[] histogram) {
+		assertEquals(DfsReaderIoStats.HISTOGRAM_BUCKETS, histogram.length);
+		long n = 0;
+		for (long v : histogram) {
+			n += v;
+		}
+		return n;
+	}
+}
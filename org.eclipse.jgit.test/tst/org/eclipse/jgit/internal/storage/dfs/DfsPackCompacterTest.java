@@ -45,13 +45,21 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Before;
 import org.junit.Test;
@@ -131,6 +139,157 @@ public void testEstimateGcPackSizeWithAnExistingGcPack() throws Exception {
 				pack.getPackDescription().getEstimatedPackSize());
 	}
 
+	@Test
+	public void testGeometricSplit() {
+		assertEquals(0, DfsPackCompactor.geometricSplit(new long[0], 2));
+		assertEquals(0, DfsPackCompactor.geometricSplit(new long[] { 10 }, 2));
+		assertEquals(0,
+				DfsPackCompactor.geometricSplit(new long[] { 1, 2, 4, 8 }, 2));
+		assertEquals(2,
+				DfsPackCompactor.geometricSplit(new long[] { 3, 4, 100 }, 2));
+		assertEquals(3,
+				DfsPackCompactor.geometricSplit(new long[] { 3, 4, 10 }, 2));
+		assertEquals(4, DfsPackCompactor
+				.geometricSplit(new long[] { 1, 100, 150, 400, 5000 }, 2));
+		assertEquals(4, DfsPackCompactor
+				.geometricSplit(new long[] { 1, 100, 150, 400 }, 1000));
+		assertEquals(0,
+				DfsPackCompactor.geometricSplit(new long[] { 1, 2000 }, 1000));
+	}
+
+	@Test
+	public void testGeometricCompactsOnlySmallestPacks() throws Exception {
+		insertPack(1000);
+		insertPack(1100);
+		insertPack(50000);
+		assertEquals(3, odb.getPacks().length);
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo)
+				.setGeometricFactor(2);
+		compactor.autoAdd();
+		assertEquals(2, compactor.getSourcePacks().size());
+		long expected = 0;
+		for (DfsPackDescription d : compactor.getSourcePacks()) {
+			expected += d.getFileSize(PACK);
+		}
+		compactor.compact(null);
+		odb.clearCache();
+
+		assertEquals(expected, compactor.getBytesRewritten());
+		DfsPackFile[] packs = odb.getPacks();
+		assertEquals(2, packs.length);
+		long[] sizes = new long[packs.length];
+		for (int i = 0; i < packs.length; i++) {
+			sizes[i] = packs[i].getPackDescription().getFileSize(PACK);
+		}
+		Arrays.sort(sizes);
+		assertTrue(sizes[1] >= 2 * sizes[0]);
+		assertEquals(0, DfsPackCompactor.geometricSplit(sizes, 2));
+	}
+
+	@Test
+	public void testGeometricLeavesProgressionAlone() throws Exception {
+		insertPack(1000);
+		insertPack(5000);
+		insertPack(50000);
+		int before = odb.getPacks().length;
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo)
+				.setGeometricFactor(2);
+		compactor.autoAdd();
+		compactor.compact(null);
+		odb.clearCache();
+
+		assertTrue(compactor.getNewPacks().isEmpty());
+		assertEquals(0, compactor.getBytesRewritten());
+		assertEquals(before, odb.getPacks().length);
+	}
+
+	@Test
+	public void testBitmapWrittenWhenAllPacksCompacted() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		compact();
+
+		assertEquals(1, odb.getPacks().length);
+		DfsPackFile pack = odb.getPacks()[0];
+		assertTrue(pack.getPackDescription().hasFileExt(BITMAP_INDEX));
+		assertBitmapContains(pack, commit1, commit0);
+	}
+
+	@Test
+	public void testBitmapRemappedFromGcPack() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		git.update("master", commit0);
+		gc();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		// The GC pack is small enough for autoAdd, so everything is combined.
+		compact();
+
+		assertEquals(1, odb.getPacks().length);
+		DfsPackFile pack = odb.getPacks()[0];
+		assertEquals(COMPACT, pack.getPackDescription().getPackSource());
+		assertTrue(pack.getPackDescription().hasFileExt(BITMAP_INDEX));
+		assertBitmapContains(pack, commit1, commit0);
+	}
+
+	@Test
+	public void testNoBitmapWhenHistoryOutsideCompactedPacks()
+			throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		git.update("master", commit0);
+		gc();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (pack.getPackDescription().getPackSource() == INSERT) {
+				compactor.add(pack);
+			} else {
+				compactor.exclude(pack);
+			}
+		}
+		compactor.compact(null);
+		odb.clearCache();
+
+		assertEquals(1, compactor.getNewPacks().size());
+		assertFalse(compactor.getNewPacks().get(0).hasFileExt(BITMAP_INDEX));
+	}
+
+	private void assertBitmapContains(DfsPackFile pack, RevCommit tip,
+			RevCommit... reachable) throws IOException {
+		try (DfsReader ctx = odb.newReader()) {
+			PackBitmapIndex bitmaps = pack.getBitmapIndex(ctx);
+			assertNotNull(bitmaps);
+			assertNotNull(bitmaps.getBitmap(tip));
+			for (RevCommit c : reachable) {
+				int pos = bitmaps.findPosition(c);
+				assertTrue(pos >= 0);
+				assertTrue(bitmaps.getBitmap(tip).get(pos));
+			}
+		}
+	}
+
+	private void gc() throws IOException {
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.pack(null);
+		odb.clearCache();
+	}
+
+	private void insertPack(int size) throws IOException {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		try (ObjectInserter ins = odb.newInserter()) {
+			ins.insert(OBJ_BLOB, data);
+			ins.flush();
+		}
+	}
+
 	private TestRepository<InMemoryRepository>.CommitBuilder commit() {
 		return git.commit();
 	}
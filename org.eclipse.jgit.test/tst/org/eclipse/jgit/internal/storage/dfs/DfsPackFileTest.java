@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.LongList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsPackFileTest {
+	private static final int BLOCK_SIZE = 512;
+
+	private DfsRepositoryDescription repo;
+
+	private InMemoryRepository src;
+
+	private List<ObjectId> ids;
+
+	private List<byte[]> contents;
+
+	private DfsBlockCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		repo = new DfsRepositoryDescription("test");
+		src = new InMemoryRepository(repo);
+		Random random = new Random(42);
+		ids = new ArrayList<>();
+		contents = new ArrayList<>();
+		try (ObjectInserter ins = src.newObjectInserter()) {
+			for (int i = 0; i < 50; i++) {
+				byte[] content = new byte[700];
+				random.nextBytes(content);
+				contents.add(content);
+				ids.add(ins.insert(OBJ_BLOB, content));
+			}
+			ins.flush();
+		}
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(BLOCK_SIZE)
+				.setBlockLimit(1 << 20));
+		cache = DfsBlockCache.getInstance();
+	}
+
+	@Test
+	public void readVectoredDefaultReadsEachRange() throws IOException {
+		InMemoryRepository db = open();
+		DfsPackDescription desc = db.getObjectDatabase().listPacks().get(0);
+		byte[] all = new byte[(int) desc.getFileSize(PackExt.PACK)];
+		try (ReadableChannel rc = db.getObjectDatabase().openFile(desc,
+				PackExt.PACK)) {
+			rc.readVectored(new long[] { 0 },
+					new ByteBuffer[] { ByteBuffer.wrap(all) });
+
+			ByteBuffer a = ByteBuffer.allocate(100);
+			ByteBuffer b = ByteBuffer.allocate(200);
+			ByteBuffer tail = ByteBuffer.allocate(50);
+			rc.readVectored(new long[] { 10, 1000, all.length - 20 },
+					new ByteBuffer[] { a, b, tail });
+			assertArrayEquals(Arrays.copyOfRange(all, 10, 110), a.array());
+			assertArrayEquals(Arrays.copyOfRange(all, 1000, 1200),
+					b.array());
+			assertEquals(20, tail.position());
+		}
+	}
+
+	@Test
+	public void loadBlocksReadsMissingBlocksOnce() throws IOException {
+		InMemoryRepository db = open();
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		try (DfsReader reader = db.getObjectDatabase().newReader()) {
+			LongList ranges = new LongList();
+			ranges.add(100);
+			ranges.add(1500);
+			ranges.add(1400);
+			ranges.add(2000);
+			ranges.add(5000);
+			ranges.add(5100);
+			pack.loadBlocks(ranges, reader);
+
+			// Blocks 0..3, and block 9 with the gap 4..8 too wide to bridge.
+			long[] expected = { 0, 512, 1024, 1536, 4608 };
+			for (long b : expected) {
+				assertTrue(cache.contains(pack.key, b));
+			}
+			assertEquals(expected.length, reader.stats.readBlock);
+
+			pack.loadBlocks(ranges, reader);
+			assertEquals(expected.length, reader.stats.readBlock);
+		}
+	}
+
+	@Test
+	public void writeObjectsLoadsBlocksAhead() throws Exception {
+		InMemoryRepository db = open();
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (DfsReader reader = db.getObjectDatabase().newReader();
+				PackWriter pw = new PackWriter(reader);
+				RevWalk rw = new RevWalk(reader)) {
+			List<RevObject> objects = new ArrayList<>();
+			for (ObjectId id : ids) {
+				objects.add(rw.lookupBlob(id));
+			}
+			pw.preparePack(objects.iterator());
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, buf);
+
+			long blocks = (pack.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			assertTrue(reader.stats.readBlock <= blocks);
+		}
+
+		InMemoryRepository dst = new InMemoryRepository(
+				new DfsRepositoryDescription("dst"));
+		try (ObjectInserter ins = dst.newObjectInserter()) {
+			PackParser p = ins.newPackParser(
+					new ByteArrayInputStream(buf.toByteArray()));
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+		try (ObjectReader rdr = dst.newObjectReader()) {
+			for (int i = 0; i < ids.size(); i++) {
+				assertArrayEquals(contents.get(i),
+						rdr.open(ids.get(i), OBJ_BLOB).getBytes());
+			}
+		}
+	}
+
+	private InMemoryRepository open() throws IOException {
+		InMemoryRepository db = new InMemoryRepository(repo);
+		db.getObjectDatabase().setReadableChannelBlockSizeForTest(BLOCK_SIZE);
+		db.getObjectDatabase().commitPack(
+				src.getObjectDatabase().listPacks(),
+				Collections.emptyList());
+		return db;
+	}
+}
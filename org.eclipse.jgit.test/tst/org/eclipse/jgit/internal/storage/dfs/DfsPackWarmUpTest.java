@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsPackWarmUpTest {
+	private TestRepository<InMemoryRepository> git;
+
+	private InMemoryRepository repo;
+
+	private DfsObjDatabase odb;
+
+	private RevCommit tip;
+
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		git = new TestRepository<>(repo);
+		odb = repo.getObjectDatabase();
+		pool = Executors.newFixedThreadPool(2);
+
+		RevCommit c0 = git.commit().message("0").create();
+		tip = git.commit().message("1").parent(c0).create();
+		git.update("master", tip);
+	}
+
+	@After
+	public void tearDown() {
+		odb.getReaderOptions().setWarmUpExecutor(null);
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void indexesLoadedOnDemandWithoutWarmUp() throws IOException {
+		coldRescan();
+		try (DfsReader ctx = odb.newReader()) {
+			assertTrue(ctx.has(tip));
+			assertTrue(ctx.getIoStats().getReadPackIndexCount() > 0);
+		}
+	}
+
+	@Test
+	public void rescanWarmsIndexesOfNewPacks() throws IOException {
+		odb.getReaderOptions().setWarmUpExecutor(Runnable::run);
+		coldRescan();
+		try (DfsReader ctx = odb.newReader()) {
+			assertTrue(ctx.has(tip));
+			assertEquals(0, ctx.getIoStats().getReadPackIndexCount());
+		}
+	}
+
+	@Test
+	public void gcWarmsBitmapBeforeCommit() throws IOException {
+		odb.getReaderOptions().setWarmUpExecutor(pool);
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.pack(null);
+
+		DfsPackFile[] packs = odb.getPacks();
+		assertEquals(1, packs.length);
+		assertTrue(packs[0].getPackDescription().hasFileExt(BITMAP_INDEX));
+		try (DfsReader ctx = odb.newReader()) {
+			assertNotNull(ctx.getBitmapIndex());
+			assertEquals(0, ctx.getIoStats().getReadBitmapIndexCount());
+			assertEquals(0, ctx.getIoStats().getReadPackIndexCount());
+		}
+	}
+
+	@Test
+	public void committedPacksAreNotWarmedAgain() throws IOException {
+		AtomicInteger submitted = new AtomicInteger();
+		odb.getReaderOptions().setWarmUpExecutor(r -> {
+			submitted.incrementAndGet();
+			pool.execute(r);
+		});
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.pack(null);
+		int afterCommit = submitted.get();
+		assertTrue(afterCommit > 0);
+
+		odb.getPacks();
+		assertEquals(afterCommit, submitted.get());
+	}
+
+	@Test
+	public void replacedCommittedPacksAreForgotten() throws IOException {
+		odb.getReaderOptions().setWarmUpExecutor(Runnable::run);
+		DfsPackDescription pack = commitNewPack();
+		assertEquals(1, odb.getCommittedPackCount());
+
+		odb.commitPack(Collections.<DfsPackDescription> emptyList(),
+				Collections.singletonList(pack));
+		assertEquals(0, odb.getCommittedPackCount());
+	}
+
+	@Test
+	public void unlistedCommittedPacksAreForgotten() throws IOException {
+		odb.getReaderOptions().setWarmUpExecutor(Runnable::run);
+		DfsPackDescription pack = commitNewPack();
+		assertEquals(1, odb.getCommittedPackCount());
+
+		// Removed behind the back of this instance, e.g. by another server.
+		odb.commitPackImpl(Collections.<DfsPackDescription> emptyList(),
+				Collections.singletonList(pack));
+		odb.getPacks();
+		assertEquals(0, odb.getCommittedPackCount());
+	}
+
+	@Test
+	public void rejectedWarmUpIsIgnored() throws IOException {
+		Executor full = r -> {
+			throw new RejectedExecutionException();
+		};
+		odb.getReaderOptions().setWarmUpExecutor(full);
+		coldRescan();
+		try (DfsReader ctx = odb.newReader()) {
+			assertTrue(ctx.has(tip));
+		}
+	}
+
+	private DfsPackDescription commitNewPack() throws IOException {
+		// Never written; warming it up fails and is ignored.
+		DfsPackDescription pack = odb.newPack(INSERT);
+		pack.addFileExt(PACK);
+		odb.commitPack(Collections.singletonList(pack), null);
+		return pack;
+	}
+
+	private void coldRescan() throws IOException {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		odb.clearCache();
+		odb.getPacks();
+	}
+}
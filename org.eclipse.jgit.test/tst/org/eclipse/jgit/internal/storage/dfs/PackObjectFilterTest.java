@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_FILTER;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_WRITE_OBJECT_FILTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.util.NB;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackObjectFilterTest {
+	private InMemoryRepository db;
+
+	private TestRng rng;
+
+	@Before
+	public void setUp() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		db.getConfig().setBoolean(CONFIG_CORE_SECTION, CONFIG_DFS_SECTION,
+				CONFIG_KEY_WRITE_OBJECT_FILTER, true);
+		rng = new TestRng("PackObjectFilterTest");
+	}
+
+	@Test
+	public void noFalseNegativesAndFewFalsePositives() throws IOException {
+		List<ObjectId> objects = insert(2000);
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		assertTrue(pack.getPackDescription().hasFileExt(OBJECT_FILTER));
+
+		try (DfsReader ctx = db.getObjectDatabase().newReader()) {
+			PackObjectFilter filter = pack.getObjectFilter(ctx);
+			assertNotNull(filter);
+			for (ObjectId id : objects) {
+				assertTrue(filter.mightContain(id));
+			}
+
+			int falsePositives = 0;
+			for (int i = 0; i < 10000; i++) {
+				if (filter.mightContain(ObjectId.fromRaw(rng.nextBytes(20)))) {
+					falsePositives++;
+				}
+			}
+			// About 1% is expected at 10 bits per object.
+			assertTrue("false positives: " + falsePositives,
+					falsePositives < 300);
+		}
+	}
+
+	@Test
+	public void missingObjectsSkipPackIndexes() throws IOException {
+		List<ObjectId> first = insert(10);
+		List<ObjectId> second = insert(10);
+		coldCache();
+
+		try (DfsReader ctx = db.getObjectDatabase().newReader()) {
+			assertFalse(ctx.has(ObjectId.fromRaw(rng.nextBytes(20))));
+			assertEquals(0, ctx.getIoStats().getReadPackIndexCount());
+			assertEquals(2, ctx.getIoStats().getObjectFilterSkips());
+
+			assertTrue(ctx.has(first.get(3)));
+			assertTrue(ctx.has(second.get(3)));
+			assertEquals(2, ctx.getIoStats().getReadPackIndexCount());
+		}
+	}
+
+	@Test
+	public void disabledByConfig() throws IOException {
+		db.getConfig().setBoolean(CONFIG_CORE_SECTION, CONFIG_DFS_SECTION,
+				CONFIG_KEY_WRITE_OBJECT_FILTER, false);
+		List<ObjectId> objects = insert(10);
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		assertFalse(pack.getPackDescription().hasFileExt(OBJECT_FILTER));
+
+		coldCache();
+		try (DfsReader ctx = db.getObjectDatabase().newReader()) {
+			assertTrue(ctx.has(objects.get(0)));
+			assertFalse(ctx.has(ObjectId.fromRaw(rng.nextBytes(20))));
+			assertEquals(0, ctx.getIoStats().getObjectFilterSkips());
+		}
+	}
+
+	@Test
+	public void disabledByDefault() throws IOException {
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		insert(10);
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		assertFalse(pack.getPackDescription().hasFileExt(OBJECT_FILTER));
+	}
+
+	@Test
+	public void gcWritesFilter() throws IOException {
+		List<ObjectId> objects = insert(10);
+		DfsGarbageCollector gc = new DfsGarbageCollector(db);
+		gc.pack(null);
+
+		for (DfsPackFile pack : db.getObjectDatabase().getPacks()) {
+			assertTrue(pack.getPackDescription().hasFileExt(OBJECT_FILTER));
+		}
+		try (DfsReader ctx = db.getObjectDatabase().newReader()) {
+			for (ObjectId id : objects) {
+				assertTrue(ctx.has(id));
+			}
+		}
+	}
+
+	@Test
+	public void corruptBlockCountIsRejected() {
+		for (int blocks : new int[] { Integer.MAX_VALUE, 1 << 28, 2 }) {
+			byte[] file = new byte[12 + 64];
+			System.arraycopy(Constants.encodeASCII("PFLT"), 0, file, 0, 4);
+			NB.encodeInt32(file, 4, 1);
+			NB.encodeInt32(file, 8, blocks);
+			try {
+				PackObjectFilter.read(new ByteArrayInputStream(file),
+						file.length);
+				fail("accepted " + blocks + " blocks");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	private List<ObjectId> insert(int count) throws IOException {
+		List<ObjectId> ids = new ArrayList<>(count);
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			for (int i = 0; i < count; i++) {
+				ids.add(ins.insert(Constants.OBJ_BLOB, rng.nextBytes(50)));
+			}
+			ins.flush();
+		}
+		return ids;
+	}
+
+	private void coldCache() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		db.getObjectDatabase().clearCache();
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.Test;
+
+public class GcReverseIndexTest extends GcTestCase {
+	@Test
+	public void reverseIndexNotWrittenByDefault() throws Exception {
+		tr.branch("master").commit().add("A", "A").create();
+		gc.gc();
+		assertFalse(revFile().exists());
+	}
+
+	@Test
+	public void gcWritesReverseIndex() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.exists());
+		PackIndex idx = PackIndex.open(idxFile());
+		PackReverseIndex.verify(rev, idx);
+		PackReverseIndex computed = new PackReverseIndex(idx);
+		for (boolean mmap : new boolean[] { false, true }) {
+			PackReverseIndex read = PackReverseIndex.open(rev, idx, mmap);
+			for (MutableEntry me : idx) {
+				assertEquals(me.toObjectId(), read.findObject(me.getOffset()));
+				assertEquals(computed.findNextOffset(me.getOffset(), 100),
+						read.findNextOffset(me.getOffset(), 100));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsReverseIndexOfOtherPack() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.setWritable(true));
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			// flip a byte of the pack checksum in the trailer
+			long pos = f.length() - 40;
+			f.seek(pos);
+			int b = f.read();
+			f.seek(pos);
+			f.write(b ^ 0xff);
+		}
+		updateFileChecksum(rev);
+		assertRejected(rev);
+	}
+
+	@Test
+	public void verifyRejectsBadFileChecksum() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.setWritable(true));
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			long pos = f.length() - 1;
+			f.seek(pos);
+			int b = f.read();
+			f.seek(pos);
+			f.write(b ^ 0xff);
+		}
+		assertVerifyFails(rev);
+	}
+
+	@Test
+	public void verifyRejectsPositionsOutOfOffsetOrder() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.setWritable(true));
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			// swap the first two positions
+			f.seek(PackReverseIndex.HEADER_SIZE);
+			int first = f.readInt();
+			int second = f.readInt();
+			f.seek(PackReverseIndex.HEADER_SIZE);
+			f.writeInt(second);
+			f.writeInt(first);
+		}
+		updateFileChecksum(rev);
+		assertVerifyFails(rev);
+	}
+
+	@Test
+	public void verifyRejectsPositionOutOfRange() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.setWritable(true));
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			f.seek(PackReverseIndex.HEADER_SIZE);
+			f.writeInt(Integer.MAX_VALUE);
+		}
+		updateFileChecksum(rev);
+		assertVerifyFails(rev);
+	}
+
+	@Test
+	public void corruptReverseIndexIsRecomputed() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		File rev = revFile();
+		assertTrue(rev.setWritable(true));
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			f.writeInt(0);
+		}
+
+		PackFile pack = new PackFile(extFile(".pack"),
+				PackExt.INDEX.getBit() | PackExt.REVERSE_INDEX.getBit());
+		try {
+			for (MutableEntry me : PackIndex.open(idxFile())) {
+				assertEquals(me.toObjectId(),
+						pack.findObjectForOffset(me.getOffset()));
+			}
+		} finally {
+			pack.close();
+		}
+	}
+
+	@Test
+	public void closeReleasesMappedReverseIndex() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		gc.gc();
+
+		PackIndex idx = PackIndex.open(idxFile());
+		PackReverseIndex read = PackReverseIndex.open(revFile(), idx, true);
+		long offset = idx.iterator().next().getOffset();
+		assertEquals(idx.iterator().next().toObjectId(),
+				read.findObject(offset));
+		read.close();
+		try {
+			read.findObject(offset);
+			fail("read after close");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void orphanReverseIndexDeleted() throws Exception {
+		createHistory();
+		enableReverseIndex();
+		File packDir = repo.getObjectDatabase().getPackDirectory();
+		File orphan = new File(packDir, "pack-1.rev");
+		assertTrue(packDir.mkdirs() || packDir.isDirectory());
+		assertTrue(orphan.createNewFile());
+		gc.gc();
+
+		assertFalse(orphan.exists());
+		assertTrue(revFile().exists());
+	}
+
+	private void assertRejected(File rev) throws IOException {
+		PackIndex idx = PackIndex.open(idxFile());
+		for (boolean mmap : new boolean[] { false, true }) {
+			try {
+				PackReverseIndex.open(rev, idx, mmap);
+				fail("corrupt reverse index not detected");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		assertVerifyFails(rev);
+	}
+
+	private void assertVerifyFails(File rev) throws IOException {
+		try {
+			PackReverseIndex.verify(rev, PackIndex.open(idxFile()));
+			fail("corrupt reverse index not detected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void updateFileChecksum(File rev) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(rev, "rw")) {
+			byte[] content = new byte[(int) f.length() - 20];
+			f.readFully(content);
+			MessageDigest md = Constants.newMessageDigest();
+			md.update(content);
+			f.write(md.digest());
+		}
+	}
+
+	private void createHistory() throws Exception {
+		RevCommit a = tr.branch("master").commit().add("A", "A").create();
+		tr.branch("master").commit().add("A", "A2").add("B", "B").create();
+		tr.branch("side").commit().parent(a).add("C", "C").create();
+	}
+
+	private void enableReverseIndex() {
+		PackConfig pc = new PackConfig(repo);
+		pc.setWriteReverseIndex(true);
+		gc.setPackConfig(pc);
+	}
+
+	private File idxFile() {
+		return extFile(".idx");
+	}
+
+	private File revFile() {
+		return extFile(".rev");
+	}
+
+	private File extFile(String ext) {
+		File pack = repo.getObjectDatabase().getPacks().iterator().next()
+				.getPackFile();
+		String name = pack.getName();
+		return new File(pack.getParentFile(),
+				name.substring(0, name.length() - ".pack".length()) + ext);
+	}
+}
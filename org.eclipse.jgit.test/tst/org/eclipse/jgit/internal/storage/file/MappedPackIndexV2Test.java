@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class MappedPackIndexV2Test extends PackIndexV2Test {
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		smallIdx = PackIndex.open(getFileForPack34be9032(), true);
+		denseIdx = PackIndex.open(getFileForPackdf2982f28(), true);
+		assertTrue(smallIdx instanceof MappedPackIndexV2);
+		assertTrue(denseIdx instanceof MappedPackIndexV2);
+	}
+
+	@Test
+	public void testV1IsNotMapped() throws Exception {
+		File v1 = JGitTestUtil.getTestResourceFile(
+				"pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.idx");
+		assertNull(MappedPackIndexV2.map(v1));
+		assertTrue(PackIndex.open(v1, true) instanceof PackIndexV1);
+	}
+
+	@Test
+	public void testMatchesHeapIndex() throws Exception {
+		// index with both small (< 2^31) and big offsets
+		File huge = JGitTestUtil.getTestResourceFile("pack-huge.idx");
+		PackIndex heap = PackIndex.open(huge);
+		PackIndex mapped = PackIndex.open(huge, true);
+		assertEquals(heap.getObjectCount(), mapped.getObjectCount());
+		assertEquals(heap.getOffset64Count(), mapped.getOffset64Count());
+
+		Iterator<MutableEntry> i = mapped.iterator();
+		int nth = 0;
+		for (MutableEntry me : heap) {
+			MutableEntry m = i.next();
+			ObjectId id = me.toObjectId();
+			assertEquals(id, m.toObjectId());
+			assertEquals(me.getOffset(), m.getOffset());
+			assertEquals(id, mapped.getObjectId(nth));
+			assertEquals(heap.getOffset(nth), mapped.getOffset(nth));
+			assertEquals(me.getOffset(), mapped.findOffset(id));
+			assertEquals(heap.findCRC32(id), mapped.findCRC32(id));
+			nth++;
+		}
+		assertEquals(-1, mapped.findOffset(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void testCloseReleasesMapping() throws Exception {
+		PackIndex mapped = PackIndex.open(getFileForPackdf2982f28(), true);
+		MutableEntry first = mapped.iterator().next();
+		ObjectId id = first.toObjectId();
+		assertEquals(first.getOffset(), mapped.findOffset(id));
+
+		mapped.close();
+		try {
+			mapped.findOffset(id);
+			fail("read after close");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
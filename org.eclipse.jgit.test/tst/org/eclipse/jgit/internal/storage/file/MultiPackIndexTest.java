@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiPackIndexTest extends GcTestCase {
+	private ObjectDirectory odb;
+
+	private File midxFile;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true);
+		repo.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX_BATCH, 1);
+		odb = repo.getObjectDatabase();
+		midxFile = new File(odb.getPackDirectory(), MultiPackIndex.FILE_NAME);
+	}
+
+	@Test
+	public void packInserterUpdatesIndex() throws Exception {
+		ObjectId a = insertPack("a");
+		assertTrue(midxFile.exists());
+		assertEquals(1, MultiPackIndex.open(midxFile).getPackCount());
+
+		ObjectId b = insertPack("b");
+		ObjectId c = insertPack("c");
+		MultiPackIndex midx = MultiPackIndex.open(midxFile);
+		assertEquals(3, midx.getPackCount());
+		assertEquals(3, midx.getObjectCount());
+		assertMatchesPacks(midx);
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			for (ObjectId id : Arrays.asList(a, b, c)) {
+				assertTrue(odb.has(id));
+				assertEquals(OBJ_BLOB, reader.open(id).getType());
+				assertEquals(1, reader.getObjectSize(id, OBJ_BLOB));
+			}
+		}
+		assertFalse(odb.has(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void packInserterBatchesUpdates() throws Exception {
+		repo.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX_BATCH, 3);
+		ObjectId a = insertPack("a");
+		ObjectId b = insertPack("b");
+		assertFalse(midxFile.exists());
+		assertTrue(odb.has(a));
+		assertTrue(odb.has(b));
+
+		insertPack("c");
+		assertEquals(3, MultiPackIndex.open(midxFile).getPackCount());
+
+		// Packs added since are found through their own index.
+		ObjectId d = insertPack("d");
+		assertEquals(3, MultiPackIndex.open(midxFile).getPackCount());
+		assertTrue(odb.has(d));
+	}
+
+	@Test
+	public void packInserterLeavesIndexToGc() throws Exception {
+		repo.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX_BATCH, 0);
+		ObjectId a = insertPack("a");
+		assertFalse(midxFile.exists());
+		assertTrue(odb.has(a));
+	}
+
+	@Test
+	public void gcRewritesIndex() throws Exception {
+		insertPack("a");
+		insertPack("b");
+		RevBlob blob = tr.blob("c");
+		RevCommit tip = tr.commit().add("c", blob).create();
+		tr.update("master", tip);
+
+		gc.setExpireAgeMillis(0);
+		gc.gc();
+
+		MultiPackIndex midx = MultiPackIndex.open(midxFile);
+		assertEquals(odb.getPacks().size(), midx.getPackCount());
+		assertMatchesPacks(midx);
+		assertTrue(midx.hasObject(tip));
+		assertTrue(odb.has(blob));
+	}
+
+	@Test
+	public void duplicateObjectsListedOnce() throws Exception {
+		ObjectId a = insertPack("a");
+		insertPack("a", "b");
+
+		List<PackFile> packs = new ArrayList<>(odb.getPacks());
+		assertEquals(2, packs.size());
+		for (List<PackFile> order : Arrays.asList(packs,
+				Arrays.asList(packs.get(1), packs.get(0)))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new MultiPackIndexWriter(order).write(out);
+			MultiPackIndex midx = MultiPackIndex.read(out.toByteArray());
+			assertEquals(2, midx.getObjectCount());
+			int pos = midx.findPosition(a);
+			assertEquals(a, midx.getObjectId(pos));
+			assertEquals(MultiPackIndexWriter.indexName(order.get(0)),
+					midx.getPackName(midx.getPackId(pos)));
+		}
+	}
+
+	@Test
+	public void incrementalMatchesFullRewrite() throws Exception {
+		insertPack("a");
+		insertPack("b");
+		insertPack("c");
+
+		List<PackFile> packs = new ArrayList<>(odb.getPacks());
+		ByteArrayOutputStream full = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(packs).write(full);
+
+		ByteArrayOutputStream partial = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(packs.subList(1, packs.size()))
+				.write(partial);
+		ByteArrayOutputStream incremental = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(packs)
+				.setBase(MultiPackIndex.read(partial.toByteArray()))
+				.write(incremental);
+		assertArrayEquals(full.toByteArray(), incremental.toByteArray());
+	}
+
+	@Test
+	public void incrementalDropsBaseWithRemovedPack() throws Exception {
+		ObjectId a = insertPack("a");
+		insertPack("a", "b");
+
+		PackFile single = null;
+		PackFile both = null;
+		for (PackFile p : odb.getPacks()) {
+			if (p.getIndex().getObjectCount() == 1) {
+				single = p;
+			} else {
+				both = p;
+			}
+		}
+		ByteArrayOutputStream base = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(Arrays.asList(single, both)).write(base);
+
+		// The base located the duplicate in the removed pack.
+		List<PackFile> packs = Arrays.asList(both);
+		ByteArrayOutputStream full = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(packs).write(full);
+		ByteArrayOutputStream incremental = new ByteArrayOutputStream();
+		new MultiPackIndexWriter(packs)
+				.setBase(MultiPackIndex.read(base.toByteArray()))
+				.write(incremental);
+		assertArrayEquals(full.toByteArray(), incremental.toByteArray());
+		assertTrue(MultiPackIndex.read(incremental.toByteArray()).hasObject(a));
+	}
+
+	@Test
+	public void corruptIndexIsIgnored() throws Exception {
+		ObjectId a = insertPack("a");
+		odb.close();
+		write(midxFile, "not a multi-pack index");
+		assertTrue(odb.has(a));
+	}
+
+	@Test
+	public void truncatedIndexIsIgnored() throws Exception {
+		ObjectId a = insertPack("a");
+		byte[] buf = IO.readFully(midxFile);
+		for (int n = 0; n < buf.length; n++) {
+			try {
+				MultiPackIndex.read(Arrays.copyOf(buf, n));
+				fail("read index truncated to " + n + " bytes");
+			} catch (IOException e) {
+				// Expected.
+			}
+		}
+
+		odb.close();
+		try (FileOutputStream out = new FileOutputStream(midxFile)) {
+			out.write(buf, 0, buf.length / 2);
+		}
+		assertTrue(odb.has(a));
+	}
+
+	@Test
+	public void invalidPackIdIsIgnored() throws Exception {
+		ObjectId a = insertPack("a");
+		byte[] buf = IO.readFully(midxFile);
+		NB.encodeInt32(buf,
+				chunkOffset(buf, MultiPackIndex.CHUNK_OBJECT_OFFSETS), 5);
+		try {
+			MultiPackIndex.read(buf);
+			fail("read index naming a missing pack");
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		odb.close();
+		try (FileOutputStream out = new FileOutputStream(midxFile)) {
+			out.write(buf);
+		}
+		assertTrue(odb.has(a));
+	}
+
+	private static int chunkOffset(byte[] buf, int id) {
+		for (int p = MultiPackIndex.HEADER_SIZE;;
+				p += MultiPackIndex.CHUNK_LOOKUP_WIDTH) {
+			if (NB.decodeInt32(buf, p) == id) {
+				return (int) NB.decodeUInt64(buf, p + 4);
+			}
+		}
+	}
+
+	private ObjectId insertPack(String... contents) throws Exception {
+		try (PackInserter ins = odb.newPackInserter()) {
+			ins.checkExisting(false);
+			ObjectId first = null;
+			for (String c : contents) {
+				ObjectId id = ins.insert(OBJ_BLOB, Constants.encode(c));
+				if (first == null) {
+					first = id;
+				}
+			}
+			ins.flush();
+			return first;
+		}
+	}
+
+	private void assertMatchesPacks(MultiPackIndex midx) throws Exception {
+		for (PackFile p : odb.getPacks()) {
+			for (PackIndex.MutableEntry e : p) {
+				int pos = midx.findPosition(e.toObjectId());
+				assertTrue(pos >= 0);
+				if (MultiPackIndexWriter.indexName(p)
+						.equals(midx.getPackName(midx.getPackId(pos)))) {
+					assertEquals(e.getOffset(), midx.getOffset(pos));
+				}
+			}
+		}
+	}
+}
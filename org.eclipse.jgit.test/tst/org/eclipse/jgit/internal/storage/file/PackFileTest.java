@@ -81,6 +81,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
 import org.eclipse.jgit.transport.PackParser;
 import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.eclipse.jgit.util.IO;
@@ -251,6 +252,81 @@ public void testDelta_SmallObjectChain() throws Exception {
 		}
 	}
 
+	@Test
+	public void testDelta_DeepChainPrivateBaseCache() throws Exception {
+		deepChain();
+	}
+
+	@Test
+	public void testDelta_DeepChainSharedBaseCache() throws Exception {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setStreamFileThreshold(streamThreshold);
+		cfg.setSharedDeltaBaseCacheLimit(1024 * 1024);
+		cfg.install();
+		deepChain();
+
+		SharedDeltaBaseCache shared = SharedDeltaBaseCache.get();
+		assertNotNull(shared);
+		assertTrue(shared.getOpenBytes() > 0);
+	}
+
+	private void deepChain() throws Exception {
+		final int depth = 12;
+		ObjectId[] ids = new ObjectId[depth + 1];
+		byte[][] data = new byte[depth + 1][];
+		try (ObjectInserter.Formatter fmt = new ObjectInserter.Formatter()) {
+			TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(64 * 1024);
+			packHeader(pack, depth + 1);
+			data[0] = getRng().nextBytes(512);
+			ids[0] = fmt.idFor(Constants.OBJ_BLOB, data[0]);
+			objectHeader(pack, Constants.OBJ_BLOB, data[0].length);
+			deflate(pack, data[0]);
+
+			for (int i = 1; i <= depth; i++) {
+				// Grow each version so the scratch buffers must be resized.
+				byte[] tail = getRng().nextBytes(100 * i);
+				data[i] = Arrays.copyOf(data[i - 1],
+						data[i - 1].length + tail.length);
+				System.arraycopy(tail, 0, data[i], data[i - 1].length,
+						tail.length);
+				ids[i] = fmt.idFor(Constants.OBJ_BLOB, data[i]);
+
+				ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+				DeltaEncoder de = new DeltaEncoder(tmp, data[i - 1].length,
+						data[i].length);
+				de.copy(0, data[i - 1].length);
+				de.insert(tail);
+				byte[] delta = tmp.toByteArray();
+				objectHeader(pack, Constants.OBJ_REF_DELTA, delta.length);
+				ids[i - 1].copyRawTo(pack);
+				deflate(pack, delta);
+			}
+			digest(pack);
+			PackParser ip = index(pack.toByteArray());
+			ip.setAllowThin(true);
+			ip.parse(NullProgressMonitor.INSTANCE);
+		}
+
+		long[] misses = WindowCacheStats.getDeltaBaseMissCounts();
+		long[] inflated = WindowCacheStats.getDeltaInflatedBytes();
+		for (int i = depth; i >= 0; i--) {
+			ObjectLoader ol = wc.open(ids[i]);
+			assertArrayEquals("object " + i, data[i], ol.getCachedBytes());
+		}
+		// The tip resolves through the whole chain, missing at every depth.
+		assertTrue(WindowCacheStats.getDeltaBaseMissCounts()[depth] > misses[depth]);
+		assertTrue(WindowCacheStats.getDeltaInflatedBytes()[depth] > inflated[depth]);
+
+		// The tip's base was cached by the first read; reading it again
+		// hits at depth 1 without inflating anything deeper.
+		long[] hits2 = WindowCacheStats.getDeltaBaseHitCounts();
+		long[] inflated2 = WindowCacheStats.getDeltaInflatedBytes();
+		assertArrayEquals(data[depth], wc.open(ids[depth]).getCachedBytes());
+		assertEquals(hits2[1] + 1, WindowCacheStats.getDeltaBaseHitCounts()[1]);
+		assertEquals(inflated2[1],
+				WindowCacheStats.getDeltaInflatedBytes()[1]);
+	}
+
 	@Test
 	public void testDelta_FailsOver2GiB() throws Exception {
 		try (ObjectInserter.Formatter fmt = new ObjectInserter.Formatter()) {
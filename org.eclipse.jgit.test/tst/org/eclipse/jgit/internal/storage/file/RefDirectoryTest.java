@@ -61,6 +61,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -518,6 +519,41 @@ public void testGetRefs_TagsOnly_AllLoose() throws IOException {
 		assertEquals(v1_0, a.getObjectId());
 	}
 
+	@Test
+	public void testGetRefsByPrefix() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/mastery", B);
+		writeLooseRef("refs/heads/other", B);
+		writeLooseRef("refs/tags/v1.0", v1_0);
+
+		List<Ref> refs = refdir.getRefsByPrefix("refs/heads/mast");
+		assertEquals(2, refs.size());
+		for (Ref ref : refs) {
+			assertTrue(ref.getName().startsWith("refs/heads/mast"));
+		}
+		assertEquals(3, refdir.getRefsByPrefix(R_HEADS).size());
+		assertEquals(4, refdir.getRefsByPrefix("refs").size());
+		assertTrue(refdir.getRefsByPrefix("refs/heads/x").isEmpty());
+	}
+
+	@Test
+	public void testVisitRefs() throws IOException {
+		writeLooseRef("refs/heads/project1/A", A);
+		writeLooseRef("refs/heads/project1-B", B);
+		writePackedRef("refs/heads/other", B);
+		writeLooseRef("refs/tags/v1.0", v1_0);
+
+		List<String> names = new ArrayList<>();
+		refdir.visitRefs(R_HEADS, ref -> names.add(ref.getName()));
+		assertEquals(Arrays.asList("refs/heads/other",
+				"refs/heads/project1-B", "refs/heads/project1/A"), names);
+
+		names.clear();
+		refdir.visitRefs(RefDatabase.ALL, ref -> names.add(ref.getName()));
+		assertEquals(4, names.size());
+		assertEquals("refs/tags/v1.0", names.get(3));
+	}
+
 	@Test
 	public void testGetRefs_LooseSortedCorrectly() throws IOException {
 		Map<String, Ref> refs;
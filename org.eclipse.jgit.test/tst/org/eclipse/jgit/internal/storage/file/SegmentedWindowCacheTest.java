@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.internal.storage.file.SegmentedWindowCache.FrequencySketch;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.test.resources.SampleDataRepositoryTestCase;
+import org.junit.Test;
+
+public class SegmentedWindowCacheTest extends SampleDataRepositoryTestCase {
+	@Test
+	public void testFrequencySketch() {
+		FrequencySketch s = new FrequencySketch(64);
+		int hot = 0x12345678;
+		int cold = 0x7654321;
+		for (int i = 0; i < 10; i++)
+			s.increment(hot);
+		s.increment(cold);
+		assertTrue(s.frequency(hot) >= 10);
+		assertTrue(s.frequency(cold) >= 1);
+		assertTrue(s.frequency(cold) < s.frequency(hot));
+	}
+
+	@Test
+	public void testFrequencySketchSaturates() {
+		FrequencySketch s = new FrequencySketch(8);
+		int h = 42;
+		for (int i = 0; i < 50; i++)
+			s.increment(h);
+		assertEquals(15, s.frequency(h));
+	}
+
+	@Test
+	public void testConcurrentReadersAndPurge() throws Exception {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitUseStrongRefs(true);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(64 * 1024);
+		cfg.install();
+
+		List<ObjectId> ids = new ArrayList<>();
+		for (PackFile p : db.getObjectDatabase().getPacks())
+			for (PackIndex.MutableEntry e : p)
+				ids.add(e.toObjectId());
+		assertTrue(ids.size() > 0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				results.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int i = 0; i < 3; i++)
+							for (ObjectId id : ids) {
+								ObjectLoader ldr = db.open(id);
+								assertNotNull(ldr.getCachedBytes());
+							}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : results)
+				f.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		WindowCache cache = WindowCache.getInstance();
+		assertTrue(cache.getOpenBytes() <= cfg.getPackedGitLimit());
+		assertTrue(0 < cache.getHitCount());
+
+		SegmentedWindowCache segmented = cache.getSegmentedCache();
+		assertNotNull(segmented);
+		long bytes = 0;
+		for (int i = 0; i < segmented.getSegmentCount(); i++)
+			bytes += segmented.getSegment(i).getOpenBytes();
+		assertEquals(cache.getOpenBytes(), bytes);
+
+		for (PackFile p : db.getObjectDatabase().getPacks())
+			WindowCache.purge(p);
+		assertEquals(0, cache.getOpenBytes());
+		assertEquals(0, cache.getOpenFiles());
+	}
+
+	@Test
+	public void testOffHeapBuffersAreReused() throws Exception {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(16 * 1024);
+		cfg.setPackedGitOffHeapLimit(16 * 1024);
+		cfg.install();
+
+		PackFile pack = db.getObjectDatabase().getPacks().iterator().next();
+		List<ObjectId> ids = new ArrayList<>();
+		for (PackIndex.MutableEntry e : pack)
+			ids.add(e.toObjectId());
+
+		DirectBufferPool pool = WindowCache.getInstance().getDirectPool();
+		for (int i = 0; i < 3; i++)
+			for (ObjectId id : ids)
+				assertNotNull(db.open(id).getCachedBytes());
+		long allocated = pool.getAllocatedBytes();
+		assertTrue(0 < allocated);
+		assertTrue(allocated <= cfg.getPackedGitOffHeapLimit());
+
+		try (WindowCursor wc = new WindowCursor(db.getObjectDatabase())) {
+			wc.pin(pack, 0);
+			WindowCache.purge(pack);
+			// The cursor still holds its window; its buffer is not free.
+			assertEquals(allocated / 4096 - 1, pool.getFreeBuffers());
+		}
+		assertEquals(allocated / 4096, pool.getFreeBuffers());
+		assertEquals(0, WindowCache.getInstance().getOpenBytes());
+
+		for (ObjectId id : ids)
+			assertNotNull(db.open(id).getCachedBytes());
+		assertEquals(allocated, pool.getAllocatedBytes());
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Test;
+
+public class SharedDeltaBaseCacheTest {
+	private final PackFile pack1 = new PackFile(new File("pack-1.pack"), 0);
+
+	private final PackFile pack2 = new PackFile(new File("pack-2.pack"), 0);
+
+	@Test
+	public void testStoreAndGet() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(1024, 1);
+		byte[] data = new byte[100];
+		c.store(pack1, 12, data, Constants.OBJ_BLOB);
+
+		DeltaBaseCache.Entry e = c.get(pack1, 12);
+		assertNotNull(e);
+		assertSame(data, e.data);
+		assertEquals(Constants.OBJ_BLOB, e.type);
+		assertNull(c.get(pack1, 13));
+		assertNull(c.get(pack2, 12));
+		assertEquals(100, c.getOpenBytes());
+
+		c.store(pack1, 12, new byte[50], Constants.OBJ_TREE);
+		assertEquals(50, c.getOpenBytes());
+		assertEquals(Constants.OBJ_TREE, c.get(pack1, 12).type);
+	}
+
+	@Test
+	public void testTooLargeNotCached() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(1024, 1);
+		c.store(pack1, 12, new byte[1025], Constants.OBJ_BLOB);
+		assertNull(c.get(pack1, 12));
+		assertEquals(0, c.getOpenBytes());
+	}
+
+	@Test
+	public void testEvictsToLimit() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(4000, 4);
+		for (int i = 0; i < 400; i++) {
+			c.store(pack1, i, new byte[100], Constants.OBJ_BLOB);
+			assertTrue(c.getOpenBytes() <= 4000);
+		}
+		assertNotNull("most recent entry kept", c.get(pack1, 399));
+		int cached = 0;
+		for (int i = 0; i < 400; i++) {
+			if (c.get(pack1, i) != null)
+				cached++;
+		}
+		assertEquals(c.getOpenBytes(), cached * 100);
+	}
+
+	@Test
+	public void testTooLargeForSegmentNotCached() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(1024, 4);
+		c.store(pack1, 12, new byte[257], Constants.OBJ_BLOB);
+		assertNull(c.get(pack1, 12));
+		c.store(pack1, 12, new byte[256], Constants.OBJ_BLOB);
+		assertNotNull(c.get(pack1, 12));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(1000, 1);
+		for (int i = 0; i < 900; i++)
+			c.store(pack1, i, new byte[1], Constants.OBJ_BLOB);
+		assertNotNull(c.get(pack1, 0));
+
+		c.store(pack2, 0, new byte[500], Constants.OBJ_BLOB);
+		assertNotNull("stored base kept", c.get(pack2, 0));
+		assertEquals(1000, c.getOpenBytes());
+		assertNotNull("recently used entry kept", c.get(pack1, 0));
+		assertNotNull(c.get(pack1, 899));
+		assertNull(c.get(pack1, 1));
+		assertNull(c.get(pack1, 400));
+		assertNotNull(c.get(pack1, 401));
+	}
+
+	@Test
+	public void testEvictsOnlyWithinSegment() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(200, 2);
+		// Fill every segment to its share with single byte entries.
+		for (int i = 0; i < 1000 && c.getOpenBytes() < 200; i++)
+			c.store(pack1, i, new byte[1], Constants.OBJ_BLOB);
+		assertEquals(200, c.getOpenBytes());
+
+		c.store(pack2, 0, new byte[100], Constants.OBJ_BLOB);
+		assertNotNull("stored base kept", c.get(pack2, 0));
+		assertEquals(200, c.getOpenBytes());
+		int cached = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (c.get(pack1, i) != null)
+				cached++;
+		}
+		assertEquals("other segment untouched", 100, cached);
+	}
+
+	@Test
+	public void testRemoveAllOfPack() {
+		SharedDeltaBaseCache c = new SharedDeltaBaseCache(1024, 1);
+		c.store(pack1, 12, new byte[10], Constants.OBJ_BLOB);
+		c.store(pack1, 40, new byte[10], Constants.OBJ_BLOB);
+		c.store(pack2, 12, new byte[10], Constants.OBJ_BLOB);
+
+		c.removeAll(pack1);
+		assertNull(c.get(pack1, 12));
+		assertNull(c.get(pack1, 40));
+		assertNotNull(c.get(pack2, 12));
+		assertEquals(10, c.getOpenBytes());
+	}
+}
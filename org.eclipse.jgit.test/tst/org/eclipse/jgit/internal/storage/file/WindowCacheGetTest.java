@@ -124,6 +124,77 @@ public void testCache_TooSmallLimit() throws IOException {
 		checkLimits(cfg);
 	}
 
+	@Test
+	public void testCache_StrongRefs() throws IOException {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitUseStrongRefs(true);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+
+		final WindowCache cache = WindowCache.getInstance();
+		assertEquals(6, cache.getOpenFiles());
+		assertEquals(17346, cache.getOpenBytes());
+		long misses = cache.getMissCount();
+		assertTrue(0 < misses);
+
+		doCacheTests();
+		assertEquals(misses, cache.getMissCount());
+		assertTrue(0 < cache.getHitCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testCache_StrongRefsTooFewFiles() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitUseStrongRefs(true);
+		cfg.setPackedGitOpenFiles(2);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+		assertTrue(0 < WindowCache.getInstance().getEvictionCount());
+	}
+
+	@Test
+	public void testCache_StrongRefsTooSmallLimit() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitUseStrongRefs(true);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4096);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+	}
+
+	@Test
+	public void testCache_OffHeap() throws IOException {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitOffHeapLimit(cfg.getPackedGitLimit());
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+
+		final WindowCache cache = WindowCache.getInstance();
+		assertEquals(6, cache.getOpenFiles());
+		assertEquals(17346, cache.getOpenBytes());
+		DirectBufferPool pool = cache.getDirectPool();
+		assertNotNull(pool);
+		assertTrue(0 < pool.getAllocatedBytes());
+		assertTrue(pool.getAllocatedBytes() <= cfg.getPackedGitOffHeapLimit());
+	}
+
+	@Test
+	public void testCache_OffHeapExhausted() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitOffHeapLimit(4096);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+		assertEquals(4096,
+				WindowCache.getInstance().getDirectPool().getAllocatedBytes());
+	}
+
 	private static void checkLimits(final WindowCacheConfig cfg) {
 		final WindowCache cache = WindowCache.getInstance();
 		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
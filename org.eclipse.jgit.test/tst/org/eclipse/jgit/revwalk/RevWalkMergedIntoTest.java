@@ -42,8 +42,18 @@
  */
 package org.eclipse.jgit.revwalk;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.junit.Test;
 
 public class RevWalkMergedIntoTest extends RevWalkTestCase {
@@ -77,4 +87,67 @@ public void testOldCommitWalk() throws Exception {
 		final RevCommit t = commit(n, o);
 		assertTrue(rw.isMergedInto(b, t));
 	}
+
+	@Test
+	public void testGenerationPrunesWalk() throws Exception {
+		/*
+		 * B(ase) was committed on a machine with a clock far ahead, so by
+		 * commit time all of the history of T(ip) would be walked before
+		 * concluding B is not merged. Generation numbers stop the walk at
+		 * commits that are too far from T to reach B.
+		 *
+		 *       B
+		 *      /
+		 *  ---R---1---2---3---T
+		 */
+		final RevCommit r = commit(commit(commit()));
+		final RevCommit b = commit(3600, r);
+		final RevCommit c1 = commit(-7200, r);
+		final RevCommit t = commit(commit(commit(c1)));
+		writeCommitGraph(b, t);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			assertFalse(walk.isMergedInto(walk.parseCommit(b),
+					walk.parseCommit(t)));
+			assertTrue(isParsed(walk.lookupCommit(c1)));
+			assertFalse(isParsed(walk.lookupCommit(r)));
+
+			assertTrue(walk.isMergedInto(walk.parseCommit(c1),
+					walk.parseCommit(t)));
+			assertTrue(walk.isMergedInto(walk.parseCommit(r),
+					walk.parseCommit(b)));
+			assertTrue(walk.isMergedInto(walk.parseCommit(t),
+					walk.parseCommit(t)));
+		}
+	}
+
+	@Test
+	public void testGenerationRejectsWithoutWalk() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(b);
+		writeCommitGraph(c);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			RevCommit tip = walk.lookupCommit(a);
+			assertFalse(walk.isMergedInto(walk.lookupCommit(c), tip));
+			assertFalse(isParsed(tip));
+		}
+	}
+
+	private void writeCommitGraph(RevCommit... tips) throws Exception {
+		File graph = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		try (ObjectReader reader = db.newObjectReader();
+				OutputStream out = new FileOutputStream(graph)) {
+			new CommitGraphWriter(reader).write(NullProgressMonitor.INSTANCE,
+					out, Arrays.asList(tips));
+		}
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, true);
+	}
+
+	private static boolean isParsed(RevCommit c) {
+		return (c.flags & RevWalk.PARSED) != 0;
+	}
 }
@@ -47,6 +47,7 @@
 import static org.junit.Assert.assertTrue;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 
 import org.junit.Test;
 
@@ -55,6 +56,21 @@
  */
 public class DaemonTest {
 
+	@Test
+	public void testParseExtraParameters() {
+		String cmd = "git-upload-pack /r.git\0host=example.com\0\0version=2\0";
+		assertEquals(Collections.singletonList("version=2"),
+				DaemonClient.parseExtraParameters(cmd, cmd.indexOf('\0') + 1));
+
+		cmd = "git-upload-pack /r.git\0\0version=2\0";
+		assertEquals(Collections.singletonList("version=2"),
+				DaemonClient.parseExtraParameters(cmd, cmd.indexOf('\0') + 1));
+
+		cmd = "git-upload-pack /r.git\0host=example.com\0";
+		assertTrue(DaemonClient.parseExtraParameters(cmd,
+				cmd.indexOf('\0') + 1).isEmpty());
+	}
+
 	@Test
 	public void testDaemonStop() throws Exception {
 		Daemon d = new Daemon();
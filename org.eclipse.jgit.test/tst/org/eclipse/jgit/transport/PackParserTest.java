@@ -47,6 +47,7 @@
 package org.eclipse.jgit.transport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -57,6 +58,8 @@
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
@@ -109,6 +112,58 @@ public void test1() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testUntrustedInputWithoutObjectChecker() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		try (InputStream is = new FileInputStream(packFile)) {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			assertFalse(p.isUntrustedInput());
+			p.setUntrustedInput(true);
+			p.parse(NullProgressMonitor.INSTANCE);
+			PackFile file = p.getPackFile();
+
+			assertTrue(file.hasObject(ObjectId.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904")));
+			assertTrue(file.hasObject(ObjectId.fromString("c59759f143fb1fe21c197981df75a7ee00290799")));
+		}
+	}
+
+	@Test
+	public void testParallelDeltaResolution() throws Exception {
+		File packFile = JGitTestUtil.getTestResourceFile(
+				"pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack");
+		PackParser serial;
+		try (InputStream is = new FileInputStream(packFile)) {
+			serial = index(is);
+			serial.parse(NullProgressMonitor.INSTANCE);
+		}
+
+		Repository other = createBareRepository();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try (ObjectInserter ins = other.newObjectInserter();
+				InputStream is = new FileInputStream(packFile)) {
+			PackParser parallel = ins.newPackParser(is);
+			parallel.setDeltaResolutionExecutor(pool, 4);
+			parallel.parse(NullProgressMonitor.INSTANCE);
+
+			assertTrue(0 < serial.getReceivedPackStatistics()
+					.getNumOfsDelta());
+			assertEquals(
+					serial.getReceivedPackStatistics().getNumDeltaBlob(),
+					parallel.getReceivedPackStatistics().getNumDeltaBlob());
+			assertEquals(serial.getObjectCount(), parallel.getObjectCount());
+			for (int i = 0; i < serial.getObjectCount(); i++) {
+				PackedObjectInfo a = serial.getObject(i);
+				PackedObjectInfo b = parallel.getObject(i);
+				assertEquals(a, b);
+				assertEquals(a.getOffset(), b.getOffset());
+				assertEquals(a.getCRC(), b.getCRC());
+				assertEquals(a.getType(), b.getType());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	/**
 	 * This is just another pack. It so happens that we have two convenient pack to
 	 * test with in the repository.
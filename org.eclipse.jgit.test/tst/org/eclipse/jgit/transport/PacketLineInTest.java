@@ -115,17 +115,6 @@ public void testReadString_LenHELO() {
 		}
 	}
 
-	@Test
-	public void testReadString_Len0001() {
-		init("0001");
-		try {
-			in.readString();
-			fail("incorrectly accepted invalid packet header");
-		} catch (IOException e) {
-			assertEquals("Invalid packet line header: 0001", e.getMessage());
-		}
-	}
-
 	@Test
 	public void testReadString_Len0002() {
 		init("0002");
@@ -164,6 +153,13 @@ public void testReadString_End() throws IOException {
 		assertEOF();
 	}
 
+	@Test
+	public void testReadString_Delim() throws IOException {
+		init("0001");
+		assertSame(PacketLineIn.DELIM, in.readString());
+		assertEOF();
+	}
+
 	// readStringNoLF
 
 	@Test
@@ -1,29 +1,47 @@
 package org.eclipse.jgit.transport;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.transport.UploadPack.RequestPolicy;
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.eclipse.jgit.util.io.NullOutputStream;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Tests for server upload-pack utilities.
@@ -32,6 +50,9 @@ public class UploadPackTest {
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
 	private URIish uri;
 
 	private TestProtocol<Object> testProtocol;
@@ -316,4 +337,678 @@ public UploadPack create(Object req, Repository db)
 					Collections.singletonList(new RefSpec(commit.name())));
 		}
 	}
+
+	@Test
+	public void testFetchReplaysCachedPack() throws Exception {
+		RevBlob blob = remote.blob("foo");
+		RevCommit commit = remote.commit(remote.tree(remote.file("foo", blob)));
+		remote.update("master", commit);
+
+		PackResponseCache cache = new PackResponseCache(
+				tmp.newFolder("cache"), 1024 * 1024);
+		List<UploadPack> uploads = new ArrayList<>();
+		testProtocol = new TestProtocol<>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db)
+							throws ServiceNotEnabledException,
+							ServiceNotAuthorizedException {
+						UploadPack up = new UploadPack(db);
+						up.setPackResponseCache(cache, "server");
+						uploads.add(up);
+						return up;
+					}
+				}, null);
+		uri = testProtocol.register(ctx, server);
+
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNotNull(uploads.get(0).getStatistics());
+		assertTrue(cache.getSize() > 0);
+
+		// An identical request is answered from the cache.
+		InMemoryRepository client2 = newRepo("client2");
+		try (Transport tn = testProtocol.open(uri, client2, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNull(uploads.get(1).getStatistics());
+		assertTrue(client2.hasObject(blob.toObjectId()));
+
+		// Updating a reference invalidates the cached pack.
+		remote.update("other", remote.commit().parent(commit).create());
+		InMemoryRepository client3 = newRepo("client3");
+		try (Transport tn = testProtocol.open(uri, client3, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNotNull(uploads.get(2).getStatistics());
+		assertTrue(client3.hasObject(blob.toObjectId()));
+	}
+
+	@Test
+	public void testIncrementalFetchIsNotCached() throws Exception {
+		RevCommit parent = remote.commit().message("0").create();
+		remote.update("master", parent);
+
+		PackResponseCache cache = new PackResponseCache(
+				tmp.newFolder("cache"), 1024 * 1024);
+		List<UploadPack> uploads = new ArrayList<>();
+		testProtocol = new TestProtocol<>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db)
+							throws ServiceNotEnabledException,
+							ServiceNotAuthorizedException {
+						UploadPack up = new UploadPack(db);
+						up.setPackResponseCache(cache, "server");
+						uploads.add(up);
+						return up;
+					}
+				}, null);
+		uri = testProtocol.register(ctx, server);
+
+		RefSpec spec = new RefSpec("refs/heads/master:refs/heads/master");
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(spec));
+		}
+		long size = cache.getSize();
+		assertTrue(size > 0);
+
+		RevCommit tip = remote.commit().message("1").parent(parent).create();
+		remote.update("master", tip);
+		// The client has the parent, so the fetch is incremental.
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(spec));
+		}
+		assertNotNull(uploads.get(1).getStatistics());
+		assertTrue(client.hasObject(tip.toObjectId()));
+		assertEquals(size, cache.getSize());
+	}
+
+	@Test
+	public void testCachedPackIsSharedByRepositoryInstances()
+			throws Exception {
+		RevCommit commit = remote.commit().message("1").create();
+		remote.update("master", commit);
+		// Another instance of the same repository, with the same contents.
+		InMemoryRepository server2 = newRepo("server");
+		TestRepository<InMemoryRepository> remote2 =
+				new TestRepository<>(server2);
+		assertEquals(commit, remote2.commit().message("1").create());
+		remote2.update("master", commit);
+
+		PackResponseCache cache = new PackResponseCache(
+				tmp.newFolder("cache"), 1024 * 1024);
+		List<UploadPack> uploads = new ArrayList<>();
+		testProtocol = new TestProtocol<>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db)
+							throws ServiceNotEnabledException,
+							ServiceNotAuthorizedException {
+						UploadPack up = new UploadPack(db);
+						up.setPackResponseCache(cache,
+								((InMemoryRepository) db).getDescription()
+										.getRepositoryName());
+						uploads.add(up);
+						return up;
+					}
+				}, null);
+		uri = testProtocol.register(ctx, server);
+		URIish uri2 = testProtocol.register(ctx, server2);
+
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNotNull(uploads.get(0).getStatistics());
+
+		InMemoryRepository client2 = newRepo("client2");
+		try (Transport tn = testProtocol.open(uri2, client2, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNull(uploads.get(1).getStatistics());
+		assertTrue(client2.hasObject(commit.toObjectId()));
+	}
+
+	@Test
+	public void testCachedPackIsNotSharedByRepositoryKeys()
+			throws Exception {
+		RevCommit commit = remote.commit().message("1").create();
+		remote.update("master", commit);
+		// A different repository with the same contents.
+		InMemoryRepository server2 = newRepo("server2");
+		TestRepository<InMemoryRepository> remote2 =
+				new TestRepository<>(server2);
+		assertEquals(commit, remote2.commit().message("1").create());
+		remote2.update("master", commit);
+
+		PackResponseCache cache = new PackResponseCache(
+				tmp.newFolder("cache"), 1024 * 1024);
+		List<UploadPack> uploads = new ArrayList<>();
+		testProtocol = new TestProtocol<>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db)
+							throws ServiceNotEnabledException,
+							ServiceNotAuthorizedException {
+						UploadPack up = new UploadPack(db);
+						up.setPackResponseCache(cache,
+								((InMemoryRepository) db).getDescription()
+										.getRepositoryName());
+						uploads.add(up);
+						return up;
+					}
+				}, null);
+		uri = testProtocol.register(ctx, server);
+		URIish uri2 = testProtocol.register(ctx, server2);
+
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNotNull(uploads.get(0).getStatistics());
+
+		InMemoryRepository client2 = newRepo("client2");
+		try (Transport tn = testProtocol.open(uri2, client2, "server2")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(commit.name())));
+		}
+		assertNotNull(uploads.get(1).getStatistics());
+		assertTrue(client2.hasObject(commit.toObjectId()));
+	}
+
+	@Test
+	public void testPackResponseCacheDeletesUnfinishedRecordings()
+			throws Exception {
+		File dir = tmp.newFolder("cache");
+		File leftover = new File(dir, "pack_123.tmp");
+		assertTrue(leftover.createNewFile());
+
+		PackResponseCache cache = new PackResponseCache(dir, 1024);
+		assertFalse(leftover.exists());
+		assertEquals(0, cache.getSize());
+	}
+
+	private ByteArrayInputStream uploadPackV2(RequestPolicy requestPolicy,
+			boolean biDirectionalPipe, String... inputLines) throws Exception {
+		ByteArrayOutputStream send = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(send);
+		for (String line : inputLines) {
+			if (line == PacketLineIn.END) {
+				pckOut.end();
+			} else if (line == PacketLineIn.DELIM) {
+				pckOut.writeDelim();
+			} else {
+				pckOut.writeString(line);
+			}
+		}
+
+		server.getConfig().setString("protocol", null, "version", "2");
+		UploadPack up = new UploadPack(server);
+		if (requestPolicy != null)
+			up.setRequestPolicy(requestPolicy);
+		up.setExtraParameters(Collections.singleton("version=2"));
+		up.setBiDirectionalPipe(biDirectionalPipe);
+
+		ByteArrayOutputStream recv = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(send.toByteArray()), recv, null);
+		return new ByteArrayInputStream(recv.toByteArray());
+	}
+
+	private ByteArrayInputStream uploadPackV2(boolean biDirectionalPipe,
+			String... inputLines) throws Exception {
+		return uploadPackV2(null, biDirectionalPipe, inputLines);
+	}
+
+	private ByteArrayInputStream uploadPackV2(String... inputLines)
+			throws Exception {
+		return uploadPackV2(null, false, inputLines);
+	}
+
+	private void parsePack(ByteArrayInputStream recvStream) throws IOException {
+		SideBandInputStream sb = new SideBandInputStream(recvStream,
+				NullProgressMonitor.INSTANCE, new StringWriter(),
+				NullOutputStream.INSTANCE);
+		try (ObjectInserter ins = client.newObjectInserter()) {
+			ins.newPackParser(sb).parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+	}
+
+	@Test
+	public void testStatelessAdvertisementSkipsHiddenRefs()
+			throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		remote.update("next", tip);
+		remote.update("refs/changes/01/1/1", tip);
+		RevTag tag = remote.tag("v1", tip);
+		remote.update("refs/tags/v1", tag);
+		server.getConfig().setString("uploadpack", null, "hiderefs",
+				"refs/changes/");
+
+		UploadPack up = new UploadPack(server);
+		up.setBiDirectionalPipe(false);
+		ByteArrayOutputStream recv = new ByteArrayOutputStream();
+		up.sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(
+				new PacketLineOut(recv)));
+		assertNull(up.getAdvertisedRefs());
+
+		PacketLineIn pckIn = new PacketLineIn(
+				new ByteArrayInputStream(recv.toByteArray()));
+		assertThat(pckIn.readString(),
+				Matchers.startsWith(tip.name() + " refs/heads/master\0"));
+		assertEquals(tip.name() + " refs/heads/next", pckIn.readString());
+		assertEquals(tag.name() + " refs/tags/v1", pckIn.readString());
+		assertEquals(tip.name() + " refs/tags/v1^{}", pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2Capabilities() throws Exception {
+		PacketLineIn pckIn = new PacketLineIn(
+				uploadPackV2(true, PacketLineIn.END));
+
+		assertEquals("version 2", pckIn.readString());
+		assertTrue(pckIn.readString().startsWith("agent="));
+		assertEquals("ls-refs", pckIn.readString());
+		assertEquals("fetch=shallow", pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2CapabilitiesIgnoredWithoutConfig() throws Exception {
+		UploadPack up = new UploadPack(server);
+		up.setExtraParameters(Collections.singleton("version=2"));
+		ByteArrayOutputStream recv = new ByteArrayOutputStream();
+		up.sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(
+				new PacketLineOut(recv)));
+
+		PacketLineIn pckIn = new PacketLineIn(
+				new ByteArrayInputStream(recv.toByteArray()));
+		assertThat(pckIn.readString(), containsString("capabilities^{}"));
+	}
+
+	@Test
+	public void testV2LsRefsRefPrefix() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		remote.update("mastery", tip);
+		remote.update("other", tip);
+		remote.update("refs/changes/01/1/1", tip);
+		server.updateRef("HEAD").link("refs/heads/master");
+
+		PacketLineIn pckIn = new PacketLineIn(uploadPackV2(
+				"command=ls-refs\n",
+				PacketLineIn.DELIM,
+				"symrefs",
+				"ref-prefix HEAD",
+				"ref-prefix refs/heads/mast",
+				PacketLineIn.END));
+
+		assertEquals(tip.name() + " HEAD symref-target:refs/heads/master",
+				pckIn.readString());
+		assertEquals(tip.name() + " refs/heads/master", pckIn.readString());
+		assertEquals(tip.name() + " refs/heads/mastery", pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2LsRefsPeel() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		RevTag tag = remote.tag("v1", tip);
+		remote.update("refs/tags/v1", tag);
+		remote.update("refs/tags/light", tip);
+
+		PacketLineIn pckIn = new PacketLineIn(uploadPackV2(
+				"command=ls-refs\n",
+				PacketLineIn.DELIM,
+				"peel",
+				"ref-prefix refs/tags/",
+				PacketLineIn.END));
+
+		assertEquals(tip.name() + " refs/tags/light", pckIn.readString());
+		assertEquals(tag.name() + " refs/tags/v1 peeled:" + tip.name(),
+				pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2LsRefsHidesRefs() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		remote.update("secret", tip);
+		server.getConfig().setString("uploadpack", null, "hiderefs",
+				"refs/heads/secret");
+
+		PacketLineIn pckIn = new PacketLineIn(uploadPackV2(
+				"command=ls-refs\n",
+				PacketLineIn.DELIM,
+				"ref-prefix refs/heads/",
+				PacketLineIn.END));
+
+		assertEquals(tip.name() + " refs/heads/master", pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2UnknownCommand() throws Exception {
+		thrown.expect(PackProtocolException.class);
+		thrown.expectMessage("unknown command command=push");
+		uploadPackV2("command=push\n", PacketLineIn.END);
+	}
+
+	@Test
+	public void testV2FetchNak() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		RevCommit unknown = new TestRepository<>(client).commit()
+				.message("x").create();
+
+		PacketLineIn pckIn = new PacketLineIn(uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"have " + unknown.name() + "\n",
+				PacketLineIn.END));
+
+		assertEquals("acknowledgments", pckIn.readString());
+		assertEquals("NAK", pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+	}
+
+	@Test
+	public void testV2FetchAckAndReady() throws Exception {
+		RevCommit parent = remote.commit().message("0").create();
+		RevCommit tip = remote.commit().message("1").parent(parent).create();
+		remote.update("master", tip);
+
+		ByteArrayInputStream recvStream = uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"have " + parent.name() + "\n",
+				"ofs-delta\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		assertEquals("acknowledgments", pckIn.readString());
+		assertEquals("ACK " + parent.name(), pckIn.readString());
+		assertEquals("ready", pckIn.readString());
+		assertSame(PacketLineIn.DELIM, pckIn.readString());
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+		assertFalse(client.hasObject(parent));
+	}
+
+	@Test
+	public void testV2FetchAckAndReadyWithBitmaps() throws Exception {
+		RevCommit base = remote.commit().message("0").create();
+		RevCommit parent = remote.commit().message("1").parent(base).create();
+		remote.update("master", parent);
+		RevCommit other = remote.commit().message("2").parent(base).create();
+		remote.update("other", other);
+		generateBitmaps(server);
+
+		// The new tip is not covered by a bitmap yet.
+		RevCommit tip = remote.commit().message("3").parent(parent).create();
+		remote.update("master", tip);
+
+		ByteArrayInputStream recvStream = uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"want " + other.name() + "\n",
+				"have " + parent.name() + "\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		// other does not reach parent, so the server is not ready yet.
+		assertEquals("acknowledgments", pckIn.readString());
+		assertEquals("ACK " + parent.name(), pckIn.readString());
+		assertSame(PacketLineIn.END, pckIn.readString());
+
+		recvStream = uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"want " + other.name() + "\n",
+				"have " + parent.name() + "\n",
+				"have " + base.name() + "\n",
+				PacketLineIn.END);
+		pckIn = new PacketLineIn(recvStream);
+
+		assertEquals("acknowledgments", pckIn.readString());
+		assertEquals("ACK " + parent.name(), pckIn.readString());
+		assertEquals("ACK " + base.name(), pckIn.readString());
+		assertEquals("ready", pckIn.readString());
+		assertSame(PacketLineIn.DELIM, pckIn.readString());
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+		assertTrue(client.hasObject(other));
+	}
+
+	@Test
+	public void testV2FetchReadyWithMoreWantsThanBitmaps() throws Exception {
+		RevCommit base = remote.commit().message("0").create();
+		List<String> lines = new ArrayList<>();
+		lines.add("command=fetch\n");
+		lines.add(PacketLineIn.DELIM);
+		for (int i = 0; i < 20; i++) {
+			RevCommit tip = remote.commit().message("" + i).parent(base)
+					.create();
+			remote.update("branch" + i, tip);
+			lines.add("want " + tip.name() + "\n");
+		}
+		generateBitmaps(server);
+		lines.add("have " + base.name() + "\n");
+		lines.add(PacketLineIn.END);
+
+		ByteArrayInputStream recvStream = uploadPackV2(
+				lines.toArray(new String[0]));
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		// Wants beyond the bitmap limit are checked by walking commits.
+		assertEquals("acknowledgments", pckIn.readString());
+		assertEquals("ACK " + base.name(), pckIn.readString());
+		assertEquals("ready", pckIn.readString());
+	}
+
+	@Test
+	public void testV2FetchDone() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+
+		ByteArrayInputStream recvStream = uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"done\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+	}
+
+	private void checkV2FetchIncludeTag(RequestPolicy requestPolicy)
+			throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		RevTag tag = remote.tag("v1", tip);
+		remote.update("refs/tags/v1", tag);
+
+		ByteArrayInputStream recvStream = uploadPackV2(requestPolicy, false,
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"include-tag\n",
+				"done\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+		assertTrue(client.hasObject(tag));
+	}
+
+	@Test
+	public void testV2FetchIncludeTag() throws Exception {
+		checkV2FetchIncludeTag(null);
+	}
+
+	@Test
+	public void testV2FetchIncludeTagWithTipPolicy() throws Exception {
+		checkV2FetchIncludeTag(RequestPolicy.TIP);
+	}
+
+	@Test
+	public void testV2FetchIncludeTagWithReachableCommitTipPolicy()
+			throws Exception {
+		checkV2FetchIncludeTag(RequestPolicy.REACHABLE_COMMIT_TIP);
+	}
+
+	@Test
+	public void testV2FetchIncludeTagWithAnyPolicy() throws Exception {
+		checkV2FetchIncludeTag(RequestPolicy.ANY);
+	}
+
+	@Test
+	public void testV2FetchShallow() throws Exception {
+		RevCommit parent = remote.commit().message("0").create();
+		RevCommit tip = remote.commit().message("1").parent(parent).create();
+		remote.update("master", tip);
+
+		ByteArrayInputStream recvStream = uploadPackV2(
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"deepen 1\n",
+				"done\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+
+		assertEquals("shallow-info", pckIn.readString());
+		assertEquals("shallow " + tip.name(), pckIn.readString());
+		assertSame(PacketLineIn.DELIM, pckIn.readString());
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+		assertFalse(client.hasObject(parent));
+	}
+
+	@Test
+	public void testV2FetchStateIsResetBetweenCommands() throws Exception {
+		RevCommit parent = remote.commit().message("0").create();
+		RevCommit tip = remote.commit().message("1").parent(parent).create();
+		remote.update("master", tip);
+
+		ByteArrayInputStream recvStream = uploadPackV2(true,
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"deepen 1\n",
+				"done\n",
+				PacketLineIn.END,
+				"command=fetch\n",
+				PacketLineIn.DELIM,
+				"want " + tip.name() + "\n",
+				"done\n",
+				PacketLineIn.END);
+		PacketLineIn pckIn = new PacketLineIn(recvStream);
+		// Skip the capability advertisement.
+		while (pckIn.readString() != PacketLineIn.END) {
+			// do nothing
+		}
+
+		assertEquals("shallow-info", pckIn.readString());
+		assertEquals("shallow " + tip.name(), pckIn.readString());
+		assertSame(PacketLineIn.DELIM, pckIn.readString());
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(tip));
+		assertFalse(client.hasObject(parent));
+
+		// The depth of the first fetch does not carry over.
+		assertEquals("packfile", pckIn.readString());
+		parsePack(recvStream);
+		assertTrue(client.hasObject(parent));
+	}
+
+	private void registerV2Protocol() {
+		server.getConfig().setString("protocol", null, "version", "2");
+		client.getConfig().setString("protocol", null, "version", "2");
+		testProtocol = new TestProtocol<>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db)
+							throws ServiceNotEnabledException,
+							ServiceNotAuthorizedException {
+						return new UploadPack(db);
+					}
+				}, null);
+		uri = testProtocol.register(ctx, server);
+	}
+
+	@Test
+	public void testV2ClientListsOnlyMatchingRefs() throws Exception {
+		RevCommit tip = remote.commit().message("1").create();
+		remote.update("master", tip);
+		remote.update("refs/changes/01/1/1", tip);
+		RevTag tag = remote.tag("v1", tip);
+		remote.update("refs/tags/v1", tag);
+		registerV2Protocol();
+
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.setTagOpt(TagOpt.AUTO_FOLLOW);
+			FetchResult result = tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(
+							"refs/heads/*:refs/remotes/origin/*")));
+			assertNotNull(result.getAdvertisedRef("refs/heads/master"));
+			assertNotNull(result.getAdvertisedRef("refs/tags/v1"));
+			assertNull(result.getAdvertisedRef("refs/changes/01/1/1"));
+		}
+		assertEquals(tip, client.exactRef("refs/remotes/origin/master")
+				.getObjectId());
+		assertEquals(tag, client.exactRef("refs/tags/v1").getObjectId());
+		assertTrue(client.hasObject(tag));
+	}
+
+	@Test
+	public void testV2ClientNegotiatesWithCommonCommits() throws Exception {
+		// Enough history for the client to need more than one round.
+		RevCommit parent = remote.commit().message("0").create();
+		for (int i = 1; i < 40; i++) {
+			parent = remote.commit().message(Integer.toString(i))
+					.parent(parent).create();
+		}
+		remote.update("master", parent);
+		registerV2Protocol();
+		RefSpec spec = new RefSpec("refs/heads/master:refs/heads/master");
+
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(spec));
+		}
+		assertTrue(client.hasObject(parent));
+
+		RevCommit tip = remote.commit().message("1").parent(parent).create();
+		remote.update("master", tip);
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(spec));
+		}
+		assertEquals(tip, client.exactRef("refs/heads/master").getObjectId());
+	}
 }
@@ -44,7 +44,9 @@
 package org.eclipse.jgit.util.sha1;
 
 import static org.eclipse.jgit.lib.Constants.CHARSET;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
@@ -54,10 +56,13 @@
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Random;
 
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.sha1.SHA1.Sha1Implementation;
 import org.junit.Test;
 
 public class SHA1Test {
@@ -218,6 +223,70 @@ public void detectsShatteredByDefault() throws IOException {
 		}
 	}
 
+	@Test
+	public void defaultImplementationIsJava() {
+		assumeTrue(System.getProperty("org.eclipse.jgit.util.sha1.implementation") == null);
+		assertEquals(Sha1Implementation.JAVA, SHA1.getDefaultImplementation());
+		assertEquals(Sha1Implementation.JAVA,
+				SHA1.newInstance().getImplementation());
+	}
+
+	@Test
+	public void parseImplementation() {
+		assertEquals(Sha1Implementation.JDKNATIVE,
+				SHA1.parseImplementation("jdkNative"));
+		assertEquals(Sha1Implementation.JAVA,
+				SHA1.parseImplementation("java"));
+		assertEquals(Sha1Implementation.JAVA,
+				SHA1.parseImplementation("bogus"));
+		assertEquals(Sha1Implementation.JAVA, SHA1.parseImplementation(null));
+	}
+
+	@Test
+	public void nativeMatchesJava() {
+		Random rng = new Random(42);
+		for (int len : new int[] { 0, 1, 55, 56, 63, 64, 65, 127, 128, 4097 }) {
+			byte[] data = new byte[len];
+			rng.nextBytes(data);
+
+			SHA1 j = SHA1.newInstance(Sha1Implementation.JAVA);
+			SHA1 n = SHA1.newInstance(Sha1Implementation.JDKNATIVE);
+			assertEquals(Sha1Implementation.JDKNATIVE, n.getImplementation());
+			for (int p = 0; p < len;) {
+				int cnt = Math.min(len - p, 1 + rng.nextInt(70));
+				if (cnt == 1) {
+					j.update(data[p]);
+					n.update(data[p]);
+				} else {
+					j.update(data, p, cnt);
+					n.update(data, p, cnt);
+				}
+				p += cnt;
+			}
+			ObjectId exp = j.toObjectId();
+			assertEquals("length " + len, exp, n.toObjectId());
+
+			MutableObjectId id = new MutableObjectId();
+			n.reset().update(data);
+			n.digest(id);
+			assertEquals("length " + len, exp, id);
+			assertArrayEquals(j.reset().setDetectCollision(false)
+					.digest(), n.reset().digest());
+		}
+	}
+
+	@Test
+	public void nativeDoesNotDetectShattered() throws IOException {
+		byte[] pdf1 = read("shattered-1.pdf", 422435);
+		SHA1 s = SHA1.newInstance(Sha1Implementation.JDKNATIVE)
+				.setDetectCollision(true);
+		s.update(pdf1);
+		assertEquals(
+				ObjectId.fromString("38762cf7f55934b34d179ae6a4c80cadccbb7f0a"),
+				s.toObjectId());
+		assertFalse(s.hasCollision());
+	}
+
 	private static ObjectId blob(byte[] pdf1, SHA1 s) {
 		s.update(Constants.encodedTypeString(Constants.OBJ_BLOB));
 		s.update((byte) ' ');
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Serialized summary of the commits of a repository.
+ * <p>
+ * A commit-graph stores, for every commit it covers, the root tree, the
+ * parents (as positions within the graph), the committer time and the
+ * generation number. A {@link org.eclipse.jgit.revwalk.RevWalk} can fill in
+ * a commit's headers from the graph without inflating and parsing the commit
+ * object. The file uses the chunked format also written by C Git.
+ * <p>
+ * The generation number of a commit without parents is 1; for any other
+ * commit it is one more than the maximum generation of its parents. A commit
+ * can therefore only reach commits of strictly smaller generation.
+ */
+public class CommitGraph {
+	static final byte[] SIGNATURE = { 'C', 'G', 'P', 'H' };
+
+	static final int VERSION = 1;
+
+	static final int OID_VERSION_SHA1 = 1;
+
+	static final int HEADER_SIZE = 8;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+
+	static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+
+	static final int CHUNK_EXTRA_EDGES = 0x45444745; // "EDGE"
+
+	static final int FANOUT = 256;
+
+	static final int COMMIT_DATA_WIDTH = Constants.OBJECT_ID_LENGTH + 16;
+
+	static final int PARENT_NONE = 0x70000000;
+
+	static final int PARENT_EXTRA = 0x80000000;
+
+	static final int PARENT_LAST = 0x80000000;
+
+	/** Largest generation number that can be stored. */
+	public static final int GENERATION_MAX = 0x3FFFFFFF;
+
+	/** Generation reported for commits the graph does not describe. */
+	public static final int GENERATION_UNKNOWN = Integer.MAX_VALUE;
+
+	private static final int[] NO_PARENTS = {};
+
+	/**
+	 * Read a commit-graph from a stream.
+	 *
+	 * @param in
+	 *            stream positioned at the start of the commit-graph. The
+	 *            caller is responsible for closing the stream.
+	 * @return the parsed commit-graph.
+	 * @throws java.io.IOException
+	 *             the stream cannot be read or does not contain a valid
+	 *             commit-graph.
+	 */
+	public static CommitGraph read(InputStream in) throws IOException {
+		ByteBuffer buf = IO.readWholeStream(in, 8192);
+		byte[] raw = new byte[buf.remaining()];
+		buf.get(raw);
+		return read(raw);
+	}
+
+	/**
+	 * Parse a commit-graph already held in memory.
+	 *
+	 * @param buf
+	 *            complete content of the commit-graph file.
+	 * @return the parsed commit-graph.
+	 * @throws java.io.IOException
+	 *             the buffer does not contain a valid commit-graph.
+	 */
+	public static CommitGraph read(byte[] buf) throws IOException {
+		if (buf.length < HEADER_SIZE + CHUNK_LOOKUP_WIDTH
+				+ Constants.OBJECT_ID_LENGTH) {
+			throw new IOException(JGitText.get().shortReadOfBlock);
+		}
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (buf[i] != SIGNATURE[i]) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().expectedGot, Arrays.toString(SIGNATURE),
+						Arrays.toString(Arrays.copyOf(buf, SIGNATURE.length))));
+			}
+		}
+		int version = buf[4] & 0xff;
+		if (version != VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					Integer.valueOf(version)));
+		}
+		int oidVersion = buf[5] & 0xff;
+		if (oidVersion != OID_VERSION_SHA1) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().expectedGot,
+					Integer.valueOf(OID_VERSION_SHA1),
+					Integer.valueOf(oidVersion)));
+		}
+		int chunkCount = buf[6] & 0xff;
+
+		int oidf = -1;
+		int oidl = -1;
+		int cdat = -1;
+		int edge = -1;
+		int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < chunkCount; i++) {
+			int p = HEADER_SIZE + i * CHUNK_LOOKUP_WIDTH;
+			if (p + CHUNK_LOOKUP_WIDTH > end) {
+				throw new IOException(JGitText.get().shortReadOfBlock);
+			}
+			long ofs = NB.decodeUInt64(buf, p + 4);
+			if (ofs > end) {
+				throw new IOException(JGitText.get().shortReadOfBlock);
+			}
+			switch (NB.decodeInt32(buf, p)) {
+			case CHUNK_OID_FANOUT:
+				oidf = (int) ofs;
+				break;
+			case CHUNK_OID_LOOKUP:
+				oidl = (int) ofs;
+				break;
+			case CHUNK_COMMIT_DATA:
+				cdat = (int) ofs;
+				break;
+			case CHUNK_EXTRA_EDGES:
+				edge = (int) ofs;
+				break;
+			default:
+				// Unknown chunks are optional and may be skipped.
+				break;
+			}
+		}
+		requireChunk(oidf, CHUNK_OID_FANOUT);
+		requireChunk(oidl, CHUNK_OID_LOOKUP);
+		requireChunk(cdat, CHUNK_COMMIT_DATA);
+
+		int[] fanout = new int[FANOUT];
+		for (int k = 0; k < FANOUT; k++) {
+			fanout[k] = NB.decodeInt32(buf, oidf + k * 4);
+		}
+		int count = fanout[FANOUT - 1];
+		if (count < 0
+				|| oidl + (long) count * Constants.OBJECT_ID_LENGTH > end
+				|| cdat + (long) count * COMMIT_DATA_WIDTH > end) {
+			throw new IOException(JGitText.get().shortReadOfBlock);
+		}
+		return new CommitGraph(buf, fanout, oidl, cdat, edge);
+	}
+
+	private static void requireChunk(int pos, int id) throws IOException {
+		if (pos < 0) {
+			byte[] name = new byte[4];
+			NB.encodeInt32(name, 0, id);
+			throw new IOException(MessageFormat.format(
+					JGitText.get().commitGraphMissingChunk,
+					RawParseUtils.decode(name)));
+		}
+	}
+
+	private final byte[] data;
+
+	private final int[] fanout;
+
+	private final int oidLookup;
+
+	private final int commitData;
+
+	private final int extraEdges;
+
+	private CommitGraph(byte[] data, int[] fanout, int oidLookup,
+			int commitData, int extraEdges) {
+		this.data = data;
+		this.fanout = fanout;
+		this.oidLookup = oidLookup;
+		this.commitData = commitData;
+		this.extraEdges = extraEdges;
+	}
+
+	/**
+	 * Get number of commits described by this graph.
+	 *
+	 * @return number of commits described by this graph.
+	 */
+	public int getCommitCount() {
+		return fanout[FANOUT - 1];
+	}
+
+	/**
+	 * Get approximate size of this graph in memory.
+	 *
+	 * @return approximate size of this graph in memory, in bytes.
+	 */
+	public long getMemorySize() {
+		return data.length;
+	}
+
+	/**
+	 * Locate a commit in the graph.
+	 *
+	 * @param id
+	 *            the commit to look for.
+	 * @return position of the commit in the graph; -1 if not present.
+	 */
+	public int findGraphPosition(AnyObjectId id) {
+		int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = id.compareTo(data,
+					oidLookup + mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the name of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @return the commit name.
+	 */
+	public ObjectId getObjectId(int pos) {
+		return ObjectId.fromRaw(data,
+				oidLookup + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Copy the name of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @param dst
+	 *            receives the commit name.
+	 */
+	public void copyObjectIdTo(int pos, MutableObjectId dst) {
+		dst.fromRaw(data, oidLookup + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Copy the root tree of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @param dst
+	 *            receives the name of the commit's tree.
+	 */
+	public void copyTreeTo(int pos, MutableObjectId dst) {
+		dst.fromRaw(data, commitData + pos * COMMIT_DATA_WIDTH);
+	}
+
+	/**
+	 * Get the parents of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @return graph positions of the parents, in commit order.
+	 */
+	public int[] getParentPositions(int pos) {
+		int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH;
+		int p1 = NB.decodeInt32(data, p);
+		if (p1 == PARENT_NONE) {
+			return NO_PARENTS;
+		}
+		int p2 = NB.decodeInt32(data, p + 4);
+		if (p2 == PARENT_NONE) {
+			return new int[] { p1 };
+		}
+		if ((p2 & PARENT_EXTRA) == 0) {
+			return new int[] { p1, p2 };
+		}
+
+		int e = extraEdges + (p2 & ~PARENT_EXTRA) * 4;
+		int n = 1;
+		while ((NB.decodeInt32(data, e + (n - 1) * 4) & PARENT_LAST) == 0) {
+			n++;
+		}
+		int[] r = new int[n + 1];
+		r[0] = p1;
+		for (int i = 0; i < n; i++) {
+			r[i + 1] = NB.decodeInt32(data, e + i * 4) & ~PARENT_LAST;
+		}
+		return r;
+	}
+
+	/**
+	 * Get the committer time of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @return committer time, in seconds since the epoch.
+	 */
+	public long getCommitTime(int pos) {
+		int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		long hi = NB.decodeUInt32(data, p) & 0x3;
+		return (hi << 32) | NB.decodeUInt32(data, p + 4);
+	}
+
+	/**
+	 * Get the generation number of the commit at a position.
+	 *
+	 * @param pos
+	 *            position in the graph, {@code 0 <= pos < getCommitCount()}.
+	 * @return generation number of the commit; never smaller than 1.
+	 */
+	public int getGeneration(int pos) {
+		int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return NB.decodeInt32(data, p) >>> 2;
+	}
+}
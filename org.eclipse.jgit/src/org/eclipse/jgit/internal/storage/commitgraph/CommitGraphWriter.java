@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.CHUNK_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.CHUNK_EXTRA_EDGES;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.CHUNK_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.CHUNK_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.COMMIT_DATA_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.GENERATION_MAX;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.OID_VERSION_SHA1;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.PARENT_EXTRA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.PARENT_LAST;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.PARENT_NONE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.SIGNATURE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraph.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a {@link org.eclipse.jgit.internal.storage.commitgraph.CommitGraph}
+ * describing every commit reachable from a set of tips.
+ */
+public class CommitGraphWriter {
+	private final ObjectReader reader;
+
+	/**
+	 * Create a writer reading commits through the supplied reader.
+	 *
+	 * @param reader
+	 *            reader used to parse the commits. The caller is responsible
+	 *            for closing it.
+	 */
+	public CommitGraphWriter(ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Write the commit-graph.
+	 * <p>
+	 * After writing the stream is flushed but remains open.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits written.
+	 * @param dst
+	 *            stream to write the commit-graph to.
+	 * @param tips
+	 *            starting points of the history to describe. Tips that are
+	 *            missing or do not peel to a commit are ignored.
+	 * @return number of commits written to the graph.
+	 * @throws java.io.IOException
+	 *             the history cannot be read, the repository is shallow, or
+	 *             the stream cannot be written.
+	 */
+	public int write(ProgressMonitor pm, OutputStream dst,
+			Collection<? extends ObjectId> tips) throws IOException {
+		if (!reader.getShallowCommits().isEmpty()) {
+			throw new IOException(
+					JGitText.get().commitGraphShallowNotSupported);
+		}
+
+		List<RevCommit> topo = new ArrayList<>();
+		try (RevWalk rw = new RevWalk(reader)) {
+			rw.setRetainBody(false);
+			for (ObjectId tip : tips) {
+				RevObject o;
+				try {
+					o = rw.peel(rw.parseAny(tip));
+				} catch (MissingObjectException notFound) {
+					continue;
+				}
+				if (o instanceof RevCommit) {
+					rw.markStart((RevCommit) o);
+				}
+			}
+			rw.sort(RevSort.TOPO);
+			rw.sort(RevSort.REVERSE, true);
+			for (RevCommit c; (c = rw.next()) != null;) {
+				topo.add(c);
+			}
+		}
+
+		RevCommit[] commits = topo.toArray(new RevCommit[topo.size()]);
+		Arrays.sort(commits);
+		int count = commits.length;
+
+		// Parents are emitted before their children, so each commit's
+		// generation can be computed from already known values.
+		int[] generation = new int[count];
+		int extraEdgeCount = 0;
+		for (RevCommit c : topo) {
+			int gen = 1;
+			int n = c.getParentCount();
+			for (int i = 0; i < n; i++) {
+				int p = position(commits, c.getParent(i));
+				gen = Math.max(gen, generation[p] + 1);
+			}
+			generation[position(commits, c)] = Math.min(gen, GENERATION_MAX);
+			if (n > 2) {
+				extraEdgeCount += n - 1;
+			}
+		}
+		topo = null;
+
+		int[] fanout = new int[FANOUT];
+		for (RevCommit c : commits) {
+			fanout[c.getFirstByte()]++;
+		}
+		for (int k = 1; k < FANOUT; k++) {
+			fanout[k] += fanout[k - 1];
+		}
+
+		int chunkCount = extraEdgeCount > 0 ? 4 : 3;
+		int[] chunkIds = { CHUNK_OID_FANOUT, CHUNK_OID_LOOKUP,
+				CHUNK_COMMIT_DATA, CHUNK_EXTRA_EDGES };
+		long[] chunkSizes = { FANOUT * 4,
+				(long) count * Constants.OBJECT_ID_LENGTH,
+				(long) count * COMMIT_DATA_WIDTH, extraEdgeCount * 4L };
+		long[] chunkOffsets = new long[chunkCount + 1];
+		chunkOffsets[0] = HEADER_SIZE + (chunkCount + 1) * CHUNK_LOOKUP_WIDTH;
+		for (int i = 0; i < chunkCount; i++) {
+			chunkOffsets[i + 1] = chunkOffsets[i] + chunkSizes[i];
+		}
+
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		byte[] buf = new byte[COMMIT_DATA_WIDTH];
+
+		pm.beginTask(JGitText.get().writingCommitGraph, count);
+		out.write(SIGNATURE);
+		out.write(VERSION);
+		out.write(OID_VERSION_SHA1);
+		out.write(chunkCount);
+		out.write(0); // No base commit-graph files.
+		for (int i = 0; i <= chunkCount; i++) {
+			NB.encodeInt32(buf, 0, i < chunkCount ? chunkIds[i] : 0);
+			NB.encodeInt64(buf, 4, chunkOffsets[i]);
+			out.write(buf, 0, CHUNK_LOOKUP_WIDTH);
+		}
+
+		for (int k = 0; k < FANOUT; k++) {
+			NB.encodeInt32(buf, 0, fanout[k]);
+			out.write(buf, 0, 4);
+		}
+		for (RevCommit c : commits) {
+			c.copyRawTo(out);
+		}
+
+		int nextEdge = 0;
+		for (int pos = 0; pos < count; pos++) {
+			RevCommit c = commits[pos];
+			c.getTree().copyRawTo(buf, 0);
+			int p = Constants.OBJECT_ID_LENGTH;
+			int n = c.getParentCount();
+			NB.encodeInt32(buf, p, n > 0
+					? position(commits, c.getParent(0))
+					: PARENT_NONE);
+			if (n <= 1) {
+				NB.encodeInt32(buf, p + 4, PARENT_NONE);
+			} else if (n == 2) {
+				NB.encodeInt32(buf, p + 4, position(commits, c.getParent(1)));
+			} else {
+				NB.encodeInt32(buf, p + 4, PARENT_EXTRA | nextEdge);
+				nextEdge += n - 1;
+			}
+			long time = c.getCommitTime() & 0x3FFFFFFFFL;
+			NB.encodeInt32(buf, p + 8,
+					(generation[pos] << 2) | (int) (time >>> 32));
+			NB.encodeInt32(buf, p + 12, (int) time);
+			out.write(buf, 0, COMMIT_DATA_WIDTH);
+			pm.update(1);
+		}
+
+		if (extraEdgeCount > 0) {
+			for (RevCommit c : commits) {
+				int n = c.getParentCount();
+				if (n <= 2) {
+					continue;
+				}
+				for (int i = 1; i < n; i++) {
+					int p = position(commits, c.getParent(i));
+					NB.encodeInt32(buf, 0, i == n - 1 ? p | PARENT_LAST : p);
+					out.write(buf, 0, 4);
+				}
+			}
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		pm.endTask();
+		return count;
+	}
+
+	private static int position(RevCommit[] commits, RevCommit c) {
+		return Arrays.binarySearch(commits, c);
+	}
+}
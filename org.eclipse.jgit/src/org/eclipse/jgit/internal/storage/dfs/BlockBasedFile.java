@@ -95,6 +95,16 @@ String getFileName() {
 		return desc.getFileName(ext);
 	}
 
+	/**
+	 * Get the checksum of the pack this file belongs to, if already known.
+	 *
+	 * @return the pack checksum; null if it is not known without reading.
+	 */
+	@Nullable
+	byte[] getPackChecksum() {
+		return null;
+	}
+
 	boolean invalid() {
 		return invalid;
 	}
@@ -138,7 +148,6 @@ DfsBlock readOneBlock(long pos, DfsReader ctx,
 		if (invalid)
 			throw new PackInvalidException(getFileName());
 
-		ctx.stats.readBlock++;
 		long start = System.nanoTime();
 		ReadableChannel rc = fileChannel != null ? fileChannel
 				: ctx.db.openFile(desc, ext);
@@ -167,7 +176,7 @@ DfsBlock readOneBlock(long pos, DfsReader ctx,
 			byte[] buf = new byte[size];
 			rc.position(pos);
 			int cnt = read(rc, ByteBuffer.wrap(buf, 0, size));
-			ctx.stats.readBlockBytes += cnt;
+			ctx.stats.readBlock(desc, cnt);
 			if (cnt != size) {
 				if (0 <= len) {
 					throw new EOFException(MessageFormat.format(
@@ -192,7 +201,7 @@ DfsBlock readOneBlock(long pos, DfsReader ctx,
 			if (rc != fileChannel) {
 				rc.close();
 			}
-			ctx.stats.readBlockMicros += elapsedMicros(start);
+			ctx.stats.recordBlockRead(elapsedMicros(start));
 		}
 	}
 
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.dfs.DfsReader.FoundObject;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+/**
+ * Loads objects or their sizes for a {@link DfsReader} on an executor.
+ * <p>
+ * The requested objects, already located and sorted by pack and offset, are
+ * grouped into batches of objects stored in the same block of the same pack.
+ * Each batch is loaded by a task using its own reader, as a reader is not
+ * thread safe, so that batches in different blocks are read from the
+ * {@link ReadableChannel} concurrently. At most
+ * {@link DfsReaderOptions#getAsyncReadLimit()} batches are in flight at once.
+ * Batches are returned in the order they complete; objects within a batch in
+ * pack order.
+ *
+ * @param <T>
+ *            type of identifier supplied by the caller.
+ */
+final class DfsAsyncObjectQueue<T extends ObjectId>
+		implements AsyncObjectLoaderQueue<T>, AsyncObjectSizeQueue<T> {
+	/** Maximum number of objects whose sizes are read by one task. */
+	private static final int MAX_SIZE_BATCH = 256;
+
+	/** Maximum number of objects held in memory by one loading task. */
+	private static final int MAX_LOAD_BATCH = 32;
+
+	private final DfsReader ctx;
+
+	private final boolean sizeOnly;
+
+	private final Executor executor;
+
+	private final int maxInFlight;
+
+	private final Iterator<Batch<T>> pending;
+
+	private final BlockingQueue<Batch<T>> completed = new LinkedBlockingQueue<>();
+
+	private IOException findAllError;
+
+	private int inFlight;
+
+	private volatile boolean cancelled;
+
+	private Batch<T> cur;
+
+	private int idx;
+
+	DfsAsyncObjectQueue(DfsReader ctx, Iterable<FoundObject<T>> order,
+			IOException findAllError, boolean sizeOnly) {
+		DfsReaderOptions opts = ctx.getOptions();
+		this.ctx = ctx;
+		this.sizeOnly = sizeOnly;
+		this.executor = opts.getAsyncExecutor();
+		this.maxInFlight = Math.max(1, opts.getAsyncReadLimit());
+		this.pending = batch(order,
+				sizeOnly ? MAX_SIZE_BATCH : MAX_LOAD_BATCH).iterator();
+		this.findAllError = findAllError;
+	}
+
+	private static <T extends ObjectId> List<Batch<T>> batch(
+			Iterable<FoundObject<T>> order, int max) {
+		List<Batch<T>> batches = new ArrayList<>();
+		Batch<T> b = null;
+		long block = -1;
+		for (FoundObject<T> obj : order) {
+			long objBlock = obj.pack != null ? obj.pack.alignToBlock(obj.offset)
+					: -1;
+			if (b == null || b.objects.size() == max
+					|| b.pack() != obj.pack || block != objBlock) {
+				b = new Batch<>();
+				batches.add(b);
+				block = objBlock;
+			}
+			b.objects.add(obj);
+		}
+		return batches;
+	}
+
+	private void submit() {
+		while (!cancelled && inFlight < maxInFlight && pending.hasNext()) {
+			Batch<T> b = pending.next();
+			inFlight++;
+			if (b.pack() == null) {
+				// Missing objects need no I/O, report them in order.
+				b.results = new Object[b.objects.size()];
+				completed.add(b);
+			} else {
+				try {
+					executor.execute(() -> load(b));
+				} catch (RejectedExecutionException e) {
+					// A saturated or shut down executor must not lose the
+					// batch, next() would wait for it forever.
+					load(b);
+				}
+			}
+		}
+	}
+
+	private void load(Batch<T> b) {
+		int n = b.objects.size();
+		Object[] results = new Object[n];
+		try (DfsReader worker = ctx.db.newReader()) {
+			for (int i = 0; i < n && !cancelled; i++) {
+				FoundObject<T> obj = b.objects.get(i);
+				try {
+					if (sizeOnly)
+						results[i] = Long.valueOf(
+								obj.pack.getObjectSize(worker, obj.offset));
+					else
+						results[i] = obj.pack.load(worker, obj.offset);
+				} catch (IOException | RuntimeException e) {
+					results[i] = e;
+				}
+			}
+			b.stats = worker.stats;
+			// Merged into ctx, which reports them when it is closed.
+			worker.ioStatsReported = true;
+		} catch (RuntimeException | Error e) {
+			for (int i = 0; i < n; i++) {
+				if (results[i] == null)
+					results[i] = e;
+			}
+		} finally {
+			b.results = results;
+			completed.add(b);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean next() throws MissingObjectException, IOException {
+		for (;;) {
+			if (cur != null && ++idx < cur.objects.size()) {
+				if (sizeOnly)
+					getResult();
+				return true;
+			}
+			cur = null;
+			submit();
+			if (inFlight == 0) {
+				IOException err = findAllError;
+				if (err != null) {
+					findAllError = null;
+					throw err;
+				}
+				return false;
+			}
+			try {
+				cur = completed.take();
+			} catch (InterruptedException e) {
+				cancelled = true;
+				throw new InterruptedIOException();
+			}
+			inFlight--;
+			idx = -1;
+			if (cur.stats != null)
+				ctx.stats.add(cur.stats);
+			submit();
+		}
+	}
+
+	private Object getResult() throws IOException {
+		FoundObject<T> obj = cur.objects.get(idx);
+		Object r = cur.results[idx];
+		if (obj.pack == null)
+			throw new MissingObjectException(obj.id,
+					JGitText.get().unknownObjectType2);
+		if (r instanceof IOException)
+			throw (IOException) r;
+		if (r instanceof RuntimeException)
+			throw (RuntimeException) r;
+		if (r instanceof Error)
+			throw (Error) r;
+		if (r == null)
+			throw new InterruptedIOException();
+		return r;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public T getCurrent() {
+		return cur.objects.get(idx).id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId getObjectId() {
+		return cur.objects.get(idx).id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectLoader open() throws IOException {
+		return (ObjectLoader) getResult();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getSize() {
+		return ((Long) cur.results[idx]).longValue();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		cancelled = true;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void release() {
+		cancelled = true;
+		completed.clear();
+	}
+
+	private static final class Batch<T extends ObjectId> {
+		final List<FoundObject<T>> objects = new ArrayList<>();
+
+		/** Loader, size or exception per object; set when complete. */
+		Object[] results;
+
+		DfsReaderIoStats.Accumulator stats;
+
+		DfsPackFile pack() {
+			return objects.get(0).pack;
+		}
+	}
+}
@@ -44,10 +44,17 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.LongStream;
 
@@ -66,15 +73,31 @@
  * these tiny reads into larger block-sized IO operations.
  * <p>
  * Whenever a cache miss occurs, loading is invoked by exactly one thread for
- * the given <code>(DfsStreamKey,position)</code> key tuple. This is ensured by
- * an array of locks, with the tuple hashed to a lock instance.
+ * the given <code>(DfsStreamKey,position)</code> key tuple. By default this is
+ * ensured by an array of fair locks, with the tuple hashed to a lock instance.
+ * A sharded cache (see {@link DfsBlockCacheConfig#setShards(int)}) instead
+ * registers a future for the tuple being loaded; concurrent readers of the
+ * same block wait on that future while loads of other blocks proceed without
+ * any shared lock.
  * <p>
  * Its too expensive during object access to be accurate with a least recently
  * used (LRU) algorithm. Strictly ordering every read is a lot of overhead that
  * typically doesn't yield a corresponding benefit to the application. This
  * cache implements a clock replacement algorithm, giving each block one chance
  * to have been accessed during a sweep of the cache to save itself from
- * eviction.
+ * eviction. A sharded cache runs an independent clock, over an equal share of
+ * the memory budget, in each shard.
+ * <p>
+ * Blocks of pack extensions given their own limit by
+ * {@link DfsBlockCacheConfig#setPartitionLimit(PackExt, long)} are held in a
+ * separate partition with its own clocks, so they are only evicted to make
+ * room for blocks of the same partition. This keeps small, frequently used
+ * indexes cached while a bulk reader streams pack data through the cache.
+ * <p>
+ * If {@link DfsBlockCacheConfig#setDiskCacheDirectory(File)} is set, blocks
+ * read from the backing store are also written to a local directory, which is
+ * consulted before reading a block missing in memory. The directory survives
+ * restarts of the JVM, avoiding remote reads of the blocks it holds.
  * <p>
  * Entities created by the cache are held under hard references, preventing the
  * Java VM from clearing anything. Blocks are discarded by the replacement
@@ -110,6 +133,11 @@ public final class DfsBlockCache {
 	 *             settings, usually too low of a limit.
 	 */
 	public static void reconfigure(DfsBlockCacheConfig cfg) {
+		// Close the old disk cache first, so that the new one indexes the
+		// blocks it finished writing.
+		DfsBlockCache old = cache;
+		if (old != null && old.diskCache != null)
+			old.diskCache.close();
 		cache = new DfsBlockCache(cfg);
 	}
 
@@ -122,13 +150,22 @@ public static DfsBlockCache getInstance() {
 		return cache;
 	}
 
-	/** Number of entries in {@link #table}. */
-	private final int tableSize;
+	/**
+	 * Shards of each partition; the first partition holds all extensions
+	 * without their own limit. Each array's length is a power of 2.
+	 */
+	private final Shard[][] partitions;
+
+	/** Partition index for each {@link PackExt#getPosition()}. */
+	private final int[] partitionOf;
 
-	/** Hash bucket directory; entries are chained below. */
-	private final AtomicReferenceArray<HashEntry> table;
+	/** Byte limit of each partition. */
+	private final long[] partitionLimits;
 
-	/** Locks to prevent concurrent loads for same (PackFile,position). */
+	/**
+	 * Locks to prevent concurrent loads for same (PackFile,position); null if
+	 * the cache is sharded and coalesces loads through {@link Shard#loading}.
+	 */
 	private final ReentrantLock[] loadLocks;
 
 	/** Maximum number of bytes the cache should hold. */
@@ -155,58 +192,114 @@ public static DfsBlockCache getInstance() {
 	/**
 	 * Number of times a block was found in the cache, per pack file extension.
 	 */
-	private final AtomicReference<AtomicLong[]> statHit;
+	private final AtomicReference<LongAdder[]> statHit;
 
 	/**
 	 * Number of times a block was not found, and had to be loaded, per pack
 	 * file extension.
 	 */
-	private final AtomicReference<AtomicLong[]> statMiss;
+	private final AtomicReference<LongAdder[]> statMiss;
 
 	/**
 	 * Number of blocks evicted due to cache being full, per pack file
 	 * extension.
 	 */
-	private final AtomicReference<AtomicLong[]> statEvict;
+	private final AtomicReference<LongAdder[]> statEvict;
 
 	/**
 	 * Number of bytes currently loaded in the cache, per pack file extension.
 	 */
-	private final AtomicReference<AtomicLong[]> liveBytes;
+	private final AtomicReference<LongAdder[]> liveBytes;
 
-	/** Protects the clock and its related data. */
-	private final ReentrantLock clockLock;
+	/**
+	 * Number of blocks missing in memory that were read from
+	 * {@link #diskCache}, per pack file extension.
+	 */
+	private final AtomicReference<LongAdder[]> statDiskHit;
 
-	/** Current position of the clock. */
-	private Ref clockHand;
+	/** Second level cache on local disk; null if not configured. */
+	@Nullable
+	final DfsDiskBlockCache diskCache;
 
-	@SuppressWarnings("unchecked")
 	private DfsBlockCache(final DfsBlockCacheConfig cfg) {
-		tableSize = tableSize(cfg);
-		if (tableSize < 1)
+		if (tableSize(cfg) < 1)
 			throw new IllegalArgumentException(JGitText.get().tSizeMustBeGreaterOrEqual1);
 
-		table = new AtomicReferenceArray<>(tableSize);
-		loadLocks = new ReentrantLock[cfg.getConcurrencyLevel()];
-		for (int i = 0; i < loadLocks.length; i++)
-			loadLocks[i] = new ReentrantLock(true /* fair */);
-
 		maxBytes = cfg.getBlockLimit();
 		maxStreamThroughCache = (long) (maxBytes * cfg.getStreamRatio());
 		blockSize = cfg.getBlockSize();
 		blockSizeShift = Integer.numberOfTrailingZeros(blockSize);
 
-		clockLock = new ReentrantLock(true /* fair */);
-		String none = ""; //$NON-NLS-1$
-		clockHand = new Ref<>(
-				DfsStreamKey.of(new DfsRepositoryDescription(none), none, null),
-				-1, 0, null);
-		clockHand.next = clockHand;
+		boolean sharded = cfg.getShards() > 1;
+		Map<PackExt, Long> limits = cfg.getPartitionLimits();
+		partitions = new Shard[1 + limits.size()][];
+		partitionOf = new int[PackExt.values().length];
+		partitionLimits = new long[partitions.length];
+		long sharedLimit = maxBytes;
+		int p = 1;
+		for (Map.Entry<PackExt, Long> e : limits.entrySet()) {
+			long limit = e.getValue().longValue();
+			if (limit < blockSize) {
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().blockCachePartitionTooSmall,
+						e.getKey().getExtension(), Long.valueOf(limit),
+						Integer.valueOf(blockSize)));
+			}
+			sharedLimit -= limit;
+			partitionOf[e.getKey().getPosition()] = p;
+			partitionLimits[p] = limit;
+			partitions[p++] = newShards(cfg, limit, sharded);
+		}
+		if (sharedLimit < blockSize) {
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().blockCachePartitionsExceedLimit,
+					Long.valueOf(maxBytes - sharedLimit),
+					Long.valueOf(maxBytes)));
+		}
+		partitionLimits[0] = sharedLimit;
+		partitions[0] = newShards(cfg, sharedLimit, sharded);
+
+		if (sharded) {
+			loadLocks = null;
+		} else {
+			loadLocks = new ReentrantLock[cfg.getConcurrencyLevel()];
+			for (int i = 0; i < loadLocks.length; i++)
+				loadLocks[i] = new ReentrantLock(true /* fair */);
+		}
 
 		statHit = new AtomicReference<>(newCounters());
 		statMiss = new AtomicReference<>(newCounters());
 		statEvict = new AtomicReference<>(newCounters());
 		liveBytes = new AtomicReference<>(newCounters());
+		statDiskHit = new AtomicReference<>(newCounters());
+
+		File dir = cfg.getDiskCacheDirectory();
+		if (dir != null && cfg.getDiskCacheLimit() > 0) {
+			try {
+				diskCache = new DfsDiskBlockCache(dir,
+						cfg.getDiskCacheLimit());
+			} catch (IOException e) {
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().cannotCreateDirectory, dir), e);
+			}
+		} else {
+			diskCache = null;
+		}
+	}
+
+	private Shard[] newShards(DfsBlockCacheConfig cfg, long limit,
+			boolean sharded) {
+		int tableSize = (int) Math.min(5 * (limit / blockSize) / 2,
+				Integer.MAX_VALUE);
+		int shardCount = (int) Math.min(cfg.getShards(), limit / blockSize);
+		shardCount = Math.max(1, Integer.highestOneBit(shardCount));
+		int shardBits = Integer.numberOfTrailingZeros(shardCount);
+		Shard[] shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(Math.max(1, tableSize / shardCount),
+					shardBits, limit / shardCount, sharded);
+		}
+		return shards;
 	}
 
 	boolean shouldCopyThroughCache(long length) {
@@ -258,14 +351,14 @@ public long[] getMissCount() {
 	 * @return total number of requests (hit + miss), per pack file extension.
 	 */
 	public long[] getTotalRequestCount() {
-		AtomicLong[] hit = statHit.get();
-		AtomicLong[] miss = statMiss.get();
+		LongAdder[] hit = statHit.get();
+		LongAdder[] miss = statMiss.get();
 		long[] cnt = new long[Math.max(hit.length, miss.length)];
 		for (int i = 0; i < hit.length; i++) {
-			cnt[i] += hit[i].get();
+			cnt[i] += hit[i].sum();
 		}
 		for (int i = 0; i < miss.length; i++) {
-			cnt[i] += miss[i].get();
+			cnt[i] += miss[i].sum();
 		}
 		return cnt;
 	}
@@ -276,8 +369,8 @@ public long[] getTotalRequestCount() {
 	 * @return hit ratios
 	 */
 	public long[] getHitRatio() {
-		AtomicLong[] hit = statHit.get();
-		AtomicLong[] miss = statMiss.get();
+		LongAdder[] hit = statHit.get();
+		LongAdder[] miss = statMiss.get();
 		long[] ratio = new long[Math.max(hit.length, miss.length)];
 		for (int i = 0; i < ratio.length; i++) {
 			if (i >= hit.length) {
@@ -285,8 +378,8 @@ public long[] getHitRatio() {
 			} else if (i >= miss.length) {
 				ratio[i] = 100;
 			} else {
-				long hitVal = hit[i].get();
-				long missVal = miss[i].get();
+				long hitVal = hit[i].sum();
+				long missVal = miss[i].sum();
 				long total = hitVal + missVal;
 				ratio[i] = total == 0 ? 0 : hitVal * 100 / total;
 			}
@@ -305,6 +398,50 @@ public long[] getEvictions() {
 		return getStatVals(statEvict);
 	}
 
+	/**
+	 * Get number of blocks missing in memory but read from the on-disk cache,
+	 * per pack file extension.
+	 *
+	 * @return number of blocks missing in memory but read from the on-disk
+	 *         cache, per pack file extension.
+	 * @since 5.0
+	 */
+	public long[] getDiskHitCount() {
+		return getStatVals(statDiskHit);
+	}
+
+	/**
+	 * Get the number of independent shards the cache is split into.
+	 *
+	 * @return the number of independent shards the cache is split into; 1 if
+	 *         the cache is not sharded.
+	 * @since 5.0
+	 */
+	public int getShardCount() {
+		return partitions[0].length;
+	}
+
+	/**
+	 * Get 0..100, defining how full the partition holding an extension is.
+	 * <p>
+	 * Extensions without their own
+	 * {@link DfsBlockCacheConfig#setPartitionLimit(PackExt, long) partition
+	 * limit} share a partition with the remainder of the block limit.
+	 *
+	 * @param ext
+	 *            pack file extension.
+	 * @return 0..100, defining how full the partition holding {@code ext} is.
+	 * @since 5.0
+	 */
+	public long getFillPercentage(PackExt ext) {
+		int p = partitionIndex(ext.getPosition());
+		long live = 0;
+		for (Shard s : partitions[p]) {
+			live += s.getLiveBytes();
+		}
+		return live * 100 / partitionLimits[p];
+	}
+
 	/**
 	 * Quickly check if the cache contains block 0 of the given stream.
 	 * <p>
@@ -317,13 +454,23 @@ public long[] getEvictions() {
 	 * @return true if block 0 (the first block) is in the cache.
 	 */
 	public boolean hasBlock0(DfsStreamKey key) {
-		HashEntry e1 = table.get(slot(key, 0));
-		DfsBlock v = scan(e1, key, 0);
+		int h = hash(key.hash, 0);
+		Shard s = shard(key, h);
+		DfsBlock v = scan(s.table.get(s.slot(h)), key, 0);
 		return v != null && v.contains(key, 0);
 	}
 
 	private int hash(int packHash, long off) {
-		return packHash + (int) (off >>> blockSizeShift);
+		return (packHash + (int) (off >>> blockSizeShift)) >>> 1;
+	}
+
+	private Shard shard(DfsStreamKey key, int hash) {
+		Shard[] shards = partitions[partitionIndex(key.packExtPos)];
+		return shards[hash & (shards.length - 1)];
+	}
+
+	private int partitionIndex(int packExtPos) {
+		return packExtPos < partitionOf.length ? partitionOf[packExtPos] : 0;
 	}
 
 	int getBlockSize() {
@@ -361,183 +508,194 @@ DfsBlock getOrLoad(BlockBasedFile file, long position, DfsReader ctx,
 		position = file.alignToBlock(position);
 
 		DfsStreamKey key = file.key;
-		int slot = slot(key, position);
-		HashEntry e1 = table.get(slot);
+		int h = hash(key.hash, position);
+		Shard s = shard(key, h);
+		int slot = s.slot(h);
+		HashEntry e1 = s.table.get(slot);
 		DfsBlock v = scan(e1, key, position);
 		if (v != null && v.contains(key, requestedPosition)) {
 			ctx.stats.blockCacheHit++;
-			getStat(statHit, key).incrementAndGet();
+			getStat(statHit, key).increment();
 			return v;
 		}
 
-		reserveSpace(blockSize, key);
-		ReentrantLock regionLock = lockFor(key, position);
-		regionLock.lock();
-		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				v = scan(e2, key, position);
-				if (v != null) {
-					ctx.stats.blockCacheHit++;
-					getStat(statHit, key).incrementAndGet();
-					creditSpace(blockSize, key);
-					return v;
-				}
-			}
-
-			getStat(statMiss, key).incrementAndGet();
-			boolean credit = true;
+		if (loadLocks != null) {
+			ReentrantLock regionLock = loadLocks[h % loadLocks.length];
+			regionLock.lock();
 			try {
-				v = file.readOneBlock(requestedPosition, ctx, fileChannel);
-				credit = false;
+				v = load(file, position, requestedPosition, s, slot, e1, ctx,
+						fileChannel);
 			} finally {
-				if (credit)
-					creditSpace(blockSize, key);
-			}
-			if (position != v.start) {
-				// The file discovered its blockSize and adjusted.
-				position = v.start;
-				slot = slot(key, position);
-				e2 = table.get(slot);
-			}
-
-			Ref<DfsBlock> ref = new Ref<>(key, position, v.size(), v);
-			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
+				regionLock.unlock();
 			}
-			addToClock(ref, blockSize - v.size());
-		} finally {
-			regionLock.unlock();
+		} else {
+			v = loadOnce(file, position, requestedPosition, s, slot, e1, ctx,
+					fileChannel);
 		}
 
 		// If the block size changed from the default, it is possible the block
 		// that was loaded is the wrong block for the requested position.
-		if (v.contains(file.key, requestedPosition))
+		if (v != null && v.contains(file.key, requestedPosition))
 			return v;
 		return getOrLoad(file, requestedPosition, ctx, fileChannel);
 	}
 
-	@SuppressWarnings("unchecked")
-	private void reserveSpace(int reserve, DfsStreamKey key) {
-		clockLock.lock();
-		try {
-			long live = LongStream.of(getCurrentSize()).sum() + reserve;
-			if (maxBytes < live) {
-				Ref prev = clockHand;
-				Ref hand = clockHand.next;
-				do {
-					if (hand.hot) {
-						// Value was recently touched. Clear
-						// hot and give it another chance.
-						hand.hot = false;
-						prev = hand;
-						hand = hand.next;
-						continue;
-					} else if (prev == hand)
-						break;
-
-					// No recent access since last scan, kill
-					// value and remove from clock.
-					Ref dead = hand;
-					hand = hand.next;
-					prev.next = hand;
-					dead.next = null;
-					dead.value = null;
-					live -= dead.size;
-					getStat(liveBytes, dead.key).addAndGet(-dead.size);
-					getStat(statEvict, dead.key).incrementAndGet();
-				} while (maxBytes < live);
-				clockHand = prev;
+	/**
+	 * Load a block of a sharded cache, coalescing concurrent misses.
+	 *
+	 * @return the loaded block; null if another thread failed to load it.
+	 */
+	private DfsBlock loadOnce(BlockBasedFile file, long position,
+			long requestedPosition, Shard s, int slot, HashEntry e1,
+			DfsReader ctx, @Nullable ReadableChannel fileChannel)
+			throws IOException {
+		PendingLoad pending = new PendingLoad(file.key, position);
+		CompletableFuture<DfsBlock> other = s.loading.putIfAbsent(pending,
+				pending.result);
+		if (other != null) {
+			try {
+				DfsBlock v = other.get();
+				if (v != null) {
+					ctx.stats.blockCacheHit++;
+					getStat(statHit, file.key).increment();
+				}
+				return v;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				return null;
 			}
-			getStat(liveBytes, key).addAndGet(reserve);
-		} finally {
-			clockLock.unlock();
 		}
-	}
 
-	private void creditSpace(int credit, DfsStreamKey key) {
-		clockLock.lock();
+		DfsBlock v = null;
 		try {
-			getStat(liveBytes, key).addAndGet(-credit);
+			v = load(file, position, requestedPosition, s, slot, e1, ctx,
+					fileChannel);
 		} finally {
-			clockLock.unlock();
+			s.loading.remove(pending, pending.result);
+			pending.result.complete(v);
 		}
+		return v;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void addToClock(Ref ref, int credit) {
-		clockLock.lock();
+	private DfsBlock load(BlockBasedFile file, long position,
+			long requestedPosition, Shard s, int slot, HashEntry e1,
+			DfsReader ctx, @Nullable ReadableChannel fileChannel)
+			throws IOException {
+		DfsStreamKey key = file.key;
+		HashEntry e2 = s.table.get(slot);
+		if (e2 != e1) {
+			DfsBlock v = scan(e2, key, position);
+			if (v != null) {
+				ctx.stats.blockCacheHit++;
+				getStat(statHit, key).increment();
+				return v;
+			}
+		}
+
+		s.reserveSpace(blockSize, key);
+		getStat(statMiss, key).increment();
+		DfsBlock v = null;
+		boolean credit = true;
 		try {
-			if (credit != 0) {
-				getStat(liveBytes, ref.key).addAndGet(-credit);
+			if (diskCache != null) {
+				v = diskCache.get(file, position);
+				if (v != null && !v.contains(key, requestedPosition))
+					v = null;
+			}
+			if (v != null) {
+				getStat(statDiskHit, key).increment();
+			} else {
+				v = file.readOneBlock(requestedPosition, ctx, fileChannel);
+				if (diskCache != null)
+					diskCache.put(file, v);
 			}
-			Ref ptr = clockHand;
-			ref.next = ptr.next;
-			ptr.next = ref;
-			clockHand = ref;
+			credit = false;
 		} finally {
-			clockLock.unlock();
+			if (credit)
+				s.creditSpace(blockSize, key);
 		}
+
+		int h = hash(key.hash, v.start);
+		Shard dst = shard(key, h);
+		if (dst != s) {
+			// The file discovered its blockSize and adjusted the block into
+			// another shard; move the reservation along with it.
+			s.creditSpace(blockSize, key);
+			dst.reserveSpace(v.size(), key);
+		} else if (blockSize != v.size()) {
+			s.creditSpace(blockSize - v.size(), key);
+		}
+		Ref<DfsBlock> ref = new Ref<>(key, v.start, v.size(), v);
+		ref.hot = true;
+		Ref<DfsBlock> cur = dst.insert(dst.slot(h), ref);
+		return cur.get();
 	}
 
 	void put(DfsBlock v) {
 		put(v.stream, v.start, v.size(), v);
 	}
 
+	/**
+	 * Store a block just read from the backing store of {@code file}.
+	 * <p>
+	 * Unlike {@link #put(DfsBlock)} the block is also written to the on-disk
+	 * cache, if one is configured.
+	 *
+	 * @param file
+	 *            the file the block was read from.
+	 * @param v
+	 *            the block.
+	 */
+	void putLoaded(BlockBasedFile file, DfsBlock v) {
+		put(v);
+		if (diskCache != null)
+			diskCache.put(file, v);
+	}
+
 	<T> Ref<T> putRef(DfsStreamKey key, long size, T v) {
 		return put(key, 0, (int) Math.min(size, Integer.MAX_VALUE), v);
 	}
 
 	<T> Ref<T> put(DfsStreamKey key, long pos, int size, T v) {
-		int slot = slot(key, pos);
-		HashEntry e1 = table.get(slot);
-		Ref<T> ref = scanRef(e1, key, pos);
+		int h = hash(key.hash, pos);
+		Shard s = shard(key, h);
+		int slot = s.slot(h);
+		Ref<T> ref = scanRef(s.table.get(slot), key, pos);
 		if (ref != null)
 			return ref;
 
-		reserveSpace(size, key);
-		ReentrantLock regionLock = lockFor(key, pos);
+		s.reserveSpace(size, key);
+		ref = new Ref<>(key, pos, size, v);
+		ref.hot = true;
+		if (loadLocks == null)
+			return s.insert(slot, ref);
+
+		ReentrantLock regionLock = loadLocks[h % loadLocks.length];
 		regionLock.lock();
 		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				ref = scanRef(e2, key, pos);
-				if (ref != null) {
-					creditSpace(size, key);
-					return ref;
-				}
-			}
-
-			ref = new Ref<>(key, pos, size, v);
-			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
-			addToClock(ref, 0);
+			return s.insert(slot, ref);
 		} finally {
 			regionLock.unlock();
 		}
-		return ref;
 	}
 
 	boolean contains(DfsStreamKey key, long position) {
-		return scan(table.get(slot(key, position)), key, position) != null;
+		int h = hash(key.hash, position);
+		Shard s = shard(key, h);
+		return scan(s.table.get(s.slot(h)), key, position) != null;
 	}
 
 	@SuppressWarnings("unchecked")
 	<T> T get(DfsStreamKey key, long position) {
-		T val = (T) scan(table.get(slot(key, position)), key, position);
+		int h = hash(key.hash, position);
+		Shard s = shard(key, h);
+		T val = (T) scan(s.table.get(s.slot(h)), key, position);
 		if (val == null)
-			getStat(statMiss, key).incrementAndGet();
+			getStat(statMiss, key).increment();
 		else
-			getStat(statHit, key).incrementAndGet();
+			getStat(statHit, key).increment();
 		return val;
 	}
 
@@ -547,16 +705,19 @@ private <T> T scan(HashEntry n, DfsStreamKey key, long position) {
 	}
 
 	<T> Ref<T> getRef(DfsStreamKey key) {
-		Ref<T> r = scanRef(table.get(slot(key, 0)), key, 0);
+		int h = hash(key.hash, 0);
+		Shard s = shard(key, h);
+		Ref<T> r = scanRef(s.table.get(s.slot(h)), key, 0);
 		if (r != null)
-			getStat(statHit, key).incrementAndGet();
+			getStat(statHit, key).increment();
 		else
-			getStat(statMiss, key).incrementAndGet();
+			getStat(statMiss, key).increment();
 		return r;
 	}
 
 	@SuppressWarnings("unchecked")
-	private <T> Ref<T> scanRef(HashEntry n, DfsStreamKey key, long position) {
+	private static <T> Ref<T> scanRef(HashEntry n, DfsStreamKey key,
+			long position) {
 		for (; n != null; n = n.next) {
 			Ref<T> r = n.ref;
 			if (r.position == position && r.key.equals(key))
@@ -565,35 +726,27 @@ private <T> Ref<T> scanRef(HashEntry n, DfsStreamKey key, long position) {
 		return null;
 	}
 
-	private int slot(DfsStreamKey key, long position) {
-		return (hash(key.hash, position) >>> 1) % tableSize;
-	}
-
-	private ReentrantLock lockFor(DfsStreamKey key, long position) {
-		return loadLocks[(hash(key.hash, position) >>> 1) % loadLocks.length];
-	}
-
-	private static AtomicLong[] newCounters() {
-		AtomicLong[] ret = new AtomicLong[PackExt.values().length];
+	private static LongAdder[] newCounters() {
+		LongAdder[] ret = new LongAdder[PackExt.values().length];
 		for (int i = 0; i < ret.length; i++) {
-			ret[i] = new AtomicLong();
+			ret[i] = new LongAdder();
 		}
 		return ret;
 	}
 
-	private static AtomicLong getStat(AtomicReference<AtomicLong[]> stats,
+	private static LongAdder getStat(AtomicReference<LongAdder[]> stats,
 			DfsStreamKey key) {
 		int pos = key.packExtPos;
 		while (true) {
-			AtomicLong[] vals = stats.get();
+			LongAdder[] vals = stats.get();
 			if (pos < vals.length) {
 				return vals[pos];
 			}
-			AtomicLong[] expect = vals;
-			vals = new AtomicLong[Math.max(pos + 1, PackExt.values().length)];
+			LongAdder[] expect = vals;
+			vals = new LongAdder[Math.max(pos + 1, PackExt.values().length)];
 			System.arraycopy(expect, 0, vals, 0, expect.length);
 			for (int i = expect.length; i < vals.length; i++) {
-				vals[i] = new AtomicLong();
+				vals[i] = new LongAdder();
 			}
 			if (stats.compareAndSet(expect, vals)) {
 				return vals[pos];
@@ -601,11 +754,11 @@ private static AtomicLong getStat(AtomicReference<AtomicLong[]> stats,
 		}
 	}
 
-	private static long[] getStatVals(AtomicReference<AtomicLong[]> stat) {
-		AtomicLong[] stats = stat.get();
+	private static long[] getStatVals(AtomicReference<LongAdder[]> stat) {
+		LongAdder[] stats = stat.get();
 		long[] cnt = new long[stats.length];
 		for (int i = 0; i < stats.length; i++) {
-			cnt[i] = stats[i].get();
+			cnt[i] = stats[i].sum();
 		}
 		return cnt;
 	}
@@ -619,6 +772,173 @@ private static HashEntry clean(HashEntry top) {
 		return n == top.next ? top : new HashEntry(n, top.ref);
 	}
 
+	/** A hash table and clock owning a fraction of the cache's memory. */
+	private final class Shard {
+		/** Number of entries in {@link #table}. */
+		final int tableSize;
+
+		/** Hash bucket directory; entries are chained below. */
+		final AtomicReferenceArray<HashEntry> table;
+
+		/** Number of low hash bits selecting this shard in its partition. */
+		final int shardBits;
+
+		/** Maximum number of bytes this shard should hold. */
+		final long maxBytes;
+
+		/** Blocks being loaded, if the cache coalesces loads by key. */
+		final ConcurrentHashMap<PendingLoad, CompletableFuture<DfsBlock>> loading;
+
+		/** Protects the clock and its related data. */
+		private final ReentrantLock clockLock;
+
+		/** Current position of the clock. */
+		private Ref clockHand;
+
+		/** Number of bytes reserved in this shard; guarded by clockLock. */
+		private long live;
+
+		Shard(int tableSize, int shardBits, long maxBytes, boolean sharded) {
+			this.tableSize = tableSize;
+			this.shardBits = shardBits;
+			this.table = new AtomicReferenceArray<>(tableSize);
+			this.maxBytes = maxBytes;
+			this.loading = sharded ? new ConcurrentHashMap<>() : null;
+			this.clockLock = new ReentrantLock(!sharded /* fair */);
+
+			String none = ""; //$NON-NLS-1$
+			clockHand = new Ref<>(
+					DfsStreamKey.of(new DfsRepositoryDescription(none), none,
+							null),
+					-1, 0, null);
+			clockHand.next = clockHand;
+		}
+
+		int slot(int hash) {
+			return (hash >>> shardBits) % tableSize;
+		}
+
+		long getLiveBytes() {
+			clockLock.lock();
+			try {
+				return live;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void reserveSpace(int reserve, DfsStreamKey key) {
+			clockLock.lock();
+			try {
+				live += reserve;
+				if (maxBytes < live) {
+					Ref prev = clockHand;
+					Ref hand = clockHand.next;
+					do {
+						if (hand.hot) {
+							// Value was recently touched. Clear
+							// hot and give it another chance.
+							hand.hot = false;
+							prev = hand;
+							hand = hand.next;
+							continue;
+						} else if (prev == hand)
+							break;
+
+						// No recent access since last scan, kill
+						// value and remove from clock.
+						Ref dead = hand;
+						hand = hand.next;
+						prev.next = hand;
+						dead.next = null;
+						dead.value = null;
+						live -= dead.size;
+						getStat(liveBytes, dead.key).add(-dead.size);
+						getStat(statEvict, dead.key).increment();
+					} while (maxBytes < live);
+					clockHand = prev;
+				}
+				getStat(liveBytes, key).add(reserve);
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		void creditSpace(int credit, DfsStreamKey key) {
+			clockLock.lock();
+			try {
+				live -= credit;
+				getStat(liveBytes, key).add(-credit);
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		/**
+		 * Publish a reference whose space was already reserved.
+		 * <p>
+		 * If another thread published the same key first, the reservation is
+		 * returned and the existing reference wins.
+		 */
+		<T> Ref<T> insert(int slot, Ref<T> ref) {
+			for (;;) {
+				HashEntry e = table.get(slot);
+				Ref<T> cur = scanRef(e, ref.key, ref.position);
+				if (cur != null) {
+					creditSpace(ref.size, ref.key);
+					return cur;
+				}
+				HashEntry n = new HashEntry(clean(e), ref);
+				if (table.compareAndSet(slot, e, n))
+					break;
+			}
+			addToClock(ref);
+			return ref;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void addToClock(Ref ref) {
+			clockLock.lock();
+			try {
+				Ref ptr = clockHand;
+				ref.next = ptr.next;
+				ptr.next = ref;
+				clockHand = ref;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+	}
+
+	/** Key of a block being loaded by a sharded cache. */
+	private static final class PendingLoad {
+		final DfsStreamKey key;
+
+		final long position;
+
+		final CompletableFuture<DfsBlock> result = new CompletableFuture<>();
+
+		PendingLoad(DfsStreamKey key, long position) {
+			this.key = key;
+			this.position = position;
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hash + (int) position;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof PendingLoad) {
+				PendingLoad p = (PendingLoad) o;
+				return position == p.position && key.equals(p.key);
+			}
+			return false;
+		}
+	}
+
 	private static final class HashEntry {
 		/** Next entry in the hash table's chain list. */
 		final HashEntry next;
@@ -45,14 +45,22 @@
 
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_CACHE_SHARDS;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_SIZE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CONCURRENCY_LEVEL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DISK_CACHE_DIRECTORY;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DISK_CACHE_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_RATIO;
 
+import java.io.File;
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.Config;
 
 /**
@@ -70,6 +78,10 @@ public class DfsBlockCacheConfig {
 	private int blockSize;
 	private double streamRatio;
 	private int concurrencyLevel;
+	private int shards;
+	private final Map<PackExt, Long> partitionLimits = new LinkedHashMap<>();
+	private File diskCacheDirectory;
+	private long diskCacheLimit;
 
 	/**
 	 * Create a default configuration.
@@ -79,6 +91,8 @@ public DfsBlockCacheConfig() {
 		setBlockSize(64 * KB);
 		setStreamRatio(0.30);
 		setConcurrencyLevel(32);
+		setShards(1);
+		setDiskCacheLimit(1024 * MB);
 	}
 
 	/**
@@ -169,6 +183,154 @@ public DfsBlockCacheConfig setConcurrencyLevel(
 		return this;
 	}
 
+	/**
+	 * Get the number of independent shards the cache is split into.
+	 *
+	 * @return the number of independent shards the cache is split into.
+	 *         <b>Default is 1.</b>
+	 * @since 5.0
+	 */
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * Set the number of independent shards the cache is split into.
+	 * <p>
+	 * With a single shard the cache uses one clock for eviction and the fair
+	 * locks sized by {@link #getConcurrencyLevel()} to serialize loads. With
+	 * more shards each shard owns an equal part of {@link #getBlockLimit()}
+	 * and evicts from its own clock, and concurrent misses on the same block
+	 * wait for a single load instead of taking a shared lock. This reduces
+	 * contention on hosts with many threads reading through the cache.
+	 *
+	 * @param newShards
+	 *            number of shards; rounded down to a power of 2, and limited
+	 *            so every shard can hold at least one block.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsBlockCacheConfig setShards(int newShards) {
+		shards = Math.max(1, newShards);
+		return this;
+	}
+
+	/**
+	 * Get the number of bytes reserved for blocks of a pack extension.
+	 *
+	 * @param ext
+	 *            pack file extension.
+	 * @return the number of bytes reserved for blocks of {@code ext}; 0 if
+	 *         its blocks share the cache with all other extensions.
+	 *         <b>Default is 0.</b>
+	 * @since 5.0
+	 */
+	public long getPartitionLimit(PackExt ext) {
+		Long limit = partitionLimits.get(ext);
+		return limit != null ? limit.longValue() : 0;
+	}
+
+	/**
+	 * Get the extensions with their own partition of the cache.
+	 *
+	 * @return unmodifiable map of extension to the number of bytes reserved
+	 *         for its blocks.
+	 * @since 5.0
+	 */
+	public Map<PackExt, Long> getPartitionLimits() {
+		return Collections.unmodifiableMap(partitionLimits);
+	}
+
+	/**
+	 * Reserve part of the cache for blocks of a pack extension.
+	 * <p>
+	 * Blocks of {@code ext} are then only evicted to make room for other
+	 * blocks of {@code ext}, and never compete with the remaining
+	 * extensions, which share what is left of {@link #getBlockLimit()}.
+	 * For example reserving a few megabytes for
+	 * {@link PackExt#INDEX} and {@link PackExt#BITMAP_INDEX} keeps the indexes
+	 * every request needs cached while a large clone streams pack data.
+	 *
+	 * @param ext
+	 *            pack file extension.
+	 * @param limit
+	 *            number of bytes reserved for blocks of {@code ext}, counted
+	 *            against {@link #getBlockLimit()}; must hold at least one
+	 *            block. 0 removes the partition.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsBlockCacheConfig setPartitionLimit(PackExt ext, long limit) {
+		if (limit <= 0) {
+			partitionLimits.remove(ext);
+		} else {
+			partitionLimits.put(ext, Long.valueOf(limit));
+		}
+		return this;
+	}
+
+	/**
+	 * Get the local directory holding the second level block cache.
+	 *
+	 * @return the local directory holding the second level block cache; null
+	 *         if blocks are only cached in memory. <b>Default is null.</b>
+	 * @since 5.0
+	 */
+	public File getDiskCacheDirectory() {
+		return diskCacheDirectory;
+	}
+
+	/**
+	 * Set the local directory holding the second level block cache.
+	 * <p>
+	 * Blocks read from the backing store are also written to this directory,
+	 * ideally on a local SSD, and read from it when they are missing in
+	 * memory. Blocks found in the directory when the cache is configured are
+	 * reused, so a restarted process does not read its working set from the
+	 * backing store again. Only one process should use a directory at a time.
+	 * <p>
+	 * Only streams whose key has a
+	 * {@link DfsStreamKey#getPersistentName() persistent name} are cached on
+	 * disk, see
+	 * {@link DfsStreamKey#ofPersistent(DfsRepositoryDescription, String, org.eclipse.jgit.internal.storage.pack.PackExt)}.
+	 *
+	 * @param dir
+	 *            the directory, or null to disable the on-disk cache.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsBlockCacheConfig setDiskCacheDirectory(File dir) {
+		diskCacheDirectory = dir;
+		return this;
+	}
+
+	/**
+	 * Get maximum number of bytes stored in the on-disk cache.
+	 *
+	 * @return maximum number of bytes stored in the on-disk cache.
+	 *         <b>Default is 1 GB.</b>
+	 * @since 5.0
+	 */
+	public long getDiskCacheLimit() {
+		return diskCacheLimit;
+	}
+
+	/**
+	 * Set maximum number of bytes stored in the on-disk cache.
+	 * <p>
+	 * The least recently used blocks are deleted to stay below the limit.
+	 *
+	 * @param newLimit
+	 *            maximum number of bytes stored in the on-disk cache; 0
+	 *            disables the on-disk cache.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsBlockCacheConfig setDiskCacheLimit(long newLimit) {
+		diskCacheLimit = Math.max(0, newLimit);
+		return this;
+	}
+
 	/**
 	 * Get highest percentage of {@link #getBlockLimit()} a single pack can
 	 * occupy while being copied by the pack reuse strategy.
@@ -233,6 +395,33 @@ public DfsBlockCacheConfig fromConfig(final Config rc) {
 				CONFIG_KEY_CONCURRENCY_LEVEL,
 				getConcurrencyLevel()));
 
+		setShards(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_BLOCK_CACHE_SHARDS,
+				getShards()));
+
+		for (PackExt ext : PackExt.values()) {
+			setPartitionLimit(ext, rc.getLong(
+					CONFIG_CORE_SECTION,
+					CONFIG_DFS_SECTION,
+					ext.getExtension() + CONFIG_KEY_BLOCK_LIMIT,
+					getPartitionLimit(ext)));
+		}
+
+		String dir = rc.getString(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_DISK_CACHE_DIRECTORY);
+		if (dir != null) {
+			setDiskCacheDirectory(new File(dir));
+		}
+		setDiskCacheLimit(rc.getLong(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_DISK_CACHE_LIMIT,
+				getDiskCacheLimit()));
+
 		String v = rc.getString(
 				CONFIG_CORE_SECTION,
 				CONFIG_DFS_SECTION,
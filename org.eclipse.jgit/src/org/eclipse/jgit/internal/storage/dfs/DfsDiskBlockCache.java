@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Second level cache of {@link DfsBlock}s in a local directory.
+ * <p>
+ * Blocks read from the backing store are written to the directory by a
+ * background thread, and {@link DfsBlockCache} consults the directory before
+ * reading a block it does not have in memory. As the directory outlives the
+ * JVM, a restarted server finds its working set on local disk instead of
+ * fetching it again from the remote store.
+ * <p>
+ * Only streams with a {@link DfsStreamKey#getPersistentName() persistent
+ * name} are cached. Each block is stored in its own file, holding the stream
+ * name, position, the length and block size of the stream, the pack checksum
+ * if it was known and a CRC-32 of the data. A block is only used if the
+ * stream's length and, once the pack index is loaded, its pack checksum are
+ * the ones recorded; files that fail validation are deleted and read again
+ * from the backing store. The least recently used files are deleted to stay
+ * below the configured size.
+ */
+final class DfsDiskBlockCache {
+	private static final int MAGIC = 0x44424b32; // "DBK2"
+
+	private static final String SUFFIX = ".blk"; //$NON-NLS-1$
+
+	/** Pending writes beyond this are dropped rather than queued. */
+	private static final int MAX_PENDING_WRITES = 1024;
+
+	private final File dir;
+
+	private final long maxBytes;
+
+	private final ThreadPoolExecutor writer;
+
+	/** Size of each cached file, in access order; guarded by this. */
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	/** Total size of {@link #files}; guarded by this. */
+	private long liveBytes;
+
+	DfsDiskBlockCache(File dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		FileUtils.mkdirs(dir, true);
+		load();
+
+		writer = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_WRITES), r -> {
+					Thread t = new Thread(r, "JGit-DfsDiskBlockCache"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.DiscardPolicy());
+		writer.allowCoreThreadTimeOut(true);
+	}
+
+	/** Index the files left in the directory by a previous process. */
+	private void load() {
+		List<File> found = new ArrayList<>();
+		File[] fanout = dir.listFiles();
+		if (fanout != null) {
+			for (File d : fanout) {
+				File[] entries = d.listFiles();
+				if (entries == null)
+					continue;
+				for (File f : entries) {
+					if (f.getName().endsWith(SUFFIX))
+						found.add(f);
+					else
+						f.delete(); // Incomplete write of a prior process.
+				}
+			}
+		}
+		found.sort(Comparator.comparingLong(File::lastModified));
+		synchronized (this) {
+			for (File f : found) {
+				String id = f.getParentFile().getName() + f.getName();
+				id = id.substring(0, id.length() - SUFFIX.length());
+				long sz = f.length();
+				files.put(id, Long.valueOf(sz));
+				liveBytes += sz;
+			}
+			trim();
+		}
+	}
+
+	long getMaxBytes() {
+		return maxBytes;
+	}
+
+	synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Read a block from the directory.
+	 * <p>
+	 * Blocks are only read if the length of {@code file} is known, from
+	 * reading it or from its pack description. If the block size of
+	 * {@code file} is not yet known, it is set from the value recorded with
+	 * the block.
+	 *
+	 * @param file
+	 *            file the block belongs to.
+	 * @param position
+	 *            position of the block within the file.
+	 * @return the block; null if it is not cached or failed validation.
+	 */
+	DfsBlock get(BlockBasedFile file, long position) {
+		DfsStreamKey key = file.key;
+		String name = key.getPersistentName();
+		long expLength = file.length >= 0 ? file.length
+				: file.desc.getFileSize(file.ext);
+		if (name == null || expLength <= 0)
+			return null;
+		byte[] expChecksum = file.getPackChecksum();
+		String id = id(name, position);
+		synchronized (this) {
+			if (files.get(id) == null)
+				return null;
+		}
+		try {
+			byte[] raw = Files.readAllBytes(file(id).toPath());
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(raw));
+			if (in.readInt() == MAGIC && name.equals(in.readUTF())
+					&& in.readLong() == position) {
+				long length = in.readLong();
+				int blockSize = in.readInt();
+				byte[] checksum = new byte[in.readUnsignedByte()];
+				in.readFully(checksum);
+				int len = in.readInt();
+				long crc = in.readLong();
+				// A name reused for other content, e.g. by a backend that
+				// restarted a counter, records another length or checksum.
+				boolean sameStream = length == expLength
+						&& (expChecksum == null
+								|| Arrays.equals(expChecksum, checksum));
+				// The data must fill the rest of the file; check before
+				// allocating so a corrupt length cannot exhaust the heap.
+				if (sameStream && len >= 0 && len == in.available()) {
+					byte[] data = new byte[len];
+					in.readFully(data);
+					CRC32 c = new CRC32();
+					c.update(data);
+					if (c.getValue() == crc) {
+						if (file.length < 0)
+							file.length = length;
+						if (file.blockSize == 0)
+							file.setBlockSize(blockSize);
+						return new DfsBlock(key, position, data);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Treat unreadable files like corrupt ones.
+		}
+		remove(id);
+		return null;
+	}
+
+	/**
+	 * Schedule a block to be written to the directory.
+	 *
+	 * @param file
+	 *            file the block belongs to; its length and block size must be
+	 *            known.
+	 * @param block
+	 *            block read from the backing store.
+	 */
+	void put(BlockBasedFile file, DfsBlock block) {
+		String name = block.stream.getPersistentName();
+		long length = file.length;
+		int blockSize = file.blockSize;
+		if (name == null || length < 0 || blockSize <= 0)
+			return;
+		byte[] sum = file.getPackChecksum();
+		byte[] checksum = sum != null ? sum : new byte[0];
+		String id = id(name, block.start);
+		synchronized (this) {
+			if (files.containsKey(id))
+				return;
+		}
+		try {
+			writer.execute(() -> write(id, name, length, blockSize, checksum,
+					block));
+		} catch (RejectedExecutionException e) {
+			// Shut down by a reconfiguration of the cache.
+		}
+	}
+
+	private void write(String id, String name, long length, int blockSize,
+			byte[] checksum, DfsBlock block) {
+		byte[] data = block.zeroCopyByteBuffer(0).array();
+		File dst = file(id);
+		File tmp = new File(dst.getParentFile(), dst.getName() + ".tmp"); //$NON-NLS-1$
+		try {
+			FileUtils.mkdirs(dst.getParentFile(), true);
+			try (OutputStream os = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(os)) {
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				out.writeInt(MAGIC);
+				out.writeUTF(name);
+				out.writeLong(block.start);
+				out.writeLong(length);
+				out.writeInt(blockSize);
+				out.writeByte(checksum.length);
+				out.write(checksum);
+				out.writeInt(data.length);
+				out.writeLong(crc.getValue());
+				out.write(data);
+			}
+			Files.move(tmp.toPath(), dst.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		}
+		synchronized (this) {
+			Long old = files.put(id, Long.valueOf(dst.length()));
+			if (old != null)
+				liveBytes -= old.longValue();
+			liveBytes += dst.length();
+			trim();
+		}
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Long>> itr = files.entrySet().iterator();
+		while (maxBytes < liveBytes && itr.hasNext()) {
+			Map.Entry<String, Long> e = itr.next();
+			liveBytes -= e.getValue().longValue();
+			file(e.getKey()).delete();
+			itr.remove();
+		}
+	}
+
+	private void remove(String id) {
+		synchronized (this) {
+			Long sz = files.remove(id);
+			if (sz != null)
+				liveBytes -= sz.longValue();
+		}
+		file(id).delete();
+	}
+
+	/**
+	 * Stop writing blocks; already cached files are kept for reuse.
+	 * <p>
+	 * Pending writes are dropped, and a write in progress is waited for so
+	 * that its file is present before another cache indexes the directory.
+	 */
+	void close() {
+		writer.shutdownNow();
+		try {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for scheduled writes to complete.
+	 *
+	 * @throws InterruptedException
+	 *             the thread was interrupted while waiting.
+	 */
+	void flush() throws InterruptedException {
+		writer.shutdown();
+		writer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private File file(String id) {
+		return new File(new File(dir, id.substring(0, 2)),
+				id.substring(2) + SUFFIX);
+	}
+
+	private static String id(String name, long position) {
+		MessageDigest md = Constants.newMessageDigest();
+		md.update(name.getBytes(UTF_8));
+		byte[] pos = new byte[8];
+		NB.encodeInt64(pos, 0, position);
+		md.update(pos);
+		return ObjectId.fromRaw(md.digest()).name();
+	}
+}
@@ -52,6 +52,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.dfs.DfsPackCompactor.configureReftable;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
@@ -70,6 +71,7 @@
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
@@ -111,6 +113,7 @@ public class DfsGarbageCollector {
 	private ReftableConfig reftableConfig;
 	private boolean convertToReftable = true;
 	private boolean includeDeletes;
+	private boolean writeCommitGraph;
 	private long reftableInitialMinUpdateIndex = 1;
 	private long reftableInitialMaxUpdateIndex = 1;
 
@@ -214,6 +217,23 @@ public DfsGarbageCollector setIncludeDeletes(boolean include) {
 		return this;
 	}
 
+	/**
+	 * Whether the garbage collector should write a commit-graph for the GC
+	 * pack.
+	 *
+	 * @param write
+	 *            if {@code true}, the garbage collector will write a
+	 *            commit-graph describing the history reachable from branch
+	 *            heads and tags alongside the GC pack. Default is
+	 *            {@code false}.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsGarbageCollector setWriteCommitGraph(boolean write) {
+		writeCommitGraph = write;
+		return this;
+	}
+
 	/**
 	 * Set minUpdateIndex for the initial reftable created during conversion.
 	 *
@@ -710,6 +730,10 @@ private DfsPackDescription writePack(PackSource source, PackWriter pw,
 			pack.setIndexVersion(pw.getIndexVersion());
 		}
 
+		if (objdb.isWriteObjectFilter()) {
+			PackObjectFilter.write(objdb, pack, pw.getIndexedObjects());
+		}
+
 		if (pw.prepareBitmapIndex(pm)) {
 			try (DfsOutputStream out = objdb.writeFile(pack, BITMAP_INDEX)) {
 				CountingOutputStream cnt = new CountingOutputStream(out);
@@ -720,6 +744,16 @@ private DfsPackDescription writePack(PackSource source, PackWriter pw,
 			}
 		}
 
+		if (source == GC && writeCommitGraph && !allHeadsAndTags.isEmpty()) {
+			try (DfsOutputStream out = objdb.writeFile(pack, COMMIT_GRAPH)) {
+				CountingOutputStream cnt = new CountingOutputStream(out);
+				new CommitGraphWriter(ctx).write(pm, cnt, allHeadsAndTags);
+				pack.addFileExt(COMMIT_GRAPH);
+				pack.setFileSize(COMMIT_GRAPH, cnt.getCount());
+				pack.setBlockSize(COMMIT_GRAPH, out.blockSize());
+			}
+		}
+
 		PackStatistics stats = pw.getStatistics();
 		pack.setPackStats(stats);
 		pack.setLastModified(startTimeMillis);
@@ -342,6 +342,9 @@ PackIndex writePackIndex(DfsPackDescription pack, byte[] packHash,
 			pack.setBlockSize(INDEX, os.blockSize());
 			pack.setFileSize(INDEX, cnt.getCount());
 		}
+		if (db.isWriteObjectFilter()) {
+			PackObjectFilter.write(db, pack, list);
+		}
 		return packIndex;
 	}
 
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jgit.annotations.Nullable;
+
+/**
+ * Aggregated IO statistics of closed
+ * {@link org.eclipse.jgit.internal.storage.dfs.DfsReader}s.
+ * <p>
+ * Every {@link org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase} owns a
+ * repository level instance, available from
+ * {@link org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase#getIoMetrics()}.
+ * Each of those forwards into the process wide instance returned by
+ * {@link #getGlobal()}. When a reader closes, its
+ * {@link org.eclipse.jgit.internal.storage.dfs.DfsReaderIoStats} are added to
+ * both, and the registered {@link Listener}s are told about them so the values
+ * can be exported to a monitoring system.
+ * <p>
+ * Totals are kept in {@link LongAdder}s, so readers closing concurrently do
+ * not serialize on a lock, not even on the process wide instance.
+ *
+ * @since 5.0
+ */
+public class DfsIoMetrics {
+	private static final DfsIoMetrics GLOBAL = new DfsIoMetrics(null);
+
+	/**
+	 * Get the process wide metrics.
+	 *
+	 * @return metrics aggregated over all repositories of this process.
+	 */
+	public static DfsIoMetrics getGlobal() {
+		return GLOBAL;
+	}
+
+	/** Receives the statistics of every reader folded into the metrics. */
+	public interface Listener {
+		/**
+		 * Invoked when a reader has been closed.
+		 * <p>
+		 * Called on the thread closing the reader, so implementations should
+		 * return quickly.
+		 *
+		 * @param repository
+		 *            repository the reader was reading from.
+		 * @param stats
+		 *            statistics of the reader.
+		 */
+		void onReaderClosed(DfsRepositoryDescription repository,
+				DfsReaderIoStats stats);
+	}
+
+	@Nullable
+	private final DfsIoMetrics parent;
+
+	private final Totals total;
+
+	private final CopyOnWriteArrayList<Listener> listeners;
+
+	DfsIoMetrics(@Nullable DfsIoMetrics parent) {
+		this.parent = parent;
+		total = new Totals();
+		listeners = new CopyOnWriteArrayList<>();
+	}
+
+	/**
+	 * Register a listener.
+	 *
+	 * @param listener
+	 *            listener to notify of every closed reader.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a previously registered listener.
+	 *
+	 * @param listener
+	 *            listener to remove.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the totals of all readers closed so far.
+	 *
+	 * @return a snapshot of the aggregated statistics.
+	 */
+	public DfsReaderIoStats getTotals() {
+		return new DfsReaderIoStats(total.snapshot());
+	}
+
+	void add(DfsRepositoryDescription repository,
+			DfsReaderIoStats.Accumulator stats) {
+		total.add(stats);
+		if (!listeners.isEmpty()) {
+			DfsReaderIoStats s = new DfsReaderIoStats(stats);
+			for (Listener l : listeners) {
+				l.onReaderClosed(repository, s);
+			}
+		}
+		if (parent != null) {
+			parent.add(repository, stats);
+		}
+	}
+
+	/**
+	 * Lock free counterpart of {@link DfsReaderIoStats.Accumulator}.
+	 * <p>
+	 * A snapshot taken while readers are being added may include part of the
+	 * statistics of a reader; every reader is eventually counted in full.
+	 */
+	private static final class Totals {
+		private final LongAdder scanPacks = new LongAdder();
+
+		private final LongAdder readIdx = new LongAdder();
+
+		private final LongAdder readBitmap = new LongAdder();
+
+		private final LongAdder readIdxBytes = new LongAdder();
+
+		private final LongAdder readIdxMicros = new LongAdder();
+
+		private final LongAdder blockCacheHit = new LongAdder();
+
+		private final LongAdder readBlock = new LongAdder();
+
+		private final LongAdder readBlockBytes = new LongAdder();
+
+		private final LongAdder readBlockMicros = new LongAdder();
+
+		private final LongAdder inflatedBytes = new LongAdder();
+
+		private final LongAdder objectFilterSkip = new LongAdder();
+
+		private final LongAdder[] readBlockBySource;
+
+		private final LongAdder[] readBlockBytesBySource;
+
+		private final LongAdder[] readBlockLatency;
+
+		private final LongAdder[] readIdxLatency;
+
+		Totals() {
+			DfsReaderIoStats.Accumulator a = new DfsReaderIoStats.Accumulator();
+			readBlockBySource = newAdders(a.readBlockBySource.length);
+			readBlockBytesBySource = newAdders(a.readBlockBytesBySource.length);
+			readBlockLatency = newAdders(a.readBlockLatency.length);
+			readIdxLatency = newAdders(a.readIdxLatency.length);
+		}
+
+		void add(DfsReaderIoStats.Accumulator o) {
+			add(scanPacks, o.scanPacks);
+			add(readIdx, o.readIdx);
+			add(readBitmap, o.readBitmap);
+			add(readIdxBytes, o.readIdxBytes);
+			add(readIdxMicros, o.readIdxMicros);
+			add(blockCacheHit, o.blockCacheHit);
+			add(readBlock, o.readBlock);
+			add(readBlockBytes, o.readBlockBytes);
+			add(readBlockMicros, o.readBlockMicros);
+			add(inflatedBytes, o.inflatedBytes);
+			add(objectFilterSkip, o.objectFilterSkip);
+			add(readBlockBySource, o.readBlockBySource);
+			add(readBlockBytesBySource, o.readBlockBytesBySource);
+			add(readBlockLatency, o.readBlockLatency);
+			add(readIdxLatency, o.readIdxLatency);
+		}
+
+		DfsReaderIoStats.Accumulator snapshot() {
+			DfsReaderIoStats.Accumulator a = new DfsReaderIoStats.Accumulator();
+			a.scanPacks = scanPacks.sum();
+			a.readIdx = readIdx.sum();
+			a.readBitmap = readBitmap.sum();
+			a.readIdxBytes = readIdxBytes.sum();
+			a.readIdxMicros = readIdxMicros.sum();
+			a.blockCacheHit = blockCacheHit.sum();
+			a.readBlock = readBlock.sum();
+			a.readBlockBytes = readBlockBytes.sum();
+			a.readBlockMicros = readBlockMicros.sum();
+			a.inflatedBytes = inflatedBytes.sum();
+			a.objectFilterSkip = objectFilterSkip.sum();
+			sum(a.readBlockBySource, readBlockBySource);
+			sum(a.readBlockBytesBySource, readBlockBytesBySource);
+			sum(a.readBlockLatency, readBlockLatency);
+			sum(a.readIdxLatency, readIdxLatency);
+			return a;
+		}
+
+		private static LongAdder[] newAdders(int n) {
+			LongAdder[] r = new LongAdder[n];
+			for (int i = 0; i < n; i++) {
+				r[i] = new LongAdder();
+			}
+			return r;
+		}
+
+		private static void add(LongAdder dst, long v) {
+			// Most readers leave most counters at zero; skip those.
+			if (v != 0) {
+				dst.add(v);
+			}
+		}
+
+		private static void add(LongAdder[] dst, long[] src) {
+			for (int i = 0; i < dst.length; i++) {
+				add(dst[i], src[i]);
+			}
+		}
+
+		private static void sum(long[] dst, LongAdder[] src) {
+			for (int i = 0; i < dst.length; i++) {
+				dst[i] = src[i].sum();
+			}
+		}
+	}
+}
@@ -43,16 +43,31 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_WRITE_OBJECT_FILTER;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jgit.internal.storage.pack.PackExt;
@@ -150,12 +165,26 @@ public static enum PackSource {
 		}
 	}
 
+	/** Maximum time {@link #commitPack} waits for new packs to warm up. */
+	private static final long WARM_UP_TIMEOUT_MILLIS = 30 * 1000;
+
 	private final AtomicReference<PackList> packList;
 
+	/**
+	 * Packs warmed up and committed by {@link #commitPack}, taken over by the
+	 * next scan so their indexes are not loaded again. Entries of replaced
+	 * packs are removed on commit, and a scan drops entries committed before
+	 * it started that it did not list.
+	 */
+	private final Map<DfsPackDescription, DfsPackFile> committedPacks =
+			new ConcurrentHashMap<>();
+
 	private final DfsRepository repository;
 
 	private DfsReaderOptions readerOptions;
 
+	private final DfsIoMetrics ioMetrics;
+
 	/**
 	 * Initialize an object database for our repository.
 	 *
@@ -169,6 +198,33 @@ protected DfsObjDatabase(DfsRepository repository,
 		this.repository = repository;
 		this.packList = new AtomicReference<>(NO_PACKS);
 		this.readerOptions = options;
+		this.ioMetrics = new DfsIoMetrics(DfsIoMetrics.getGlobal());
+	}
+
+	/**
+	 * Whether new packs should be written with an object filter.
+	 * <p>
+	 * Controlled by {@code core.dfs.writeObjectFilter}, disabled by default
+	 * so existing backends do not start storing a new pack extension on
+	 * upgrade.
+	 *
+	 * @return true if writers should store a
+	 *         {@link org.eclipse.jgit.internal.storage.pack.PackExt#OBJECT_FILTER}
+	 *         alongside each new pack.
+	 */
+	boolean isWriteObjectFilter() {
+		return getRepository().getConfig().getBoolean(CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION, CONFIG_KEY_WRITE_OBJECT_FILTER, false);
+	}
+
+	/**
+	 * Get IO statistics aggregated over the readers of this repository.
+	 *
+	 * @return IO statistics of all closed readers of this object database.
+	 * @since 5.0
+	 */
+	public DfsIoMetrics getIoMetrics() {
+		return ioMetrics;
 	}
 
 	/**
@@ -358,10 +414,32 @@ protected DfsPackDescription newPack(PackSource source,
 	 */
 	protected void commitPack(Collection<DfsPackDescription> desc,
 			Collection<DfsPackDescription> replaces) throws IOException {
+		List<DfsPackFile> added = Collections.emptyList();
+		if (readerOptions.getWarmUpExecutor() != null) {
+			DfsBlockCache cache = DfsBlockCache.getInstance();
+			added = new ArrayList<>(desc.size());
+			for (DfsPackDescription d : desc) {
+				if (d.hasFileExt(PackExt.PACK)) {
+					added.add(new DfsPackFile(cache, d));
+				}
+			}
+			awaitWarmUp(warmUp(added));
+		}
 		commitPackImpl(desc, replaces);
+		if (replaces != null) {
+			committedPacks.keySet().removeAll(replaces);
+		}
+		for (DfsPackFile p : added) {
+			committedPacks.put(p.desc, p);
+		}
 		getRepository().fireEvent(new DfsPacksChangedEvent());
 	}
 
+	/** @return number of committed packs not yet taken over by a scan. */
+	int getCommittedPackCount() {
+		return committedPacks.size();
+	}
+
 	/**
 	 * Implementation of pack commit.
 	 *
@@ -513,25 +591,101 @@ PackList scanPacks(final PackList original) throws IOException {
 					return n;
 			} while (!packList.compareAndSet(o, n));
 		}
+		if (readerOptions.getWarmUpExecutor() != null) {
+			warmUp(newPacks(o, n));
+		}
 		getRepository().fireEvent(new DfsPacksChangedEvent());
 		return n;
 	}
 
+	private static List<DfsPackFile> newPacks(PackList o, PackList n) {
+		Set<DfsPackFile> old = Collections
+				.newSetFromMap(new IdentityHashMap<DfsPackFile, Boolean>());
+		Collections.addAll(old, o.packs);
+		List<DfsPackFile> added = new ArrayList<>();
+		for (DfsPackFile p : n.packs) {
+			if (!old.contains(p)) {
+				added.add(p);
+			}
+		}
+		return added;
+	}
+
+	private List<Future<?>> warmUp(List<DfsPackFile> packs) {
+		Executor executor = readerOptions.getWarmUpExecutor();
+		List<Future<?>> tasks = new ArrayList<>(packs.size());
+		for (DfsPackFile pack : packs) {
+			if (pack.warmUpStarted) {
+				continue;
+			}
+			FutureTask<?> task = new FutureTask<>(() -> warmUp(pack), null);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// The executor is saturated; readers load on demand.
+				break;
+			}
+			pack.warmUpStarted = true;
+			tasks.add(task);
+		}
+		return tasks;
+	}
+
+	private static void awaitWarmUp(List<Future<?>> tasks)
+			throws InterruptedIOException {
+		long deadline = System.currentTimeMillis() + WARM_UP_TIMEOUT_MILLIS;
+		try {
+			for (Future<?> task : tasks) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return;
+				}
+				task.get(wait, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException | TimeoutException e) {
+			// Readers load whatever is still missing on demand.
+		}
+	}
+
+	private void warmUp(DfsPackFile pack) {
+		try (DfsReader ctx = newReader()) {
+			pack.getPackIndex(ctx);
+			pack.getReverseIdx(ctx);
+			if (pack.getPackDescription().hasFileExt(PackExt.BITMAP_INDEX)) {
+				pack.getBitmapIndex(ctx);
+			}
+		} catch (IOException e) {
+			// Ignored; readers will report the error when they need the pack.
+		}
+	}
+
 	private PackList scanPacksImpl(PackList old) throws IOException {
 		DfsBlockCache cache = DfsBlockCache.getInstance();
 		Map<DfsPackDescription, DfsPackFile> packs = packMap(old);
 		Map<DfsPackDescription, DfsReftable> reftables = reftableMap(old);
 
+		// Everything committed before listing is either listed or already
+		// removed again; only those entries are safe to drop if not listed.
+		Set<DfsPackDescription> unlisted = new HashSet<>(
+				committedPacks.keySet());
 		List<DfsPackDescription> scanned = listPacks();
 		Collections.sort(scanned);
+		unlisted.removeAll(scanned);
+		committedPacks.keySet().removeAll(unlisted);
 
 		List<DfsPackFile> newPacks = new ArrayList<>(scanned.size());
 		List<DfsReftable> newReftables = new ArrayList<>(scanned.size());
 		boolean foundNew = false;
 		for (DfsPackDescription dsc : scanned) {
 			DfsPackFile oldPack = packs.remove(dsc);
+			DfsPackFile committed = committedPacks.remove(dsc);
 			if (oldPack != null) {
 				newPacks.add(oldPack);
+			} else if (committed != null) {
+				newPacks.add(committed);
+				foundNew = true;
 			} else if (dsc.hasFileExt(PackExt.PACK)) {
 				newPacks.add(new DfsPackFile(cache, dsc));
 				foundNew = true;
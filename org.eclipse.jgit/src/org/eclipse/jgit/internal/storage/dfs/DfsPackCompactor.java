@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
@@ -52,6 +53,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -72,6 +74,9 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdSet;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -94,6 +99,12 @@
  * receiving a number of small fetch or push operations into a repository,
  * allowing the system to maintain reasonable read performance without expending
  * a lot of time repacking the entire repository.
+ * <p>
+ * A bitmap index is written for the compacted pack when every branch and tag
+ * stored in it can be fully reached from objects of the new pack, and no other
+ * pack carries bitmaps that would have to be remapped. In practice this
+ * happens when all packs of a repository are combined, and keeps clone and
+ * fetch fast until the next garbage collection.
  */
 public class DfsPackCompactor {
 	private final DfsRepository repo;
@@ -105,7 +116,9 @@ public class DfsPackCompactor {
 	private DfsPackDescription outDesc;
 
 	private int autoAddSize;
+	private int geometricFactor;
 	private ReftableConfig reftableConfig;
+	private long bytesRewritten;
 
 	private RevWalk rw;
 	private RevFlag added;
@@ -138,6 +151,29 @@ public DfsPackCompactor setReftableConfig(ReftableConfig cfg) {
 		return this;
 	}
 
+	/**
+	 * Set the split factor of the geometric compaction policy.
+	 * <p>
+	 * When enabled {@link #autoAdd()} keeps pack sizes in a geometric
+	 * progression: after sorting packs by size, every pack must be at least
+	 * {@code factor} times larger than the next smaller one. Only the smallest
+	 * suffix of packs violating the progression is selected, together with any
+	 * larger pack not {@code factor} times bigger than the selected packs
+	 * combined. Larger packs (and the bitmaps stored alongside them) are left
+	 * untouched, so each byte is rewritten at most a logarithmic number of
+	 * times as the repository grows.
+	 *
+	 * @param factor
+	 *            split factor, must be at least 2 to enable the policy. Values
+	 *            below 2 restore the default size based selection.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsPackCompactor setGeometricFactor(int factor) {
+		geometricFactor = factor;
+		return this;
+	}
+
 	/**
 	 * Add a pack to be compacted.
 	 * <p>
@@ -179,12 +215,16 @@ public DfsPackCompactor add(DfsReftable table) {
 	 */
 	public DfsPackCompactor autoAdd() throws IOException {
 		DfsObjDatabase objdb = repo.getObjectDatabase();
-		for (DfsPackFile pack : objdb.getPacks()) {
-			DfsPackDescription d = pack.getPackDescription();
-			if (d.getFileSize(PACK) < autoAddSize)
-				add(pack);
-			else
-				exclude(pack);
+		if (geometricFactor >= 2) {
+			autoAddGeometric(objdb.getPacks());
+		} else {
+			for (DfsPackFile pack : objdb.getPacks()) {
+				DfsPackDescription d = pack.getPackDescription();
+				if (d.getFileSize(PACK) < autoAddSize)
+					add(pack);
+				else
+					exclude(pack);
+			}
 		}
 
 		if (reftableConfig != null) {
@@ -199,6 +239,68 @@ public DfsPackCompactor autoAdd() throws IOException {
 		return this;
 	}
 
+	private void autoAddGeometric(DfsPackFile[] all) throws IOException {
+		DfsPackFile[] packs = all.clone();
+		Arrays.sort(packs, new Comparator<DfsPackFile>() {
+			@Override
+			public int compare(DfsPackFile a, DfsPackFile b) {
+				return Long.compare(packSize(a), packSize(b));
+			}
+		});
+
+		long[] sizes = new long[packs.length];
+		for (int i = 0; i < packs.length; i++) {
+			sizes[i] = packSize(packs[i]);
+		}
+
+		int split = geometricSplit(sizes, geometricFactor);
+		for (int i = 0; i < packs.length; i++) {
+			if (i < split)
+				add(packs[i]);
+			else
+				exclude(packs[i]);
+		}
+	}
+
+	private static long packSize(DfsPackFile pack) {
+		return pack.getPackDescription().getFileSize(PACK);
+	}
+
+	/**
+	 * Compute how many of the smallest packs must be combined to restore the
+	 * geometric progression.
+	 *
+	 * @param sizes
+	 *            pack sizes, sorted ascending.
+	 * @param factor
+	 *            required ratio between adjacent packs.
+	 * @return number of packs at the start of {@code sizes} to compact; 0 if
+	 *         the progression already holds.
+	 */
+	static int geometricSplit(long[] sizes, int factor) {
+		int split = 0;
+		for (int i = sizes.length - 1; i > 0; i--) {
+			if (sizes[i] / factor < sizes[i - 1]) {
+				split = i + 1;
+				break;
+			}
+		}
+		if (split == 0) {
+			return 0;
+		}
+
+		// The combined pack may itself violate the progression with the
+		// packs above it; keep rolling those up until it does not.
+		long total = 0;
+		for (int i = 0; i < split; i++) {
+			total += sizes[i];
+		}
+		while (split < sizes.length && sizes[split] / factor < total) {
+			total += sizes[split++];
+		}
+		return split;
+	}
+
 	/**
 	 * Exclude objects from the compacted pack.
 	 *
@@ -283,10 +385,19 @@ private void compactPacks(DfsReader ctx, ProgressMonitor pm)
 				writePack(objdb, outDesc, pw, pm);
 				writeIndex(objdb, outDesc, pw);
 
+				Set<ObjectId> tips = bitmapTips(objdb, ctx, pw);
+				if (!tips.isEmpty()) {
+					pw.setBitmapTips(tips);
+					writeBitmapIndex(objdb, outDesc, pw, pm);
+				}
+
 				PackStatistics stats = pw.getStatistics();
 
 				outDesc.setPackStats(stats);
 				newStats = stats;
+				for (DfsPackFile pack : srcPacks) {
+					bytesRewritten += packSize(pack);
+				}
 				rollback = false;
 			} finally {
 				if (rollback) {
@@ -296,6 +407,50 @@ private void compactPacks(DfsReader ctx, ProgressMonitor pm)
 		}
 	}
 
+	private Set<ObjectId> bitmapTips(DfsObjDatabase objdb, DfsReader ctx,
+			PackWriter pw) throws IOException {
+		// Existing bitmaps are remapped onto the new pack. That is only safe
+		// if their packs are wholly copied into the output.
+		Collection<DfsPackDescription> src = getSourcePacks();
+		for (DfsPackFile pack : objdb.getPacks()) {
+			DfsPackDescription d = pack.getPackDescription();
+			if (d.hasFileExt(BITMAP_INDEX)
+					&& (!exclude.isEmpty() || !src.contains(d))) {
+				return Collections.emptySet();
+			}
+		}
+
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values()) {
+			ObjectId id = ref.getObjectId();
+			if (id != null && pw.willInclude(id)) {
+				tips.add(id);
+			}
+		}
+		if (tips.isEmpty()) {
+			return tips;
+		}
+
+		try (ObjectWalk ow = new ObjectWalk(ctx)) {
+			for (ObjectId id : tips) {
+				ow.markStart(ow.parseAny(id));
+			}
+			RevObject o;
+			while ((o = ow.next()) != null) {
+				if (!pw.willInclude(o)) {
+					return Collections.emptySet();
+				}
+			}
+			while ((o = ow.nextObject()) != null) {
+				if (!pw.willInclude(o)) {
+					return Collections.emptySet();
+				}
+			}
+		}
+		return tips;
+	}
+
 	private long estimatePackSize() {
 		// Every pack file contains 12 bytes of header and 20 bytes of trailer.
 		// Include the final pack file header and trailer size here and ignore
@@ -366,6 +521,22 @@ public List<PackStatistics> getNewPackStatistics() {
 				: Collections.emptyList();
 	}
 
+	/**
+	 * Get the number of pack bytes read and rewritten by this compaction.
+	 * <p>
+	 * Under the geometric policy (see {@link #setGeometricFactor(int)}) the
+	 * sum of this value over successive compactions, divided by the size of
+	 * the repository, stays logarithmic in the number of packs received
+	 * rather than growing linearly as with full repacks.
+	 *
+	 * @return sum of the sizes of the source packs that were rewritten, or 0
+	 *         if no pack was written.
+	 * @since 5.0
+	 */
+	public long getBytesRewritten() {
+		return bytesRewritten;
+	}
+
 	private Collection<DfsPackDescription> toPrune() {
 		Set<DfsPackDescription> packs = new HashSet<>();
 		for (DfsPackFile pack : srcPacks) {
@@ -500,6 +671,24 @@ private static void writeIndex(DfsObjDatabase objdb,
 			pack.setBlockSize(INDEX, out.blockSize());
 			pack.setIndexVersion(pw.getIndexVersion());
 		}
+		if (objdb.isWriteObjectFilter()) {
+			PackObjectFilter.write(objdb, pack, pw.getIndexedObjects());
+		}
+	}
+
+	private static void writeBitmapIndex(DfsObjDatabase objdb,
+			DfsPackDescription pack, PackWriter pw, ProgressMonitor pm)
+			throws IOException {
+		if (!pw.prepareBitmapIndex(pm)) {
+			return;
+		}
+		try (DfsOutputStream out = objdb.writeFile(pack, BITMAP_INDEX)) {
+			CountingOutputStream cnt = new CountingOutputStream(out);
+			pw.writeBitmapIndex(cnt);
+			pack.addFileExt(BITMAP_INDEX);
+			pack.setFileSize(BITMAP_INDEX, cnt.getCount());
+			pack.setBlockSize(BITMAP_INDEX, out.blockSize());
+		}
 	}
 
 	private void writeReftable(DfsObjDatabase objdb, DfsPackDescription pack,
@@ -47,7 +47,9 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_FILTER;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
 import java.io.BufferedInputStream;
@@ -62,12 +64,14 @@
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
@@ -88,6 +92,12 @@
  * objects are similar.
  */
 public final class DfsPackFile extends BlockBasedFile {
+	/** Missing blocks between two needed blocks that are read anyway. */
+	private static final int MAX_READ_GAP_BLOCKS = 1;
+
+	/** Maximum number of blocks merged into one range of a vectored read. */
+	private static final int MAX_READ_RUN_BLOCKS = 64;
+
 	/**
 	 * Lock for initialization of {@link #index} and {@link #corruptObjects}.
 	 * <p>
@@ -104,6 +114,18 @@ public final class DfsPackFile extends BlockBasedFile {
 	/** Index of compressed bitmap mapping entire object graph. */
 	private volatile DfsBlockCache.Ref<PackBitmapIndex> bitmapIndex;
 
+	/** Commit-graph describing the history reachable from this pack. */
+	private volatile DfsBlockCache.Ref<CommitGraph> commitGraph;
+
+	/** Filter of the objects in this pack, to skip loading {@link #index}. */
+	private volatile DfsBlockCache.Ref<PackObjectFilter> objectFilter;
+
+	/** Set if {@link #objectFilter} could not be read; it is then ignored. */
+	private volatile boolean objectFilterInvalid;
+
+	/** Set once a task loading the indexes of this pack was submitted. */
+	volatile boolean warmUpStarted;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -152,6 +174,13 @@ public boolean isIndexLoaded() {
 		return idxref != null && idxref.has();
 	}
 
+	@Override
+	byte[] getPackChecksum() {
+		DfsBlockCache.Ref<PackIndex> idxref = index;
+		PackIndex idx = idxref != null ? idxref.get() : null;
+		return idx != null ? idx.getChecksum() : null;
+	}
+
 	void setPackIndex(PackIndex idx) {
 		long objCnt = idx.getObjectCount();
 		int recSize = Constants.OBJECT_ID_LENGTH + 8;
@@ -220,7 +249,7 @@ else if (bs <= 0)
 					idx = PackIndex.read(new BufferedInputStream(in, bs));
 					ctx.stats.readIdxBytes += rc.position();
 				} finally {
-					ctx.stats.readIdxMicros += elapsedMicros(start);
+					ctx.stats.recordIndexLoad(elapsedMicros(start));
 				}
 			} catch (EOFException e) {
 				invalid = true;
@@ -291,7 +320,7 @@ else if (bs <= 0)
 				} finally {
 					size = rc.position();
 					ctx.stats.readIdxBytes += size;
-					ctx.stats.readIdxMicros += elapsedMicros(start);
+					ctx.stats.recordIndexLoad(elapsedMicros(start));
 				}
 			} catch (EOFException e) {
 				throw new IOException(MessageFormat.format(
@@ -308,6 +337,147 @@ else if (bs <= 0)
 		}
 	}
 
+	CommitGraph getCommitGraph(DfsReader ctx) throws IOException {
+		if (invalid || isGarbage() || !desc.hasFileExt(COMMIT_GRAPH))
+			return null;
+
+		DfsBlockCache.Ref<CommitGraph> graphref = commitGraph;
+		if (graphref != null) {
+			CommitGraph graph = graphref.get();
+			if (graph != null)
+				return graph;
+		}
+
+		synchronized (initLock) {
+			graphref = commitGraph;
+			if (graphref != null) {
+				CommitGraph graph = graphref.get();
+				if (graph != null)
+					return graph;
+			}
+
+			DfsStreamKey graphKey = desc.getStreamKey(COMMIT_GRAPH);
+			graphref = cache.getRef(graphKey);
+			if (graphref != null) {
+				CommitGraph graph = graphref.get();
+				if (graph != null) {
+					commitGraph = graphref;
+					return graph;
+				}
+			}
+
+			CommitGraph graph;
+			long start = System.nanoTime();
+			try (ReadableChannel rc = ctx.db.openFile(desc, COMMIT_GRAPH)) {
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					graph = CommitGraph.read(new BufferedInputStream(in, bs));
+				} finally {
+					ctx.stats.readIdxBytes += rc.position();
+					ctx.stats.recordIndexLoad(elapsedMicros(start));
+				}
+			} catch (EOFException e) {
+				throw new IOException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						desc.getFileName(COMMIT_GRAPH)), e);
+			} catch (IOException e) {
+				throw new IOException(MessageFormat.format(
+						DfsText.get().cannotReadIndex,
+						desc.getFileName(COMMIT_GRAPH)), e);
+			}
+
+			commitGraph = cache.putRef(graphKey, graph.getMemorySize(), graph);
+			return graph;
+		}
+	}
+
+	@Nullable
+	PackObjectFilter getObjectFilter(DfsReader ctx) {
+		if (objectFilterInvalid || !desc.hasFileExt(OBJECT_FILTER))
+			return null;
+
+		DfsBlockCache.Ref<PackObjectFilter> filterref = objectFilter;
+		if (filterref != null) {
+			PackObjectFilter filter = filterref.get();
+			if (filter != null)
+				return filter;
+		}
+
+		synchronized (initLock) {
+			filterref = objectFilter;
+			if (filterref != null) {
+				PackObjectFilter filter = filterref.get();
+				if (filter != null)
+					return filter;
+			}
+
+			DfsStreamKey filterKey = desc.getStreamKey(OBJECT_FILTER);
+			filterref = cache.getRef(filterKey);
+			if (filterref != null) {
+				PackObjectFilter filter = filterref.get();
+				if (filter != null) {
+					objectFilter = filterref;
+					return filter;
+				}
+			}
+
+			PackObjectFilter filter;
+			long start = System.nanoTime();
+			try (ReadableChannel rc = ctx.db.openFile(desc, OBJECT_FILTER)) {
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					long len = desc.getFileSize(OBJECT_FILTER);
+					if (len <= 0)
+						len = rc.size();
+					filter = PackObjectFilter.read(
+							new BufferedInputStream(in, bs), len);
+				} finally {
+					ctx.stats.readIdxBytes += rc.position();
+					ctx.stats.recordIndexLoad(elapsedMicros(start));
+				}
+			} catch (IOException e) {
+				// The filter is only an optimization; fall back to the index.
+				objectFilterInvalid = true;
+				return null;
+			}
+
+			objectFilter = cache.putRef(filterKey, filter.getMemorySize(),
+					filter);
+			return filter;
+		}
+	}
+
+	/**
+	 * Check if this pack may contain an object, without loading the index.
+	 *
+	 * @return false only if the pack definitely does not contain {@code id}.
+	 */
+	private boolean mightContain(DfsReader ctx, AnyObjectId id) {
+		DfsBlockCache.Ref<PackIndex> idxref = index;
+		if (idxref != null && idxref.has()) {
+			// The loaded index answers as quickly as the filter would.
+			return true;
+		}
+		PackObjectFilter filter = getObjectFilter(ctx);
+		if (filter == null || filter.mightContain(id)) {
+			return true;
+		}
+		ctx.stats.objectFilterSkip++;
+		return false;
+	}
+
 	PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackReverseIndex> revref = reverseIndex;
 		if (revref != null) {
@@ -356,6 +526,8 @@ PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 	 *             the pack index is not available, or is corrupt.
 	 */
 	public boolean hasObject(DfsReader ctx, AnyObjectId id) throws IOException {
+		if (!mightContain(ctx, id))
+			return false;
 		final long offset = idx(ctx).findOffset(id);
 		return 0 < offset && !isCorrupt(offset);
 	}
@@ -374,11 +546,15 @@ public boolean hasObject(DfsReader ctx, AnyObjectId id) throws IOException {
 	 */
 	ObjectLoader get(DfsReader ctx, AnyObjectId id)
 			throws IOException {
+		if (!mightContain(ctx, id))
+			return null;
 		long offset = idx(ctx).findOffset(id);
 		return 0 < offset && !isCorrupt(offset) ? load(ctx, offset) : null;
 	}
 
 	long findOffset(DfsReader ctx, AnyObjectId id) throws IOException {
+		if (!mightContain(ctx, id))
+			return -1;
 		return idx(ctx).findOffset(id);
 	}
 
@@ -516,6 +692,118 @@ else if (n > remaining)
 		}
 	}
 
+	/**
+	 * Load the blocks covering a set of ranges with as few reads as possible.
+	 * <p>
+	 * Blocks already in the cache are skipped. The remaining blocks are merged
+	 * into runs, bridging gaps of up to {@link #MAX_READ_GAP_BLOCKS} blocks,
+	 * and read with a single
+	 * {@link ReadableChannel#readVectored(long[], ByteBuffer[])} call. Loaded
+	 * blocks are stored in the cache for the reads that follow.
+	 *
+	 * @param ranges
+	 *            pairs of start (inclusive) and end (exclusive) offsets,
+	 *            sorted by start.
+	 * @param ctx
+	 *            reader context.
+	 * @throws IOException
+	 *             the blocks could not be read.
+	 */
+	void loadBlocks(LongList ranges, DfsReader ctx) throws IOException {
+		if (invalid)
+			throw new PackInvalidException(getFileName());
+
+		@SuppressWarnings("resource") // Explicitly closed in finally block
+		ReadableChannel rc = null;
+		try {
+			if (blockSize == 0 || length < 0) {
+				rc = ctx.db.openFile(desc, PACK);
+				blockSize(rc);
+				if (length < 0) {
+					long len = rc.size();
+					if (0 <= len)
+						length = len;
+				}
+			}
+			int bs = blockSize;
+			long len = length;
+
+			LongList missing = new LongList();
+			long next = 0;
+			for (int i = 0; i < ranges.size(); i += 2) {
+				long b = Math.max(alignToBlock(ranges.get(i)), next);
+				long end = ranges.get(i + 1);
+				if (0 <= len)
+					end = Math.min(end, len);
+				for (; b < end; b += bs) {
+					if (!cache.contains(key, b))
+						missing.add(b);
+				}
+				next = Math.max(next, b);
+			}
+			if (missing.size() == 0)
+				return;
+
+			LongList runs = new LongList();
+			long runStart = missing.get(0);
+			long runEnd = runStart + bs;
+			for (int i = 1; i < missing.size(); i++) {
+				long b = missing.get(i);
+				if (b - runEnd <= MAX_READ_GAP_BLOCKS * (long) bs
+						&& b + bs - runStart <= MAX_READ_RUN_BLOCKS
+								* (long) bs) {
+					runEnd = b + bs;
+				} else {
+					runs.add(runStart);
+					runs.add(runEnd);
+					runStart = b;
+					runEnd = b + bs;
+				}
+			}
+			runs.add(runStart);
+			runs.add(runEnd);
+
+			int cnt = runs.size() / 2;
+			long[] positions = new long[cnt];
+			ByteBuffer[] bufs = new ByteBuffer[cnt];
+			for (int i = 0; i < cnt; i++) {
+				long start = runs.get(2 * i);
+				long end = runs.get(2 * i + 1);
+				if (0 <= len)
+					end = Math.min(end, len);
+				positions[i] = start;
+				bufs[i] = ByteBuffer.allocate((int) (end - start));
+			}
+
+			if (rc == null)
+				rc = ctx.db.openFile(desc, PACK);
+			long start = System.nanoTime();
+			try {
+				rc.readVectored(positions, bufs);
+			} finally {
+				ctx.stats.recordBlockRead(elapsedMicros(start));
+			}
+
+			for (int i = 0; i < cnt; i++) {
+				byte[] data = bufs[i].array();
+				int n = bufs[i].position();
+				for (int p = 0; p < n; p += bs) {
+					int sz = Math.min(bs, n - p);
+					long pos = positions[i] + p;
+					if (sz < bs && pos + sz != len)
+						break; // Short read; leave the block to getOrLoad.
+					byte[] buf = new byte[sz];
+					System.arraycopy(data, p, buf, 0, sz);
+					ctx.stats.readBlock(desc, sz);
+					cache.putLoaded(this, new DfsBlock(key, pos, buf));
+				}
+			}
+		} finally {
+			if (rc != null)
+				rc.close();
+		}
+	}
+
 	private ByteBuffer newCopyBuffer(PackOutputStream out, ReadableChannel rc) {
 		int bs = blockSize(rc);
 		byte[] copyBuf = out.getCopyBuffer();
@@ -54,9 +54,11 @@
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -65,6 +67,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackList;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl;
@@ -88,6 +91,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.util.BlockList;
+import org.eclipse.jgit.util.LongList;
 
 /**
  * Reader to access repository content through.
@@ -106,6 +110,9 @@ public class DfsReader extends ObjectReader implements ObjectReuseAsIs {
 
 	final DfsReaderIoStats.Accumulator stats = new DfsReaderIoStats.Accumulator();
 
+	/** Set once {@link #stats} have been folded into the metrics. */
+	boolean ioStatsReported;
+
 	private Inflater inf;
 	private DfsBlock block;
 	private DeltaBaseCache baseCache;
@@ -156,6 +163,17 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		return null;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public CommitGraph getCommitGraph() throws IOException {
+		for (DfsPackFile pack : db.getPacks()) {
+			CommitGraph graph = pack.getCommitGraph(this);
+			if (graph != null)
+				return graph;
+		}
+		return null;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Collection<CachedPack> getCachedPacksAndUpdate(
@@ -289,6 +307,9 @@ public Set<ObjectId> getShallowCommits() {
 		return Collections.emptySet();
 	}
 
+	/** Upper bound for the type, size and delta base header of an object. */
+	private static final int MAX_OBJECT_HEADER_LENGTH = 32;
+
 	private static final Comparator<FoundObject<?>> FOUND_OBJECT_SORT = new Comparator<FoundObject<?>>() {
 		@Override
 		public int compare(FoundObject<?> a, FoundObject<?> b) {
@@ -299,7 +320,7 @@ public int compare(FoundObject<?> a, FoundObject<?> b) {
 		}
 	};
 
-	private static class FoundObject<T extends ObjectId> {
+	static class FoundObject<T extends ObjectId> {
 		final T id;
 		final DfsPackFile pack;
 		final long offset;
@@ -320,7 +341,7 @@ public int compare(FoundObject<?> a, FoundObject<?> b) {
 		}
 	}
 
-	private <T extends ObjectId> Iterable<FoundObject<T>> findAll(
+	<T extends ObjectId> Iterable<FoundObject<T>> findAll(
 			Iterable<T> objectIds) throws IOException {
 		Collection<T> pending = new LinkedList<>();
 		for (T id : objectIds) {
@@ -406,6 +427,10 @@ public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
 			error = e;
 		}
 
+		if (getOptions().getAsyncExecutor() != null) {
+			return new DfsAsyncObjectQueue<>(this, order, error, false);
+		}
+
 		final Iterator<FoundObject<T>> idItr = order.iterator();
 		final IOException findAllError = error;
 		return new AsyncObjectLoaderQueue<T>() {
@@ -466,6 +491,10 @@ public <T extends ObjectId> AsyncObjectSizeQueue<T> getObjectSize(
 			error = e;
 		}
 
+		if (getOptions().getAsyncExecutor() != null) {
+			return new DfsAsyncObjectQueue<>(this, order, error, true);
+		}
+
 		final Iterator<FoundObject<T>> idItr = order.iterator();
 		final IOException findAllError = error;
 		return new AsyncObjectSizeQueue<T>() {
@@ -698,8 +727,68 @@ public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp,
 	@Override
 	public void writeObjects(PackOutputStream out, List<ObjectToPack> list)
 			throws IOException {
-		for (ObjectToPack otp : list)
-			out.writeObject(otp);
+		int i = 0;
+		while (i < list.size()) {
+			int end = loadBlocks(list, i);
+			for (; i < end; i++)
+				out.writeObject(list.get(i));
+		}
+	}
+
+	/**
+	 * Load the pack blocks needed to copy a run of objects as is.
+	 * <p>
+	 * Starting at {@code from}, objects are planned until their reused data
+	 * would no longer fit in the block cache alongside other readers. The
+	 * ranges of each pack are sorted and handed to
+	 * {@link DfsPackFile#loadBlocks(LongList, DfsReader)}, so that nearby
+	 * blocks are fetched together instead of one block per cache miss.
+	 *
+	 * @return index of the first object not planned.
+	 */
+	private int loadBlocks(List<ObjectToPack> list, int from) {
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		List<DfsObjectToPack> reuse = new ArrayList<>();
+		long planned = 0;
+		int end = from;
+		for (; end < list.size(); end++) {
+			DfsObjectToPack otp = (DfsObjectToPack) list.get(end);
+			if (!otp.isReuseAsIs() || otp.pack == null)
+				continue;
+			long sz = otp.length + MAX_OBJECT_HEADER_LENGTH;
+			if (!reuse.isEmpty() && !cache.shouldCopyThroughCache(planned + sz))
+				break;
+			planned += sz;
+			reuse.add(otp);
+		}
+		if (reuse.size() < 2)
+			return end;
+
+		// Number the packs in order of first use; unlike identity hash
+		// codes the numbers are unique, keeping each pack's ranges together.
+		Map<DfsPackFile, Integer> packOrder = new IdentityHashMap<>();
+		for (DfsObjectToPack otp : reuse)
+			packOrder.putIfAbsent(otp.pack, Integer.valueOf(packOrder.size()));
+		Collections.sort(reuse, (a, b) -> {
+			int cmp = packOrder.get(a.pack).compareTo(packOrder.get(b.pack));
+			return cmp != 0 ? cmp : Long.compare(a.offset, b.offset);
+		});
+		LongList ranges = new LongList();
+		for (int i = 0; i < reuse.size(); i++) {
+			DfsObjectToPack otp = reuse.get(i);
+			ranges.add(otp.offset);
+			ranges.add(otp.offset + otp.length + MAX_OBJECT_HEADER_LENGTH);
+			if (i + 1 == reuse.size() || reuse.get(i + 1).pack != otp.pack) {
+				try {
+					otp.pack.loadBlocks(ranges, this);
+				} catch (IOException e) {
+					// Ignore; copying the objects reports the failure and
+					// lets the pack writer choose another representation.
+				}
+				ranges.clear();
+			}
+		}
+		return end;
 	}
 
 	/** {@inheritDoc} */
@@ -844,6 +933,10 @@ public DfsReaderIoStats getIoStats() {
 	 */
 	@Override
 	public void close() {
+		if (!ioStatsReported) {
+			ioStatsReported = true;
+			db.getIoMetrics().add(db.getRepository().getDescription(), stats);
+		}
 		last = null;
 		block = null;
 		baseCache = null;
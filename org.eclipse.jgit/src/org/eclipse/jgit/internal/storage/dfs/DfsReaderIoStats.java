@@ -43,10 +43,27 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+
 /**
  * IO statistics for a {@link org.eclipse.jgit.internal.storage.dfs.DfsReader}.
  */
 public class DfsReaderIoStats {
+	/**
+	 * Number of buckets in the latency histograms.
+	 * <p>
+	 * Bucket 0 counts operations taking less than 1 microsecond, bucket
+	 * {@code i} counts operations taking {@code [2^(i-1), 2^i)} microseconds,
+	 * and the last bucket collects everything slower.
+	 *
+	 * @since 5.0
+	 */
+	public static final int HISTOGRAM_BUCKETS = 25;
+
+	private static final int PACK_SOURCES = PackSource.values().length;
+
 	/** POJO to accumulate IO statistics. */
 	public static class Accumulator {
 		/** Number of times the reader explicitly called scanPacks. */
@@ -85,8 +102,72 @@ public static class Accumulator {
 		/** Total number of bytes decompressed. */
 		long inflatedBytes;
 
+		/** Total number of pack lookups answered by the object filter. */
+		long objectFilterSkip;
+
+		/** {@link #readBlock} split by {@link PackSource} of the pack. */
+		final long[] readBlockBySource = new long[PACK_SOURCES];
+
+		/** {@link #readBlockBytes} split by {@link PackSource} of the pack. */
+		final long[] readBlockBytesBySource = new long[PACK_SOURCES];
+
+		/** Histogram of microseconds per read from pack file(s). */
+		final long[] readBlockLatency = new long[HISTOGRAM_BUCKETS];
+
+		/** Histogram of microseconds per pack or bitmap index load. */
+		final long[] readIdxLatency = new long[HISTOGRAM_BUCKETS];
+
 		Accumulator() {
 		}
+
+		void readBlock(DfsPackDescription desc, long bytes) {
+			readBlock++;
+			readBlockBytes += bytes;
+			PackSource src = desc.getPackSource();
+			if (src != null) {
+				readBlockBySource[src.ordinal()]++;
+				readBlockBytesBySource[src.ordinal()] += bytes;
+			}
+		}
+
+		void recordBlockRead(long micros) {
+			readBlockMicros += micros;
+			readBlockLatency[bucket(micros)]++;
+		}
+
+		void recordIndexLoad(long micros) {
+			readIdxMicros += micros;
+			readIdxLatency[bucket(micros)]++;
+		}
+
+		void add(Accumulator o) {
+			scanPacks += o.scanPacks;
+			readIdx += o.readIdx;
+			readBitmap += o.readBitmap;
+			readIdxBytes += o.readIdxBytes;
+			readIdxMicros += o.readIdxMicros;
+			blockCacheHit += o.blockCacheHit;
+			readBlock += o.readBlock;
+			readBlockBytes += o.readBlockBytes;
+			readBlockMicros += o.readBlockMicros;
+			inflatedBytes += o.inflatedBytes;
+			objectFilterSkip += o.objectFilterSkip;
+			add(readBlockBySource, o.readBlockBySource);
+			add(readBlockBytesBySource, o.readBlockBytesBySource);
+			add(readBlockLatency, o.readBlockLatency);
+			add(readIdxLatency, o.readIdxLatency);
+		}
+
+		private static void add(long[] dst, long[] src) {
+			for (int i = 0; i < dst.length; i++) {
+				dst[i] += src[i];
+			}
+		}
+
+		private static int bucket(long micros) {
+			int b = 64 - Long.numberOfLeadingZeros(Math.max(micros, 0));
+			return Math.min(b, HISTOGRAM_BUCKETS - 1);
+		}
 	}
 
 	private final Accumulator stats;
@@ -186,4 +267,66 @@ public long getReadBlocksMicros() {
 	public long getInflatedBytes() {
 		return stats.inflatedBytes;
 	}
+
+	/**
+	 * Get number of pack lookups skipped because the pack's object filter
+	 * ruled the object out.
+	 *
+	 * @return number of pack lookups answered by an object filter.
+	 * @since 5.0
+	 */
+	public long getObjectFilterSkips() {
+		return stats.objectFilterSkip;
+	}
+
+	/**
+	 * Get number of blocks read from packs of the given source.
+	 *
+	 * @param source
+	 *            source of the packs.
+	 * @return number of discrete blocks read from packs created by
+	 *         {@code source}.
+	 * @since 5.0
+	 */
+	public long getReadBlocksCount(PackSource source) {
+		return stats.readBlockBySource[source.ordinal()];
+	}
+
+	/**
+	 * Get number of compressed bytes read from packs of the given source.
+	 *
+	 * @param source
+	 *            source of the packs.
+	 * @return number of compressed bytes read from packs created by
+	 *         {@code source}.
+	 * @since 5.0
+	 */
+	public long getReadBlocksBytes(PackSource source) {
+		return stats.readBlockBytesBySource[source.ordinal()];
+	}
+
+	/**
+	 * Get the latency histogram of reads from pack file(s).
+	 * <p>
+	 * A read covers one block, or one coalesced run of blocks. Buckets are
+	 * described by {@link #HISTOGRAM_BUCKETS}.
+	 *
+	 * @return a copy of the histogram; {@link #HISTOGRAM_BUCKETS} entries.
+	 * @since 5.0
+	 */
+	public long[] getReadBlocksLatencyHistogram() {
+		return Arrays.copyOf(stats.readBlockLatency, HISTOGRAM_BUCKETS);
+	}
+
+	/**
+	 * Get the latency histogram of pack and bitmap index loads.
+	 * <p>
+	 * Buckets are described by {@link #HISTOGRAM_BUCKETS}.
+	 *
+	 * @return a copy of the histogram; {@link #HISTOGRAM_BUCKETS} entries.
+	 * @since 5.0
+	 */
+	public long[] getReadIndexLatencyHistogram() {
+		return Arrays.copyOf(stats.readIdxLatency, HISTOGRAM_BUCKETS);
+	}
 }
@@ -45,10 +45,13 @@
 
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_ASYNC_READ_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DELTA_BASE_CACHE_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_BUFFER;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_FILE_TRESHOLD;
 
+import java.util.concurrent.Executor;
+
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.storage.pack.PackConfig;
 
@@ -67,12 +70,19 @@ public class DfsReaderOptions {
 
 	private int streamPackBufferSize;
 
+	private Executor asyncExecutor;
+
+	private int asyncReadLimit;
+
+	private Executor warmUpExecutor;
+
 	/**
 	 * Create a default reader configuration.
 	 */
 	public DfsReaderOptions() {
 		setDeltaBaseCacheLimit(10 * MiB);
 		setStreamFileThreshold(PackConfig.DEFAULT_BIG_FILE_THRESHOLD);
+		setAsyncReadLimit(8);
 	}
 
 	/**
@@ -145,6 +155,93 @@ public DfsReaderOptions setStreamPackBufferSize(int bufsz) {
 		return this;
 	}
 
+	/**
+	 * Get the executor used to read objects for the asynchronous queues.
+	 *
+	 * @return executor running the reads of
+	 *         {@link DfsReader#open(Iterable, boolean)} and
+	 *         {@link DfsReader#getObjectSize(Iterable, boolean)}; null if these
+	 *         queues read synchronously in the calling thread.
+	 * @since 5.0
+	 */
+	public Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
+	/**
+	 * Set the executor used to read objects for the asynchronous queues.
+	 * <p>
+	 * Each task submitted to the executor reads a batch of objects stored in
+	 * the same block of a pack, using its own reader.
+	 *
+	 * @param executor
+	 *            executor to run reads on, or null to read synchronously in
+	 *            the calling thread.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsReaderOptions setAsyncExecutor(Executor executor) {
+		asyncExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Get the maximum number of batches an asynchronous queue reads at once.
+	 *
+	 * @return maximum number of batches an asynchronous queue reads at once.
+	 * @since 5.0
+	 */
+	public int getAsyncReadLimit() {
+		return asyncReadLimit;
+	}
+
+	/**
+	 * Set the maximum number of batches an asynchronous queue reads at once.
+	 *
+	 * @param limit
+	 *            maximum number of batches submitted to the
+	 *            {@link #getAsyncExecutor() executor} but not yet consumed by
+	 *            the caller. Values below 1 are treated as 1.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsReaderOptions setAsyncReadLimit(int limit) {
+		asyncReadLimit = Math.max(1, limit);
+		return this;
+	}
+
+	/**
+	 * Get the executor used to warm up indexes of new packs.
+	 *
+	 * @return executor loading indexes of new packs, or null if new packs
+	 *         are loaded on demand.
+	 * @since 5.0
+	 */
+	public Executor getWarmUpExecutor() {
+		return warmUpExecutor;
+	}
+
+	/**
+	 * Set the executor used to warm up indexes of new packs.
+	 * <p>
+	 * When packs are committed or discovered by a scan of the pack list, a
+	 * task per new pack is submitted to load its index, reverse index and
+	 * bitmap index into the {@link DfsBlockCache}, so the first readers of a
+	 * freshly garbage collected repository do not pay for them. Committing
+	 * packs waits up to 30 seconds for their tasks before the packs become
+	 * visible. The executor should be bounded; tasks it rejects are
+	 * dropped.
+	 *
+	 * @param executor
+	 *            executor to load indexes on, or null to disable warm up.
+	 * @return {@code this}
+	 * @since 5.0
+	 */
+	public DfsReaderOptions setWarmUpExecutor(Executor executor) {
+		warmUpExecutor = executor;
+		return this;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -177,6 +274,12 @@ public DfsReaderOptions fromConfig(Config rc) {
 				CONFIG_DFS_SECTION,
 				CONFIG_KEY_STREAM_BUFFER,
 				getStreamPackBufferSize()));
+
+		setAsyncReadLimit(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_ASYNC_READ_LIMIT,
+				getAsyncReadLimit()));
 		return this;
 	}
 }
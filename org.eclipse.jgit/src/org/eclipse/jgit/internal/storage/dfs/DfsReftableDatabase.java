@@ -45,6 +45,7 @@
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -254,6 +255,34 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 		return new RefMap(prefix, all.toRefList(), none, none);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The references are read with a cursor over the current reftables and
+	 * passed to the visitor as they are read. The tables are opened with a
+	 * private reader, so the visitor runs without holding this database's
+	 * lock.
+	 */
+	@Override
+	public void visitRefs(String prefix, RefVisitor visitor)
+			throws IOException {
+		List<DfsReftable> files = stack().files();
+		DfsObjDatabase odb = getRepository().getObjectDatabase();
+		try (DfsReader reader = odb.newReader();
+				ReftableStack snapshot = ReftableStack.open(reader, files)) {
+			Reftable table = new MergedReftable(snapshot.readers());
+			try (RefCursor rc = ALL.equals(prefix) ? table.allRefs()
+					: table.seekRef(prefix)) {
+				while (rc.next()) {
+					Ref ref = table.resolve(rc.getRef());
+					if (ref != null && ref.getObjectId() != null) {
+						visitor.visit(ref);
+					}
+				}
+			}
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Ref peel(Ref ref) throws IOException {
@@ -67,7 +67,31 @@ public abstract class DfsStreamKey {
 	 */
 	public static DfsStreamKey of(DfsRepositoryDescription repo, String name,
 			@Nullable PackExt ext) {
-		return new ByteArrayDfsStreamKey(repo, name.getBytes(CHARSET), ext);
+		return new ByteArrayDfsStreamKey(repo, name.getBytes(CHARSET), ext,
+				false);
+	}
+
+	/**
+	 * Create a {@code DfsStreamKey} whose blocks may be cached on disk.
+	 * <p>
+	 * Blocks cached on disk outlive the JVM, so {@code name} must never be
+	 * reused for different content within the repository, not even by a
+	 * later process. Backends which cannot promise this use
+	 * {@link #of(DfsRepositoryDescription, String, PackExt)}.
+	 *
+	 * @param repo
+	 *            description of the containing repository.
+	 * @param name
+	 *            compute the key from a string name.
+	 * @param ext
+	 *            pack file extension, or {@code null}.
+	 * @return key for {@code name}
+	 * @since 5.0
+	 */
+	public static DfsStreamKey ofPersistent(DfsRepositoryDescription repo,
+			String name, @Nullable PackExt ext) {
+		return new ByteArrayDfsStreamKey(repo, name.getBytes(CHARSET), ext,
+				true);
 	}
 
 	final int hash;
@@ -89,6 +113,25 @@ protected DfsStreamKey(int hash, @Nullable PackExt ext) {
 		this.packExtPos = ext == null ? 0 : ext.getPosition();
 	}
 
+	/**
+	 * Get a name identifying the stream across JVM restarts.
+	 * <p>
+	 * The name is used to store blocks of the stream in the on-disk block
+	 * cache configured by
+	 * {@link DfsBlockCacheConfig#setDiskCacheDirectory(java.io.File)}. It
+	 * must only be reused by a stream with the same content. Keys do not have
+	 * a persistent name unless created by
+	 * {@link #ofPersistent(DfsRepositoryDescription, String, PackExt)}.
+	 *
+	 * @return name of the stream, or null if its blocks must not be cached on
+	 *         disk.
+	 * @since 5.0
+	 */
+	@Nullable
+	public String getPersistentName() {
+		return null;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
@@ -111,11 +154,22 @@ private static final class ByteArrayDfsStreamKey extends DfsStreamKey {
 
 		private final byte[] name;
 
+		private final boolean persistent;
+
 		ByteArrayDfsStreamKey(DfsRepositoryDescription repo, byte[] name,
-				@Nullable PackExt ext) {
+				@Nullable PackExt ext, boolean persistent) {
 			super(repo.hashCode() * 31 + Arrays.hashCode(name), ext);
 			this.repo = repo;
 			this.name = name;
+			this.persistent = persistent;
+		}
+
+		@Override
+		public String getPersistentName() {
+			String repoName = repo.getRepositoryName();
+			if (!persistent || repoName == null)
+				return null;
+			return repoName + '/' + new String(name, CHARSET);
 		}
 
 		@Override
@@ -63,5 +63,6 @@ public static DfsText get() {
 	/***/ public String cannotReadIndex;
 	/***/ public String shortReadOfBlock;
 	/***/ public String shortReadOfIndex;
+	/***/ public String unsupportedObjectFilter;
 	/***/ public String willNotStoreEmptyPack;
 }
@@ -97,6 +97,7 @@ public void setGitwebDescription(@Nullable String d) {
 	public static class MemObjDatabase extends DfsObjDatabase {
 		private List<DfsPackDescription> packs = new ArrayList<>();
 		private int blockSize;
+		private boolean persistentStreamKeys;
 
 		MemObjDatabase(DfsRepository repo) {
 			super(repo, new DfsReaderOptions());
@@ -110,6 +111,20 @@ public void setReadableChannelBlockSizeForTest(int blockSize) {
 			this.blockSize = blockSize;
 		}
 
+		/**
+		 * Create packs with persistent stream keys, so their blocks may be
+		 * cached on disk.
+		 * <p>
+		 * Pack names restart with the JVM, so only tests can use this.
+		 *
+		 * @param persistent
+		 *            whether new packs use persistent stream keys.
+		 * @since 5.0
+		 */
+		public void setPersistentStreamKeysForTest(boolean persistent) {
+			this.persistentStreamKeys = persistent;
+		}
+
 		@Override
 		protected synchronized List<DfsPackDescription> listPacks() {
 			return packs;
@@ -120,7 +135,7 @@ protected DfsPackDescription newPack(PackSource source) {
 			int id = packId.incrementAndGet();
 			DfsPackDescription desc = new MemPack(
 					"pack-" + id + "-" + source.name(), //$NON-NLS-1$ //$NON-NLS-2$
-					getRepository().getDescription());
+					getRepository().getDescription(), persistentStreamKeys);
 			return desc.setPackSource(source);
 		}
 
@@ -168,9 +183,20 @@ public void flush() {
 
 	private static class MemPack extends DfsPackDescription {
 		final byte[][] fileMap = new byte[PackExt.values().length][];
+		final boolean persistentStreamKeys;
 
-		MemPack(String name, DfsRepositoryDescription repoDesc) {
+		MemPack(String name, DfsRepositoryDescription repoDesc,
+				boolean persistentStreamKeys) {
 			super(repoDesc, name);
+			this.persistentStreamKeys = persistentStreamKeys;
+		}
+
+		@Override
+		public DfsStreamKey getStreamKey(PackExt ext) {
+			if (persistentStreamKeys)
+				return DfsStreamKey.ofPersistent(getRepositoryDescription(),
+						getFileName(ext), ext);
+			return super.getStreamKey(ext);
 		}
 
 		void put(PackExt ext, byte[] data) {
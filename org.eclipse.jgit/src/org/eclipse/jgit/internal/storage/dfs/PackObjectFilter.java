@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_FILTER;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.io.CountingOutputStream;
+
+/**
+ * Blocked Bloom filter of the objects stored in a pack.
+ * <p>
+ * The filter answers "definitely not in this pack" for most objects the pack
+ * does not contain, allowing readers to skip loading the pack index. Each
+ * object sets {@link #HASHES} bits within one 512 bit block, so a lookup
+ * touches a single cache line. Object ids are already uniformly distributed,
+ * so the bits are taken directly from the id rather than rehashed.
+ * <p>
+ * File format: the 4 byte signature {@code PFLT}, a 4 byte version, the 4 byte
+ * number of blocks, then each block as 8 big-endian 64 bit words.
+ */
+final class PackObjectFilter {
+	/** Bits allocated per object; gives a false positive rate near 1%. */
+	static final int BITS_PER_OBJECT = 10;
+
+	private static final int HASHES = 7;
+
+	private static final int BLOCK_BITS = 512;
+
+	private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+
+	private static final byte[] SIGNATURE = { 'P', 'F', 'L', 'T' };
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * Write the filter of a pack to the DFS.
+	 *
+	 * @param db
+	 *            database the pack is stored in.
+	 * @param pack
+	 *            description of the pack; updated with the new extension.
+	 * @param objects
+	 *            all objects of the pack, usually as listed in its index.
+	 * @throws IOException
+	 *             the filter cannot be written.
+	 */
+	static void write(DfsObjDatabase db, DfsPackDescription pack,
+			List<? extends AnyObjectId> objects) throws IOException {
+		PackObjectFilter filter = new PackObjectFilter(
+				blocksFor(objects.size()));
+		for (AnyObjectId id : objects) {
+			filter.add(id);
+		}
+		try (DfsOutputStream out = db.writeFile(pack, OBJECT_FILTER)) {
+			CountingOutputStream cnt = new CountingOutputStream(out);
+			filter.write(cnt);
+			pack.addFileExt(OBJECT_FILTER);
+			pack.setFileSize(OBJECT_FILTER, cnt.getCount());
+			pack.setBlockSize(OBJECT_FILTER, out.blockSize());
+		}
+
+		// Readers of a new pack are likely to follow shortly.
+		DfsBlockCache.getInstance().putRef(pack.getStreamKey(OBJECT_FILTER),
+				filter.getMemorySize(), filter);
+	}
+
+	/**
+	 * Read a filter.
+	 *
+	 * @param in
+	 *            stream positioned at the start of the filter.
+	 * @param length
+	 *            number of bytes of the filter in {@code in}.
+	 * @return the filter.
+	 * @throws IOException
+	 *             the stream cannot be read, or is not a supported filter.
+	 */
+	static PackObjectFilter read(InputStream in, long length)
+			throws IOException {
+		byte[] hdr = new byte[HEADER_SIZE];
+		IO.readFully(in, hdr, 0, HEADER_SIZE);
+		int blocks = NB.decodeInt32(hdr, 8);
+		if (!Arrays.equals(SIGNATURE, Arrays.copyOf(hdr, 4))
+				|| NB.decodeInt32(hdr, 4) != VERSION || blocks <= 0) {
+			throw new IOException(DfsText.get().unsupportedObjectFilter);
+		}
+		// Check the block count before allocating, so a corrupt header
+		// cannot overflow the array size or exhaust the heap.
+		if (blocks > Integer.MAX_VALUE / BLOCK_WORDS
+				|| blocks != (length - HEADER_SIZE) / (BLOCK_WORDS * 8)) {
+			throw new IOException(DfsText.get().unsupportedObjectFilter);
+		}
+
+		PackObjectFilter filter = new PackObjectFilter(blocks);
+		byte[] buf = new byte[BLOCK_WORDS * 8];
+		for (int b = 0; b < blocks; b++) {
+			IO.readFully(in, buf, 0, buf.length);
+			for (int w = 0; w < BLOCK_WORDS; w++) {
+				filter.bits[b * BLOCK_WORDS + w] = NB.decodeInt64(buf, w * 8);
+			}
+		}
+		return filter;
+	}
+
+	private static int blocksFor(long count) {
+		long bits = Math.max(count, 1) * BITS_PER_OBJECT;
+		return (int) Math.min((bits + BLOCK_BITS - 1) / BLOCK_BITS,
+				Integer.MAX_VALUE / BLOCK_WORDS);
+	}
+
+	private final int blocks;
+
+	private final long[] bits;
+
+	private PackObjectFilter(int blocks) {
+		this.blocks = blocks;
+		this.bits = new long[blocks * BLOCK_WORDS];
+	}
+
+	/**
+	 * Test an object against the filter.
+	 *
+	 * @param id
+	 *            object to test.
+	 * @return false if the pack definitely does not contain {@code id}; true
+	 *         if it may.
+	 */
+	boolean mightContain(AnyObjectId id) {
+		int base = block(id);
+		int a = hash(id, 8);
+		int b = hash(id, 10) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (a + i * b) & (BLOCK_BITS - 1);
+			if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	long getMemorySize() {
+		return bits.length * 8L;
+	}
+
+	private void add(AnyObjectId id) {
+		int base = block(id);
+		int a = hash(id, 8);
+		int b = hash(id, 10) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (a + i * b) & (BLOCK_BITS - 1);
+			bits[base + (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	private void write(OutputStream out) throws IOException {
+		byte[] hdr = new byte[HEADER_SIZE];
+		System.arraycopy(SIGNATURE, 0, hdr, 0, 4);
+		NB.encodeInt32(hdr, 4, VERSION);
+		NB.encodeInt32(hdr, 8, blocks);
+		out.write(hdr);
+
+		byte[] buf = new byte[BLOCK_WORDS * 8];
+		for (int b = 0; b < blocks; b++) {
+			for (int w = 0; w < BLOCK_WORDS; w++) {
+				NB.encodeInt64(buf, w * 8, bits[b * BLOCK_WORDS + w]);
+			}
+			out.write(buf);
+		}
+	}
+
+	private int block(AnyObjectId id) {
+		// hashCode() is the second word of the id.
+		return (int) ((id.hashCode() & 0xffffffffL) % blocks) * BLOCK_WORDS;
+	}
+
+	private static int hash(AnyObjectId id, int offset) {
+		return id.getByte(offset) << 8 | id.getByte(offset + 1);
+	}
+}
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
 /**
@@ -132,4 +133,40 @@ public interface ReadableChannel extends ReadableByteChannel {
 	 *             if the read ahead cannot be adjusted.
 	 */
 	public void setReadAheadBytes(int bufferSize) throws IOException;
+
+	/**
+	 * Read several ranges of the channel in one call.
+	 * <p>
+	 * Range {@code i} starts at {@code positions[i]} and is read into
+	 * {@code dsts[i]} until the buffer has no space remaining, or the end of
+	 * the channel is reached. Callers pass ranges sorted by position and
+	 * merged with their neighbors, so that each range is worth a separate
+	 * request to the backing store.
+	 * <p>
+	 * The default implementation positions the channel and reads each range
+	 * in turn. Channels backed by storage with a high per-request latency,
+	 * such as object stores, should override it to fetch all ranges with a
+	 * single request or concurrently.
+	 * <p>
+	 * After this method returns the position of the channel is undefined.
+	 *
+	 * @param positions
+	 *            offset of the first byte of each range.
+	 * @param dsts
+	 *            buffer receiving each range; must have the same length as
+	 *            {@code positions}.
+	 * @throws java.io.IOException
+	 *             a range cannot be read.
+	 * @since 5.0
+	 */
+	public default void readVectored(long[] positions, ByteBuffer[] dsts)
+			throws IOException {
+		for (int i = 0; i < positions.length; i++) {
+			ByteBuffer dst = dsts[i];
+			position(positions[i]);
+			while (dst.hasRemaining() && read(dst) > 0) {
+				// Keep reading until the range is complete.
+			}
+		}
+	}
 }
@@ -86,6 +86,27 @@ final int size() {
 		return (int) (end - start);
 	}
 
+	/**
+	 * Acquire a reference on behalf of a reader.
+	 * <p>
+	 * Windows with pooled storage are reference counted so that their storage
+	 * is reused only when no reader holds them. Heap and mapped windows are
+	 * left to the garbage collector.
+	 *
+	 * @return false if the window has already been recycled and must not be
+	 *         used.
+	 */
+	boolean pin() {
+		return true;
+	}
+
+	/**
+	 * Release a reference acquired by {@link #pin()}, or the cache's own.
+	 */
+	void unpin() {
+		// Only pooled windows are reference counted.
+	}
+
 	final boolean contains(final PackFile neededFile, final long neededPos) {
 		return pack == neededFile && start <= neededPos && neededPos < end;
 	}
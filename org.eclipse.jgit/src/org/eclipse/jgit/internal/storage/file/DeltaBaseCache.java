@@ -44,6 +44,7 @@
 package org.eclipse.jgit.internal.storage.file;
 
 import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jgit.storage.file.WindowCacheConfig;
 
@@ -77,6 +78,85 @@ static void reconfigure(WindowCacheConfig cfg) {
 		defaultMaxByteCount = cfg.getDeltaBaseCacheLimit();
 	}
 
+	/**
+	 * Chain depths counted individually by the statistics below; deeper
+	 * chains are counted together in the last bucket.
+	 */
+	static final int MAX_STATS_DEPTH = 50;
+
+	private static final LongAdder[] hits = newCounters();
+
+	private static final LongAdder[] misses = newCounters();
+
+	private static final LongAdder[] inflatedBytes = newCounters();
+
+	private static LongAdder[] newCounters() {
+		LongAdder[] r = new LongAdder[MAX_STATS_DEPTH + 1];
+		for (int i = 0; i < r.length; i++)
+			r[i] = new LongAdder();
+		return r;
+	}
+
+	private static int bucket(int depth) {
+		return Math.min(depth, MAX_STATS_DEPTH);
+	}
+
+	/**
+	 * Record a base found in the cache.
+	 *
+	 * @param depth
+	 *            number of deltas between the requested object and the base.
+	 */
+	static void recordHit(int depth) {
+		hits[bucket(depth)].increment();
+	}
+
+	/**
+	 * Record a base not found in the cache.
+	 *
+	 * @param depth
+	 *            number of deltas between the requested object and the base.
+	 */
+	static void recordMiss(int depth) {
+		misses[bucket(depth)].increment();
+	}
+
+	/**
+	 * Record bytes inflated while resolving a chain.
+	 *
+	 * @param depth
+	 *            number of deltas between the requested object and the
+	 *            inflated entry; 0 for the requested object itself.
+	 * @param bytes
+	 *            number of bytes inflated.
+	 */
+	static void recordInflated(int depth, long bytes) {
+		inflatedBytes[bucket(depth)].add(bytes);
+	}
+
+	static long[] getHitCounts() {
+		return sum(hits);
+	}
+
+	static long[] getMissCounts() {
+		return sum(misses);
+	}
+
+	static long[] getInflatedBytes() {
+		return sum(inflatedBytes);
+	}
+
+	private static long[] sum(LongAdder[] counters) {
+		long[] r = new long[counters.length];
+		for (int i = 0; i < r.length; i++)
+			r[i] = counters[i].sum();
+		return r;
+	}
+
+	static int getDefaultMaxByteCount() {
+		return defaultMaxByteCount;
+	}
+
 	DeltaBaseCache() {
 		maxByteCount = defaultMaxByteCount;
 		cache = new Slot[CACHE_SZ];
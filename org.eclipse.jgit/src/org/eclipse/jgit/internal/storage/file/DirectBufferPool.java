@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed budget pool of direct {@link ByteBuffer}s used as window storage.
+ * <p>
+ * Buffers are all one window in size. Released buffers are kept for reuse,
+ * so after warm up the pool stops allocating and pack data never enters the
+ * Java heap. Once the budget is allocated and no buffer is free,
+ * {@link #allocate()} returns null and callers fall back to heap windows.
+ */
+final class DirectBufferPool {
+	private final int bufferSize;
+
+	private final long maxBytes;
+
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+	DirectBufferPool(int bufferSize, long maxBytes) {
+		this.bufferSize = bufferSize;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Take a buffer from the pool.
+	 *
+	 * @return a cleared buffer of the pool's buffer size; null if the
+	 *         off-heap budget is exhausted.
+	 */
+	ByteBuffer allocate() {
+		ByteBuffer b = free.poll();
+		if (b != null) {
+			b.clear();
+			return b;
+		}
+		long a;
+		do {
+			a = allocatedBytes.get();
+			if (maxBytes < a + bufferSize)
+				return null;
+		} while (!allocatedBytes.compareAndSet(a, a + bufferSize));
+		return ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Return a buffer obtained from {@link #allocate()}.
+	 *
+	 * @param b
+	 *            the buffer; must not be used by the caller afterwards.
+	 */
+	void release(ByteBuffer b) {
+		free.offer(b);
+	}
+
+	/** @return bytes of direct memory allocated by this pool. */
+	long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/** @return number of allocated buffers not currently in use. */
+	int getFreeBuffers() {
+		return free.size();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
+
+/**
+ * A window backed by a direct {@link ByteBuffer} borrowed from a
+ * {@link DirectBufferPool}.
+ * <p>
+ * The buffer is shared by the cache and every cursor that pinned the window.
+ * It is returned to the pool when the last of them calls {@link #unpin()}; a
+ * window whose count has dropped to zero can no longer be pinned.
+ *
+ * @see ByteBufferWindow
+ */
+final class DirectByteWindow extends ByteWindow {
+	private final DirectBufferPool pool;
+
+	private final ByteBuffer buffer;
+
+	/** The cache's reference plus one per pinning cursor. */
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	DirectByteWindow(PackFile pack, long o, ByteBuffer b,
+			DirectBufferPool pool) {
+		super(pack, o, b.limit());
+		this.buffer = b;
+		this.pool = pool;
+	}
+
+	@Override
+	boolean pin() {
+		for (;;) {
+			int r = refs.get();
+			if (r == 0)
+				return false;
+			if (refs.compareAndSet(r, r + 1))
+				return true;
+		}
+	}
+
+	@Override
+	void unpin() {
+		if (refs.decrementAndGet() == 0)
+			pool.release(buffer);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int copy(int p, byte[] b, int o, int n) {
+		ByteBuffer s = buffer.duplicate();
+		s.position(p);
+		n = Math.min(s.remaining(), n);
+		s.get(b, o, n);
+		return n;
+	}
+
+	@Override
+	void write(PackOutputStream out, long pos, int cnt) throws IOException {
+		ByteBuffer s = buffer.duplicate();
+		s.position((int) (pos - start));
+
+		while (0 < cnt) {
+			byte[] buf = out.getCopyBuffer();
+			int n = Math.min(cnt, buf.length);
+			s.get(buf, 0, n);
+			out.write(buf, 0, n);
+			cnt -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int setInput(int pos, Inflater inf) throws DataFormatException {
+		ByteBuffer s = buffer.duplicate();
+		s.position(pos);
+		byte[] tmp = new byte[Math.min(s.remaining(), 512)];
+		s.get(tmp, 0, tmp.length);
+		inf.setInput(tmp, 0, tmp.length);
+		return tmp.length;
+	}
+}
@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.REVERSE_INDEX;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -93,6 +94,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.internal.storage.reftree.RefTreeNames;
@@ -150,6 +152,9 @@ public class GC {
 
 	private static final String INDEX_EXT = "." + PackExt.INDEX.getExtension(); //$NON-NLS-1$
 
+	private static final String REVERSE_INDEX_EXT = "." //$NON-NLS-1$
+			+ REVERSE_INDEX.getExtension();
+
 	private static final int DEFAULT_AUTOPACKLIMIT = 50;
 
 	private static final int DEFAULT_AUTOLIMIT = 6700;
@@ -906,6 +911,8 @@ public Collection<PackFile> repack() throws IOException {
 		deleteEmptyRefsFolders();
 		deleteOrphans();
 		deleteTempPacksIdx();
+		repo.getObjectDatabase().updateMultiPackIndex(false);
+		writeCommitGraph(refsBefore);
 
 		lastPackedRefs = refsBefore;
 		lastRepackTime = time;
@@ -966,8 +973,9 @@ private boolean delete(Path d) {
 	/**
 	 * Deletes orphans
 	 * <p>
-	 * A file is considered an orphan if it is either a "bitmap" or an index
-	 * file, and its corresponding pack file is missing in the list.
+	 * A file is considered an orphan if it is either a "bitmap", an index or
+	 * a reverse index file, and its corresponding pack file is missing in the
+	 * list.
 	 * </p>
 	 */
 	private void deleteOrphans() {
@@ -977,8 +985,8 @@ private void deleteOrphans() {
 			fileNames = files.map(path -> path.getFileName().toString())
 					.filter(name -> (name.endsWith(PACK_EXT)
 							|| name.endsWith(BITMAP_EXT)
-							|| name.endsWith(INDEX_EXT)))
-					.sorted(Collections.reverseOrder())
+							|| name.endsWith(INDEX_EXT)
+							|| name.endsWith(REVERSE_INDEX_EXT)))
 					.collect(Collectors.toList());
 		} catch (IOException e1) {
 			// ignore
@@ -987,17 +995,19 @@ private void deleteOrphans() {
 			return;
 		}
 
-		String base = null;
+		Set<String> packs = new HashSet<>();
 		for (String n : fileNames) {
 			if (n.endsWith(PACK_EXT)) {
-				base = n.substring(0, n.lastIndexOf('.'));
-			} else {
-				if (base == null || !n.startsWith(base)) {
-					try {
-						Files.delete(packDir.resolve(n));
-					} catch (IOException e) {
-						LOG.error(e.getMessage(), e);
-					}
+				packs.add(n.substring(0, n.lastIndexOf('.')));
+			}
+		}
+		for (String n : fileNames) {
+			if (!n.endsWith(PACK_EXT)
+					&& !packs.contains(n.substring(0, n.lastIndexOf('.')))) {
+				try {
+					Files.delete(packDir.resolve(n));
+				} catch (IOException e) {
+					LOG.error(e.getMessage(), e);
 				}
 			}
 		}
@@ -1054,6 +1064,61 @@ private Set<ObjectId> listRefLogObjects(Ref ref, long minTime) throws IOExceptio
 		return ret;
 	}
 
+	/**
+	 * Write the commit-graph describing the history reachable from the refs.
+	 * <p>
+	 * Does nothing unless {@code gc.writeCommitGraph} is enabled. The graph
+	 * is not written for shallow repositories, as it cannot describe the
+	 * grafted history. If another process holds the lock on the graph the
+	 * update is skipped.
+	 *
+	 * @param refs
+	 *            refs whose history should be described by the graph.
+	 * @throws IOException
+	 *             the history cannot be read or the graph cannot be written.
+	 */
+	private void writeCommitGraph(Collection<Ref> refs) throws IOException {
+		if (!repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false)) {
+			return;
+		}
+		ObjectDirectory odb = repo.getObjectDatabase();
+		if (!odb.getShallowCommits().isEmpty()) {
+			return;
+		}
+
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : refs) {
+			if (ref.isSymbolic() || ref.getObjectId() == null) {
+				continue;
+			}
+			tips.add(ref.getObjectId());
+		}
+
+		File graphFile = odb.getCommitGraphFile();
+		if (tips.isEmpty()) {
+			FileUtils.delete(graphFile, FileUtils.SKIP_MISSING);
+			return;
+		}
+		FileUtils.mkdirs(graphFile.getParentFile(), true);
+		LockFile lck = new LockFile(graphFile);
+		if (!lck.lock()) {
+			return;
+		}
+		try {
+			try (ObjectReader reader = repo.newObjectReader();
+					OutputStream out = lck.getOutputStream()) {
+				new CommitGraphWriter(reader).write(pm, out, tips);
+			}
+			if (!lck.commit()) {
+				throw new IOException(MessageFormat
+						.format(JGitText.get().unableToWrite, graphFile));
+			}
+		} finally {
+			lck.unlock();
+		}
+	}
+
 	/**
 	 * Returns a collection of all refs and additional refs.
 	 *
@@ -1158,9 +1223,8 @@ private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 			}
 			return Integer.signum(o1.hashCode() - o2.hashCode());
 		});
-		try (PackWriter pw = new PackWriter(
-				(pconfig == null) ? new PackConfig(repo) : pconfig,
-				repo.newObjectReader())) {
+		PackConfig config = (pconfig == null) ? new PackConfig(repo) : pconfig;
+		try (PackWriter pw = new PackWriter(config, repo.newObjectReader())) {
 			// prepare the PackWriter
 			pw.setDeltaBaseAsOffset(true);
 			pw.setReuseDeltaCommits(false);
@@ -1206,6 +1270,24 @@ private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 				idxChannel.force(true);
 			}
 
+			if (config.isWriteReverseIndex()) {
+				File tmpRevIdx = new File(packdir, tmpBase + ".rev_tmp"); //$NON-NLS-1$
+				tmpExts.put(REVERSE_INDEX, tmpRevIdx);
+
+				if (!tmpRevIdx.createNewFile())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().cannotCreateIndexfile,
+							tmpRevIdx.getPath()));
+
+				try (FileOutputStream fos = new FileOutputStream(tmpRevIdx);
+						FileChannel idxChannel = fos.getChannel();
+						OutputStream idxStream = Channels
+								.newOutputStream(idxChannel)) {
+					pw.writeReverseIndex(idxStream);
+					idxChannel.force(true);
+				}
+			}
+
 			if (pw.prepareBitmapIndex(pm)) {
 				File tmpBitmapIdx = new File(packdir, tmpBase + ".bitmap_tmp"); //$NON-NLS-1$
 				tmpExts.put(BITMAP_INDEX, tmpBitmapIdx);
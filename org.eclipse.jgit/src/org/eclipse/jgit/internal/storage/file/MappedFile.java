@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.eclipse.jgit.internal.JGitText;
+
+/**
+ * A read-only memory mapping of a file which can be released.
+ * <p>
+ * The JVM only unmaps a file once its buffer is garbage collected. Until
+ * then the file stays open, which on Windows prevents it from being deleted.
+ * This class unmaps eagerly instead: readers bracket each access with
+ * {@link #acquire()} and {@link #release()}, and the mapping is dropped once
+ * {@link #close()} was called and the last reader is done with it. Reading
+ * after that fails rather than touching memory which is no longer mapped.
+ */
+final class MappedFile {
+	private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+	/**
+	 * Map a file.
+	 *
+	 * @param file
+	 *            the file, for error messages.
+	 * @param fd
+	 *            the open file.
+	 * @param len
+	 *            number of bytes to map.
+	 * @return the mapping.
+	 * @throws java.io.IOException
+	 *             the file cannot be mapped.
+	 */
+	static MappedFile map(File file, RandomAccessFile fd, long len)
+			throws IOException {
+		return new MappedFile(file,
+				fd.getChannel().map(MapMode.READ_ONLY, 0, len));
+	}
+
+	private final File file;
+
+	private final ByteBuffer buf;
+
+	/** Number of active readers, plus one for the owner until closed. */
+	private final AtomicInteger users = new AtomicInteger(1);
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private MappedFile(File file, ByteBuffer buf) {
+		this.file = file;
+		this.buf = buf;
+	}
+
+	/**
+	 * Start reading the mapping.
+	 * <p>
+	 * Only absolute get methods may be used on the returned buffer, as it is
+	 * shared by all readers. Every call must be paired with
+	 * {@link #release()}.
+	 *
+	 * @return the mapped buffer.
+	 * @throws java.lang.IllegalStateException
+	 *             the mapping was already released.
+	 */
+	ByteBuffer acquire() {
+		for (;;) {
+			int n = users.get();
+			if (n == 0) {
+				throw new IllegalStateException(MessageFormat.format(
+						JGitText.get().mappedFileReleased,
+						file.getAbsolutePath()));
+			}
+			if (users.compareAndSet(n, n + 1)) {
+				return buf;
+			}
+		}
+	}
+
+	/** Finish reading the buffer returned by {@link #acquire()}. */
+	void release() {
+		if (users.decrementAndGet() == 0 && UNMAPPER != null) {
+			UNMAPPER.accept(buf);
+		}
+	}
+
+	/**
+	 * Release the mapping once all current readers are done with it.
+	 * <p>
+	 * Calling this more than once has no further effect.
+	 */
+	void close() {
+		if (closed.compareAndSet(false, true)) {
+			release();
+		}
+	}
+
+	private static Consumer<ByteBuffer> unmapper() {
+		try {
+			// Java 9 and later.
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", //$NON-NLS-1$
+					ByteBuffer.class);
+			Field f = unsafeClass.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+			f.setAccessible(true);
+			Object unsafe = f.get(null);
+			return b -> {
+				try {
+					invokeCleaner.invoke(unsafe, b);
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					// Leave it to the garbage collector.
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Fall through to the Java 8 cleaner.
+		}
+		try {
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer") //$NON-NLS-1$
+					.getMethod("cleaner"); //$NON-NLS-1$
+			Method clean = Class.forName("sun.misc.Cleaner") //$NON-NLS-1$
+					.getMethod("clean"); //$NON-NLS-1$
+			return b -> {
+				try {
+					Object c = cleaner.invoke(b);
+					if (c != null) {
+						clean.invoke(c);
+					}
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					// Leave it to the garbage collector.
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Mappings are only released by the garbage collector.
+			return null;
+		}
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.UnsupportedPackIndexVersionException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Support for the pack index v2 format, reading a memory mapped file.
+ * <p>
+ * Unlike {@link PackIndexV2} the tables are not copied onto the heap; lookups
+ * binary search the mapped file directly. Only the fan-out table is decoded.
+ * <p>
+ * The mapping is released by {@link #close()}; the index cannot be used
+ * afterwards.
+ */
+class MappedPackIndexV2 extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int ID_WORDS = Constants.OBJECT_ID_LENGTH / 4;
+
+	private final MappedFile mapping;
+
+	private final long[] fanoutTable;
+
+	private final int objectCnt;
+
+	private final int namesPos;
+
+	private final int crc32Pos;
+
+	private final int offset32Pos;
+
+	private final int offset64Pos;
+
+	private final int offset64Cnt;
+
+	/**
+	 * Map an existing pack index file.
+	 *
+	 * @param idxFile
+	 *            the {@code .idx} file.
+	 * @return the mapped index; null if the file uses the version 1 format,
+	 *         which has no table of contents and is not mapped.
+	 * @throws java.io.IOException
+	 *             the file cannot be mapped, is corrupt, uses an unsupported
+	 *             version, or is too large to map.
+	 */
+	static MappedPackIndexV2 map(File idxFile) throws IOException {
+		try (RandomAccessFile fd = new RandomAccessFile(idxFile, "r")) { //$NON-NLS-1$
+			long len = fd.length();
+			if (len > Integer.MAX_VALUE) {
+				throw new IOException(
+						JGitText.get().indexFileIsTooLargeForJgit);
+			}
+			MappedFile mapping = MappedFile.map(idxFile, fd, len);
+			MappedPackIndexV2 idx = null;
+			try {
+				ByteBuffer buf = mapping.acquire();
+				try {
+					if (isTOC(buf)) {
+						idx = new MappedPackIndexV2(mapping, buf);
+					}
+				} finally {
+					mapping.release();
+				}
+			} finally {
+				if (idx == null) {
+					mapping.close();
+				}
+			}
+			return idx;
+		} catch (IOException ioe) {
+			throw new IOException(
+					MessageFormat.format(JGitText.get().unreadablePackIndex,
+							idxFile.getAbsolutePath()),
+					ioe);
+		}
+	}
+
+	private static boolean isTOC(ByteBuffer buf) {
+		byte[] toc = PackIndexWriter.TOC;
+		if (buf.limit() < toc.length) {
+			return false;
+		}
+		for (int i = 0; i < toc.length; i++) {
+			if (buf.get(i) != toc[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private MappedPackIndexV2(MappedFile mapping, ByteBuffer buf)
+			throws IOException {
+		this.mapping = mapping;
+		int len = buf.limit();
+		if (len < HEADER_SIZE + 4 * FANOUT + 40) {
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+		}
+		int version = buf.getInt(4);
+		if (version != 2) {
+			throw new UnsupportedPackIndexVersionException(version);
+		}
+
+		fanoutTable = new long[FANOUT];
+		long prior = 0;
+		for (int k = 0; k < FANOUT; k++) {
+			long n = buf.getInt(HEADER_SIZE + 4 * k) & 0xffffffffL;
+			if (n < prior) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(n - prior)));
+			}
+			fanoutTable[k] = n;
+			prior = n;
+		}
+
+		// Fixed size tables occupy 28 bytes per object; anything left
+		// before the two trailing checksums is the 64 bit offset table.
+		long cnt = fanoutTable[FANOUT - 1];
+		long fixed = HEADER_SIZE + 4 * FANOUT + 28 * cnt + 40;
+		if (fixed > len || (len - fixed) % 8 != 0) {
+			throw new IOException(
+					JGitText.get().unknownIndexVersionOrCorruptIndex);
+		}
+		objectCnt = (int) cnt;
+		namesPos = HEADER_SIZE + 4 * FANOUT;
+		crc32Pos = namesPos + Constants.OBJECT_ID_LENGTH * objectCnt;
+		offset32Pos = crc32Pos + 4 * objectCnt;
+		offset64Pos = offset32Pos + 4 * objectCnt;
+		offset64Cnt = (int) ((len - fixed) / 8);
+
+		packChecksum = new byte[20];
+		for (int i = 0; i < packChecksum.length; i++) {
+			packChecksum[i] = buf.get(len - 40 + i);
+		}
+	}
+
+	@Override
+	void close() {
+		mapping.close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getObjectCount() {
+		return objectCnt;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId getObjectId(long nthPosition) {
+		int[] id = new int[ID_WORDS];
+		ByteBuffer buf = mapping.acquire();
+		try {
+			readId(buf, (int) nthPosition, id);
+		} finally {
+			mapping.release();
+		}
+		return ObjectId.fromRaw(id);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	long getOffset(long nthPosition) {
+		ByteBuffer buf = mapping.acquire();
+		try {
+			return getOffset(buf, (int) nthPosition);
+		} finally {
+			mapping.release();
+		}
+	}
+
+	private long getOffset(ByteBuffer buf, int pos) {
+		long p = buf.getInt(offset32Pos + 4 * pos) & 0xffffffffL;
+		if ((p & IS_O64) != 0) {
+			return buf.getLong(offset64Pos + 8 * (int) (p & ~IS_O64));
+		}
+		return p;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long findOffset(AnyObjectId objId) {
+		ByteBuffer buf = mapping.acquire();
+		try {
+			int pos = findPosition(buf, objId);
+			return pos < 0 ? -1 : getOffset(buf, pos);
+		} finally {
+			mapping.release();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		ByteBuffer buf = mapping.acquire();
+		try {
+			int pos = findPosition(buf, objId);
+			if (pos < 0) {
+				throw new MissingObjectException(objId.copy(), "unknown"); //$NON-NLS-1$
+			}
+			return buf.getInt(crc32Pos + 4 * pos) & 0xffffffffL;
+		} finally {
+			mapping.release();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasCRC32Support() {
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorMapped();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
+			int matchLimit) throws IOException {
+		ByteBuffer buf = mapping.acquire();
+		try {
+			resolve(buf, matches, id, matchLimit);
+		} finally {
+			mapping.release();
+		}
+	}
+
+	private void resolve(ByteBuffer buf, Set<ObjectId> matches,
+			AbbreviatedObjectId id, int matchLimit) {
+		int levelOne = id.getFirstByte();
+		int[] tmp = new int[ID_WORDS];
+		int low = levelOne > 0 ? (int) fanoutTable[levelOne - 1] : 0;
+		int max = (int) fanoutTable[levelOne];
+		int high = max;
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			readId(buf, p, tmp);
+			int cmp = id.prefixCompare(tmp, 0);
+			if (cmp < 0) {
+				high = p;
+			} else if (cmp == 0) {
+				// We may have landed in the middle of the matches. Move
+				// backwards to the start of matches, then walk forwards.
+				while (0 < p && prefixMatches(buf, id, p - 1, tmp)) {
+					p--;
+				}
+				for (; p < max && prefixMatches(buf, id, p, tmp); p++) {
+					matches.add(ObjectId.fromRaw(tmp));
+					if (matches.size() > matchLimit) {
+						break;
+					}
+				}
+				return;
+			} else {
+				low = p + 1;
+			}
+		}
+	}
+
+	private boolean prefixMatches(ByteBuffer buf, AbbreviatedObjectId id,
+			int p, int[] tmp) {
+		readId(buf, p, tmp);
+		return id.prefixCompare(tmp, 0) == 0;
+	}
+
+	private int findPosition(ByteBuffer buf, AnyObjectId objId) {
+		int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? (int) fanoutTable[levelOne - 1] : 0;
+		int high = (int) fanoutTable[levelOne];
+		int[] tmp = new int[ID_WORDS];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			readId(buf, mid, tmp);
+			int cmp = objId.compareTo(tmp, 0);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	private void readId(ByteBuffer buf, int pos, int[] dst) {
+		int p = namesPos + Constants.OBJECT_ID_LENGTH * pos;
+		for (int i = 0; i < ID_WORDS; i++, p += 4) {
+			dst[i] = buf.getInt(p);
+		}
+	}
+
+	private class EntriesIteratorMapped extends EntriesIterator {
+		private final int[] tmp = new int[ID_WORDS];
+
+		private int pos = -1;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				@Override
+				protected void ensureId() {
+					ByteBuffer buf = mapping.acquire();
+					try {
+						readId(buf, pos, tmp);
+					} finally {
+						mapping.release();
+					}
+					idBuffer.fromRaw(tmp);
+				}
+			};
+		}
+
+		@Override
+		public MutableEntry next() {
+			if (pos + 1 >= objectCnt) {
+				throw new NoSuchElementException();
+			}
+			pos++;
+			entry.offset = getOffset(pos);
+			returnedNumber++;
+			return entry;
+		}
+	}
+}
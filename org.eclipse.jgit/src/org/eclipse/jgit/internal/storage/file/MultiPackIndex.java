@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Index locating objects across all packs of an
+ * {@link org.eclipse.jgit.internal.storage.file.ObjectDirectory}.
+ * <p>
+ * A multi-pack index maps each {@link org.eclipse.jgit.lib.ObjectId} to the
+ * pack holding it and the offset within that pack, allowing a lookup to be
+ * answered with a single binary search instead of one search per pack
+ * {@code .idx}. The file is stored as {@code objects/pack/multi-pack-index}
+ * using the chunked format also understood by C Git.
+ * <p>
+ * The index is strictly redundant: packs it does not name are searched
+ * through their own {@code .idx}, and entries naming packs that no longer
+ * exist are ignored by the caller.
+ */
+public class MultiPackIndex {
+	/** Name of the multi-pack index file within the pack directory. */
+	public static final String FILE_NAME = "multi-pack-index"; //$NON-NLS-1$
+
+	static final byte[] SIGNATURE = { 'M', 'I', 'D', 'X' };
+
+	static final int VERSION = 1;
+
+	static final int OID_VERSION_SHA1 = 1;
+
+	static final int HEADER_SIZE = 12;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int CHUNK_PACK_NAMES = 0x504e414d; // "PNAM"
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+
+	static final int CHUNK_OBJECT_OFFSETS = 0x4f4f4646; // "OOFF"
+
+	static final int CHUNK_LARGE_OFFSETS = 0x4c4f4646; // "LOFF"
+
+	static final int FANOUT = 256;
+
+	static final int OFFSET_WIDTH = 8;
+
+	static final long IS_LARGE_OFFSET = 1L << 31;
+
+	/**
+	 * Open an existing multi-pack index file for reading.
+	 *
+	 * @param file
+	 *            the {@code multi-pack-index} file.
+	 * @return the parsed index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file cannot be read or is not a valid multi-pack index.
+	 */
+	public static MultiPackIndex open(File file) throws IOException {
+		try {
+			return read(IO.readFully(file));
+		} catch (IOException | RuntimeException e) {
+			// Any failure to parse means the file is corrupt.
+			throw new IOException(
+					MessageFormat.format(JGitText.get().unreadableMultiPackIndex,
+							file.getAbsolutePath()),
+					e);
+		}
+	}
+
+	/**
+	 * Parse a multi-pack index already held in memory.
+	 *
+	 * @param buf
+	 *            complete content of the multi-pack index file.
+	 * @return the parsed index.
+	 * @throws java.io.IOException
+	 *             the buffer does not contain a valid multi-pack index.
+	 */
+	public static MultiPackIndex read(byte[] buf) throws IOException {
+		if (buf.length < HEADER_SIZE + CHUNK_LOOKUP_WIDTH
+				+ Constants.OBJECT_ID_LENGTH) {
+			throw new IOException(JGitText.get().shortReadOfBlock);
+		}
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (buf[i] != SIGNATURE[i]) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().expectedGot, Arrays.toString(SIGNATURE),
+						Arrays.toString(Arrays.copyOf(buf, SIGNATURE.length))));
+			}
+		}
+		int version = buf[4] & 0xff;
+		if (version != VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion,
+					Integer.valueOf(version)));
+		}
+		int oidVersion = buf[5] & 0xff;
+		if (oidVersion != OID_VERSION_SHA1) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().expectedGot,
+					Integer.valueOf(OID_VERSION_SHA1),
+					Integer.valueOf(oidVersion)));
+		}
+		int chunkCount = buf[6] & 0xff;
+		int packCount = NB.decodeInt32(buf, 8);
+		if (packCount < 0) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().multiPackIndexInvalidPackCount,
+					Integer.valueOf(packCount)));
+		}
+
+		int pnam = -1;
+		int oidf = -1;
+		int oidl = -1;
+		int ooff = -1;
+		int loff = -1;
+		int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		int[] chunkOffsets = new int[chunkCount + 1];
+		for (int i = 0; i <= chunkCount; i++) {
+			int p = HEADER_SIZE + i * CHUNK_LOOKUP_WIDTH;
+			if (p + CHUNK_LOOKUP_WIDTH > end) {
+				throw new IOException(JGitText.get().shortReadOfBlock);
+			}
+			long ofs = NB.decodeUInt64(buf, p + 4);
+			if (ofs < HEADER_SIZE || ofs > end) {
+				throw new IOException(JGitText.get().shortReadOfBlock);
+			}
+			chunkOffsets[i] = (int) ofs;
+			if (i == chunkCount) {
+				// The terminating entry only marks the end of the last chunk.
+				break;
+			}
+			switch (NB.decodeInt32(buf, p)) {
+			case CHUNK_PACK_NAMES:
+				pnam = (int) ofs;
+				break;
+			case CHUNK_OID_FANOUT:
+				oidf = (int) ofs;
+				break;
+			case CHUNK_OID_LOOKUP:
+				oidl = (int) ofs;
+				break;
+			case CHUNK_OBJECT_OFFSETS:
+				ooff = (int) ofs;
+				break;
+			case CHUNK_LARGE_OFFSETS:
+				loff = (int) ofs;
+				break;
+			default:
+				// Unknown chunks are optional and may be skipped.
+				break;
+			}
+		}
+		requireChunk(pnam, CHUNK_PACK_NAMES);
+		requireChunk(oidf, CHUNK_OID_FANOUT);
+		requireChunk(oidl, CHUNK_OID_LOOKUP);
+		requireChunk(ooff, CHUNK_OBJECT_OFFSETS);
+
+		String[] names = new String[packCount];
+		int p = pnam;
+		for (int i = 0; i < packCount; i++) {
+			int nul = p;
+			while (nul < end && buf[nul] != 0) {
+				nul++;
+			}
+			if (nul == end) {
+				throw new IOException(JGitText.get().shortReadOfBlock);
+			}
+			names[i] = RawParseUtils.decode(buf, p, nul);
+			p = nul + 1;
+		}
+
+		if (oidf + FANOUT * 4 > end) {
+			throw new IOException(JGitText.get().shortReadOfBlock);
+		}
+		int[] fanout = new int[FANOUT];
+		for (int k = 0; k < FANOUT; k++) {
+			fanout[k] = NB.decodeInt32(buf, oidf + k * 4);
+			if (fanout[k] < (k == 0 ? 0 : fanout[k - 1])) {
+				throw new IOException(
+						JGitText.get().multiPackIndexInvalidFanout);
+			}
+		}
+		int count = fanout[FANOUT - 1];
+		if (oidl + (long) count * Constants.OBJECT_ID_LENGTH > end
+				|| ooff + (long) count * OFFSET_WIDTH > end) {
+			throw new IOException(JGitText.get().shortReadOfBlock);
+		}
+
+		// Check every entry now, so lookups cannot run off the arrays.
+		int largeCount = 0;
+		if (loff >= 0) {
+			largeCount = (chunkEnd(chunkOffsets, loff, end) - loff) / 8;
+		}
+		for (int i = 0; i < count; i++) {
+			int q = ooff + i * OFFSET_WIDTH;
+			int packId = NB.decodeInt32(buf, q);
+			if (packId < 0 || packId >= packCount) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().multiPackIndexInvalidPackId,
+						Integer.valueOf(packId), Integer.valueOf(packCount)));
+			}
+			long ofs = NB.decodeUInt32(buf, q + 4);
+			if ((ofs & IS_LARGE_OFFSET) != 0
+					&& (ofs & ~IS_LARGE_OFFSET) >= largeCount) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().multiPackIndexInvalidLargeOffset,
+						Long.valueOf(ofs & ~IS_LARGE_OFFSET)));
+			}
+		}
+		return new MultiPackIndex(buf, names, fanout, oidl, ooff, loff);
+	}
+
+	private static int chunkEnd(int[] chunkOffsets, int start, int end) {
+		int r = end;
+		for (int ofs : chunkOffsets) {
+			if (ofs > start && ofs < r) {
+				r = ofs;
+			}
+		}
+		return r;
+	}
+
+	private static void requireChunk(int pos, int id) throws IOException {
+		if (pos < 0) {
+			byte[] name = new byte[4];
+			NB.encodeInt32(name, 0, id);
+			throw new IOException(MessageFormat.format(
+					JGitText.get().multiPackIndexMissingChunk,
+					RawParseUtils.decode(name)));
+		}
+	}
+
+	private final byte[] data;
+
+	private final String[] packNames;
+
+	private final int[] fanout;
+
+	private final int oidLookup;
+
+	private final int objectOffsets;
+
+	private final int largeOffsets;
+
+	private MultiPackIndex(byte[] data, String[] packNames, int[] fanout,
+			int oidLookup, int objectOffsets, int largeOffsets) {
+		this.data = data;
+		this.packNames = packNames;
+		this.fanout = fanout;
+		this.oidLookup = oidLookup;
+		this.objectOffsets = objectOffsets;
+		this.largeOffsets = largeOffsets;
+	}
+
+	/**
+	 * Get number of packs covered by this index.
+	 *
+	 * @return number of packs covered by this index.
+	 */
+	public int getPackCount() {
+		return packNames.length;
+	}
+
+	/**
+	 * Get the index file name of a covered pack.
+	 *
+	 * @param packId
+	 *            pack identifier, {@code 0 <= packId < getPackCount()}.
+	 * @return file name of the pack's index, e.g. {@code pack-1234...abcd.idx}.
+	 */
+	public String getPackName(int packId) {
+		return packNames[packId];
+	}
+
+	/**
+	 * Get number of distinct objects described by this index.
+	 *
+	 * @return number of distinct objects described by this index.
+	 */
+	public int getObjectCount() {
+		return fanout[FANOUT - 1];
+	}
+
+	/**
+	 * Locate an object in the index.
+	 *
+	 * @param id
+	 *            the object to look for.
+	 * @return position of the object in the index; -1 if not present.
+	 */
+	public int findPosition(AnyObjectId id) {
+		int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = id.compareTo(data,
+					oidLookup + mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determine if an object is listed in this index.
+	 *
+	 * @param id
+	 *            the object to look for.
+	 * @return true if the object is listed in this index.
+	 */
+	public boolean hasObject(AnyObjectId id) {
+		return findPosition(id) >= 0;
+	}
+
+	/**
+	 * Get the object name at a position.
+	 *
+	 * @param pos
+	 *            position in the index, {@code 0 <= pos < getObjectCount()}.
+	 * @return the object name at that position.
+	 */
+	public ObjectId getObjectId(int pos) {
+		return ObjectId.fromRaw(data,
+				oidLookup + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	void copyObjectIdTo(int pos, MutableObjectId dst) {
+		dst.fromRaw(data, oidLookup + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Get the pack holding the object at a position.
+	 *
+	 * @param pos
+	 *            position in the index, {@code 0 <= pos < getObjectCount()}.
+	 * @return identifier of the pack, see {@link #getPackName(int)}.
+	 */
+	public int getPackId(int pos) {
+		return NB.decodeInt32(data, objectOffsets + pos * OFFSET_WIDTH);
+	}
+
+	/**
+	 * Get the offset of the object at a position within its pack.
+	 *
+	 * @param pos
+	 *            position in the index, {@code 0 <= pos < getObjectCount()}.
+	 * @return offset of the object's header within its pack.
+	 */
+	public long getOffset(int pos) {
+		long ofs = NB.decodeUInt32(data, objectOffsets + pos * OFFSET_WIDTH + 4);
+		if ((ofs & IS_LARGE_OFFSET) != 0) {
+			return NB.decodeUInt64(data,
+					largeOffsets + (int) (ofs & ~IS_LARGE_OFFSET) * 8);
+		}
+		return ofs;
+	}
+}
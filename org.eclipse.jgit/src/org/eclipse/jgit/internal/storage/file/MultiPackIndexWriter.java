@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_PACK_NAMES;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.FANOUT;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.IS_LARGE_OFFSET;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.OFFSET_WIDTH;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.OID_VERSION_SHA1;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.SIGNATURE;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.VERSION;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.LongList;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a {@link org.eclipse.jgit.internal.storage.file.MultiPackIndex}
+ * covering a set of packs.
+ * <p>
+ * Entries are produced by merging the sorted per-pack indexes, so memory use
+ * is proportional to the number of distinct objects rather than the size of
+ * the indexes. When an object appears in more than one pack, the copy in the
+ * pack listed first is recorded.
+ * <p>
+ * If a previous multi-pack index is supplied through
+ * {@link #setBase(MultiPackIndex)}, its entries are reused for the packs it
+ * already covers and only the {@code .idx} files of new packs are read.
+ */
+public class MultiPackIndexWriter {
+	private final List<PackFile> packs;
+
+	private MultiPackIndex base;
+
+	/**
+	 * Create a writer for a set of packs.
+	 *
+	 * @param packs
+	 *            packs to cover, in order of preference when an object is
+	 *            stored in more than one of them. Typically sorted by
+	 *            {@link PackFile#SORT}.
+	 */
+	public MultiPackIndexWriter(List<PackFile> packs) {
+		this.packs = packs;
+	}
+
+	/**
+	 * Set a previous index whose entries may be reused.
+	 *
+	 * @param base
+	 *            index previously written for a subset of the packs. It is
+	 *            ignored if it covers a pack not given to this writer, as
+	 *            objects it located in that pack may be stored in another
+	 *            one it did not select. May be null.
+	 * @return {@code this}
+	 */
+	public MultiPackIndexWriter setBase(MultiPackIndex base) {
+		this.base = base;
+		return this;
+	}
+
+	/**
+	 * Write the multi-pack index.
+	 * <p>
+	 * After writing the stream is flushed but remains open.
+	 *
+	 * @param dst
+	 *            stream to write the index to.
+	 * @throws java.io.IOException
+	 *             a pack index cannot be read, or the stream cannot be
+	 *             written.
+	 */
+	public void write(OutputStream dst) throws IOException {
+		String[] names = new String[packs.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = indexName(packs.get(i));
+		}
+		String[] sortedNames = names.clone();
+		Arrays.sort(sortedNames);
+		Map<String, Integer> packIds = new HashMap<>();
+		for (int i = 0; i < sortedNames.length; i++) {
+			packIds.put(sortedNames[i], Integer.valueOf(i));
+		}
+
+		// First pass selects the pack holding each object. Second pass
+		// rescans the object names as they are written to the stream.
+		int[] fanout = new int[FANOUT];
+		IntList selectedPack = new IntList();
+		LongList selectedOffset = new LongList();
+		int largeCount = 0;
+		Merge m = new Merge(names, packIds);
+		while (m.next()) {
+			fanout[m.id.getFirstByte()]++;
+			selectedPack.add(m.packId);
+			selectedOffset.add(m.offset);
+			if (m.offset >= IS_LARGE_OFFSET) {
+				largeCount++;
+			}
+		}
+		for (int k = 1; k < FANOUT; k++) {
+			fanout[k] += fanout[k - 1];
+		}
+		int count = selectedPack.size();
+
+		byte[] nameChunk = encodeNames(sortedNames);
+		int chunkCount = largeCount > 0 ? 5 : 4;
+		long[] chunkOffsets = new long[chunkCount + 1];
+		int[] chunkIds = { CHUNK_PACK_NAMES, CHUNK_OID_FANOUT, CHUNK_OID_LOOKUP,
+				CHUNK_OBJECT_OFFSETS, CHUNK_LARGE_OFFSETS };
+		long[] chunkSizes = { nameChunk.length, FANOUT * 4,
+				(long) count * OBJECT_ID_LENGTH, (long) count * OFFSET_WIDTH,
+				largeCount * 8L };
+		chunkOffsets[0] = HEADER_SIZE + (chunkCount + 1) * CHUNK_LOOKUP_WIDTH;
+		for (int i = 0; i < chunkCount; i++) {
+			chunkOffsets[i + 1] = chunkOffsets[i] + chunkSizes[i];
+		}
+
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		byte[] buf = new byte[CHUNK_LOOKUP_WIDTH];
+
+		out.write(SIGNATURE);
+		out.write(VERSION);
+		out.write(OID_VERSION_SHA1);
+		out.write(chunkCount);
+		out.write(0); // No base multi-pack index files.
+		NB.encodeInt32(buf, 0, sortedNames.length);
+		out.write(buf, 0, 4);
+		for (int i = 0; i <= chunkCount; i++) {
+			NB.encodeInt32(buf, 0, i < chunkCount ? chunkIds[i] : 0);
+			NB.encodeInt64(buf, 4, chunkOffsets[i]);
+			out.write(buf, 0, CHUNK_LOOKUP_WIDTH);
+		}
+
+		out.write(nameChunk);
+		for (int k = 0; k < FANOUT; k++) {
+			NB.encodeInt32(buf, 0, fanout[k]);
+			out.write(buf, 0, 4);
+		}
+
+		m = new Merge(names, packIds);
+		while (m.next()) {
+			m.id.copyRawTo(out);
+		}
+
+		int nextLarge = 0;
+		for (int i = 0; i < count; i++) {
+			long ofs = selectedOffset.get(i);
+			NB.encodeInt32(buf, 0, selectedPack.get(i));
+			if (ofs >= IS_LARGE_OFFSET) {
+				NB.encodeInt32(buf, 4, (int) (IS_LARGE_OFFSET | nextLarge++));
+			} else {
+				NB.encodeInt32(buf, 4, (int) ofs);
+			}
+			out.write(buf, 0, OFFSET_WIDTH);
+		}
+		for (int i = 0; i < count; i++) {
+			long ofs = selectedOffset.get(i);
+			if (ofs >= IS_LARGE_OFFSET) {
+				NB.encodeInt64(buf, 0, ofs);
+				out.write(buf, 0, 8);
+			}
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	static String indexName(PackFile pack) {
+		return "pack-" + pack.getPackName() + ".idx"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static byte[] encodeNames(String[] names) {
+		int len = 0;
+		byte[][] raw = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			raw[i] = Constants.encode(names[i]);
+			len += raw[i].length + 1;
+		}
+		byte[] r = new byte[(len + 3) & ~3];
+		int p = 0;
+		for (byte[] n : raw) {
+			System.arraycopy(n, 0, r, p, n.length);
+			p += n.length + 1;
+		}
+		return r;
+	}
+
+	/** Merges the sorted sources, yielding each object name once. */
+	private class Merge {
+		private final PriorityQueue<Source> queue;
+
+		private final MutableObjectId last = new MutableObjectId();
+
+		private boolean first = true;
+
+		MutableObjectId id;
+
+		int packId;
+
+		long offset;
+
+		Merge(String[] names, Map<String, Integer> packIds)
+				throws IOException {
+			queue = new PriorityQueue<>(Math.max(1, names.length),
+					(a, b) -> {
+						int cmp = a.id.compareTo(b.id);
+						return cmp != 0 ? cmp : a.rank - b.rank;
+					});
+
+			List<Source> sources = new ArrayList<>(names.length + 1);
+			int[] baseMap = null;
+			int[] baseRank = null;
+			if (base != null && coversOnly(names)) {
+				Map<String, Integer> baseIds = new HashMap<>();
+				for (int i = 0; i < base.getPackCount(); i++) {
+					baseIds.put(base.getPackName(i), Integer.valueOf(i));
+				}
+				baseMap = new int[base.getPackCount()];
+				baseRank = new int[base.getPackCount()];
+				Arrays.fill(baseMap, -1);
+				for (int rank = 0; rank < names.length; rank++) {
+					Integer b = baseIds.get(names[rank]);
+					if (b != null) {
+						baseMap[b.intValue()] = packIds.get(names[rank])
+								.intValue();
+						baseRank[b.intValue()] = rank;
+					}
+				}
+			}
+			for (int rank = 0; rank < names.length; rank++) {
+				if (baseMap == null || !covered(names[rank])) {
+					sources.add(new IndexSource(
+							packs.get(rank).getIndex().iterator(),
+							packIds.get(names[rank]).intValue(), rank));
+				}
+			}
+			if (baseMap != null) {
+				sources.add(new BaseSource(base, baseMap, baseRank));
+			}
+			for (Source s : sources) {
+				if (s.next()) {
+					queue.add(s);
+				}
+			}
+		}
+
+		private boolean coversOnly(String[] names) {
+			Set<String> listed = new HashSet<>(Arrays.asList(names));
+			for (int i = 0; i < base.getPackCount(); i++) {
+				if (!listed.contains(base.getPackName(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean covered(String name) {
+			for (int i = 0; i < base.getPackCount(); i++) {
+				if (name.equals(base.getPackName(i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean next() {
+			Source s;
+			while ((s = queue.poll()) != null) {
+				boolean dup = !first && last.equals(s.id);
+				if (!dup) {
+					first = false;
+					last.fromObjectId(s.id);
+					id = last;
+					packId = s.packId;
+					offset = s.offset;
+				}
+				if (s.next()) {
+					queue.add(s);
+				}
+				if (!dup) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private abstract static class Source {
+		final MutableObjectId id = new MutableObjectId();
+
+		int packId;
+
+		long offset;
+
+		int rank;
+
+		abstract boolean next();
+	}
+
+	private static class IndexSource extends Source {
+		private final Iterator<PackIndex.MutableEntry> entries;
+
+		IndexSource(Iterator<PackIndex.MutableEntry> entries, int packId,
+				int rank) {
+			this.entries = entries;
+			this.packId = packId;
+			this.rank = rank;
+		}
+
+		@Override
+		boolean next() {
+			if (!entries.hasNext()) {
+				return false;
+			}
+			PackIndex.MutableEntry e = entries.next();
+			e.ensureId();
+			id.fromObjectId(e.idBuffer);
+			offset = e.offset;
+			return true;
+		}
+	}
+
+	private static class BaseSource extends Source {
+		private final MultiPackIndex midx;
+
+		private final int[] packMap;
+
+		private final int[] packRank;
+
+		private int pos = -1;
+
+		BaseSource(MultiPackIndex midx, int[] packMap, int[] packRank) {
+			this.midx = midx;
+			this.packMap = packMap;
+			this.packRank = packRank;
+		}
+
+		@Override
+		boolean next() {
+			while (++pos < midx.getObjectCount()) {
+				int p = midx.getPackId(pos);
+				if (packMap[p] >= 0) {
+					midx.copyObjectIdTo(pos, id);
+					packId = packMap[p];
+					rank = packRank[p];
+					offset = midx.getOffset(pos);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -52,6 +52,8 @@
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -72,6 +74,7 @@
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.PackMismatchException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
@@ -118,6 +121,9 @@ public class ObjectDirectory extends FileObjectDatabase {
 	/** Maximum number of candidates offered as resolutions of abbreviation. */
 	private static final int RESOLVE_ABBREV_LIMIT = 256;
 
+	/** Default number of uncovered packs extending the multi-pack index. */
+	private static final int DEFAULT_MULTI_PACK_INDEX_BATCH = 10;
+
 	private final AlternateHandle handle = new AlternateHandle(this);
 
 	private final Config config;
@@ -130,6 +136,10 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private final File preservedDirectory;
 
+	private final File multiPackIndexFile;
+
+	private final File commitGraphFile;
+
 	private final File alternatesFile;
 
 	private final AtomicReference<PackList> packList;
@@ -146,6 +156,10 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private Set<ObjectId> shallowCommitsIds;
 
+	private FileSnapshot commitGraphSnapshot = FileSnapshot.DIRTY;
+
+	private CommitGraph commitGraph;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -171,6 +185,8 @@ public ObjectDirectory(final Config cfg, final File dir,
 		infoDirectory = new File(objects, "info"); //$NON-NLS-1$
 		packDirectory = new File(objects, "pack"); //$NON-NLS-1$
 		preservedDirectory = new File(packDirectory, "preserved"); //$NON-NLS-1$
+		multiPackIndexFile = new File(packDirectory, MultiPackIndex.FILE_NAME);
+		commitGraphFile = new File(infoDirectory, "commit-graph"); //$NON-NLS-1$
 		alternatesFile = new File(infoDirectory, "alternates"); //$NON-NLS-1$
 		packList = new AtomicReference<>(NO_PACKS);
 		unpackedObjectCache = new UnpackedObjectCache();
@@ -352,7 +368,20 @@ boolean hasPackedObject(AnyObjectId objectId) {
 		PackList pList;
 		do {
 			pList = packList.get();
-			for (PackFile p : pList.packs) {
+			PackFile[] search = pList.packs;
+			MultiPackIndex midx = pList.midx;
+			if (midx != null) {
+				int pos = midx.findPosition(objectId);
+				if (pos < 0) {
+					search = pList.unindexed;
+				} else {
+					PackFile p = pList.midxPacks[midx.getPackId(pos)];
+					if (p != null && p.hasObject(midx.getOffset(pos))) {
+						return true;
+					}
+				}
+			}
+			for (PackFile p : search) {
 				try {
 					if (p.hasObject(objectId))
 						return true;
@@ -481,7 +510,31 @@ ObjectLoader openPackedObject(WindowCursor curs, AnyObjectId objectId) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] search = pList.packs;
+				MultiPackIndex midx = pList.midx;
+				if (midx != null) {
+					int pos = midx.findPosition(objectId);
+					if (pos < 0) {
+						search = pList.unindexed;
+					} else {
+						PackFile p = pList.midxPacks[midx.getPackId(pos)];
+						if (p != null) {
+							try {
+								ObjectLoader ldr = p.get(curs, midx.getOffset(pos));
+								p.resetTransientErrorCount();
+								if (ldr != null)
+									return ldr;
+							} catch (PackMismatchException e) {
+								// Pack was modified; refresh the entire pack list.
+								if (searchPacksAgain(pList))
+									continue SEARCH;
+							} catch (IOException e) {
+								handlePackError(e, p);
+							}
+						}
+					}
+				}
+				for (PackFile p : search) {
 					try {
 						ObjectLoader ldr = p.get(curs, objectId);
 						p.resetTransientErrorCount();
@@ -574,7 +627,32 @@ private long getPackedObjectSize(WindowCursor curs, AnyObjectId id) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] search = pList.packs;
+				MultiPackIndex midx = pList.midx;
+				if (midx != null) {
+					int pos = midx.findPosition(id);
+					if (pos < 0) {
+						search = pList.unindexed;
+					} else {
+						PackFile p = pList.midxPacks[midx.getPackId(pos)];
+						long ofs = midx.getOffset(pos);
+						if (p != null && p.hasObject(ofs)) {
+							try {
+								long len = p.getObjectSize(curs, ofs);
+								p.resetTransientErrorCount();
+								if (0 <= len)
+									return len;
+							} catch (PackMismatchException e) {
+								// Pack was modified; refresh the entire pack list.
+								if (searchPacksAgain(pList))
+									continue SEARCH;
+							} catch (IOException e) {
+								handlePackError(e, p);
+							}
+						}
+					}
+				}
+				for (PackFile p : search) {
 					try {
 						long len = p.getObjectSize(curs, id);
 						p.resetTransientErrorCount();
@@ -814,6 +892,43 @@ Set<ObjectId> getShallowCommits() throws IOException {
 		return shallowCommitsIds;
 	}
 
+	@Override
+	synchronized CommitGraph getCommitGraph() {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, false)) {
+			return null;
+		}
+		if (commitGraphSnapshot.isModified(commitGraphFile)) {
+			FileSnapshot snapshot = FileSnapshot.save(commitGraphFile);
+			commitGraph = readCommitGraph();
+			commitGraphSnapshot = snapshot;
+		}
+		return commitGraph;
+	}
+
+	private CommitGraph readCommitGraph() {
+		if (!commitGraphFile.exists()) {
+			return null;
+		}
+		try (InputStream in = new FileInputStream(commitGraphFile)) {
+			return CommitGraph.read(in);
+		} catch (IOException e) {
+			// The graph is only an optimization; commits are still
+			// parsed from their canonical form without it.
+			LOG.warn(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Get the location of the commit-graph file.
+	 *
+	 * @return location of the commit-graph file.
+	 */
+	File getCommitGraphFile() {
+		return commitGraphFile;
+	}
+
 	private void insertPack(final PackFile pf) {
 		PackList o, n;
 		do {
@@ -833,7 +948,7 @@ private void insertPack(final PackFile pf) {
 			final PackFile[] newList = new PackFile[1 + oldList.length];
 			newList[0] = pf;
 			System.arraycopy(oldList, 0, newList, 1, oldList.length);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.midx, o.midxSnapshot);
 		} while (!packList.compareAndSet(o, n));
 	}
 
@@ -850,7 +965,7 @@ private void removePack(final PackFile deadPack) {
 			final PackFile[] newList = new PackFile[oldList.length - 1];
 			System.arraycopy(oldList, 0, newList, 0, j);
 			System.arraycopy(oldList, j + 1, newList, j, newList.length - j);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.midx, o.midxSnapshot);
 		} while (!packList.compareAndSet(o, n));
 		deadPack.close();
 	}
@@ -921,12 +1036,23 @@ private PackList scanPacksImpl(final PackList old) {
 			foundNew = true;
 		}
 
+		MultiPackIndex midx = old.midx;
+		FileSnapshot midxSnapshot = old.midxSnapshot;
+		if (!useMultiPackIndex()) {
+			midx = null;
+			midxSnapshot = FileSnapshot.DIRTY;
+		} else if (midxSnapshot.isModified(multiPackIndexFile)) {
+			midxSnapshot = FileSnapshot.save(multiPackIndexFile);
+			midx = readMultiPackIndex();
+		}
+
 		// If we did not discover any new files, the modification time was not
 		// changed, and we did not remove any files, then the set of files is
 		// the same as the set we were given. Instead of building a new object
 		// return the same collection.
 		//
-		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)) {
+		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)
+				&& midx == old.midx) {
 			old.snapshot.setClean(snapshot);
 			return old;
 		}
@@ -936,11 +1062,114 @@ private PackList scanPacksImpl(final PackList old) {
 		}
 
 		if (list.isEmpty())
-			return new PackList(snapshot, NO_PACKS.packs);
+			return new PackList(snapshot, NO_PACKS.packs, midx, midxSnapshot);
 
 		final PackFile[] r = list.toArray(new PackFile[list.size()]);
 		Arrays.sort(r, PackFile.SORT);
-		return new PackList(snapshot, r);
+		return new PackList(snapshot, r, midx, midxSnapshot);
+	}
+
+	private boolean useMultiPackIndex() {
+		return config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
+	}
+
+	private MultiPackIndex readMultiPackIndex() {
+		if (!multiPackIndexFile.exists()) {
+			return null;
+		}
+		try {
+			return MultiPackIndex.open(multiPackIndexFile);
+		} catch (IOException e) {
+			// The index is only an optimization; fall back to searching
+			// every pack through its own .idx file.
+			LOG.warn(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the multi-pack index covering the packs of this directory.
+	 * <p>
+	 * Does nothing unless {@code core.multiPackIndex} is enabled. If another
+	 * process holds the lock on the index the update is skipped; packs it
+	 * does not cover are still found through their own index.
+	 *
+	 * @param incremental
+	 *            if true, reuse entries of the current multi-pack index and
+	 *            read only the indexes of packs it does not yet cover.
+	 * @throws IOException
+	 *             a pack index cannot be read or the multi-pack index cannot
+	 *             be written.
+	 */
+	void updateMultiPackIndex(boolean incremental) throws IOException {
+		if (!useMultiPackIndex()) {
+			return;
+		}
+		PackList pList = packList.get();
+		if (pList == NO_PACKS) {
+			pList = scanPacks(pList);
+		}
+		if (pList.packs.length == 0) {
+			FileUtils.delete(multiPackIndexFile, FileUtils.SKIP_MISSING);
+			return;
+		}
+
+		LockFile lck = new LockFile(multiPackIndexFile);
+		if (!lck.lock()) {
+			return;
+		}
+		try {
+			lck.setNeedSnapshot(true);
+			MultiPackIndexWriter w = new MultiPackIndexWriter(
+					Arrays.asList(pList.packs));
+			if (incremental) {
+				w.setBase(pList.midx);
+			}
+			try (OutputStream out = lck.getOutputStream()) {
+				w.write(out);
+			}
+			if (!lck.commit()) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unableToWrite, multiPackIndexFile));
+			}
+		} finally {
+			lck.unlock();
+		}
+
+		MultiPackIndex midx = MultiPackIndex.open(multiPackIndexFile);
+		PackList o, n;
+		do {
+			o = packList.get();
+			n = new PackList(o.snapshot, o.packs, midx,
+					lck.getCommitSnapshot());
+		} while (!packList.compareAndSet(o, n));
+	}
+
+	/**
+	 * Extend the multi-pack index once enough packs are not covered by it.
+	 * <p>
+	 * Writing the index costs time proportional to all objects it covers, so
+	 * packs added by inserts are found through their own index until
+	 * {@code core.multiPackIndexBatch} of them have accumulated, or until the
+	 * next GC rewrites the index. A batch of 0 or less leaves them to GC.
+	 *
+	 * @throws IOException
+	 *             a pack index cannot be read or the multi-pack index cannot
+	 *             be written.
+	 * @see #updateMultiPackIndex(boolean)
+	 */
+	void updateMultiPackIndexIfNeeded() throws IOException {
+		if (!useMultiPackIndex()) {
+			return;
+		}
+		int batch = config.getInt(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX_BATCH,
+				DEFAULT_MULTI_PACK_INDEX_BATCH);
+		if (batch <= 0 || packList.get().unindexed.length < batch) {
+			return;
+		}
+		updateMultiPackIndex(true);
 	}
 
 	private static Map<String, PackFile> reuseMap(final PackList old) {
@@ -1076,9 +1305,49 @@ private static final class PackList {
 		/** All known packs, sorted by {@link PackFile#SORT}. */
 		final PackFile[] packs;
 
+		/** Multi-pack index covering some of {@link #packs}; may be null. */
+		final MultiPackIndex midx;
+
+		/** State of the multi-pack index file when {@link #midx} was read. */
+		final FileSnapshot midxSnapshot;
+
+		/** Packs named by {@link #midx}, by pack id; null if not in the list. */
+		final PackFile[] midxPacks;
+
+		/** Packs not covered by {@link #midx}, in {@link #packs} order. */
+		final PackFile[] unindexed;
+
 		PackList(final FileSnapshot monitor, final PackFile[] packs) {
+			this(monitor, packs, null, FileSnapshot.DIRTY);
+		}
+
+		PackList(FileSnapshot monitor, PackFile[] packs, MultiPackIndex midx,
+				FileSnapshot midxSnapshot) {
 			this.snapshot = monitor;
 			this.packs = packs;
+			this.midx = midx;
+			this.midxSnapshot = midxSnapshot;
+			if (midx == null) {
+				midxPacks = null;
+				unindexed = packs;
+				return;
+			}
+
+			Map<String, PackFile> byName = new HashMap<>();
+			for (PackFile p : packs) {
+				byName.put(MultiPackIndexWriter.indexName(p), p);
+			}
+			midxPacks = new PackFile[midx.getPackCount()];
+			for (int i = 0; i < midxPacks.length; i++) {
+				midxPacks[i] = byName.remove(midx.getPackName(i));
+			}
+			List<PackFile> rest = new ArrayList<>(byName.size());
+			for (PackFile p : packs) {
+				if (byName.containsKey(MultiPackIndexWriter.indexName(p))) {
+					rest.add(p);
+				}
+			}
+			unindexed = rest.toArray(new PackFile[rest.size()]);
 		}
 	}
 
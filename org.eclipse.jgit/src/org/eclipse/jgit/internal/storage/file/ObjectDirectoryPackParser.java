@@ -322,6 +322,25 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 		return out.read(dst, pos, cnt);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected DatabaseReader openDatabaseReader() throws IOException {
+		final RandomAccessFile f = new RandomAccessFile(tmpPack, "r"); //$NON-NLS-1$
+		return new DatabaseReader() {
+			@Override
+			public int read(long position, byte[] dst, int off, int cnt)
+					throws IOException {
+				f.seek(position);
+				return f.read(dst, off, cnt);
+			}
+
+			@Override
+			public void close() throws IOException {
+				f.close();
+			}
+		};
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	protected boolean checkCRC(int oldCRC) {
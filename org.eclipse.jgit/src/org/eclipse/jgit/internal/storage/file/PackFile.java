@@ -48,6 +48,7 @@
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.KEEP;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.REVERSE_INDEX;
 
 import java.io.EOFException;
 import java.io.File;
@@ -55,7 +56,9 @@
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.NoSuchFileException;
@@ -180,11 +183,13 @@ private synchronized PackIndex idx() throws IOException {
 				throw new PackInvalidException(packFile);
 
 			try {
-				final PackIndex idx = PackIndex.open(extFile(INDEX));
+				final PackIndex idx = PackIndex.open(extFile(INDEX),
+						WindowCache.isPackedIndexMMAP());
 
 				if (packChecksum == null) {
 					packChecksum = idx.packChecksum;
 				} else if (!Arrays.equals(packChecksum, idx.packChecksum)) {
+					idx.close();
 					throw new PackMismatchException(MessageFormat.format(
 							JGitText.get().packChecksumMismatch,
 							packFile.getPath()));
@@ -256,6 +261,17 @@ public boolean hasObject(final AnyObjectId id) throws IOException {
 		return 0 < offset && !isCorrupt(offset);
 	}
 
+	/**
+	 * Determine if an object located through a multi-pack index is readable.
+	 *
+	 * @param offset
+	 *            position of the object's header within this pack.
+	 * @return true if the offset is valid and not known to be corrupt.
+	 */
+	boolean hasObject(long offset) {
+		return 0 < offset && !isCorrupt(offset);
+	}
+
 	/**
 	 * Determines whether a .keep file exists for this pack file.
 	 *
@@ -285,6 +301,10 @@ ObjectLoader get(final WindowCursor curs, final AnyObjectId id)
 		return 0 < offset && !isCorrupt(offset) ? load(curs, offset) : null;
 	}
 
+	ObjectLoader get(WindowCursor curs, long offset) throws IOException {
+		return hasObject(offset) ? load(curs, offset) : null;
+	}
+
 	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 			throws IOException {
 		idx().resolve(matches, id, matchLimit);
@@ -296,8 +316,17 @@ void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 	public void close() {
 		WindowCache.purge(this);
 		synchronized (this) {
-			loadedIdx = null;
-			reverseIdx = null;
+			// The bitmap index reads through both indexes, which may be
+			// memory mapped and are unmapped below.
+			bitmapIdx = null;
+			if (reverseIdx != null) {
+				reverseIdx.close();
+				reverseIdx = null;
+			}
+			if (loadedIdx != null) {
+				loadedIdx.close();
+				loadedIdx = null;
+			}
 		}
 	}
 
@@ -703,6 +732,32 @@ ByteArrayWindow read(final long pos, int size) throws IOException {
 		}
 	}
 
+	ByteWindow read(long pos, int size, DirectBufferPool pool)
+			throws IOException {
+		ByteBuffer buf = pool.allocate();
+		if (buf == null)
+			return read(pos, size);
+		boolean ok = false;
+		try {
+			synchronized (readLock) {
+				if (length < pos + size)
+					size = (int) (length - pos);
+				buf.limit(size);
+				FileChannel channel = fd.getChannel();
+				while (buf.hasRemaining()) {
+					if (channel.read(buf, pos + buf.position()) < 0)
+						throw new EOFException();
+				}
+			}
+			buf.flip();
+			ok = true;
+			return new DirectByteWindow(this, pos, buf, pool);
+		} finally {
+			if (!ok)
+				pool.release(buf);
+		}
+	}
+
 	ByteWindow mmap(final long pos, int size) throws IOException {
 		synchronized (readLock) {
 			if (length < pos + size)
@@ -767,6 +822,7 @@ ObjectLoader load(final WindowCursor curs, long pos)
 			Delta delta = null;
 			byte[] data = null;
 			int type = Constants.OBJ_BAD;
+			int depth = 0;
 			boolean cached = false;
 
 			SEARCH: for (;;) {
@@ -787,8 +843,10 @@ ObjectLoader load(final WindowCursor curs, long pos)
 				case Constants.OBJ_TREE:
 				case Constants.OBJ_BLOB:
 				case Constants.OBJ_TAG: {
-					if (delta != null || sz < curs.getStreamFileThreshold())
+					if (delta != null || sz < curs.getStreamFileThreshold()) {
 						data = decompress(pos + p, (int) sz, curs);
+						DeltaBaseCache.recordInflated(depth, sz);
+					}
 
 					if (delta != null) {
 						type = typeCode;
@@ -812,17 +870,19 @@ ObjectLoader load(final WindowCursor curs, long pos)
 						base += (c & 127);
 					}
 					base = pos - base;
-					delta = new Delta(delta, pos, (int) sz, p, base);
+					delta = new Delta(delta, pos, (int) sz, p, base, depth++);
 					if (sz != delta.deltaSize)
 						break SEARCH;
 
-					DeltaBaseCache.Entry e = curs.getDeltaBaseCache().get(this, base);
+					DeltaBaseCache.Entry e = curs.getDeltaBase(this, base);
 					if (e != null) {
+						DeltaBaseCache.recordHit(depth);
 						type = e.type;
 						data = e.data;
 						cached = true;
 						break SEARCH;
 					}
+					DeltaBaseCache.recordMiss(depth);
 					pos = base;
 					continue SEARCH;
 				}
@@ -830,17 +890,20 @@ ObjectLoader load(final WindowCursor curs, long pos)
 				case Constants.OBJ_REF_DELTA: {
 					readFully(pos + p, ib, 0, 20, curs);
 					long base = findDeltaBase(ObjectId.fromRaw(ib));
-					delta = new Delta(delta, pos, (int) sz, p + 20, base);
+					delta = new Delta(delta, pos, (int) sz, p + 20, base,
+							depth++);
 					if (sz != delta.deltaSize)
 						break SEARCH;
 
-					DeltaBaseCache.Entry e = curs.getDeltaBaseCache().get(this, base);
+					DeltaBaseCache.Entry e = curs.getDeltaBase(this, base);
 					if (e != null) {
+						DeltaBaseCache.recordHit(depth);
 						type = e.type;
 						data = e.data;
 						cached = true;
 						break SEARCH;
 					}
+					DeltaBaseCache.recordMiss(depth);
 					pos = base;
 					continue SEARCH;
 				}
@@ -858,22 +921,36 @@ ObjectLoader load(final WindowCursor curs, long pos)
 			if (data == null)
 				throw new IOException(JGitText.get().inMemoryBufferLimitExceeded);
 
+			// Apply the chain from the deepest delta outwards. Intermediate
+			// results alternate between the cursor's scratch buffers, so only
+			// the cached base and the final object are allocated.
 			assert(delta != null);
+			int dataLen = data.length;
 			do {
 				// Cache only the base immediately before desired object.
 				if (cached)
 					cached = false;
-				else if (delta.next == null)
-					curs.getDeltaBaseCache().store(this, delta.basePos, data, type);
+				else if (delta.next == null) {
+					if (curs.isScratch(data))
+						data = Arrays.copyOf(data, dataLen);
+					curs.storeDeltaBase(this, delta.basePos, data, type);
+				}
 
 				pos = delta.deltaPos;
 
-				final byte[] cmds = decompress(pos + delta.hdrLen,
-						delta.deltaSize, curs);
-				if (cmds == null) {
+				final byte[] cmds;
+				try {
+					cmds = curs.getScratchDelta(delta.deltaSize);
+				} catch (OutOfMemoryError tooBig) {
 					data = null; // Discard base in case of OutOfMemoryError
-					throw new LargeObjectException.OutOfMemory(new OutOfMemoryError());
+					throw new LargeObjectException.OutOfMemory(tooBig);
 				}
+				if (curs.inflate(this, pos + delta.hdrLen, cmds,
+						false) != delta.deltaSize)
+					throw new EOFException(MessageFormat.format(
+							JGitText.get().shortCompressedStreamAt,
+							Long.valueOf(pos + delta.hdrLen)));
+				DeltaBaseCache.recordInflated(delta.depth, delta.deltaSize);
 
 				final long sz = BinaryDelta.getResultSize(cmds);
 				if (Integer.MAX_VALUE <= sz)
@@ -881,13 +958,17 @@ else if (delta.next == null)
 
 				final byte[] result;
 				try {
-					result = new byte[(int) sz];
+					if (delta.next == null)
+						result = new byte[(int) sz];
+					else
+						result = curs.getScratchResult((int) sz, data);
 				} catch (OutOfMemoryError tooBig) {
 					data = null; // Discard base in case of OutOfMemoryError
 					throw new LargeObjectException.OutOfMemory(tooBig);
 				}
 
-				BinaryDelta.apply(data, cmds, result);
+				dataLen = BinaryDelta.apply(data, dataLen, cmds,
+						delta.deltaSize, result);
 				data = result;
 				delta = delta.next;
 			} while (delta != null);
@@ -928,12 +1009,17 @@ private static class Delta {
 		/** Offset of the base object this delta applies onto. */
 		final long basePos;
 
-		Delta(Delta next, long ofs, int sz, int hdrLen, long baseOffset) {
+		/** Number of deltas between the requested object and this one. */
+		final int depth;
+
+		Delta(Delta next, long ofs, int sz, int hdrLen, long baseOffset,
+				int depth) {
 			this.next = next;
 			this.deltaPos = ofs;
 			this.deltaSize = sz;
 			this.hdrLen = hdrLen;
 			this.basePos = baseOffset;
+			this.depth = depth;
 		}
 	}
 
@@ -1132,8 +1218,20 @@ synchronized PackBitmapIndex getBitmapIndex() throws IOException {
 	}
 
 	private synchronized PackReverseIndex getReverseIdx() throws IOException {
-		if (reverseIdx == null)
-			reverseIdx = new PackReverseIndex(idx());
+		if (reverseIdx == null) {
+			if (hasExt(REVERSE_INDEX)) {
+				try {
+					reverseIdx = PackReverseIndex.open(extFile(REVERSE_INDEX),
+							idx(), WindowCache.isPackedIndexMMAP());
+				} catch (FileNotFoundException e) {
+					// Removed by a concurrent gc; compute it below.
+				} catch (IOException e) {
+					// A damaged reverse index is recomputed from the index.
+				}
+			}
+			if (reverseIdx == null)
+				reverseIdx = new PackReverseIndex(idx());
+		}
 		return reverseIdx;
 	}
 
@@ -106,6 +106,31 @@ public static PackIndex open(final File idxFile) throws IOException {
 		}
 	}
 
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * If {@code mmap} is set and the file uses the version 2 format it is
+	 * memory mapped, and lookups search the mapped file instead of tables
+	 * copied onto the heap.
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            whether to memory map the file.
+	 * @return access implementation for the requested file.
+	 * @throws java.io.IOException
+	 *             the file could not be read.
+	 */
+	static PackIndex open(File idxFile, boolean mmap) throws IOException {
+		if (mmap) {
+			PackIndex idx = MappedPackIndexV2.map(idxFile);
+			if (idx != null) {
+				return idx;
+			}
+		}
+		return open(idxFile);
+	}
+
 	/**
 	 * Read an existing pack index file from a buffered stream.
 	 * <p>
@@ -150,6 +175,17 @@ private static boolean isTOC(final byte[] h) {
 	/** Footer checksum applied on the bottom of the pack file. */
 	protected byte[] packChecksum;
 
+	/**
+	 * Get the checksum of the pack file this index describes.
+	 *
+	 * @return the footer checksum of the pack file. Callers must not modify
+	 *         the returned array.
+	 * @since 5.0
+	 */
+	public byte[] getChecksum() {
+		return packChecksum;
+	}
+
 	/**
 	 * Determine if an object is contained within the pack file.
 	 *
@@ -262,6 +298,16 @@ public final ObjectId getObjectId(final int nthPosition) {
 	 */
 	abstract long getOffset(long nthPosition);
 
+	/**
+	 * Release resources held by this index, such as a memory mapping.
+	 * <p>
+	 * The index must not be used afterwards. Indexes read onto the heap hold
+	 * nothing to release.
+	 */
+	void close() {
+		// Nothing to release.
+	}
+
 	/**
 	 * Locate the file offset position for the requested object.
 	 *
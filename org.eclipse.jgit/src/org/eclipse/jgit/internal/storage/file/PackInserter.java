@@ -94,12 +94,17 @@
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.io.CountingOutputStream;
 import org.eclipse.jgit.util.sha1.SHA1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Object inserter that inserts one pack per call to {@link #flush()}, and never
  * inserts loose objects.
  */
 public class PackInserter extends ObjectInserter {
+	private final static Logger LOG = LoggerFactory
+			.getLogger(PackInserter.class);
+
 	/** Always produce version 2 indexes, to get CRC data. */
 	private static final int INDEX_VERSION = 2;
 
@@ -299,6 +304,17 @@ public void flush() throws IOException {
 		db.openPack(realPack);
 		rollback = false;
 		clear();
+
+		// The pack is already committed and found through its own index;
+		// failing to cover it in the multi-pack index must not fail the
+		// insert. GC rewrites the index anyway.
+		try {
+			db.updateMultiPackIndexIfNeeded();
+		} catch (IOException e) {
+			LOG.warn(MessageFormat.format(
+					JGitText.get().cannotUpdateMultiPackIndex,
+					db.getPackDirectory()), e);
+		}
 	}
 
 	private static void writePackIndex(File idx, byte[] packHash,
@@ -43,11 +43,19 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.Arrays;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
@@ -61,6 +69,163 @@
  * @see PackFile
  */
 public class PackReverseIndex {
+	/** Signature of a {@code .rev} file: {@code RIDX}. */
+	static final int SIGNATURE = 0x52494458;
+
+	/** Version of the {@code .rev} file format. */
+	static final int VERSION = 1;
+
+	/** Hash function identifier of SHA-1 in the {@code .rev} file. */
+	static final int OID_VERSION_SHA1 = 1;
+
+	/** Size of the {@code .rev} file header. */
+	static final int HEADER_SIZE = 12;
+
+	/**
+	 * Open an existing {@code .rev} file for a pack.
+	 * <p>
+	 * Only the length, the header and the pack checksum in the trailer are
+	 * checked, so that opening touches neither the positions nor the forward
+	 * index. {@link #verify(File, PackIndex)} checks the whole file.
+	 *
+	 * @param revFile
+	 *            the reverse index file.
+	 * @param packIndex
+	 *            forward index of the same pack.
+	 * @param mmap
+	 *            whether to memory map the file instead of reading it onto
+	 *            the heap.
+	 * @return the reverse index.
+	 * @throws java.io.IOException
+	 *             the file cannot be read, is corrupt, or does not describe
+	 *             the pack of {@code packIndex}.
+	 */
+	static PackReverseIndex open(File revFile, PackIndex packIndex,
+			boolean mmap) throws IOException {
+		try (RandomAccessFile fd = new RandomAccessFile(revFile, "r")) { //$NON-NLS-1$
+			long len = checkLength(revFile, fd, packIndex);
+			if (!mmap) {
+				byte[] raw = new byte[(int) len];
+				fd.readFully(raw);
+				ByteBuffer buf = ByteBuffer.wrap(raw);
+				checkHeader(revFile, buf, packIndex);
+				return new PackReverseIndex(packIndex, positions(buf), null);
+			}
+
+			MappedFile mapping = MappedFile.map(revFile, fd, len);
+			try {
+				ByteBuffer buf = mapping.acquire();
+				try {
+					checkHeader(revFile, buf, packIndex);
+					return new PackReverseIndex(packIndex, positions(buf),
+							mapping);
+				} finally {
+					mapping.release();
+				}
+			} catch (IOException | RuntimeException e) {
+				mapping.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Verify an existing {@code .rev} file completely.
+	 * <p>
+	 * In addition to the checks made when the file is opened, this verifies
+	 * the checksum of the file's own content, and that it lists every object
+	 * of {@code packIndex} exactly once in ascending offset order. This reads
+	 * the whole file and looks up the offset of every object, so it is meant
+	 * for tools checking a repository rather than for opening packs.
+	 *
+	 * @param revFile
+	 *            the reverse index file.
+	 * @param packIndex
+	 *            forward index of the same pack.
+	 * @throws java.io.IOException
+	 *             the file cannot be read, is corrupt, or does not describe
+	 *             the pack of {@code packIndex}.
+	 * @since 5.0
+	 */
+	public static void verify(File revFile, PackIndex packIndex)
+			throws IOException {
+		ByteBuffer buf;
+		try (RandomAccessFile fd = new RandomAccessFile(revFile, "r")) { //$NON-NLS-1$
+			byte[] raw = new byte[(int) checkLength(revFile, fd, packIndex)];
+			fd.readFully(raw);
+			buf = ByteBuffer.wrap(raw);
+		}
+		checkHeader(revFile, buf, packIndex);
+
+		int len = buf.limit();
+		MessageDigest md = Constants.newMessageDigest();
+		md.update(buf.array(), 0, len - 20);
+		byte[] fileChecksum = Arrays.copyOfRange(buf.array(), len - 20, len);
+		if (!Arrays.equals(fileChecksum, md.digest())
+				|| !isSortedByOffset(buf, packIndex)) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableReverseIndex,
+					revFile.getAbsolutePath()));
+		}
+	}
+
+	private static long checkLength(File revFile, RandomAccessFile fd,
+			PackIndex packIndex) throws IOException {
+		long expLen = HEADER_SIZE + 4 * packIndex.getObjectCount() + 40;
+		long len = fd.length();
+		if (len != expLen || len > Integer.MAX_VALUE) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableReverseIndex,
+					revFile.getAbsolutePath()));
+		}
+		return len;
+	}
+
+	private static void checkHeader(File revFile, ByteBuffer buf,
+			PackIndex packIndex) throws IOException {
+		byte[] packChecksum = new byte[20];
+		for (int i = 0; i < packChecksum.length; i++) {
+			packChecksum[i] = buf.get(buf.limit() - 40 + i);
+		}
+		if (buf.getInt(0) != SIGNATURE || buf.getInt(4) != VERSION
+				|| buf.getInt(8) != OID_VERSION_SHA1
+				|| !Arrays.equals(packChecksum, packIndex.packChecksum)) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableReverseIndex,
+					revFile.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * Check the positions name every object in strictly ascending offset
+	 * order. As there are as many positions as objects, this also proves
+	 * every object is listed exactly once.
+	 */
+	private static boolean isSortedByOffset(ByteBuffer buf,
+			PackIndex packIndex) {
+		long cnt = packIndex.getObjectCount();
+		long prior = -1;
+		for (int i = 0; i < cnt; i++) {
+			int pos = buf.getInt(HEADER_SIZE + 4 * i);
+			if (pos < 0 || pos >= cnt) {
+				return false;
+			}
+			long offset = packIndex.getOffset(pos);
+			if (offset <= prior) {
+				return false;
+			}
+			prior = offset;
+		}
+		return true;
+	}
+
+	private static IntBuffer positions(ByteBuffer buf) {
+		ByteBuffer p = buf.duplicate();
+		p.position(HEADER_SIZE);
+		p.limit(buf.limit() - 40);
+		return p.slice().asIntBuffer();
+	}
+
 	/** Index we were created from, and that has our ObjectId data. */
 	private final PackIndex index;
 
@@ -79,7 +244,10 @@ public class PackReverseIndex {
 	private final int[] offsetIndex;
 
 	/** Mapping from indices in offset order to indices in SHA-1 order. */
-	private final int[] nth;
+	private final IntBuffer nth;
+
+	/** File {@link #nth} is mapped from; null if it is on the heap. */
+	private final MappedFile mapping;
 
 	/**
 	 * Create reverse index from straight/forward pack index, by indexing all
@@ -90,6 +258,7 @@ public class PackReverseIndex {
 	 */
 	public PackReverseIndex(final PackIndex packIndex) {
 		index = packIndex;
+		mapping = null;
 
 		final long cnt = index.getObjectCount();
 		if (cnt + 1 > Integer.MAX_VALUE)
@@ -99,7 +268,7 @@ public PackReverseIndex(final PackIndex packIndex) {
 		if (cnt == 0) {
 			bucketSize = Long.MAX_VALUE;
 			offsetIndex = new int[1];
-			nth = new int[0];
+			nth = IntBuffer.wrap(new int[0]);
 			return;
 		}
 
@@ -127,7 +296,7 @@ public PackReverseIndex(final PackIndex packIndex) {
 		}
 
 		int nthByOffset = 0;
-		nth = new int[offsetsBySha1.length];
+		int[] byOffset = new int[offsetsBySha1.length];
 		offsetIndex = bucketIndex; // Reuse the allocation
 		for (int bi = 0; bi < bucketIndex.length; bi++) {
 			final int start = nthByOffset;
@@ -137,14 +306,38 @@ public PackReverseIndex(final PackIndex packIndex) {
 				final long o = offsetsBySha1[nthBySha1];
 				int insertion = nthByOffset++;
 				for (; start < insertion; insertion--) {
-					if (o > offsetsBySha1[nth[insertion - 1]])
+					if (o > offsetsBySha1[byOffset[insertion - 1]])
 						break;
-					nth[insertion] = nth[insertion - 1];
+					byOffset[insertion] = byOffset[insertion - 1];
 				}
-				nth[insertion] = nthBySha1;
+				byOffset[insertion] = nthBySha1;
 			}
 			offsetIndex[bi] = nthByOffset;
 		}
+		nth = IntBuffer.wrap(byOffset);
+	}
+
+	/**
+	 * Create reverse index from a mapping read from a {@code .rev} file.
+	 *
+	 * @param packIndex
+	 *            forward index the mapping refers to.
+	 * @param nth
+	 *            positions within {@code packIndex} of all objects, in the
+	 *            order of their offset in the pack.
+	 * @param mapping
+	 *            the mapping {@code nth} is read from, if the file is memory
+	 *            mapped; null if {@code nth} is on the heap.
+	 */
+	private PackReverseIndex(PackIndex packIndex, IntBuffer nth,
+			MappedFile mapping) {
+		index = packIndex;
+		this.nth = nth;
+		this.mapping = mapping;
+
+		// Without buckets the whole mapping is binary searched.
+		bucketSize = Long.MAX_VALUE;
+		offsetIndex = new int[] { nth.limit() };
 	}
 
 	/**
@@ -156,10 +349,15 @@ public PackReverseIndex(final PackIndex packIndex) {
 	 * @return object id for this offset, or null if no object was found.
 	 */
 	public ObjectId findObject(final long offset) {
-		final int ith = binarySearch(offset);
-		if (ith < 0)
-			return null;
-		return index.getObjectId(nth[ith]);
+		acquire();
+		try {
+			final int ith = binarySearch(offset);
+			if (ith < 0)
+				return null;
+			return index.getObjectId(nth.get(ith));
+		} finally {
+			release();
+		}
 	}
 
 	/**
@@ -179,20 +377,30 @@ public ObjectId findObject(final long offset) {
 	 */
 	public long findNextOffset(final long offset, final long maxOffset)
 			throws CorruptObjectException {
-		final int ith = binarySearch(offset);
-		if (ith < 0)
-			throw new CorruptObjectException(
-					MessageFormat.format(
-							JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset,
-							Long.valueOf(offset)));
+		acquire();
+		try {
+			final int ith = binarySearch(offset);
+			if (ith < 0)
+				throw new CorruptObjectException(
+						MessageFormat.format(
+								JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset,
+								Long.valueOf(offset)));
 
-		if (ith + 1 == nth.length)
-			return maxOffset;
-		return index.getOffset(nth[ith + 1]);
+			if (ith + 1 == nth.limit())
+				return maxOffset;
+			return index.getOffset(nth.get(ith + 1));
+		} finally {
+			release();
+		}
 	}
 
 	int findPostion(long offset) {
-		return binarySearch(offset);
+		acquire();
+		try {
+			return binarySearch(offset);
+		} finally {
+			release();
+		}
 	}
 
 	private int binarySearch(final long offset) {
@@ -201,7 +409,7 @@ private int binarySearch(final long offset) {
 		int high = offsetIndex[bucket];
 		while (low < high) {
 			final int mid = (low + high) >>> 1;
-			final long o = index.getOffset(nth[mid]);
+			final long o = index.getOffset(nth.get(mid));
 			if (offset < o)
 				high = mid;
 			else if (offset == o)
@@ -213,6 +421,31 @@ else if (offset == o)
 	}
 
 	ObjectId findObjectByPosition(int nthPosition) {
-		return index.getObjectId(nth[nthPosition]);
+		acquire();
+		try {
+			return index.getObjectId(nth.get(nthPosition));
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Release the memory mapping of the {@code .rev} file, if any.
+	 * <p>
+	 * The reverse index must not be used afterwards.
+	 */
+	void close() {
+		if (mapping != null)
+			mapping.close();
+	}
+
+	private void acquire() {
+		if (mapping != null)
+			mapping.acquire();
+	}
+
+	private void release() {
+		if (mapping != null)
+			mapping.release();
 	}
 }
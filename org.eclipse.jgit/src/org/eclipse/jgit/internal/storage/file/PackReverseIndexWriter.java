@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a reverse index to support lookups by offset in a
+ * {@link org.eclipse.jgit.internal.storage.file.PackFile}.
+ * <p>
+ * Reverse index files (the <code>.rev</code> suffix) list the position in the
+ * <code>.idx</code> file of every object of the pack, in the order the objects
+ * appear in the pack. Readers use it instead of sorting all offsets of the
+ * index when the pack is opened.
+ *
+ * @since 5.0
+ */
+public class PackReverseIndexWriter {
+	private final DigestOutputStream out;
+
+	private final byte[] tmp = new byte[4];
+
+	/**
+	 * Create a new writer instance.
+	 *
+	 * @param dst
+	 *            the stream this instance outputs to. If not already buffered
+	 *            it will be automatically wrapped in a buffered stream.
+	 */
+	public PackReverseIndexWriter(OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+	}
+
+	/**
+	 * Write the reverse index of the objects.
+	 * <p>
+	 * After writing the stream passed to the constructor is flushed but
+	 * remains open. Callers are always responsible for closing the output
+	 * stream.
+	 *
+	 * @param toStore
+	 *            objects in the same order as stored in the pack's index; that
+	 *            is sorted using
+	 *            {@link org.eclipse.jgit.transport.PackedObjectInfo}'s native
+	 *            {@link java.lang.Comparable} implementation.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content. This is
+	 *            traditionally the last 20 bytes of the pack file's own stream.
+	 * @throws java.io.IOException
+	 *             an error occurred while writing to the output stream.
+	 */
+	public void write(List<? extends PackedObjectInfo> toStore,
+			byte[] packDataChecksum) throws IOException {
+		writeInt(PackReverseIndex.SIGNATURE);
+		writeInt(PackReverseIndex.VERSION);
+		writeInt(PackReverseIndex.OID_VERSION_SHA1);
+		for (int pos : sortByOffset(toStore)) {
+			writeInt(pos);
+		}
+		out.write(packDataChecksum);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	private void writeInt(int v) throws IOException {
+		NB.encodeInt32(tmp, 0, v);
+		out.write(tmp, 0, 4);
+	}
+
+	private static int[] sortByOffset(List<? extends PackedObjectInfo> objs) {
+		int cnt = objs.size();
+		int[] order = new int[cnt];
+		if (cnt == 0) {
+			return order;
+		}
+
+		// Offsets are unique, so packing the position into the low bits of
+		// the offset gives keys that sort by offset with a primitive sort.
+		int shift = 32 - Integer.numberOfLeadingZeros(cnt - 1);
+		long maxOffset = 0;
+		for (PackedObjectInfo oe : objs) {
+			maxOffset = Math.max(maxOffset, oe.getOffset());
+		}
+		if (maxOffset < (1L << (63 - shift))) {
+			long[] keys = new long[cnt];
+			for (int i = 0; i < cnt; i++) {
+				keys[i] = (objs.get(i).getOffset() << shift) | i;
+			}
+			Arrays.sort(keys);
+			long mask = (1L << shift) - 1;
+			for (int i = 0; i < cnt; i++) {
+				order[i] = (int) (keys[i] & mask);
+			}
+			return order;
+		}
+
+		Integer[] boxed = new Integer[cnt];
+		for (int i = 0; i < cnt; i++) {
+			boxed[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(boxed, (a, b) -> Long.compare(objs.get(a.intValue())
+				.getOffset(), objs.get(b.intValue()).getOffset()));
+		for (int i = 0; i < cnt; i++) {
+			order[i] = boxed[i].intValue();
+		}
+		return order;
+	}
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Window cache holding strong references in independent segments.
+ * <p>
+ * Each {@code (PackFile,position)} key hashes to one segment, which owns a
+ * fixed size hash table, a share of the byte budget and its own statistics.
+ * Threads working on different segments never touch the same memory.
+ * <p>
+ * Lookups are lock-free: bucket chains are immutable and replaced with a
+ * compare-and-swap. On a miss the thread publishes a loading node before
+ * reading from the pack, so concurrent misses for the same key wait for that
+ * single load instead of serializing on a lock table.
+ * <p>
+ * Windows stay cached until evicted to keep the segment within its byte
+ * budget (or to respect the open file limit); the garbage collector cannot
+ * clear them. Eviction samples a few buckets and selects the least frequently
+ * used entry, frequencies being approximated by a TinyLFU sketch. A newly
+ * loaded window is only admitted if it is used at least as often as the
+ * victim it would displace, which keeps one-time scans over a large pack from
+ * flushing hot windows.
+ */
+final class SegmentedWindowCache {
+	/** Number of buckets examined when selecting an eviction victim. */
+	private static final int SAMPLE_BUCKETS = 8;
+
+	private final WindowCache owner;
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	SegmentedWindowCache(WindowCache owner, int tableSize, long maxBytes,
+			int windowSize) {
+		this.owner = owner;
+
+		int cnt = Integer.highestOneBit(
+				Math.max(1, Runtime.getRuntime().availableProcessors() * 4));
+		while (cnt > 1 && maxBytes / cnt < windowSize)
+			cnt >>>= 1;
+		segments = new Segment[cnt];
+		segmentShift = 32 - Integer.numberOfTrailingZeros(cnt);
+
+		int slots = Math.max(4, tableSize / cnt);
+		long segmentBytes = maxBytes / cnt;
+		int capacity = (int) Math.min(Integer.MAX_VALUE,
+				Math.max(1, segmentBytes / windowSize));
+		for (int i = 0; i < cnt; i++)
+			segments[i] = new Segment(slots, segmentBytes, capacity);
+	}
+
+	/**
+	 * Lookup a window, loading it on a miss.
+	 *
+	 * @return the window, pinned for the caller.
+	 */
+	ByteWindow getOrLoad(PackFile pack, long position, int hash)
+			throws IOException {
+		int h = spread(hash);
+		return segment(h).getOrLoad(pack, position, h);
+	}
+
+	/** Drop every cached window. */
+	void removeAll() {
+		for (Segment s : segments)
+			s.removeIf(null);
+	}
+
+	/**
+	 * Drop all windows of one pack.
+	 *
+	 * @param pack
+	 *            the file to purge all entries of.
+	 */
+	void removeAll(PackFile pack) {
+		for (Segment s : segments)
+			s.removeIf(pack);
+	}
+
+	int getSegmentCount() {
+		return segments.length;
+	}
+
+	Segment getSegment(int idx) {
+		return segments[idx];
+	}
+
+	long getHitCount() {
+		long r = 0;
+		for (Segment s : segments)
+			r += s.hits.sum();
+		return r;
+	}
+
+	long getMissCount() {
+		long r = 0;
+		for (Segment s : segments)
+			r += s.misses.sum();
+		return r;
+	}
+
+	long getEvictionCount() {
+		long r = 0;
+		for (Segment s : segments)
+			r += s.evictions.sum();
+		return r;
+	}
+
+	private Segment segment(int h) {
+		return segments.length == 1 ? segments[0]
+				: segments[h >>> segmentShift];
+	}
+
+	private static int spread(int h) {
+		// Pack hashes are multiples of 31 and positions are sequential;
+		// mix so both the segment (high bits) and slot (low bits) vary.
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** One independently managed part of the cache. */
+	final class Segment {
+		final AtomicReferenceArray<Entry> table;
+
+		final long maxBytes;
+
+		final AtomicLong openBytes = new AtomicLong();
+
+		final LongAdder hits = new LongAdder();
+
+		final LongAdder misses = new LongAdder();
+
+		final LongAdder evictions = new LongAdder();
+
+		private final FrequencySketch sketch;
+
+		private final AtomicLong clock = new AtomicLong(1);
+
+		private final AtomicBoolean evicting = new AtomicBoolean();
+
+		Segment(int slots, long maxBytes, int capacity) {
+			this.table = new AtomicReferenceArray<>(slots);
+			this.maxBytes = maxBytes;
+			this.sketch = new FrequencySketch(capacity);
+		}
+
+		/** @return number of lookups satisfied by the cache. */
+		long getHitCount() {
+			return hits.sum();
+		}
+
+		/** @return number of lookups that loaded from the pack. */
+		long getMissCount() {
+			return misses.sum();
+		}
+
+		/** @return number of windows dropped to stay within limits. */
+		long getEvictionCount() {
+			return evictions.sum();
+		}
+
+		/** @return bytes of windows currently cached in this segment. */
+		long getOpenBytes() {
+			return openBytes.get();
+		}
+
+		ByteWindow getOrLoad(PackFile pack, long position, int h)
+				throws IOException {
+			int slot = (h & 0x7fffffff) % table.length();
+			sketch.increment(h);
+			for (;;) {
+				Entry e1 = table.get(slot);
+				Node n = find(e1, pack, position);
+				if (n != null) {
+					ByteWindow v = n.await();
+					if (v != null && v.pin()) {
+						n.lastAccess = tick();
+						hits.increment();
+						return v;
+					}
+					// Load failed, or the node was removed and its window
+					// recycled; try again.
+					unlink(slot, n);
+					continue;
+				}
+
+				n = new Node(pack, position, h);
+				if (!table.compareAndSet(slot, e1, new Entry(e1, n)))
+					continue;
+
+				ByteWindow v;
+				try {
+					v = owner.load(pack, position);
+				} catch (IOException | RuntimeException | Error e) {
+					unlink(slot, n);
+					n.fail();
+					throw e;
+				}
+				misses.increment();
+				n.lastAccess = tick();
+				v.pin();
+				if (n.complete(v)) {
+					// If a concurrent purge kills the node from here on, it
+					// releases the window; the counters converge either way.
+					openBytes.addAndGet(v.size());
+					owner.addOpenBytes(v.size());
+					evict(slot, n);
+				} else {
+					// Purged while loading; the window is not cached.
+					owner.close(pack);
+					v.unpin();
+				}
+				return v;
+			}
+		}
+
+		private long tick() {
+			// As in WindowCache, approximate ordering is sufficient and
+			// concurrent hits may share a clock value.
+			long c = clock.get();
+			clock.compareAndSet(c, c + 1);
+			return c;
+		}
+
+		private void evict(int slot, Node candidate) {
+			if (!evicting.compareAndSet(false, true))
+				return;
+			try {
+				while (isFull()) {
+					Segment from = this;
+					Node victim = selectVictim(candidate);
+					if (victim == null && owner.isFull()) {
+						// The global file or byte limit is exceeded by
+						// windows held in other segments.
+						for (Segment s : segments) {
+							if (s != this
+									&& (victim = s.scanForVictim(null)) != null) {
+								from = s;
+								break;
+							}
+						}
+					}
+					if (victim == null || sketch.frequency(candidate.hash)
+							< from.sketch.frequency(victim.hash)) {
+						// Too cold to displace anything; keep the window
+						// out of the cache, the caller still gets it.
+						if (unlink(slot, candidate))
+							evictions.increment();
+						return;
+					}
+					if (from.unlink(from.slot(victim), victim))
+						from.evictions.increment();
+				}
+			} finally {
+				evicting.set(false);
+			}
+		}
+
+		private boolean isFull() {
+			return maxBytes < openBytes.get() || owner.isFull();
+		}
+
+		private Node selectVictim(Node candidate) {
+			int len = table.length();
+			int ptr = ThreadLocalRandom.current().nextInt(len);
+			Node victim = null;
+			int victimFreq = 0;
+			for (int b = Math.min(SAMPLE_BUCKETS, len); b > 0; b--) {
+				for (Entry e = table.get(ptr); e != null; e = e.next) {
+					Node n = e.node;
+					if (n == candidate || !n.isLoaded() || n.isDead())
+						continue;
+					int f = sketch.frequency(n.hash);
+					if (victim == null || f < victimFreq || (f == victimFreq
+							&& n.lastAccess < victim.lastAccess)) {
+						victim = n;
+						victimFreq = f;
+					}
+				}
+				if (++ptr == len)
+					ptr = 0;
+			}
+			if (victim == null)
+				victim = scanForVictim(candidate);
+			return victim;
+		}
+
+		private Node scanForVictim(Node candidate) {
+			// Sampling found nothing, e.g. a sparsely populated table.
+			for (int s = 0; s < table.length(); s++)
+				for (Entry e = table.get(s); e != null; e = e.next) {
+					Node n = e.node;
+					if (n != candidate && n.isLoaded() && !n.isDead())
+						return n;
+				}
+			return null;
+		}
+
+		void removeIf(PackFile pack) {
+			for (int s = 0; s < table.length(); s++)
+				for (Entry e = table.get(s); e != null; e = e.next)
+					if (pack == null || e.node.pack == pack)
+						unlink(s, e.node);
+		}
+
+		private int slot(Node n) {
+			return (n.hash & 0x7fffffff) % table.length();
+		}
+
+		/**
+		 * Remove a node from its bucket.
+		 *
+		 * @return true if this call removed the node; exactly one caller
+		 *         observes true for each node.
+		 */
+		private boolean unlink(int slot, Node n) {
+			for (;;) {
+				Entry e1 = table.get(slot);
+				Entry e2 = remove(e1, n);
+				if (e2 == e1)
+					return false;
+				if (table.compareAndSet(slot, e1, e2)) {
+					if (n.kill())
+						release(n);
+					return true;
+				}
+			}
+		}
+
+		private void release(Node n) {
+			long sz = n.window.size();
+			openBytes.addAndGet(-sz);
+			owner.addOpenBytes(-sz);
+			owner.close(n.pack);
+			n.window.unpin();
+		}
+	}
+
+	private static Node find(Entry e, PackFile pack, long position) {
+		for (; e != null; e = e.next) {
+			Node n = e.node;
+			if (n.pack == pack && n.position == position)
+				return n;
+		}
+		return null;
+	}
+
+	private static Entry remove(Entry top, Node n) {
+		if (top == null)
+			return null;
+		if (top.node == n)
+			return top.next;
+		Entry r = remove(top.next, n);
+		return r == top.next ? top : new Entry(r, top.node);
+	}
+
+	/** Immutable hash chain cell. */
+	private static final class Entry {
+		final Entry next;
+
+		final Node node;
+
+		Entry(Entry next, Node node) {
+			this.next = next;
+			this.node = node;
+		}
+	}
+
+	/** A cached window, or a placeholder while it is being loaded. */
+	private static final class Node {
+		private static final int LOADED = 1;
+
+		private static final int DEAD = 2;
+
+		final PackFile pack;
+
+		final long position;
+
+		final int hash;
+
+		final CountDownLatch loading = new CountDownLatch(1);
+
+		final AtomicInteger state = new AtomicInteger();
+
+		volatile ByteWindow window;
+
+		volatile long lastAccess;
+
+		Node(PackFile pack, long position, int hash) {
+			this.pack = pack;
+			this.position = position;
+			this.hash = hash;
+		}
+
+		boolean isLoaded() {
+			return (state.get() & LOADED) != 0;
+		}
+
+		boolean isDead() {
+			return (state.get() & DEAD) != 0;
+		}
+
+		ByteWindow await() throws InterruptedIOException {
+			try {
+				loading.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return isDead() ? null : window;
+		}
+
+		/**
+		 * Publish the loaded window.
+		 *
+		 * @return false if the node was removed while loading and the window
+		 *         is not accounted to the cache.
+		 */
+		boolean complete(ByteWindow v) {
+			window = v;
+			int s;
+			do {
+				s = state.get();
+				if ((s & DEAD) != 0) {
+					loading.countDown();
+					return false;
+				}
+			} while (!state.compareAndSet(s, s | LOADED));
+			loading.countDown();
+			return true;
+		}
+
+		void fail() {
+			kill();
+			loading.countDown();
+		}
+
+		/**
+		 * Mark the node dead.
+		 *
+		 * @return true if the caller must release the window's resources.
+		 */
+		boolean kill() {
+			int s;
+			do {
+				s = state.get();
+				if ((s & DEAD) != 0)
+					return false;
+			} while (!state.compareAndSet(s, s | DEAD));
+			return (s & LOADED) != 0;
+		}
+	}
+
+	/**
+	 * Approximate access frequency of keys, in the style of TinyLFU.
+	 * <p>
+	 * Four 4-bit counters per key are kept in a count-min sketch; the estimate
+	 * is the smallest of them. All counters are halved once the number of
+	 * recorded accesses reaches ten times the expected number of entries, so
+	 * that old popularity decays. Updates race without locking; an occasional
+	 * lost increment only slightly skews an estimate.
+	 */
+	static final class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+				0xcbf29ce484222325L };
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+
+		private final int tableMask;
+
+		private final int sampleSize;
+
+		private int size;
+
+		FrequencySketch(int capacity) {
+			int n = Integer.highestOneBit(Math.max(8, capacity) - 1) << 1;
+			table = new long[n];
+			tableMask = n - 1;
+			sampleSize = 10 * Math.max(8, capacity);
+		}
+
+		int frequency(int h) {
+			int f = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				int idx = index(h, i);
+				int shift = counterShift(h, i);
+				f = Math.min(f, (int) ((table[idx] >>> shift) & 0xf));
+			}
+			return f;
+		}
+
+		void increment(int h) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int idx = index(h, i);
+				int shift = counterShift(h, i);
+				long v = table[idx];
+				if (((v >>> shift) & 0xf) != 0xf) {
+					table[idx] = v + (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++size >= sampleSize)
+				reset();
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++)
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			size /= 2;
+		}
+
+		private int index(int h, int i) {
+			long x = (h + SEEDS[i]) * SEEDS[i];
+			x += x >>> 32;
+			return (int) x & tableMask;
+		}
+
+		private static int counterShift(int h, int i) {
+			// Each counter of a key lives in a different nibble group.
+			return (((h >>> (i << 3)) & 3) << 2) + (i << 4);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * Delta base cache shared by all readers of the process.
+ * <p>
+ * Unlike {@link DeltaBaseCache}, which is private to one
+ * {@link WindowCursor} and indexes bases by a small slot table, this cache is
+ * bounded by the total size of the bases it holds and is safe for concurrent
+ * use. Entries are spread over segments by key. Each segment owns an equal
+ * share of the byte limit, keeps its entries in access order and is guarded
+ * by its own lock, so a lookup or store only ever takes the lock of one
+ * segment. When a segment exceeds its share it evicts its own least
+ * recently used entries; the base just stored is never evicted to make room
+ * for itself. Bases larger than the share of a segment are not cached.
+ */
+final class SharedDeltaBaseCache {
+	private static volatile SharedDeltaBaseCache cache;
+
+	static void reconfigure(WindowCacheConfig cfg) {
+		long limit = cfg.getSharedDeltaBaseCacheLimit();
+		cache = limit > 0 ? new SharedDeltaBaseCache(limit) : null;
+	}
+
+	/** @return the shared cache, or null if readers use private caches. */
+	static SharedDeltaBaseCache get() {
+		return cache;
+	}
+
+	static void purge(PackFile pack) {
+		SharedDeltaBaseCache c = cache;
+		if (c != null)
+			c.removeAll(pack);
+	}
+
+	private final long segmentMaxBytes;
+
+	private final Segment[] segments;
+
+	private final int segmentMask;
+
+	SharedDeltaBaseCache(long maxBytes) {
+		this(maxBytes, Integer.highestOneBit(
+				Runtime.getRuntime().availableProcessors() * 4));
+	}
+
+	/**
+	 * @param maxBytes
+	 *            limit of the whole cache.
+	 * @param segmentCount
+	 *            number of segments; must be a power of 2.
+	 */
+	SharedDeltaBaseCache(long maxBytes, int segmentCount) {
+		segmentMaxBytes = Math.max(1, maxBytes / segmentCount);
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment();
+		segmentMask = segmentCount - 1;
+	}
+
+	DeltaBaseCache.Entry get(PackFile pack, long position) {
+		Key k = new Key(pack, position);
+		return segmentFor(k).get(k);
+	}
+
+	void store(PackFile pack, long position, byte[] data, int objectType) {
+		if (data.length > segmentMaxBytes)
+			return; // Too large to cache.
+
+		Key k = new Key(pack, position);
+		segmentFor(k).put(k, new DeltaBaseCache.Entry(data, objectType));
+	}
+
+	void removeAll(PackFile pack) {
+		for (Segment s : segments)
+			s.removeAll(pack);
+	}
+
+	long getOpenBytes() {
+		long n = 0;
+		for (Segment s : segments)
+			n += s.getOpenBytes();
+		return n;
+	}
+
+	private Segment segmentFor(Key k) {
+		return segments[k.hashCode() & segmentMask];
+	}
+
+	private final class Segment {
+		private final LinkedHashMap<Key, DeltaBaseCache.Entry> map = new LinkedHashMap<>(
+				16, 0.75f, true);
+
+		private long openBytes;
+
+		synchronized DeltaBaseCache.Entry get(Key k) {
+			return map.get(k);
+		}
+
+		synchronized void put(Key k, DeltaBaseCache.Entry e) {
+			DeltaBaseCache.Entry old = map.put(k, e);
+			if (old != null)
+				openBytes -= old.data.length;
+			openBytes += e.data.length;
+
+			// The entry just stored is the most recently used, so it is
+			// reached last and never evicted for itself.
+			Iterator<Map.Entry<Key, DeltaBaseCache.Entry>> i = map.entrySet()
+					.iterator();
+			while (openBytes > segmentMaxBytes && i.hasNext()) {
+				Map.Entry<Key, DeltaBaseCache.Entry> eldest = i.next();
+				if (eldest.getKey().equals(k))
+					break;
+				openBytes -= eldest.getValue().data.length;
+				i.remove();
+			}
+		}
+
+		synchronized void removeAll(PackFile pack) {
+			Iterator<Map.Entry<Key, DeltaBaseCache.Entry>> i = map.entrySet()
+					.iterator();
+			while (i.hasNext()) {
+				Map.Entry<Key, DeltaBaseCache.Entry> e = i.next();
+				if (e.getKey().pack == pack) {
+					openBytes -= e.getValue().data.length;
+					i.remove();
+				}
+			}
+		}
+
+		synchronized long getOpenBytes() {
+			return openBytes;
+		}
+	}
+
+	private static final class Key {
+		final PackFile pack;
+
+		final long position;
+
+		Key(PackFile pack, long position) {
+			this.pack = pack;
+			this.position = position;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = pack.hash + (int) (position ^ (position >>> 32)) * 31;
+			return h ^ (h >>> 16);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return pack == k.pack && position == k.position;
+			}
+			return false;
+		}
+	}
+}
@@ -51,6 +51,7 @@
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.internal.JGitText;
@@ -122,6 +123,14 @@
  * objects in parallel. This means that the cache can be temporarily over limit,
  * especially if the nominated eviction thread is being starved relative to the
  * other threads.
+ * <p>
+ * If {@link WindowCacheConfig#isPackedGitUseStrongRefs()} is set, the
+ * description above does not apply. Windows are instead kept under strong
+ * references by a {@link SegmentedWindowCache}, which never blocks lookups on a
+ * lock and evicts by byte budget and access frequency only. The same cache is
+ * used when {@link WindowCacheConfig#getPackedGitOffHeapLimit()} enables
+ * off-heap windows, whose buffers are drawn from a {@link DirectBufferPool} and
+ * reused once neither the cache nor a {@link WindowCursor} holds them.
  */
 public class WindowCache {
 	private static final int bits(int newSize) {
@@ -138,6 +147,8 @@ private static final int bits(int newSize) {
 
 	private static volatile int streamFileThreshold;
 
+	private static volatile boolean packedIndexMMAP;
+
 	static {
 		reconfigure(new WindowCacheConfig());
 	}
@@ -164,13 +175,19 @@ public static void reconfigure(final WindowCacheConfig cfg) {
 			oc.removeAll();
 		cache = nc;
 		streamFileThreshold = cfg.getStreamFileThreshold();
+		packedIndexMMAP = cfg.isPackedIndexMMAP();
 		DeltaBaseCache.reconfigure(cfg);
+		SharedDeltaBaseCache.reconfigure(cfg);
 	}
 
 	static int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
 
+	static boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
 	/**
 	 * @return the cached instance.
 	 */
@@ -195,6 +212,7 @@ static final ByteWindow get(final PackFile pack, final long offset)
 
 	static final void purge(final PackFile pack) {
 		cache.removeAll(pack);
+		SharedDeltaBaseCache.purge(pack);
 	}
 
 	/** ReferenceQueue to cleanup released and garbage collected windows. */
@@ -232,6 +250,18 @@ static final void purge(final PackFile pack) {
 
 	private final AtomicLong openBytes;
 
+	/** Storage for windows if pack data is cached off-heap. */
+	private final DirectBufferPool directPool;
+
+	/** Strong reference cache replacing {@link #table}, if configured. */
+	private final SegmentedWindowCache segmented;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
 	private WindowCache(final WindowCacheConfig cfg) {
 		tableSize = tableSize(cfg);
 		final int lockCount = lockCount(cfg);
@@ -242,7 +272,12 @@ private WindowCache(final WindowCacheConfig cfg) {
 
 		queue = new ReferenceQueue<>();
 		clock = new AtomicLong(1);
-		table = new AtomicReferenceArray<>(tableSize);
+		// Pooled buffers must be returned deterministically, which the
+		// SoftReferences of the default table cannot do.
+		boolean strongRefs = cfg.isPackedGitUseStrongRefs()
+				|| (!cfg.isPackedGitMMAP()
+						&& 0 < cfg.getPackedGitOffHeapLimit());
+		table = new AtomicReferenceArray<>(strongRefs ? 1 : tableSize);
 		locks = new Lock[lockCount];
 		for (int i = 0; i < locks.length; i++)
 			locks[i] = new Lock();
@@ -270,6 +305,15 @@ else if (eb < 4)
 			throw new IllegalArgumentException(JGitText.get().openFilesMustBeAtLeast1);
 		if (maxBytes < windowSize)
 			throw new IllegalArgumentException(JGitText.get().windowSizeMustBeLesserThanLimit);
+
+		directPool = !mmap && 0 < cfg.getPackedGitOffHeapLimit()
+				? new DirectBufferPool(windowSize,
+						cfg.getPackedGitOffHeapLimit())
+				: null;
+		segmented = strongRefs
+				? new SegmentedWindowCache(this, tableSize, maxBytes,
+						windowSize)
+				: null;
 	}
 
 	/**
@@ -286,17 +330,80 @@ public long getOpenBytes() {
 		return openBytes.get();
 	}
 
+	/**
+	 * @return number of window lookups satisfied by the cache.
+	 * @since 5.0
+	 */
+	public long getHitCount() {
+		return segmented != null ? segmented.getHitCount() : hits.sum();
+	}
+
+	/**
+	 * @return number of window lookups that had to read from a pack.
+	 * @since 5.0
+	 */
+	public long getMissCount() {
+		return segmented != null ? segmented.getMissCount() : misses.sum();
+	}
+
+	/**
+	 * @return number of windows evicted to stay within the configured limits.
+	 *         Windows cleared by the garbage collector are not counted.
+	 * @since 5.0
+	 */
+	public long getEvictionCount() {
+		return segmented != null ? segmented.getEvictionCount()
+				: evictions.sum();
+	}
+
+	/**
+	 * @return number of delta bases found in the delta base cache, indexed by
+	 *         chain depth.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaBaseHitCounts() {
+		return DeltaBaseCache.getHitCounts();
+	}
+
+	/**
+	 * @return number of delta bases not found in the delta base cache,
+	 *         indexed by chain depth.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaBaseMissCounts() {
+		return DeltaBaseCache.getMissCounts();
+	}
+
+	/**
+	 * @return number of bytes inflated to resolve objects, indexed by chain
+	 *         depth.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaInflatedBytes() {
+		return DeltaBaseCache.getInflatedBytes();
+	}
+
+	SegmentedWindowCache getSegmentedCache() {
+		return segmented;
+	}
+
+	DirectBufferPool getDirectPool() {
+		return directPool;
+	}
+
 	private int hash(final int packHash, final long off) {
 		return packHash + (int) (off >>> windowSizeShift);
 	}
 
-	private ByteWindow load(final PackFile pack, final long offset)
+	ByteWindow load(final PackFile pack, final long offset)
 			throws IOException {
 		if (pack.beginWindowCache())
 			openFiles.incrementAndGet();
 		try {
 			if (mmap)
 				return pack.mmap(offset, windowSize);
+			if (directPool != null)
+				return pack.read(offset, windowSize, directPool);
 			return pack.read(offset, windowSize);
 		} catch (IOException e) {
 			close(pack);
@@ -321,12 +428,16 @@ private void clear(final Ref ref) {
 		close(ref.pack);
 	}
 
-	private void close(final PackFile pack) {
+	void addOpenBytes(long delta) {
+		openBytes.addAndGet(delta);
+	}
+
+	void close(final PackFile pack) {
 		if (pack.endWindowCache())
 			openFiles.decrementAndGet();
 	}
 
-	private boolean isFull() {
+	boolean isFull() {
 		return maxFiles < openFiles.get() || maxBytes < openBytes.get();
 	}
 
@@ -362,6 +473,10 @@ private static int lockCount(final WindowCacheConfig cfg) {
 	 */
 	private ByteWindow getOrLoad(final PackFile pack, final long position)
 			throws IOException {
+		if (segmented != null)
+			return segmented.getOrLoad(pack, position,
+					hash(pack.hash, position));
+
 		final int slot = slot(pack, position);
 		final Entry e1 = table.get(slot);
 		ByteWindow v = scan(e1, pack, position);
@@ -377,6 +492,7 @@ private ByteWindow getOrLoad(final PackFile pack, final long position)
 			}
 
 			v = load(pack, position);
+			misses.increment();
 			final Ref ref = createRef(pack, position, v);
 			hit(ref);
 			for (;;) {
@@ -406,6 +522,7 @@ private ByteWindow scan(Entry n, final PackFile pack, final long position) {
 				final ByteWindow v = r.get();
 				if (v != null) {
 					hit(r);
+					hits.increment();
 					return v;
 				}
 				n.kill();
@@ -447,6 +564,7 @@ private void evict() {
 			}
 			if (old != null) {
 				old.kill();
+				evictions.increment();
 				gc();
 				final Entry e1 = table.get(slot);
 				table.compareAndSet(slot, e1, clean(e1));
@@ -465,6 +583,10 @@ private void evict() {
 	 * running may cause resource accounting failures.
 	 */
 	private void removeAll() {
+		if (segmented != null) {
+			segmented.removeAll();
+			return;
+		}
 		for (int s = 0; s < tableSize; s++) {
 			Entry e1;
 			do {
@@ -488,6 +610,10 @@ private void removeAll() {
 	 *            the file to purge all entries of.
 	 */
 	private void removeAll(final PackFile pack) {
+		if (segmented != null) {
+			segmented.removeAll(pack);
+			return;
+		}
 		for (int s = 0; s < tableSize; s++) {
 			final Entry e1 = table.get(s);
 			boolean hasDead = false;
@@ -58,6 +58,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.pack.CachedPack;
 import org.eclipse.jgit.internal.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
@@ -86,6 +87,14 @@ final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
 
 	private DeltaBaseCache baseCache;
 
+	/** Reusable buffer for inflated delta instruction streams. */
+	private byte[] scratchDelta;
+
+	/** Reusable buffers alternately holding intermediate delta results. */
+	private byte[] scratchResultA;
+
+	private byte[] scratchResultB;
+
 	@Nullable
 	private final ObjectInserter createdFromInserter;
 
@@ -104,12 +113,91 @@ final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
 		this.streamFileThreshold = WindowCache.getStreamFileThreshold();
 	}
 
-	DeltaBaseCache getDeltaBaseCache() {
+	DeltaBaseCache.Entry getDeltaBase(PackFile pack, long position) {
+		SharedDeltaBaseCache shared = SharedDeltaBaseCache.get();
+		if (shared != null)
+			return shared.get(pack, position);
+		return getDeltaBaseCache().get(pack, position);
+	}
+
+	void storeDeltaBase(PackFile pack, long position, byte[] data,
+			int objectType) {
+		SharedDeltaBaseCache shared = SharedDeltaBaseCache.get();
+		if (shared != null)
+			shared.store(pack, position, data, objectType);
+		else
+			getDeltaBaseCache().store(pack, position, data, objectType);
+	}
+
+	private DeltaBaseCache getDeltaBaseCache() {
 		if (baseCache == null)
 			baseCache = new DeltaBaseCache();
 		return baseCache;
 	}
 
+	/**
+	 * Get a buffer to inflate a delta instruction stream into.
+	 * <p>
+	 * The buffer is reused by the next call and may be longer than
+	 * {@code size}. Streams larger than {@link #getScratchLimit()} get a
+	 * buffer of their own, so a long-lived cursor does not pin more memory
+	 * than the delta base cache limit.
+	 *
+	 * @param size
+	 *            number of bytes required.
+	 * @return buffer of at least {@code size} bytes.
+	 */
+	byte[] getScratchDelta(int size) {
+		if (size > getScratchLimit())
+			return new byte[size];
+		if (scratchDelta == null || scratchDelta.length < size)
+			scratchDelta = new byte[size];
+		return scratchDelta;
+	}
+
+	/**
+	 * Get a buffer to hold an intermediate result of a delta chain.
+	 * <p>
+	 * Two buffers are used alternately, so the result of one delta can be the
+	 * base of the next without copying. Results larger than
+	 * {@link #getScratchLimit()} get a buffer of their own.
+	 *
+	 * @param size
+	 *            number of bytes required.
+	 * @param base
+	 *            buffer holding the base the result is computed from; not
+	 *            returned.
+	 * @return buffer of at least {@code size} bytes.
+	 */
+	byte[] getScratchResult(int size, byte[] base) {
+		if (size > getScratchLimit())
+			return new byte[size];
+		if (base != scratchResultA) {
+			if (scratchResultA == null || scratchResultA.length < size)
+				scratchResultA = new byte[size];
+			return scratchResultA;
+		}
+		if (scratchResultB == null || scratchResultB.length < size)
+			scratchResultB = new byte[size];
+		return scratchResultB;
+	}
+
+	/**
+	 * Get the largest buffer kept between calls.
+	 * <p>
+	 * The three scratch buffers together stay within three quarters of the
+	 * delta base cache limit.
+	 *
+	 * @return the largest size of a reused scratch buffer.
+	 */
+	private static int getScratchLimit() {
+		return DeltaBaseCache.getDefaultMaxByteCount() / 4;
+	}
+
+	boolean isScratch(byte[] buf) {
+		return buf == scratchResultA || buf == scratchResultB;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public ObjectReader newReader() {
@@ -180,6 +268,12 @@ public Set<ObjectId> getShallowCommits() throws IOException {
 		return db.getShallowCommits();
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public CommitGraph getCommitGraph() {
+		return db.getCommitGraph();
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public long getObjectSize(AnyObjectId objectId, int typeHint)
@@ -357,6 +451,8 @@ void pin(final PackFile pack, final long position)
 			// it again.
 			//
 			window = null;
+			if (w != null)
+				w.unpin();
 			window = WindowCache.get(pack, position);
 		}
 	}
@@ -375,8 +471,14 @@ public ObjectInserter getCreatedFromInserter() {
 	 */
 	@Override
 	public void close() {
+		ByteWindow w = window;
 		window = null;
+		if (w != null)
+			w.unpin();
 		baseCache = null;
+		scratchDelta = null;
+		scratchResultA = null;
+		scratchResultB = null;
 		try {
 			InflaterCache.release(inf);
 		} finally {
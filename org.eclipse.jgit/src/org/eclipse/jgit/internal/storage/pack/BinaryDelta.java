@@ -134,18 +134,50 @@ public static final byte[] apply(final byte[] base, final byte[] delta) {
 	 */
 	public static final byte[] apply(final byte[] base, final byte[] delta,
 			byte[] result) {
+		if (result == null)
+			result = new byte[(int) getResultSize(delta)];
+		else if (result.length != getResultSize(delta))
+			throw new IllegalArgumentException(
+					JGitText.get().resultLengthIncorrect);
+		apply(base, base.length, delta, delta.length, result);
+		return result;
+	}
+
+	/**
+	 * Apply the changes defined by delta to the data in base.
+	 * <p>
+	 * Unlike {@link #apply(byte[], byte[], byte[])} the arrays may be longer
+	 * than the data they hold, allowing buffers to be reused across calls.
+	 *
+	 * @param base
+	 *            buffer holding the base object in its first {@code baseLen}
+	 *            bytes.
+	 * @param baseLen
+	 *            length of the base object.
+	 * @param delta
+	 *            buffer holding the delta in its first {@code deltaLen} bytes.
+	 * @param deltaLen
+	 *            length of the delta.
+	 * @param result
+	 *            buffer to store the result into; must be at least as long as
+	 *            the result.
+	 * @return length of the result.
+	 * @since 5.0
+	 */
+	public static int apply(byte[] base, int baseLen, byte[] delta,
+			int deltaLen, byte[] result) {
 		int deltaPtr = 0;
 
 		// Length of the base object (a variable length int).
 		//
-		int baseLen = 0;
+		long expBaseLen = 0;
 		int c, shift = 0;
 		do {
 			c = delta[deltaPtr++] & 0xff;
-			baseLen |= ((long) (c & 0x7f)) << shift;
+			expBaseLen |= ((long) (c & 0x7f)) << shift;
 			shift += 7;
 		} while ((c & 0x80) != 0);
-		if (base.length != baseLen)
+		if (baseLen != expBaseLen)
 			throw new IllegalArgumentException(
 					JGitText.get().baseLengthIncorrect);
 
@@ -159,14 +191,12 @@ public static final byte[] apply(final byte[] base, final byte[] delta,
 			shift += 7;
 		} while ((c & 0x80) != 0);
 
-		if (result == null)
-			result = new byte[resLen];
-		else if (result.length != resLen)
+		if (result.length < resLen)
 			throw new IllegalArgumentException(
 					JGitText.get().resultLengthIncorrect);
 
 		int resultPtr = 0;
-		while (deltaPtr < delta.length) {
+		while (deltaPtr < deltaLen) {
 			final int cmd = delta[deltaPtr++] & 0xff;
 			if ((cmd & 0x80) != 0) {
 				// Determine the segment of the base which should
@@ -193,12 +223,19 @@ else if (result.length != resLen)
 				if (copySize == 0)
 					copySize = 0x10000;
 
+				// The buffers may be longer than the data they hold; don't
+				// let a corrupt delta read or write past it.
+				if (copyOffset < 0 || copySize > baseLen - copyOffset
+						|| copySize > resLen - resultPtr)
+					throw new ArrayIndexOutOfBoundsException();
 				System.arraycopy(base, copyOffset, result, resultPtr, copySize);
 				resultPtr += copySize;
 			} else if (cmd != 0) {
 				// Anything else the data is literal within the delta
 				// itself.
 				//
+				if (cmd > deltaLen - deltaPtr || cmd > resLen - resultPtr)
+					throw new ArrayIndexOutOfBoundsException();
 				System.arraycopy(delta, deltaPtr, result, resultPtr, cmd);
 				deltaPtr += cmd;
 				resultPtr += cmd;
@@ -211,7 +248,7 @@ else if (result.length != resLen)
 			}
 		}
 
-		return result;
+		return resLen;
 	}
 
 	/**
@@ -64,6 +64,28 @@ public class PackExt {
 	/** A reftable file. */
 	public static final PackExt REFTABLE = newPackExt("ref"); //$NON-NLS-1$
 
+	/**
+	 * A commit-graph file.
+	 *
+	 * @since 5.0
+	 */
+	public static final PackExt COMMIT_GRAPH = newPackExt("graph"); //$NON-NLS-1$
+
+	/**
+	 * A pack reverse index file extension.
+	 *
+	 * @since 5.0
+	 */
+	public static final PackExt REVERSE_INDEX = newPackExt("rev"); //$NON-NLS-1$
+
+	/**
+	 * A filter of the objects in a pack, used to skip packs that do not
+	 * contain an object.
+	 *
+	 * @since 5.0
+	 */
+	public static final PackExt OBJECT_FILTER = newPackExt("filter"); //$NON-NLS-1$
+
 	/**
 	 * Get all of the PackExt values.
 	 *
@@ -91,6 +91,7 @@
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexBuilder;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexWriterV1;
 import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.internal.storage.file.PackReverseIndexWriter;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
@@ -976,6 +977,26 @@ public int getIndexVersion() {
 		return indexVersion;
 	}
 
+	/**
+	 * Returns the objects of the pack file in the order of its index.
+	 * <p>
+	 * Unlike {@link #getObjectSet()} the objects are not copied; the list is
+	 * the one {@link #writeIndex(OutputStream)} writes. This method can only
+	 * be invoked after
+	 * {@link #writePack(ProgressMonitor, ProgressMonitor, OutputStream)} has
+	 * been invoked and completed successfully.
+	 *
+	 * @return objects of the pack, sorted by name.
+	 * @throws java.io.IOException
+	 *             cached packs were reused, so the pack cannot be indexed.
+	 * @since 5.0
+	 */
+	public List<? extends ObjectId> getIndexedObjects() throws IOException {
+		if (isIndexDisabled())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+		return sortByName();
+	}
+
 	/**
 	 * Create an index file to match the pack file just written.
 	 * <p>
@@ -1002,6 +1023,30 @@ public void writeIndex(final OutputStream indexStream) throws IOException {
 		stats.timeWriting += System.currentTimeMillis() - writeStart;
 	}
 
+	/**
+	 * Create a reverse index file to match the pack file just written.
+	 * <p>
+	 * Called after
+	 * {@link #writePack(ProgressMonitor, ProgressMonitor, OutputStream)}.
+	 *
+	 * @param reverseIndexStream
+	 *            output for the reverse index data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws java.io.IOException
+	 *             the index data could not be written to the supplied stream.
+	 * @since 5.0
+	 */
+	public void writeReverseIndex(OutputStream reverseIndexStream)
+			throws IOException {
+		if (isIndexDisabled())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+
+		long writeStart = System.currentTimeMillis();
+		new PackReverseIndexWriter(reverseIndexStream).write(sortByName(),
+				packcsum);
+		stats.timeWriting += System.currentTimeMillis() - writeStart;
+	}
+
 	/**
 	 * Create a bitmap index file to match the pack file just written.
 	 * <p>
@@ -2056,6 +2101,31 @@ public void addObject(final RevObject object)
 			addObject(object, 0);
 	}
 
+	/**
+	 * Allow a bitmap index to be built for objects included by
+	 * {@link #addObject(RevObject)}.
+	 * <p>
+	 * Bitmaps are normally only built for packs prepared by walking the object
+	 * graph. Callers assembling a pack object by object may use this method to
+	 * name the starting points for bitmap commit selection, after which
+	 * {@link #prepareBitmapIndex(ProgressMonitor)} can be used as usual. The
+	 * caller must ensure every object reachable from {@code tips} has been
+	 * added to this pack.
+	 *
+	 * @param tips
+	 *            objects to select bitmap commits from, typically the branch
+	 *            and tag tips stored in this pack.
+	 * @since 5.0
+	 */
+	public void setBitmapTips(@NonNull Set<? extends ObjectId> tips) {
+		stats.interestingObjects = Collections
+				.unmodifiableSet(new HashSet<ObjectId>(tips));
+		excludeFromBitmapSelection = NONE;
+		canBuildBitmaps = config.isBuildBitmaps()
+				&& !shallowPack
+				&& !tips.isEmpty();
+	}
+
 	private void addObject(final RevObject object, final int pathHashCode) {
 		addObject(object, object.getType(), pathHashCode);
 	}
@@ -432,4 +432,58 @@ public class ConfigConstants {
 	 * @since 4.11
 	 */
 	public static final String CONFIG_SECTION_LFS = "lfs";
+
+	/**
+	 * The "multiPackIndex" key in the "core" section
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_MULTI_PACK_INDEX = "multiPackIndex";
+
+	/**
+	 * The "multiPackIndexBatch" key in the "core" section
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_MULTI_PACK_INDEX_BATCH = "multiPackIndexBatch";
+
+	/**
+	 * The "commitGraph" key in the "core" section
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_COMMIT_GRAPH = "commitGraph";
+
+	/**
+	 * The "writeCommitGraph" key in the "gc" section
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_WRITE_COMMIT_GRAPH = "writeCommitGraph";
+
+	/**
+	 * The "asyncReadLimit" key in the "dfs" subsection of "core"
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_ASYNC_READ_LIMIT = "asyncReadLimit";
+
+	/**
+	 * The "blockCacheShards" key in the "dfs" subsection of "core"
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_BLOCK_CACHE_SHARDS = "blockCacheShards";
+
+	/**
+	 * The "diskCacheDirectory" key in the "dfs" subsection of "core"
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_DISK_CACHE_DIRECTORY = "diskCacheDirectory";
+
+	/**
+	 * The "diskCacheLimit" key in the "dfs" subsection of "core"
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_DISK_CACHE_LIMIT = "diskCacheLimit";
+
+	/**
+	 * The "writeObjectFilter" key in the "dfs" subsection of "core"
+	 * @since 5.0
+	 */
+	public static final String CONFIG_KEY_WRITE_OBJECT_FILTER = "writeObjectFilter";
 }
@@ -53,6 +53,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 
 /**
  * Reads an {@link org.eclipse.jgit.lib.ObjectDatabase} for a single thread.
@@ -442,6 +443,23 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		return null;
 	}
 
+	/**
+	 * Get the commit-graph describing the commits of this repository.
+	 * <p>
+	 * The graph may not describe every commit; commits absent from it must be
+	 * parsed from the object database.
+	 *
+	 * @return the commit-graph, or null if one does not exist or its use is
+	 *         disabled.
+	 * @throws java.io.IOException
+	 *             when the commit-graph fails to load
+	 * @since 5.0
+	 */
+	@Nullable
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Get the {@link org.eclipse.jgit.lib.ObjectInserter} from which this
 	 * reader was created using {@code inserter.newReader()}
@@ -584,6 +602,12 @@ public BitmapIndex getBitmapIndex() throws IOException {
 			return delegate().getBitmapIndex();
 		}
 
+		@Override
+		@Nullable
+		public CommitGraph getCommitGraph() throws IOException {
+			return delegate().getCommitGraph();
+		}
+
 		@Override
 		@Nullable
 		public ObjectInserter getCreatedFromInserter() {
@@ -53,6 +53,7 @@
 
 import org.eclipse.jgit.annotations.NonNull;
 import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.util.RefMap;
 
 /**
  * Abstraction of name to {@link org.eclipse.jgit.lib.ObjectId} mapping.
@@ -64,6 +65,24 @@
  * {@link org.eclipse.jgit.lib.ObjectDatabase}.
  */
 public abstract class RefDatabase {
+	/**
+	 * Receives references from {@link RefDatabase#visitRefs(String, RefVisitor)}.
+	 *
+	 * @since 5.0
+	 */
+	public interface RefVisitor {
+		/**
+		 * Process one reference.
+		 *
+		 * @param ref
+		 *            the reference, with symbolic references resolved.
+		 * @throws java.io.IOException
+		 *             the reference cannot be processed; the visit stops and
+		 *             this exception is thrown to its caller.
+		 */
+		void visit(Ref ref) throws IOException;
+	}
+
 	/**
 	 * Order of prefixes to search when using non-absolute references.
 	 * <p>
@@ -347,6 +366,70 @@ public Ref firstExactRef(String... refs) throws IOException {
 	@NonNull
 	public abstract Map<String, Ref> getRefs(String prefix) throws IOException;
 
+	/**
+	 * Visit a section of the reference namespace in name order.
+	 * <p>
+	 * Unlike {@link #getRefs(String)} the references need not be held in
+	 * memory all at once: implementations able to read them incrementally,
+	 * such as from a reftable, pass each reference to the visitor as soon as
+	 * it is read. The default implementation visits the values of
+	 * {@link #getRefs(String)}, sorting them first if the map is not already
+	 * sorted.
+	 *
+	 * @param prefix
+	 *            prefix to search the namespace with; must end with {@code /}.
+	 *            If the empty string ({@link #ALL}), visit all references.
+	 * @param visitor
+	 *            receives each reference whose name starts with
+	 *            {@code prefix}, in name order.
+	 * @throws java.io.IOException
+	 *             the reference space cannot be accessed, or the visitor
+	 *             failed.
+	 * @since 5.0
+	 */
+	public void visitRefs(String prefix, RefVisitor visitor)
+			throws IOException {
+		Map<String, Ref> refs = getRefs(prefix);
+		Collection<Ref> sorted = refs instanceof RefMap ? refs.values()
+				: RefComparator.sort(refs.values());
+		for (Ref ref : sorted) {
+			visitor.visit(ref);
+		}
+	}
+
+	/**
+	 * Get the references whose name starts with a prefix.
+	 * <p>
+	 * Unlike {@link #getRefs(String)} the prefix need not end with {@code /}
+	 * and the returned references keep their full names. The default
+	 * implementation reads the directory portion of the prefix with
+	 * {@link #getRefs(String)} and filters the result; implementations able
+	 * to seek directly to the prefix should override it.
+	 *
+	 * @param prefix
+	 *            prefix of the reference names to return. If the empty
+	 *            string ({@link #ALL}), return all references.
+	 * @return immutable list of the references whose name starts with
+	 *         {@code prefix}, in no particular order.
+	 * @throws java.io.IOException
+	 *             the reference space cannot be accessed.
+	 * @since 5.0
+	 */
+	@NonNull
+	public List<Ref> getRefsByPrefix(String prefix) throws IOException {
+		int lastSlash = prefix.lastIndexOf('/');
+		Map<String, Ref> coarse = getRefs(lastSlash < 0 ? ALL
+				: prefix.substring(0, lastSlash + 1));
+		String rest = lastSlash < 0 ? prefix : prefix.substring(lastSlash + 1);
+		List<Ref> result = new ArrayList<>(coarse.size());
+		for (Map.Entry<String, Ref> e : coarse.entrySet()) {
+			if (e.getKey().startsWith(rest)) {
+				result.add(e.getValue());
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
 	/**
 	 * Get the additional reference-like entities from the repository.
 	 * <p>
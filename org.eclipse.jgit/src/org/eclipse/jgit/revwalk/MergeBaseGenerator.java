@@ -63,6 +63,10 @@
  * flags will be automatically released on the next reset of the RevWalk, but
  * not until then, as they are assigned to commits throughout the history.
  * <p>
+ * If the walker supplies a minimum generation number, commits below it are
+ * never expanded. This bounds reachability checks when the commits are
+ * described by a commit-graph, even if commit times are skewed.
+ * <p>
  * Several internal flags are reused here for a different purpose, but this
  * should not have any impact as this generator should be run alone, and without
  * any other generators wrapped around it.
@@ -75,6 +79,7 @@ class MergeBaseGenerator extends Generator {
 
 	private final RevWalk walker;
 	private final DateRevQueue pending;
+	private final int minGeneration;
 
 	private int branchMask;
 	private int recarryTest;
@@ -87,6 +92,7 @@ class MergeBaseGenerator extends Generator {
 	MergeBaseGenerator(final RevWalk w) {
 		walker = w;
 		pending = new DateRevQueue();
+		minGeneration = w.minGeneration;
 	}
 
 	void init(final AbstractRevQueue p) throws IOException {
@@ -149,9 +155,14 @@ private RevCommit _next() throws MissingObjectException,
 			for (final RevCommit p : c.parents) {
 				if ((p.flags & IN_PENDING) != 0)
 					continue;
+				p.flags |= IN_PENDING;
+				if (minGeneration > 0 && walker.generation(p) < minGeneration) {
+					// p cannot reach any commit of interest; do not walk
+					// its history.
+					continue;
+				}
 				if ((p.flags & PARSED) == 0)
 					p.parseHeaders(walker);
-				p.flags |= IN_PENDING;
 				pending.add(p);
 			}
 
@@ -57,6 +57,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
@@ -155,7 +156,8 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
-		parseCanonical(walk, walk.getCachedBytes(this));
+		if (walk.isRetainBody() || !parseInGraph(walk))
+			parseCanonical(walk, walk.getCachedBytes(this));
 	}
 
 	@Override
@@ -168,6 +170,37 @@ void parseBody(final RevWalk walk) throws MissingObjectException,
 		}
 	}
 
+	private boolean parseInGraph(RevWalk walk) throws IOException {
+		CommitGraph graph = walk.commitGraph();
+		if (graph == null)
+			return false;
+		int pos = graph.findGraphPosition(this);
+		if (pos < 0)
+			return false;
+
+		if (!walk.shallowCommitsInitialized)
+			walk.initializeShallowCommits();
+
+		MutableObjectId idBuffer = walk.idBuffer;
+		graph.copyTreeTo(pos, idBuffer);
+		tree = walk.lookupTree(idBuffer);
+
+		if (parents == null) {
+			int[] parentPos = graph.getParentPositions(pos);
+			RevCommit[] pList = new RevCommit[parentPos.length];
+			for (int i = 0; i < parentPos.length; i++) {
+				graph.copyObjectIdTo(parentPos[i], idBuffer);
+				pList[i] = walk.lookupCommit(idBuffer);
+			}
+			parents = pList;
+		}
+
+		// In 2038 commitTime will overflow unless it is changed to long.
+		commitTime = (int) graph.getCommitTime(pos);
+		flags |= PARSED;
+		return true;
+	}
+
 	void parseCanonical(final RevWalk walk, final byte[] raw)
 			throws IOException {
 		if (!walk.shallowCommitsInitialized)
@@ -54,12 +54,14 @@
 import java.util.List;
 
 import org.eclipse.jgit.annotations.NonNull;
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
 import org.eclipse.jgit.lib.Constants;
@@ -201,6 +203,16 @@ public class RevWalk implements Iterable<RevCommit>, AutoCloseable {
 
 	boolean shallowCommitsInitialized;
 
+	private boolean commitGraphLoaded;
+
+	private CommitGraph commitGraph;
+
+	/**
+	 * Commits with a lower generation number are not expanded by the merge
+	 * base computation; 0 if no limit applies.
+	 */
+	int minGeneration;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -383,6 +395,10 @@ public void markUninteresting(final RevCommit c)
 	 * commits, and then executes a walk until an answer can be obtained.
 	 * Currently allocated RevFlags that have been added to RevCommit instances
 	 * will be retained through the reset.
+	 * <p>
+	 * If the commits are described by a commit-graph their generation numbers
+	 * bound the walk: commits that cannot reach <code>base</code> are not
+	 * expanded, regardless of their commit time.
 	 *
 	 * @param base
 	 *            commit the caller thinks is reachable from <code>tip</code>.
@@ -410,8 +426,20 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		try {
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
+
+			// Only commits with a higher generation number than base can
+			// reach it. Generations at GENERATION_MAX are capped and do not
+			// bound the real value.
+			int baseGen = generation(base);
+			int tipGen = generation(tip);
+			if (baseGen >= tipGen && tipGen < CommitGraph.GENERATION_MAX
+					&& !base.equals(tip))
+				return false;
+
 			filter = RevFilter.MERGE_BASE;
 			treeFilter = TreeFilter.ALL;
+			if (baseGen != CommitGraph.GENERATION_UNKNOWN)
+				minGeneration = baseGen;
 			markStart(tip);
 			markStart(base);
 			RevCommit mergeBase;
@@ -422,6 +450,7 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		} finally {
 			filter = oldRF;
 			treeFilter = oldTF;
+			minGeneration = 0;
 		}
 	}
 
@@ -1333,6 +1362,8 @@ public void dispose() {
 		queue = new DateRevQueue();
 		pending = new StartGenerator(this);
 		shallowCommitsInitialized = false;
+		commitGraphLoaded = false;
+		commitGraph = null;
 	}
 
 	/**
@@ -1460,6 +1491,54 @@ public void assumeShallow(Collection<? extends ObjectId> ids) {
 			lookupCommit(id).parents = RevCommit.NO_PARENTS;
 	}
 
+	/**
+	 * Get the commit-graph of the repository, if one is available.
+	 * <p>
+	 * Commits are only parsed from the graph when bodies are not retained,
+	 * as it does not store the commit message or identities. A graph that
+	 * cannot be read is ignored and commits are parsed from their canonical
+	 * form.
+	 *
+	 * @return the commit-graph; null if none is available.
+	 */
+	@Nullable
+	CommitGraph commitGraph() {
+		if (!commitGraphLoaded) {
+			commitGraphLoaded = true;
+			if (reader != null) {
+				try {
+					commitGraph = reader.getCommitGraph();
+				} catch (IOException e) {
+					commitGraph = null;
+				}
+			}
+		}
+		return commitGraph;
+	}
+
+	/**
+	 * Get the generation number of a commit from the commit-graph.
+	 * <p>
+	 * A commit can only reach commits with a lower generation number.
+	 *
+	 * @param c
+	 *            the commit.
+	 * @return generation number of the commit, capped at
+	 *         {@link CommitGraph#GENERATION_MAX}; or
+	 *         {@link CommitGraph#GENERATION_UNKNOWN} if the commit is not
+	 *         described by a commit-graph.
+	 */
+	int generation(RevCommit c) {
+		CommitGraph graph = commitGraph();
+		if (graph != null) {
+			int pos = graph.findGraphPosition(c);
+			if (pos >= 0) {
+				return graph.getGeneration(pos);
+			}
+		}
+		return CommitGraph.GENERATION_UNKNOWN;
+	}
+
 	void initializeShallowCommits() throws IOException {
 		if (shallowCommitsInitialized)
 			throw new IllegalStateException(
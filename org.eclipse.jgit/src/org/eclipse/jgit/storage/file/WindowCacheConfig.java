@@ -65,8 +65,16 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedIndexMMAP;
+
+	private boolean packedGitUseStrongRefs;
+
+	private long packedGitOffHeapLimit;
+
 	private int deltaBaseCacheLimit;
 
+	private long sharedDeltaBaseCacheLimit;
+
 	private int streamFileThreshold;
 
 	/**
@@ -77,7 +85,11 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedIndexMMAP = false;
+		packedGitUseStrongRefs = false;
+		packedGitOffHeapLimit = 0;
 		deltaBaseCacheLimit = 10 * MB;
+		sharedDeltaBaseCacheLimit = 0;
 		streamFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
 	}
 
@@ -169,6 +181,92 @@ public void setPackedGitMMAP(final boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * Whether to use Java NIO virtual memory mapping for pack indexes
+	 *
+	 * @return {@code true} enables use of Java NIO virtual memory mapping for
+	 *         pack indexes and reverse indexes; false reads their tables onto
+	 *         the heap. <b>Default false.</b>
+	 * @since 5.0
+	 */
+	public boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
+	/**
+	 * Set whether to enable use of Java NIO virtual memory mapping for pack
+	 * indexes
+	 *
+	 * @param usemmap
+	 *            {@code true} enables use of Java NIO virtual memory mapping
+	 *            for pack indexes and reverse indexes; false reads their
+	 *            tables onto the heap.
+	 * @since 5.0
+	 */
+	public void setPackedIndexMMAP(boolean usemmap) {
+		packedIndexMMAP = usemmap;
+	}
+
+	/**
+	 * Whether the window cache holds strong references to windows
+	 *
+	 * @return {@code true} if windows are kept under strong references in a
+	 *         segmented cache that evicts only to stay within
+	 *         {@link #getPackedGitLimit()}; false if windows are held under
+	 *         SoftReferences and may also be discarded by the garbage
+	 *         collector. <b>Default false.</b>
+	 * @since 5.0
+	 */
+	public boolean isPackedGitUseStrongRefs() {
+		return packedGitUseStrongRefs;
+	}
+
+	/**
+	 * Set whether the window cache holds strong references to windows
+	 *
+	 * @param useStrongRefs
+	 *            {@code true} keeps windows under strong references in a
+	 *            segmented cache that evicts only to stay within
+	 *            {@link #getPackedGitLimit()}; false holds windows under
+	 *            SoftReferences which the garbage collector may clear.
+	 * @since 5.0
+	 */
+	public void setPackedGitUseStrongRefs(boolean useStrongRefs) {
+		packedGitUseStrongRefs = useStrongRefs;
+	}
+
+	/**
+	 * Get the maximum number of bytes of direct memory used for windows
+	 *
+	 * @return maximum number of bytes of direct (off-heap) memory to allocate
+	 *         for windows read from pack files; 0 if windows are read into
+	 *         heap arrays. <b>Default 0.</b>
+	 * @since 5.0
+	 */
+	public long getPackedGitOffHeapLimit() {
+		return packedGitOffHeapLimit;
+	}
+
+	/**
+	 * Set the maximum number of bytes of direct memory used for windows
+	 * <p>
+	 * If positive, windows are read with {@code FileChannel} into direct
+	 * buffers taken from a pool of this size, and buffers of evicted windows
+	 * are reused. Windows are then held under strong references, as if
+	 * {@link #setPackedGitUseStrongRefs(boolean)} was enabled. Once the pool
+	 * is exhausted further windows are read onto the heap, so this should be
+	 * no smaller than {@link #getPackedGitLimit()}. Ignored if
+	 * {@link #isPackedGitMMAP()} is set.
+	 *
+	 * @param newLimit
+	 *            maximum number of bytes of direct memory to allocate for
+	 *            windows; 0 to read windows into heap arrays.
+	 * @since 5.0
+	 */
+	public void setPackedGitOffHeapLimit(long newLimit) {
+		packedGitOffHeapLimit = newLimit;
+	}
+
 	/**
 	 * Get maximum number of bytes to cache in delta base cache for inflated,
 	 * recently accessed objects, without delta chains.
@@ -193,6 +291,35 @@ public void setDeltaBaseCacheLimit(final int newLimit) {
 		deltaBaseCacheLimit = newLimit;
 	}
 
+	/**
+	 * Get the size of the delta base cache shared by all readers
+	 *
+	 * @return maximum number of bytes of inflated delta bases cached for all
+	 *         readers together; 0 if each reader uses its own cache limited by
+	 *         {@link #getDeltaBaseCacheLimit()}. <b>Default 0.</b>
+	 * @since 5.0
+	 */
+	public long getSharedDeltaBaseCacheLimit() {
+		return sharedDeltaBaseCacheLimit;
+	}
+
+	/**
+	 * Set the size of the delta base cache shared by all readers
+	 * <p>
+	 * If positive, readers store inflated delta bases in a single concurrent
+	 * cache bounded by this many bytes instead of a private cache each, so
+	 * readers of the same large objects reuse each other's bases rather than
+	 * evicting them from small private caches.
+	 *
+	 * @param newLimit
+	 *            maximum number of bytes of inflated delta bases cached for
+	 *            all readers together; 0 to give each reader its own cache.
+	 * @since 5.0
+	 */
+	public void setSharedDeltaBaseCacheLimit(long newLimit) {
+		sharedDeltaBaseCacheLimit = newLimit;
+	}
+
 	/**
 	 * Get the size threshold beyond which objects must be streamed.
 	 *
@@ -235,8 +362,16 @@ public WindowCacheConfig fromConfig(final Config rc) {
 				"core", null, "packedgitwindowsize", getPackedGitWindowSize())); //$NON-NLS-1$ //$NON-NLS-2$
 		setPackedGitMMAP(rc.getBoolean(
 				"core", null, "packedgitmmap", isPackedGitMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedIndexMMAP(rc.getBoolean(
+				"core", null, "packedindexmmap", isPackedIndexMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedGitUseStrongRefs(rc.getBoolean("core", null, //$NON-NLS-1$
+				"packedgitusestrongrefs", isPackedGitUseStrongRefs())); //$NON-NLS-1$
+		setPackedGitOffHeapLimit(rc.getLong("core", null, //$NON-NLS-1$
+				"packedgitoffheaplimit", getPackedGitOffHeapLimit())); //$NON-NLS-1$
 		setDeltaBaseCacheLimit(rc.getInt(
 				"core", null, "deltabasecachelimit", getDeltaBaseCacheLimit())); //$NON-NLS-1$ //$NON-NLS-2$
+		setSharedDeltaBaseCacheLimit(rc.getLong("core", null, //$NON-NLS-1$
+				"shareddeltabasecachelimit", getSharedDeltaBaseCacheLimit())); //$NON-NLS-1$
 
 		long maxMem = Runtime.getRuntime().maxMemory();
 		long sft = rc.getLong(
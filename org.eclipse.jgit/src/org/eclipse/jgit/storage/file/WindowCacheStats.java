@@ -65,4 +65,57 @@ public static int getOpenFiles() {
 	public static long getOpenBytes() {
 		return WindowCache.getInstance().getOpenBytes();
 	}
+
+	/**
+	 * @return number of window lookups satisfied by the cache.
+	 * @since 5.0
+	 */
+	public static long getHitCount() {
+		return WindowCache.getInstance().getHitCount();
+	}
+
+	/**
+	 * @return number of window lookups that had to read from a pack.
+	 * @since 5.0
+	 */
+	public static long getMissCount() {
+		return WindowCache.getInstance().getMissCount();
+	}
+
+	/**
+	 * @return number of windows evicted to stay within the configured limits.
+	 * @since 5.0
+	 */
+	public static long getEvictionCount() {
+		return WindowCache.getInstance().getEvictionCount();
+	}
+
+	/**
+	 * @return number of delta bases found in the delta base cache, indexed by
+	 *         the number of deltas between the requested object and the base.
+	 *         The last element also counts all deeper bases.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaBaseHitCounts() {
+		return WindowCache.getDeltaBaseHitCounts();
+	}
+
+	/**
+	 * @return number of delta bases not found in the delta base cache,
+	 *         indexed like {@link #getDeltaBaseHitCounts()}.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaBaseMissCounts() {
+		return WindowCache.getDeltaBaseMissCounts();
+	}
+
+	/**
+	 * @return number of bytes inflated to resolve objects, indexed by the
+	 *         number of deltas between the requested object and the inflated
+	 *         pack entry; element 0 counts the requested entries themselves.
+	 * @since 5.0
+	 */
+	public static long[] getDeltaInflatedBytes() {
+		return WindowCache.getDeltaInflatedBytes();
+	}
 }
@@ -212,6 +212,14 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_BITMAP_INACTIVE_BRANCH_AGE_IN_DAYS = 90;
 
+	/**
+	 * Default value of the write reverse index option: {@value}
+	 *
+	 * @see #setWriteReverseIndex(boolean)
+	 * @since 5.0
+	 */
+	public static final boolean DEFAULT_WRITE_REVERSE_INDEX = false;
+
 	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
 	private boolean reuseDeltas = DEFAULT_REUSE_DELTAS;
@@ -262,6 +270,8 @@ public class PackConfig {
 
 	private boolean singlePack;
 
+	private boolean writeReverseIndex = DEFAULT_WRITE_REVERSE_INDEX;
+
 	/**
 	 * Create a default configuration.
 	 */
@@ -326,6 +336,7 @@ public PackConfig(PackConfig cfg) {
 		this.bitmapInactiveBranchAgeInDays = cfg.bitmapInactiveBranchAgeInDays;
 		this.cutDeltaChains = cfg.cutDeltaChains;
 		this.singlePack = cfg.singlePack;
+		this.writeReverseIndex = cfg.writeReverseIndex;
 	}
 
 	/**
@@ -589,6 +600,36 @@ public void setSinglePack(boolean single) {
 		singlePack = single;
 	}
 
+	/**
+	 * Whether a reverse index ({@code .rev} file) is written next to the
+	 * pack index.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_REVERSE_INDEX}
+	 *
+	 * @return true if a reverse index is written.
+	 * @since 5.0
+	 */
+	public boolean isWriteReverseIndex() {
+		return writeReverseIndex;
+	}
+
+	/**
+	 * Set whether to write a reverse index ({@code .rev} file) next to the
+	 * pack index.
+	 *
+	 * The reverse index lists objects in pack order, sparing readers from
+	 * sorting all offsets of the index in memory when the pack is opened.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_REVERSE_INDEX}
+	 *
+	 * @param write
+	 *            true to write a reverse index.
+	 * @since 5.0
+	 */
+	public void setWriteReverseIndex(boolean write) {
+		writeReverseIndex = write;
+	}
+
 	/**
 	 * Get the number of objects to try when looking for a delta base.
 	 *
@@ -1067,6 +1108,8 @@ public void fromConfig(final Config rc) {
 				rc.getBoolean("pack", "cutdeltachains", getCutDeltaChains())); //$NON-NLS-1$ //$NON-NLS-2$
 		setSinglePack(
 				rc.getBoolean("pack", "singlepack", getSinglePack())); //$NON-NLS-1$ //$NON-NLS-2$
+		setWriteReverseIndex(rc.getBoolean("pack", "writereverseindex", //$NON-NLS-1$ //$NON-NLS-2$
+				isWriteReverseIndex()));
 		setBuildBitmaps(
 				rc.getBoolean("pack", "buildbitmaps", isBuildBitmaps())); //$NON-NLS-1$ //$NON-NLS-2$
 		setBitmapContiguousCommitCount(
@@ -1116,6 +1159,7 @@ public String toString() {
 		b.append(", bitmapInactiveBranchAge=") //$NON-NLS-1$
 				.append(getBitmapInactiveBranchAgeInDays());
 		b.append(", singlePack=").append(getSinglePack()); //$NON-NLS-1$
+		b.append(", writeReverseIndex=").append(isWriteReverseIndex()); //$NON-NLS-1$
 		return b.toString();
 	}
 }
@@ -46,6 +46,7 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_LS_REFS;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_AGENT;
 
 import java.io.EOFException;
@@ -53,8 +54,11 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
@@ -62,6 +66,7 @@
 import org.eclipse.jgit.errors.RemoteRepositoryException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
@@ -122,6 +127,9 @@ abstract class BasePackConnection extends BaseConnection {
 	/** Extra objects the remote has, but which aren't offered as refs. */
 	protected final Set<ObjectId> additionalHaves = new HashSet<>();
 
+	/** True if the remote answered with a protocol v2 advertisement. */
+	private boolean protocolV2;
+
 	BasePackConnection(final PackTransport packTransport) {
 		transport = (Transport) packTransport;
 		local = transport.local;
@@ -168,6 +176,10 @@ protected final void init(InputStream myIn, OutputStream myOut) {
 	 * Subclass implementations may call this method only after setting up the
 	 * input and output streams with {@link #init(InputStream, OutputStream)}.
 	 * <p>
+	 * If the remote answers with a protocol v2 capability advertisement no
+	 * references are read; callers must then list them with
+	 * {@link #lsRefs(Collection)}.
+	 * <p>
 	 * If any errors occur, this connection is automatically closed by invoking
 	 * {@link #close()} and the exception is wrapped (if necessary) and thrown
 	 * as a {@link org.eclipse.jgit.errors.TransportException}.
@@ -211,6 +223,15 @@ private void readAdvertisedRefsImpl() throws IOException {
 				throw new RemoteRepositoryException(uri, line.substring(4));
 			}
 
+			if (avail.isEmpty() && line.equals("version 2")) { //$NON-NLS-1$
+				// The remote accepted our request for protocol v2 and
+				// only lists its capabilities; refs come from ls-refs.
+				while ((line = pckIn.readString()) != PacketLineIn.END)
+					remoteCapablities.add(line);
+				protocolV2 = true;
+				return;
+			}
+
 			if (avail.isEmpty()) {
 				final int nul = line.indexOf('\0');
 				if (nul >= 0) {
@@ -254,6 +275,156 @@ private void readAdvertisedRefsImpl() throws IOException {
 		available(avail);
 	}
 
+	/**
+	 * Whether the remote speaks protocol v2 on this connection.
+	 *
+	 * @return true if {@link #readAdvertisedRefs()} found a protocol v2
+	 *         capability advertisement.
+	 */
+	boolean isProtocolV2() {
+		return protocolV2;
+	}
+
+	/**
+	 * List the remote references with the protocol v2 {@code ls-refs}
+	 * command.
+	 * <p>
+	 * Only references which may match one of {@code refSpecs} are requested,
+	 * saving the remote from sending (and the client from parsing) the
+	 * complete namespace. An empty collection lists every reference.
+	 *
+	 * @param refSpecs
+	 *            specifications the caller will fetch.
+	 * @throws org.eclipse.jgit.errors.TransportException
+	 *             the reference list could not be obtained.
+	 */
+	void lsRefs(Collection<RefSpec> refSpecs) throws TransportException {
+		try {
+			lsRefsImpl(refSpecs);
+		} catch (TransportException err) {
+			close();
+			throw err;
+		} catch (IOException | RuntimeException err) {
+			close();
+			throw new TransportException(err.getMessage(), err);
+		}
+	}
+
+	private void lsRefsImpl(Collection<RefSpec> refSpecs) throws IOException {
+		pckOut.writeString("command=" + COMMAND_LS_REFS + '\n'); //$NON-NLS-1$
+		writeUserAgentV2();
+		pckOut.writeDelim();
+		pckOut.writeString("peel\n"); //$NON-NLS-1$
+		for (String prefix : getRefPrefixes(refSpecs))
+			pckOut.writeString("ref-prefix " + prefix + '\n'); //$NON-NLS-1$
+		pckOut.end();
+
+		final LinkedHashMap<String, Ref> avail = new LinkedHashMap<>();
+		String line;
+		while ((line = pckIn.readString()) != PacketLineIn.END) {
+			String[] parts = line.split(" "); //$NON-NLS-1$
+			if (parts.length < 2 || line.startsWith("ERR ")) //$NON-NLS-1$
+				throw unexpectedLine(line);
+			ObjectId id = ObjectId.fromString(parts[0]);
+			String name = parts[1];
+			ObjectId peeled = null;
+			for (int i = 2; i < parts.length; i++) {
+				if (parts[i].startsWith("peeled:")) //$NON-NLS-1$
+					peeled = ObjectId.fromString(parts[i].substring(7));
+			}
+
+			final Ref ref;
+			if (peeled != null)
+				ref = new ObjectIdRef.PeeledTag(Ref.Storage.NETWORK, name, id,
+						peeled);
+			else
+				ref = new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, name,
+						id);
+			if (avail.put(name, ref) != null)
+				throw duplicateAdvertisement(name);
+		}
+		available(avail);
+	}
+
+	/**
+	 * Compute the {@code ref-prefix} arguments of an {@code ls-refs}
+	 * request.
+	 *
+	 * @return prefixes covering every reference the specifications (and tag
+	 *         following) may need; empty to request all references.
+	 */
+	private Set<String> getRefPrefixes(Collection<RefSpec> refSpecs) {
+		Set<String> prefixes = new LinkedHashSet<>();
+		if (refSpecs.isEmpty())
+			return prefixes;
+
+		// Callers such as clone rely on HEAD to pick a branch.
+		prefixes.add(Constants.HEAD);
+		for (RefSpec spec : refSpecs) {
+			String src = spec.getSource();
+			if (src == null || ObjectId.isId(src))
+				continue;
+			if (spec.isWildcard())
+				prefixes.add(src.substring(0, src.indexOf('*')));
+			else
+				prefixes.add(src);
+		}
+		if (transport.getTagOpt() != TagOpt.NO_TAGS)
+			prefixes.add(Constants.R_TAGS);
+		return prefixes;
+	}
+
+	/**
+	 * Whether a protocol v2 command of the remote supports a feature.
+	 *
+	 * @param command
+	 *            the command, e.g. {@code fetch}.
+	 * @param feature
+	 *            the feature the command may list in its capability.
+	 * @return true if the remote advertised {@code command=} with
+	 *         {@code feature} among its values.
+	 */
+	boolean isCapableOfV2(String command, String feature) {
+		String prefix = command + '=';
+		for (String c : remoteCapablities) {
+			if (c.startsWith(prefix))
+				return Arrays.asList(c.substring(prefix.length()).split(" ")) //$NON-NLS-1$
+						.contains(feature);
+		}
+		return false;
+	}
+
+	/**
+	 * Write the protocol v2 agent capability, if the remote sent its own.
+	 *
+	 * @throws IOException
+	 *             the capability could not be written.
+	 */
+	void writeUserAgentV2() throws IOException {
+		String a = UserAgent.get();
+		if (a != null && UserAgent.hasAgent(remoteCapablities))
+			pckOut.writeString(OPTION_AGENT + '=' + a + '\n');
+	}
+
+	/**
+	 * Create an exception for a line the remote should not have sent.
+	 *
+	 * @param line
+	 *            the line read from the remote.
+	 * @return the remote's own error, if the line carried one; otherwise a
+	 *         protocol error.
+	 */
+	TransportException unexpectedLine(String line) {
+		if (line.startsWith("ERR ")) //$NON-NLS-1$
+			return new RemoteRepositoryException(uri, line.substring(4));
+		if (line == PacketLineIn.END)
+			line = "0000"; //$NON-NLS-1$
+		else if (line == PacketLineIn.DELIM)
+			line = "0001"; //$NON-NLS-1$
+		return new PackProtocolException(uri, MessageFormat.format(
+				JGitText.get().unexpectedPacketLine, line));
+	}
+
 	/**
 	 * Create an exception to indicate problems finding a remote repository. The
 	 * caller is expected to throw the returned exception.
@@ -46,6 +46,7 @@
 package org.eclipse.jgit.transport;
 
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_FETCH;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -382,6 +383,11 @@ protected void doFetch(final ProgressMonitor monitor,
 			markRefsAdvertised();
 			markReachable(have, maxTimeWanted(want));
 
+			if (isProtocolV2()) {
+				fetchV2(monitor, want, outputStream);
+				return;
+			}
+
 			if (statelessRPC) {
 				state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
 				pckState = new PacketLineOut(state);
@@ -498,20 +504,9 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		boolean first = true;
 		for (final Ref r : want) {
 			ObjectId objectId = r.getObjectId();
-			if (objectId == null) {
+			if (!isWanted(objectId)) {
 				continue;
 			}
-			try {
-				if (walk.parseAny(objectId).has(REACHABLE)) {
-					// We already have this object. Asking for it is
-					// not a very good idea.
-					//
-					continue;
-				}
-			} catch (IOException err) {
-				// Its OK, we don't have it, but we want to fix that
-				// by fetching the object from the other side.
-			}
 
 			final StringBuilder line = new StringBuilder(46);
 			line.append("want "); //$NON-NLS-1$
@@ -522,27 +517,182 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 			}
 			line.append('\n');
 			p.writeString(line.toString());
-			if (minimalNegotiationSet != null) {
-				Ref current = local.exactRef(r.getName());
-				if (current != null) {
-					ObjectId o = current.getObjectId();
-					if (o != null && !o.equals(ObjectId.zeroId())) {
-						minimalNegotiationSet.add(o);
-					}
-				}
-			}
+			addMinimalNegotiationRef(r);
 		}
 		if (first) {
 			return false;
 		}
+		writeFilter(p);
+		p.end();
+		outNeedsEnd = false;
+		return true;
+	}
+
+	private boolean isWanted(ObjectId objectId) {
+		if (objectId == null) {
+			return false;
+		}
+		try {
+			if (walk.parseAny(objectId).has(REACHABLE)) {
+				// We already have this object. Asking for it is
+				// not a very good idea.
+				//
+				return false;
+			}
+		} catch (IOException err) {
+			// Its OK, we don't have it, but we want to fix that
+			// by fetching the object from the other side.
+		}
+		return true;
+	}
+
+	private void addMinimalNegotiationRef(Ref r) throws IOException {
+		if (minimalNegotiationSet != null) {
+			Ref current = local.exactRef(r.getName());
+			if (current != null) {
+				ObjectId o = current.getObjectId();
+				if (o != null && !o.equals(ObjectId.zeroId())) {
+					minimalNegotiationSet.add(o);
+				}
+			}
+		}
+	}
+
+	private void writeFilter(PacketLineOut p) throws IOException {
 		if (filterBlobLimit == 0) {
 			p.writeString(OPTION_FILTER + " blob:none"); //$NON-NLS-1$
 		} else if (filterBlobLimit > 0) {
 			p.writeString(OPTION_FILTER + " blob:limit=" + filterBlobLimit); //$NON-NLS-1$
 		}
-		p.end();
-		outNeedsEnd = false;
-		return true;
+	}
+
+	/**
+	 * Fetch with the protocol v2 {@code fetch} command.
+	 * <p>
+	 * Every request is self-contained, so each round repeats the wants and
+	 * the haves the remote already acknowledged (kept in {@link #state}),
+	 * followed by a new block of haves. The remote answers with its
+	 * acknowledgments until it is ready, or until we say we are done; the
+	 * pack then follows on the same response.
+	 */
+	private void fetchV2(final ProgressMonitor monitor,
+			final Collection<Ref> want, OutputStream outputStream)
+			throws IOException, CancelledException {
+		state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
+		pckState = new PacketLineOut(state);
+		if (!sendWantsV2(want)) {
+			return;
+		}
+
+		negotiateBegin();
+		int havesSinceLastAck = 0;
+		boolean done = false;
+		for (;;) {
+			if (monitor.isCancelled()) {
+				throw new CancelledException();
+			}
+
+			pckOut.writeString("command=" + COMMAND_FETCH + '\n'); //$NON-NLS-1$
+			writeUserAgentV2();
+			pckOut.writeDelim();
+			state.writeTo(out, null);
+
+			int havesSent = 0;
+			RevCommit c = null;
+			while (havesSent < 32 && (c = walk.next()) != null) {
+				pckOut.writeString("have " + c.name() + '\n'); //$NON-NLS-1$
+				havesSent++;
+				havesSinceLastAck++;
+				if (minimalNegotiationSet != null) {
+					minimalNegotiationSet.remove(c);
+				}
+			}
+
+			// Give up once history is exhausted, or when the remote did
+			// not recognize any of a whole slew of haves.
+			done = c == null || havesSinceLastAck > MAX_HAVES
+					|| (minimalNegotiationSet != null
+							&& minimalNegotiationSet.isEmpty());
+			if (done) {
+				pckOut.writeString("done\n"); //$NON-NLS-1$
+				if (statelessRPC) {
+					outNeedsEnd = false;
+				}
+			}
+			pckOut.end();
+			if (done) {
+				break;
+			}
+
+			String line = pckIn.readString();
+			if (!"acknowledgments".equals(line)) { //$NON-NLS-1$
+				throw unexpectedLine(line);
+			}
+			while ((line = pckIn.readString()) != PacketLineIn.END
+					&& line != PacketLineIn.DELIM) {
+				if (line.startsWith("ACK ")) { //$NON-NLS-1$
+					ObjectId id = ObjectId.fromString(line.substring(4));
+					markCommon(walk.parseAny(id), AckNackResult.ACK_COMMON);
+					havesSinceLastAck = 0;
+				} else if (!line.equals("NAK") && !line.equals("ready")) { //$NON-NLS-1$ //$NON-NLS-2$
+					throw unexpectedLine(line);
+				}
+			}
+			if (line == PacketLineIn.DELIM) {
+				// The remote is ready and sends the pack right away.
+				if (statelessRPC) {
+					outNeedsEnd = false;
+				}
+				break;
+			}
+		}
+
+		String line = pckIn.readString();
+		if (!"packfile".equals(line)) { //$NON-NLS-1$
+			throw unexpectedLine(line);
+		}
+
+		walk.dispose();
+		reachableCommits = null;
+		state = null;
+		pckState = null;
+
+		// Protocol v2 always multiplexes the pack with progress messages.
+		sideband = true;
+		receivePack(monitor, outputStream);
+	}
+
+	private boolean sendWantsV2(final Collection<Ref> want)
+			throws IOException {
+		final PacketLineOut p = pckState;
+		if (noProgress) {
+			p.writeString(OPTION_NO_PROGRESS + '\n');
+		}
+		if (includeTags) {
+			p.writeString(OPTION_INCLUDE_TAG + '\n');
+		}
+		if (allowOfsDelta) {
+			p.writeString(OPTION_OFS_DELTA + '\n');
+		}
+		if (thinPack) {
+			p.writeString(OPTION_THIN_PACK + '\n');
+		}
+		if (filterBlobLimit >= 0 && !isCapableOfV2(COMMAND_FETCH, OPTION_FILTER)) {
+			throw new PackProtocolException(uri,
+					JGitText.get().filterRequiresCapability);
+		}
+		writeFilter(p);
+
+		boolean any = false;
+		for (final Ref r : want) {
+			ObjectId objectId = r.getObjectId();
+			if (isWanted(objectId)) {
+				p.writeString("want " + objectId.name() + '\n'); //$NON-NLS-1$
+				addMinimalNegotiationRef(r);
+				any = true;
+			}
+		}
+		return any;
 	}
 
 	private String enableCapabilities() throws TransportException {
@@ -827,7 +977,8 @@ private void markAdvertised(final AnyObjectId id) {
 
 	private void markCommon(final RevObject obj, final AckNackResult anr)
 			throws IOException {
-		if (statelessRPC && anr == AckNackResult.ACK_COMMON && !obj.has(STATE)) {
+		if ((statelessRPC || isProtocolV2())
+				&& anr == AckNackResult.ACK_COMMON && !obj.has(STATE)) {
 			StringBuilder s;
 
 			s = new StringBuilder(6 + Constants.OBJECT_ID_STRING_LENGTH);
@@ -854,6 +1005,7 @@ private void receivePack(final ProgressMonitor monitor,
 			PackParser parser = ins.newPackParser(input);
 			parser.setAllowThin(thinPack);
 			parser.setObjectChecker(transport.getObjectChecker());
+			parser.setUntrustedInput(true);
 			parser.setLockMessage(lockMessage);
 			packLock = parser.parse(monitor);
 			ins.flush();
@@ -67,6 +67,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.annotations.Nullable;
@@ -265,6 +266,10 @@ public Set<String> getCapabilities() {
 	/** Total pack size limit */
 	private long maxPackSizeLimit = -1;
 
+	private Executor deltaExecutor;
+
+	private int deltaThreads;
+
 	/** The size of the received pack, including index size */
 	private Long packSize;
 
@@ -434,7 +439,11 @@ public final RevWalk getRevWalk() {
 	 * Get refs which were advertised to the client.
 	 *
 	 * @return all refs which were advertised to the client, or null if
-	 *         {@link #setAdvertisedRefs(Map, Set)} has not been called yet.
+	 *         {@link #setAdvertisedRefs(Map, Set)} has not been called yet. A
+	 *         stateless advertisement without an
+	 *         {@link org.eclipse.jgit.transport.AdvertiseRefsHook} or
+	 *         {@link org.eclipse.jgit.transport.RefFilter} streams the
+	 *         references from the ref database and leaves this null.
 	 */
 	public final Map<String, Ref> getAdvertisedRefs() {
 		return refs;
@@ -462,8 +471,7 @@ public void setAdvertisedRefs(Map<String, Ref> allRefs, Set<ObjectId> additional
 		refs = refFilter.filter(refs);
 		advertisedHaves.clear();
 
-		Ref head = refs.get(Constants.HEAD);
-		if (head != null && head.isSymbolic())
+		if (isSymbolicHead(refs.get(Constants.HEAD)))
 			refs.remove(Constants.HEAD);
 
 		for (Ref ref : refs.values()) {
@@ -476,6 +484,11 @@ public void setAdvertisedRefs(Map<String, Ref> allRefs, Set<ObjectId> additional
 			advertisedHaves.addAll(db.getAdditionalHaves());
 	}
 
+	private static boolean isSymbolicHead(Ref ref) {
+		return ref != null && ref.isSymbolic()
+				&& Constants.HEAD.equals(ref.getName());
+	}
+
 	/**
 	 * Get objects advertised to the client.
 	 *
@@ -881,6 +894,23 @@ public void setMaxPackSizeLimit(final long limit) {
 		maxPackSizeLimit = limit;
 	}
 
+	/**
+	 * Resolve deltas of received packs on multiple threads.
+	 *
+	 * @param executor
+	 *            executor to resolve deltas on; null to resolve them on the
+	 *            thread receiving the pack.
+	 * @param threads
+	 *            maximum number of tasks to run on {@code executor}
+	 *            concurrently.
+	 * @see PackParser#setDeltaResolutionExecutor(Executor, int)
+	 * @since 5.0
+	 */
+	public void setDeltaResolutionExecutor(Executor executor, int threads) {
+		deltaExecutor = executor;
+		deltaThreads = threads;
+	}
+
 	/**
 	 * Check whether the client expects a side-band stream.
 	 *
@@ -1248,9 +1278,19 @@ public void sendAdvertisedRefs(final RefAdvertiser adv)
 			adv.advertiseCapability(CAPABILITY_PUSH_OPTIONS);
 		}
 		adv.advertiseCapability(OPTION_AGENT, UserAgent.get());
-		adv.send(getAdvertisedOrDefaultRefs());
-		for (ObjectId obj : advertisedHaves)
-			adv.advertiseHave(obj);
+		if (refs == null && !biDirectionalPipe
+				&& refFilter == RefFilter.DEFAULT) {
+			// A stateless advertisement is not followed by commands on this
+			// instance; stream the references from the ref database as they
+			// are read instead of loading them all first.
+			adv.send(db.getRefDatabase(), r -> !isSymbolicHead(r));
+			for (ObjectId obj : db.getAdditionalHaves())
+				adv.advertiseHave(obj);
+		} else {
+			adv.send(getAdvertisedOrDefaultRefs());
+			for (ObjectId obj : advertisedHaves)
+				adv.advertiseHave(obj);
+		}
 		if (adv.isEmpty())
 			adv.advertiseId(ObjectId.zeroId(), "capabilities^{}"); //$NON-NLS-1$
 		adv.end();
@@ -1479,8 +1519,10 @@ private void receivePack() throws IOException {
 					&& !isExpectDataAfterPackFooter());
 			parser.setExpectDataAfterPackFooter(isExpectDataAfterPackFooter());
 			parser.setObjectChecker(objectChecker);
+			parser.setUntrustedInput(true);
 			parser.setLockMessage(lockMsg);
 			parser.setMaxObjectSizeLimit(maxObjectSizeLimit);
+			parser.setDeltaResolutionExecutor(deltaExecutor, deltaThreads);
 			packLock = parser.parse(receiving, resolving);
 			packSize = Long.valueOf(parser.getPackSize());
 			stats = parser.getReceivedPackStatistics();
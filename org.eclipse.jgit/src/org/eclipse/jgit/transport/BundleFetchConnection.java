@@ -197,6 +197,7 @@ protected void doFetch(final ProgressMonitor monitor,
 				PackParser parser = ins.newPackParser(bin);
 				parser.setAllowThin(true);
 				parser.setObjectChecker(transport.getObjectChecker());
+				parser.setUntrustedInput(true);
 				parser.setLockMessage(lockMessage);
 				packLock = parser.parse(NullProgressMonitor.INSTANCE);
 				ins.flush();
@@ -157,6 +157,7 @@ protected void execute(final DaemonClient dc,
 							ServiceNotEnabledException,
 							ServiceNotAuthorizedException {
 						UploadPack up = uploadPackFactory.create(dc, db);
+						up.setExtraParameters(dc.getExtraParameters());
 						InputStream in = dc.getInputStream();
 						OutputStream out = dc.getOutputStream();
 						up.upload(in, out, null);
@@ -50,6 +50,10 @@
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
@@ -66,6 +70,8 @@ public class DaemonClient {
 
 	private OutputStream rawOut;
 
+	private Collection<String> extraParameters = Collections.emptyList();
+
 	DaemonClient(final Daemon d) {
 		daemon = d;
 	}
@@ -110,6 +116,17 @@ public OutputStream getOutputStream() {
 		return rawOut;
 	}
 
+	/**
+	 * Get the extra parameters the client sent after its request.
+	 *
+	 * @return extra parameters sent by the client, such as
+	 *         {@code version=2}; empty if none were sent.
+	 * @since 5.0
+	 */
+	public Collection<String> getExtraParameters() {
+		return extraParameters;
+	}
+
 	void execute(final Socket sock) throws IOException,
 			ServiceNotEnabledException, ServiceNotAuthorizedException {
 		rawIn = new BufferedInputStream(sock.getInputStream());
@@ -122,8 +139,10 @@ void execute(final Socket sock) throws IOException,
 		if (nul >= 0) {
 			// Newer clients hide a "host" header behind this byte.
 			// Currently we don't use it for anything, so we ignore
-			// this portion of the command.
+			// this portion of the command. Protocol v2 clients then
+			// add a second NUL and their extra parameters.
 			//
+			extraParameters = parseExtraParameters(cmd, nul + 1);
 			cmd = cmd.substring(0, nul);
 		}
 
@@ -133,4 +152,21 @@ void execute(final Socket sock) throws IOException,
 		sock.setSoTimeout(0);
 		srv.execute(this, cmd);
 	}
+
+	static Collection<String> parseExtraParameters(String cmd, int pos) {
+		if (cmd.startsWith("host=", pos)) { //$NON-NLS-1$
+			int nul = cmd.indexOf('\0', pos);
+			pos = nul < 0 ? cmd.length() : nul + 1;
+		}
+		if (pos >= cmd.length() || cmd.charAt(pos) != '\0') {
+			return Collections.emptyList();
+		}
+		List<String> params = new ArrayList<>();
+		for (String p : cmd.substring(pos + 1).split("\0")) { //$NON-NLS-1$
+			if (!p.isEmpty()) {
+				params.add(p);
+			}
+		}
+		return params;
+	}
 }
@@ -134,7 +134,7 @@ void execute(final ProgressMonitor monitor, final FetchResult result)
 	private void executeImp(final ProgressMonitor monitor,
 			final FetchResult result) throws NotSupportedException,
 			TransportException {
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 		try {
 			result.setAdvertisedRefs(transport.getURI(), conn.getRefsMap());
 			result.peerUserAgent = conn.getPeerUserAgent();
@@ -266,7 +266,7 @@ private void reopenConnection() throws NotSupportedException,
 		if (conn != null)
 			return;
 
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 
 		// Since we opened a new connection we cannot be certain
 		// that the system we connected to has the same exact set
@@ -222,6 +222,28 @@ public class GitProtocolConstants {
 	 */
 	public static final String CAPABILITY_PUSH_OPTIONS = "push-options"; //$NON-NLS-1$
 
+	/**
+	 * Protocol v2 command listing the references of the repository.
+	 *
+	 * @since 5.0
+	 */
+	public static final String COMMAND_LS_REFS = "ls-refs"; //$NON-NLS-1$
+
+	/**
+	 * Protocol v2 command negotiating and fetching a pack.
+	 *
+	 * @since 5.0
+	 */
+	public static final String COMMAND_FETCH = "fetch"; //$NON-NLS-1$
+
+	/**
+	 * Extra parameter sent by clients wishing to speak protocol v2, in the
+	 * {@code Git-Protocol} HTTP header or after the host of a git:// request.
+	 *
+	 * @since 5.0
+	 */
+	public static final String VERSION_2_REQUEST = "version=2"; //$NON-NLS-1$
+
 	static enum MultiAck {
 		OFF, CONTINUE, DETAILED;
 	}
@@ -46,6 +46,8 @@
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
@@ -75,7 +77,36 @@
 	public InternalFetchConnection(PackTransport transport,
 			final UploadPackFactory<C> uploadPackFactory,
 			final C req, final Repository remote) throws TransportException {
+		this(transport, uploadPackFactory, req, remote,
+				Collections.<RefSpec> emptyList());
+	}
+
+	/**
+	 * Constructor for InternalFetchConnection.
+	 * <p>
+	 * If the transport asks for protocol v2 only references which may match
+	 * {@code refSpecs} are listed.
+	 *
+	 * @param transport
+	 *            a {@link org.eclipse.jgit.transport.PackTransport}
+	 * @param uploadPackFactory
+	 *            a
+	 *            {@link org.eclipse.jgit.transport.resolver.UploadPackFactory}
+	 * @param req
+	 *            request
+	 * @param remote
+	 *            the remote {@link org.eclipse.jgit.lib.Repository}
+	 * @param refSpecs
+	 *            specifications of the references the caller will fetch
+	 * @throws org.eclipse.jgit.errors.TransportException
+	 *             if any.
+	 */
+	public InternalFetchConnection(PackTransport transport,
+			final UploadPackFactory<C> uploadPackFactory,
+			final C req, final Repository remote,
+			Collection<RefSpec> refSpecs) throws TransportException {
 		super(transport);
+		final boolean wantsV2 = this.transport.wantsProtocolV2();
 
 		final PipedInputStream in_r;
 		final PipedOutputStream in_w;
@@ -106,6 +137,9 @@ public InternalFetchConnection(PackTransport transport,
 			public void run() {
 				try {
 					final UploadPack rp = uploadPackFactory.create(req, remote);
+					if (wantsV2)
+						rp.setExtraParameters(Collections.singleton(
+								GitProtocolConstants.VERSION_2_REQUEST));
 					rp.upload(out_r, in_w, null);
 				} catch (ServiceNotEnabledException e) {
 					// Ignored. Client cannot use this repository.
@@ -138,6 +172,8 @@ public void run() {
 
 		init(in_r, out_w);
 		readAdvertisedRefs();
+		if (isProtocolV2())
+			lsRefs(refSpecs);
 	}
 
 	/** {@inheritDoc} */
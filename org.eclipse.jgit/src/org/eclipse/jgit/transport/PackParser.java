@@ -48,13 +48,21 @@
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -85,6 +93,7 @@
 import org.eclipse.jgit.util.LongMap;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.sha1.SHA1;
+import org.eclipse.jgit.util.sha1.SHA1.Sha1Implementation;
 
 /**
  * Parses a pack stream and imports it for an
@@ -120,7 +129,7 @@ public static enum Source {
 
 	private byte[] hdrBuf;
 
-	private final SHA1 objectHasher = SHA1.newInstance();
+	private SHA1 objectHasher;
 	private final MutableObjectId tempObjectId;
 
 	private InputStream in;
@@ -140,6 +149,8 @@ public static enum Source {
 
 	private boolean checkObjectCollisions;
 
+	private boolean untrustedInput;
+
 	private boolean needBaseObjectIds;
 
 	private boolean checkEofAfterPackFooter;
@@ -189,6 +200,10 @@ public static enum Source {
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
+	private Executor deltaExecutor;
+
+	private int deltaThreads;
+
 	private final ReceivedPackStatistics.Builder stats =
 			new ReceivedPackStatistics.Builder();
 
@@ -383,6 +398,21 @@ public void setObjectChecker(final ObjectChecker oc) {
 		objCheck = oc;
 	}
 
+	/**
+	 * Create the hash function used to name received objects.
+	 * <p>
+	 * Untrusted input is always hashed by the collision detecting
+	 * {@link Sha1Implementation#JAVA} implementation, regardless of the
+	 * configured default.
+	 *
+	 * @return a new SHA-1 context.
+	 */
+	private SHA1 newObjectHasher() {
+		if (untrustedInput)
+			return SHA1.newInstance(Sha1Implementation.JAVA);
+		return SHA1.newInstance();
+	}
+
 	/**
 	 * Configure the checker used to validate received objects.
 	 * <p>
@@ -403,6 +433,32 @@ public void setObjectChecking(final boolean on) {
 		setObjectChecker(on ? new ObjectChecker() : null);
 	}
 
+	/**
+	 * Whether the pack comes from an untrusted source.
+	 *
+	 * @return true if the pack comes from an untrusted source.
+	 * @since 5.0
+	 */
+	public boolean isUntrustedInput() {
+		return untrustedInput;
+	}
+
+	/**
+	 * Declare whether the pack comes from an untrusted source.
+	 * <p>
+	 * Objects of untrusted packs, such as those pushed by a client or
+	 * fetched from a remote, are named by the SHA-1 implementation detecting
+	 * collision attacks even if a faster implementation is configured as
+	 * default. This is independent of object checking. Disabled by default.
+	 *
+	 * @param untrusted
+	 *            true if the pack comes from an untrusted source.
+	 * @since 5.0
+	 */
+	public void setUntrustedInput(boolean untrusted) {
+		untrustedInput = untrusted;
+	}
+
 	/**
 	 * Get the message to record with the pack lock.
 	 *
@@ -436,6 +492,33 @@ public void setMaxObjectSizeLimit(long limit) {
 		maxObjectSizeLimit = limit;
 	}
 
+	/**
+	 * Resolve deltas on multiple threads.
+	 * <p>
+	 * Every base object in the pack is the root of an independent tree of
+	 * deltas. If an executor is set, these trees are shared out between up to
+	 * {@code threads} tasks running on the executor, each reading the stored
+	 * pack through its own {@link #openDatabaseReader()}. The objects of each
+	 * tree are resolved in the same order as by a single thread, so
+	 * {@link #getObject(int)} is not affected.
+	 * <p>
+	 * Deltas are resolved on the calling thread if the implementation does not
+	 * support {@link #openDatabaseReader()}. Deltas against bases missing from
+	 * a thin pack are always resolved on the calling thread.
+	 *
+	 * @param executor
+	 *            executor to resolve deltas on; null to resolve them on the
+	 *            thread calling {@link #parse(ProgressMonitor)}.
+	 * @param threads
+	 *            maximum number of tasks to run on {@code executor}
+	 *            concurrently.
+	 * @since 5.0
+	 */
+	public void setDeltaResolutionExecutor(Executor executor, int threads) {
+		deltaExecutor = executor;
+		deltaThreads = threads;
+	}
+
 	/**
 	 * Get the number of objects in the stream.
 	 * <p>
@@ -553,6 +636,7 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 
 		if (receiving == resolving)
 			receiving.start(2 /* tasks */);
+		objectHasher = newObjectHasher();
 		try {
 			readPackHeader();
 
@@ -631,6 +715,10 @@ private void processDeltas(ProgressMonitor resolving) throws IOException {
 
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
+		if (deltaExecutor != null && 1 < deltaThreads
+				&& resolveDeltasInParallel(progress))
+			return;
+
 		final int last = entryCount;
 		for (int i = 0; i < last; i++) {
 			resolveDeltas(entries[i], progress);
@@ -640,6 +728,91 @@ private void resolveDeltas(final ProgressMonitor progress)
 		}
 	}
 
+	private boolean resolveDeltasInParallel(ProgressMonitor progress)
+			throws IOException {
+		List<DeltaResolver> workers = new ArrayList<>(deltaThreads);
+		try {
+			for (int i = 0; i < deltaThreads; i++) {
+				DatabaseReader r = openDatabaseReader();
+				if (r == null) {
+					if (i == 0)
+						return false;
+					break;
+				}
+				workers.add(new DeltaResolver(r, progress));
+			}
+
+			List<DeltaRoot> roots = new ArrayList<>();
+			for (int i = 0; i < entryCount; i++) {
+				UnresolvedDelta children = firstChildOf(entries[i]);
+				if (children != null)
+					roots.add(new DeltaRoot(entries[i], children));
+			}
+			while (workers.size() > roots.size())
+				workers.remove(workers.size() - 1).release();
+
+			AtomicInteger next = new AtomicInteger();
+			List<FutureTask<Void>> tasks = new ArrayList<>(workers.size());
+			for (DeltaResolver w : workers) {
+				w.roots = roots;
+				w.next = next;
+				FutureTask<Void> t = new FutureTask<>(w);
+				tasks.add(t);
+				try {
+					deltaExecutor.execute(t);
+				} catch (RejectedExecutionException e) {
+					t.run();
+				}
+			}
+			awaitAll(tasks, workers);
+
+			for (DeltaRoot root : roots)
+				for (PackedObjectInfo oe : root.resolved)
+					addObjectAndTrack(oe);
+			return true;
+		} finally {
+			for (DeltaResolver w : workers)
+				w.release();
+		}
+	}
+
+	private static void awaitAll(List<FutureTask<Void>> tasks,
+			List<DeltaResolver> workers) throws IOException {
+		Throwable err = null;
+		boolean interrupted = false;
+		for (int i = 0; i < tasks.size();) {
+			try {
+				tasks.get(i).get();
+				i++;
+			} catch (InterruptedException e) {
+				// Workers still use their inflaters and readers; stop them
+				// and wait before the caller releases these.
+				interrupted = true;
+				for (DeltaResolver w : workers)
+					w.stop = true;
+			} catch (ExecutionException e) {
+				i++;
+				if (err == null) {
+					err = e.getCause();
+					for (DeltaResolver w : workers)
+						w.stop = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (err instanceof IOException)
+			throw (IOException) err;
+		if (err instanceof RuntimeException)
+			throw (RuntimeException) err;
+		if (err instanceof Error)
+			throw (Error) err;
+		if (err != null)
+			throw new IOException(err);
+	}
+
 	private void resolveDeltas(final PackedObjectInfo oe,
 			ProgressMonitor progress) throws IOException {
 		UnresolvedDelta children = firstChildOf(oe);
@@ -1529,6 +1702,31 @@ protected abstract ObjectTypeAndSize seekDatabase(UnresolvedDelta delta,
 	protected abstract int readDatabase(byte[] dst, int pos, int cnt)
 			throws IOException;
 
+	/**
+	 * Open an independent reader of the stored pack.
+	 * <p>
+	 * Implementations that store the pack in a randomly accessible form may
+	 * return a new reader on each call to allow deltas to be resolved
+	 * concurrently, see
+	 * {@link #setDeltaResolutionExecutor(Executor, int)}. The reader must
+	 * return the pack bytes exactly as received, as the CRC-32 of the stored
+	 * header and compressed data of each object is verified against the value
+	 * recorded by {@link #onEndWholeObject(PackedObjectInfo)} or
+	 * {@link #onEndDelta()}.
+	 * <p>
+	 * The default implementation returns null, and deltas are resolved on the
+	 * calling thread through {@link #seekDatabase(PackedObjectInfo,
+	 * ObjectTypeAndSize)} and {@link #readDatabase(byte[], int, int)}.
+	 *
+	 * @return a new reader, or null if concurrent reads are not supported.
+	 * @throws java.io.IOException
+	 *             the reader cannot be opened.
+	 * @since 5.0
+	 */
+	protected DatabaseReader openDatabaseReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Check the current CRC matches the expected value.
 	 * <p>
@@ -1705,6 +1903,311 @@ public void setCRC(int crc32) {
 		}
 	}
 
+	/**
+	 * Random access to the stored pack, used by one thread at a time.
+	 *
+	 * @since 5.0
+	 */
+	public static abstract class DatabaseReader implements AutoCloseable {
+		/**
+		 * Read bytes from the pack.
+		 *
+		 * @param position
+		 *            offset within the pack of the first byte to read.
+		 * @param dst
+		 *            buffer to read into.
+		 * @param off
+		 *            offset within {@code dst} to start storing at.
+		 * @param cnt
+		 *            maximum number of bytes to read.
+		 * @return number of bytes read; -1 at the end of the pack.
+		 * @throws java.io.IOException
+		 *             the pack cannot be read.
+		 */
+		public abstract int read(long position, byte[] dst, int off, int cnt)
+				throws IOException;
+
+		/** {@inheritDoc} */
+		@Override
+		public void close() throws IOException {
+			// Nothing to release by default.
+		}
+	}
+
+	/** A base object and the deltas depending on it, resolved in order. */
+	private static class DeltaRoot {
+		final PackedObjectInfo base;
+
+		final UnresolvedDelta children;
+
+		final List<PackedObjectInfo> resolved = new ArrayList<>();
+
+		DeltaRoot(PackedObjectInfo base, UnresolvedDelta children) {
+			this.base = base;
+			this.children = children;
+		}
+	}
+
+	/**
+	 * Resolves trees of deltas on its own reader, inflater and buffers.
+	 * <p>
+	 * Everything shared with other resolvers or with the parser's subclass is
+	 * accessed while holding {@link #lock}.
+	 */
+	private class DeltaResolver implements Callable<Void> {
+		private final Object lock = PackParser.this;
+
+		private final DatabaseReader reader;
+
+		private final ProgressMonitor progress;
+
+		private final byte[] buf = new byte[BUFFER_SIZE];
+
+		private final byte[] scratch = new byte[1];
+
+		private final CRC32 crc = new CRC32();
+
+		private final SHA1 hasher = newObjectHasher();
+
+		private final MutableObjectId id = new MutableObjectId();
+
+		private final ObjectTypeAndSize info = new ObjectTypeAndSize();
+
+		private Inflater inf;
+
+		/** Pack offset of {@code buf[0]}. */
+		private long bufPos;
+
+		private int bufLen;
+
+		List<DeltaRoot> roots;
+
+		AtomicInteger next;
+
+		volatile boolean stop;
+
+		DeltaResolver(DatabaseReader reader, ProgressMonitor progress) {
+			this.reader = reader;
+			this.progress = progress;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			inf = InflaterCache.get();
+			int i;
+			while (!stop && (i = next.getAndIncrement()) < roots.size())
+				resolve(roots.get(i));
+			return null;
+		}
+
+		void release() {
+			if (inf != null) {
+				InflaterCache.release(inf);
+				inf = null;
+			}
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Only read from; nothing can be lost.
+			}
+		}
+
+		private void resolve(DeltaRoot root) throws IOException {
+			PackedObjectInfo oe = root.base;
+			DeltaVisit visit = new DeltaVisit();
+			visit.nextChild = root.children;
+
+			int hdr = readHeader(oe.getOffset());
+			final int type = info.type;
+			switch (type) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				visit.data = inflate(hdr, info.size);
+				visit.id = oe;
+				break;
+			default:
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unknownObjectType,
+						Integer.valueOf(type)));
+			}
+			if (oe.getCRC() != (int) crc.getValue()) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptionDetectedReReadingAt,
+						Long.valueOf(oe.getOffset())));
+			}
+			synchronized (lock) {
+				stats.addDeltaObject(type);
+			}
+
+			visit = visit.next();
+			do {
+				if (stop)
+					return;
+				hdr = readHeader(visit.delta.position);
+				switch (info.type) {
+				case Constants.OBJ_OFS_DELTA:
+				case Constants.OBJ_REF_DELTA:
+					break;
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType,
+							Integer.valueOf(info.type)));
+				}
+
+				byte[] delta = inflate(hdr, info.size);
+				checkIfTooLarge(type, BinaryDelta.getResultSize(delta));
+				visit.data = BinaryDelta.apply(visit.parent.data, delta);
+				delta = null;
+
+				if (visit.delta.crc != (int) crc.getValue())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().corruptionDetectedReReadingAt,
+							Long.valueOf(visit.delta.position)));
+
+				SHA1 objectDigest = hasher.reset();
+				objectDigest.update(Constants.encodedTypeString(type));
+				objectDigest.update((byte) ' ');
+				objectDigest.update(Constants.encodeASCII(visit.data.length));
+				objectDigest.update((byte) 0);
+				objectDigest.update(visit.data);
+				objectDigest.digest(id);
+
+				synchronized (lock) {
+					progress.update(1);
+					if (progress.isCancelled())
+						throw new IOException(JGitText
+								.get().downloadCancelledDuringIndexing);
+
+					verifySafeObject(id, type, visit.data);
+					if (isCheckObjectCollisions() && readCurs.has(id))
+						checkObjectCollision(id, type, visit.data);
+
+					oe = newInfo(id, visit.delta, visit.parent.id);
+					oe.setOffset(visit.delta.position);
+					oe.setType(type);
+					onInflatedObjectData(oe, type, visit.data);
+					visit.nextChild = firstChildOf(oe);
+				}
+				root.resolved.add(oe);
+				visit.id = oe;
+				visit = visit.next();
+			} while (visit != null);
+		}
+
+		/**
+		 * Parse the object header at {@code pos} into {@link #info}.
+		 *
+		 * @return length of the header; {@code buf} holds the data following
+		 *         it.
+		 */
+		private int readHeader(long pos) throws IOException {
+			fill(pos);
+			crc.reset();
+			int p = 0;
+			int c = byteAt(p++);
+			info.type = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = byteAt(p++);
+				sz += ((long) (c & 0x7f)) << shift;
+				shift += 7;
+			}
+			info.size = sz;
+
+			switch (info.type) {
+			case Constants.OBJ_OFS_DELTA:
+				do {
+					c = byteAt(p++);
+				} while ((c & 128) != 0);
+				break;
+			case Constants.OBJ_REF_DELTA:
+				p += 20;
+				if (bufLen < p)
+					throw new EOFException(
+							JGitText.get().packfileIsTruncatedNoParam);
+				break;
+			default:
+				break;
+			}
+			crc.update(buf, 0, p);
+			return p;
+		}
+
+		private int byteAt(int p) throws EOFException {
+			if (bufLen <= p)
+				throw new EOFException(
+						JGitText.get().packfileIsTruncatedNoParam);
+			return buf[p] & 0xff;
+		}
+
+		private void fill(long pos) throws IOException {
+			bufPos = pos;
+			bufLen = 0;
+			while (bufLen < buf.length) {
+				int n = reader.read(pos + bufLen, buf, bufLen,
+						buf.length - bufLen);
+				if (n <= 0)
+					break;
+				bufLen += n;
+			}
+		}
+
+		private byte[] inflate(int off, long size) throws IOException {
+			byte[] dst = new byte[(int) size];
+			int avail = bufLen - off;
+			int n = 0;
+			inf.reset();
+			inf.setInput(buf, off, avail);
+			try {
+				for (;;) {
+					int r;
+					if (n < dst.length) {
+						r = inf.inflate(dst, n, dst.length - n);
+						n += r;
+					} else {
+						// Pump the trailing checksum; no data may remain.
+						r = inf.inflate(scratch, 0, 1);
+						if (r != 0)
+							throw wrongLength();
+					}
+					if (inf.finished())
+						break;
+					if (inf.needsInput()) {
+						crc.update(buf, off, avail);
+						fill(bufPos + bufLen);
+						if (bufLen == 0)
+							throw new EOFException(JGitText
+									.get().packfileIsTruncatedNoParam);
+						off = 0;
+						avail = bufLen;
+						inf.setInput(buf, 0, avail);
+					} else if (r == 0) {
+						throw new CorruptObjectException(MessageFormat.format(
+								JGitText.get().packfileCorruptionDetected,
+								JGitText.get().unknownZlibError));
+					}
+				}
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().packfileCorruptionDetected,
+						dfe.getMessage()));
+			}
+			if (n != dst.length)
+				throw wrongLength();
+			crc.update(buf, off, avail - inf.getRemaining());
+			return dst;
+		}
+
+		private CorruptObjectException wrongLength() {
+			return new CorruptObjectException(MessageFormat.format(
+					JGitText.get().packfileCorruptionDetected,
+					JGitText.get().wrongDecompressedLength));
+		}
+	}
+
 	private static class DeltaVisit {
 		final UnresolvedDelta delta;
 
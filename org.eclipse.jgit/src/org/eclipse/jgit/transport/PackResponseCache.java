@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2018, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Disk cache of pack streams sent by {@link UploadPack}.
+ * <p>
+ * Identical requests against the same repository state, such as many clients
+ * cloning the same repository, can be answered by replaying a pack generated
+ * earlier instead of running {@link org.eclipse.jgit.internal.storage.pack.PackWriter}
+ * again. Entries are identified by a key computed by {@code UploadPack} from
+ * the repository, the advertised references, the wanted and common objects
+ * and the options affecting the pack contents. Changing any reference
+ * therefore changes the key; entries made stale this way are no longer found
+ * and are evicted once the cache exceeds its size limit.
+ * <p>
+ * Entries are stored as one file per key in the cache directory, and the
+ * least recently used entries are deleted when the total size exceeds the
+ * configured limit. A single cache may be shared by several
+ * {@code UploadPack} instances, but all of them should use the same
+ * {@link org.eclipse.jgit.storage.pack.PackConfig}.
+ *
+ * @since 5.0
+ */
+public class PackResponseCache {
+	private static final String PACK_SUFFIX = ".pack"; //$NON-NLS-1$
+
+	private static final String TMP_PREFIX = "pack_"; //$NON-NLS-1$
+
+	private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	/** Cached entries, in least recently used order. */
+	private final LinkedHashMap<ObjectId, Long> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	private long size;
+
+	/**
+	 * Create a cache storing its entries in a directory.
+	 * <p>
+	 * Pack files left in the directory by a previous instance are reused, and
+	 * its unfinished recordings are deleted.
+	 *
+	 * @param directory
+	 *            directory holding the cached packs; created if missing.
+	 * @param maxBytes
+	 *            maximum total size of the cached packs, in bytes.
+	 * @throws java.io.IOException
+	 *             the directory cannot be created.
+	 */
+	public PackResponseCache(File directory, long maxBytes)
+			throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		FileUtils.mkdirs(directory, true);
+
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			for (File f : files) {
+				String name = f.getName();
+				if (name.startsWith(TMP_PREFIX) && name.endsWith(TMP_SUFFIX)) {
+					FileUtils.delete(f, FileUtils.SKIP_MISSING);
+					continue;
+				}
+				ObjectId key = toKey(name);
+				if (key != null) {
+					entries.put(key, Long.valueOf(f.length()));
+					size += f.length();
+				}
+			}
+		}
+		synchronized (this) {
+			evict();
+		}
+	}
+
+	/** @return maximum total size of the cached packs, in bytes. */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** @return current total size of the cached packs, in bytes. */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Copy a cached pack to a stream.
+	 *
+	 * @param key
+	 *            key of the response.
+	 * @param out
+	 *            stream receiving the pack.
+	 * @return true if the pack was found and copied; false if the cache holds
+	 *         no entry for {@code key} and nothing was written.
+	 * @throws java.io.IOException
+	 *             the cached pack cannot be read, or {@code out} cannot be
+	 *             written to.
+	 */
+	public boolean replay(AnyObjectId key, OutputStream out)
+			throws IOException {
+		synchronized (this) {
+			if (entries.get(key) == null)
+				return false;
+		}
+
+		InputStream in;
+		try {
+			in = new FileInputStream(fileFor(key));
+		} catch (FileNotFoundException e) {
+			remove(key);
+			return false;
+		}
+		try {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Record a pack while it is written to a stream.
+	 * <p>
+	 * All data written to the returned stream is passed on to {@code out} and
+	 * saved in a temporary file. The pack is added to the cache only once
+	 * {@link Recorder#commit()} is called; closing the recorder without
+	 * committing it discards the recorded data. Errors writing the temporary
+	 * file, or a pack larger than the cache, silently stop the recording
+	 * without affecting {@code out}.
+	 *
+	 * @param key
+	 *            key of the response.
+	 * @param out
+	 *            stream receiving the pack.
+	 * @return the recorder.
+	 */
+	public Recorder record(AnyObjectId key, OutputStream out) {
+		return new Recorder(key.copy(), out);
+	}
+
+	/** Remove all entries from the cache. */
+	public synchronized void clear() {
+		for (ObjectId key : entries.keySet())
+			delete(key);
+		entries.clear();
+		size = 0;
+	}
+
+	private synchronized void insert(ObjectId key, File tmp, long length) {
+		try {
+			FileUtils.rename(tmp, fileFor(key));
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		}
+		Long old = entries.put(key, Long.valueOf(length));
+		if (old != null)
+			size -= old.longValue();
+		size += length;
+		evict();
+	}
+
+	private synchronized void remove(AnyObjectId key) {
+		Long old = entries.remove(key);
+		if (old != null)
+			size -= old.longValue();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<ObjectId, Long>> i = entries.entrySet().iterator();
+		while (size > maxBytes && i.hasNext()) {
+			Map.Entry<ObjectId, Long> e = i.next();
+			delete(e.getKey());
+			size -= e.getValue().longValue();
+			i.remove();
+		}
+	}
+
+	private void delete(AnyObjectId key) {
+		try {
+			FileUtils.delete(fileFor(key), FileUtils.SKIP_MISSING);
+		} catch (IOException e) {
+			// Another thread may still be replaying the entry; it is
+			// no longer tracked and will be overwritten by a later insert.
+		}
+	}
+
+	private File fileFor(AnyObjectId key) {
+		return new File(directory, key.name() + PACK_SUFFIX);
+	}
+
+	private static ObjectId toKey(String name) {
+		if (!name.endsWith(PACK_SUFFIX))
+			return null;
+		String id = name.substring(0, name.length() - PACK_SUFFIX.length());
+		return ObjectId.isId(id) ? ObjectId.fromString(id) : null;
+	}
+
+	/**
+	 * Stream saving a pack into the cache while passing it on.
+	 *
+	 * @see PackResponseCache#record(AnyObjectId, OutputStream)
+	 */
+	public final class Recorder extends OutputStream {
+		private final ObjectId key;
+
+		private final OutputStream out;
+
+		private File tmp;
+
+		private OutputStream file;
+
+		private long length;
+
+		private boolean failed;
+
+		Recorder(ObjectId key, OutputStream out) {
+			this.key = key;
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			record(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			record(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		private void record(byte[] b, int off, int len) {
+			if (failed)
+				return;
+			length += len;
+			if (length > maxBytes) {
+				abort();
+				return;
+			}
+			try {
+				if (file == null) {
+					tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX,
+							directory);
+					file = new FileOutputStream(tmp);
+				}
+				file.write(b, off, len);
+			} catch (IOException e) {
+				abort();
+			}
+		}
+
+		/**
+		 * Add the recorded pack to the cache.
+		 * <p>
+		 * Must be called only after the complete pack was written.
+		 */
+		public void commit() {
+			if (failed || file == null)
+				return;
+			try {
+				file.close();
+				file = null;
+			} catch (IOException e) {
+				abort();
+				return;
+			}
+			insert(key, tmp, length);
+			tmp = null;
+			failed = true;
+		}
+
+		/**
+		 * Discard the recording unless it was committed.
+		 * <p>
+		 * The stream the pack was passed on to is not closed.
+		 */
+		@Override
+		public void close() {
+			abort();
+		}
+
+		private void abort() {
+			failed = true;
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					// Deleted below.
+				}
+				file = null;
+			}
+			if (tmp != null) {
+				tmp.delete();
+				tmp = null;
+			}
+		}
+	}
+}
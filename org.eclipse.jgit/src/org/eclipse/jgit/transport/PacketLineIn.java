@@ -74,6 +74,16 @@ public class PacketLineIn {
 	/** Magic return from {@link #readString()} when a flush packet is found. */
 	public static final String END = new StringBuilder(0).toString(); 	/* must not string pool */
 
+	/**
+	 * Magic return from {@link #readString()} when a delim packet is found.
+	 * <p>
+	 * Delim packets ({@code 0001}) separate the sections of a protocol v2
+	 * request or response.
+	 *
+	 * @since 5.0
+	 */
+	public static final String DELIM = new StringBuilder(0).toString(); 	/* must not string pool */
+
 	static enum AckNackResult {
 		/** NAK */
 		NAK,
@@ -147,15 +157,18 @@ else if (arg.equals(" ready")) //$NON-NLS-1$
 	 * use {@link #readStringRaw()} instead.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was the magic delim packet.
 	 * @throws java.io.IOException
 	 *             the stream cannot be read.
 	 */
 	public String readString() throws IOException {
-		int len = readLength();
+		int len = readLengthOrDelim();
 		if (len == 0) {
 			log.debug("git< 0000"); //$NON-NLS-1$
 			return END;
+		} else if (len == 1) {
+			log.debug("git< 0001"); //$NON-NLS-1$
+			return DELIM;
 		}
 
 		len -= 4; // length header (4 bytes)
@@ -185,15 +198,18 @@ public String readString() throws IOException {
 	 * Unlike {@link #readString()} a trailing LF will be retained.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was the magic delim packet.
 	 * @throws java.io.IOException
 	 *             the stream cannot be read.
 	 */
 	public String readStringRaw() throws IOException {
-		int len = readLength();
+		int len = readLengthOrDelim();
 		if (len == 0) {
 			log.debug("git< 0000"); //$NON-NLS-1$
 			return END;
+		} else if (len == 1) {
+			log.debug("git< 0001"); //$NON-NLS-1$
+			return DELIM;
 		}
 
 		len -= 4; // length header (4 bytes)
@@ -222,6 +238,14 @@ void discardUntilEnd() throws IOException {
 	}
 
 	int readLength() throws IOException {
+		int len = readLengthOrDelim();
+		if (len == 1) {
+			throw invalidHeader();
+		}
+		return len;
+	}
+
+	private int readLengthOrDelim() throws IOException {
 		IO.readFully(in, lineBuffer, 0, 4);
 		int len;
 		try {
@@ -230,8 +254,8 @@ int readLength() throws IOException {
 			throw invalidHeader();
 		}
 
-		if (len == 0) {
-			return 0;
+		if (len == 0 || len == 1) {
+			return len;
 		} else if (len < 4) {
 			throw invalidHeader();
 		}
@@ -167,6 +167,23 @@ public void end() throws IOException {
 			flush();
 	}
 
+	/**
+	 * Write a delim packet, separating the sections of a protocol v2 message.
+	 * <p>
+	 * Unlike {@link #end()} this never flushes the underlying OutputStream.
+	 *
+	 * @throws java.io.IOException
+	 *             the delim packet could not be written, the stream is
+	 *             corrupted as the packet may have been only partially
+	 *             written.
+	 * @since 5.0
+	 */
+	public void writeDelim() throws IOException {
+		formatLength(1);
+		out.write(lenbuffer, 0, 4);
+		log.debug("git> 0001"); //$NON-NLS-1$
+	}
+
 	/**
 	 * Flush the underlying OutputStream.
 	 * <p>
@@ -58,12 +58,14 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.function.Predicate;
 
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefComparator;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.util.RefMap;
 
@@ -193,6 +195,7 @@ public void init(Repository src) {
 	 * This method must be invoked prior to any of the following:
 	 * <ul>
 	 * <li>{@link #send(Map)}
+	 * <li>{@link #send(RefDatabase, Predicate)}
 	 * </ul>
 	 *
 	 * @param deref
@@ -209,6 +212,7 @@ public void setDerefTags(final boolean deref) {
 	 * This method must be invoked prior to any of the following:
 	 * <ul>
 	 * <li>{@link #send(Map)}
+	 * <li>{@link #send(RefDatabase, Predicate)}
 	 * <li>{@link #advertiseHave(AnyObjectId)}
 	 * </ul>
 	 *
@@ -243,6 +247,7 @@ public void advertiseCapability(String name, String value) {
 	 * This method must be invoked prior to any of the following:
 	 * <ul>
 	 * <li>{@link #send(Map)}
+	 * <li>{@link #send(RefDatabase, Predicate)}
 	 * <li>{@link #advertiseHave(AnyObjectId)}
 	 * </ul>
 	 *
@@ -269,25 +274,57 @@ public void addSymref(String from, String to) {
 	 *             advertisement record.
 	 */
 	public Set<ObjectId> send(Map<String, Ref> refs) throws IOException {
-		for (Ref ref : getSortedRefs(refs)) {
-			if (ref.getObjectId() == null)
-				continue;
+		for (Ref ref : getSortedRefs(refs))
+			advertiseRef(ref);
+		return sent;
+	}
 
-			advertiseAny(ref.getObjectId(), ref.getName());
+	/**
+	 * Format an advertisement for the references of a reference database.
+	 * <p>
+	 * Unlike {@link #send(Map)} the references are written as they are read
+	 * through
+	 * {@link org.eclipse.jgit.lib.RefDatabase#visitRefs(String, org.eclipse.jgit.lib.RefDatabase.RefVisitor)},
+	 * so a database able to read them incrementally never holds all of them
+	 * in memory, and the first line is written before the last reference is
+	 * read.
+	 *
+	 * @param refDb
+	 *            database to read the references from.
+	 * @param filter
+	 *            selects the references to advertise; the others are skipped.
+	 * @return set of ObjectIds that were advertised to the client.
+	 * @throws java.io.IOException
+	 *             the references cannot be read, or the underlying output
+	 *             stream failed to write out an advertisement record.
+	 * @since 5.0
+	 */
+	public Set<ObjectId> send(RefDatabase refDb, Predicate<Ref> filter)
+			throws IOException {
+		refDb.visitRefs(RefDatabase.ALL, ref -> {
+			if (filter.test(ref))
+				advertiseRef(ref);
+		});
+		return sent;
+	}
 
-			if (!derefTags)
-				continue;
+	private void advertiseRef(Ref ref) throws IOException {
+		if (ref.getObjectId() == null)
+			return;
 
-			if (!ref.isPeeled()) {
-				if (repository == null)
-					continue;
-				ref = repository.peel(ref);
-			}
+		advertiseAny(ref.getObjectId(), ref.getName());
 
-			if (ref.getPeeledObjectId() != null)
-				advertiseAny(ref.getPeeledObjectId(), ref.getName() + "^{}"); //$NON-NLS-1$
+		if (!derefTags)
+			return;
+
+		if (!ref.isPeeled()) {
+			if (repository == null)
+				return;
+			ref = repository.peel(ref);
 		}
-		return sent;
+
+		if (ref.getPeeledObjectId() != null)
+			advertiseAny(ref.getPeeledObjectId(), ref.getName() + "^{}"); //$NON-NLS-1$
 	}
 
 	private Iterable<Ref> getSortedRefs(Map<String, Ref> all) {
@@ -49,6 +49,7 @@
 package org.eclipse.jgit.transport;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Create a remote "session" for executing remote commands.
@@ -80,6 +81,30 @@ public interface RemoteSession {
 	 */
 	public Process exec(String commandName, int timeout) throws IOException;
 
+	/**
+	 * Generate a new remote process to execute the given command, passing
+	 * extra environment variables to it.
+	 * <p>
+	 * The remote end may refuse (or the session may be unable) to set some
+	 * variables; callers must cope with the command running without them. The
+	 * default implementation ignores {@code environment}.
+	 *
+	 * @param commandName
+	 *            command to execute
+	 * @param environment
+	 *            variables to set for the command
+	 * @param timeout
+	 *            timeout value, in seconds, for command execution
+	 * @return a new remote process
+	 * @throws java.io.IOException
+	 *             see {@link #exec(String, int)}.
+	 * @since 5.0
+	 */
+	public default Process exec(String commandName,
+			Map<String, String> environment, int timeout) throws IOException {
+		return exec(commandName, timeout);
+	}
+
 	/**
 	 * Disconnect the remote session
 	 */
@@ -45,6 +45,7 @@
 
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -190,9 +191,15 @@ private class TransportInternal extends Transport implements PackTransport {
 		@Override
 		public FetchConnection openFetch() throws NotSupportedException,
 				TransportException {
+			return openFetch(Collections.<RefSpec> emptyList());
+		}
+
+		@Override
+		public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+				throws NotSupportedException, TransportException {
 			handle.remote.incrementOpen();
 			return new InternalFetchConnection<C>(this, uploadPackFactory,
-					handle.req, handle.remote) {
+					handle.req, handle.remote, refSpecs) {
 				@Override
 				FetchConfig getFetchConfig() {
 					return fetchConfig != null ? fetchConfig
@@ -102,6 +102,7 @@ public enum FsckMode {
 	private final boolean allowTipSha1InWant;
 	private final boolean allowReachableSha1InWant;
 	private final boolean allowFilter;
+	private final boolean protocolV2;
 	final String[] hideRefs;
 
 	TransferConfig(final Repository db) {
@@ -157,6 +158,8 @@ public enum FsckMode {
 		allowFilter = rc.getBoolean(
 				"uploadpack", "allowfilter", false); //$NON-NLS-1$ //$NON-NLS-2$
 		hideRefs = rc.getStringList("uploadpack", null, "hiderefs"); //$NON-NLS-1$ //$NON-NLS-2$
+		protocolV2 = "2".equals( //$NON-NLS-1$
+				rc.getString("protocol", null, "version")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
 	/**
@@ -230,6 +233,17 @@ public boolean isAllowFilter() {
 		return allowFilter;
 	}
 
+	/**
+	 * Whether wire protocol v2 is enabled by {@code protocol.version=2}.
+	 *
+	 * @return true if wire protocol v2 should be used when the peer supports
+	 *         it.
+	 * @since 5.0
+	 */
+	public boolean isProtocolV2() {
+		return protocolV2;
+	}
+
 	/**
 	 * Get {@link org.eclipse.jgit.transport.RefFilter} respecting configured
 	 * hidden refs.
@@ -247,25 +261,33 @@ public RefFilter getRefFilter() {
 			public Map<String, Ref> filter(Map<String, Ref> refs) {
 				Map<String, Ref> result = new HashMap<>();
 				for (Map.Entry<String, Ref> e : refs.entrySet()) {
-					boolean add = true;
-					for (String hide : hideRefs) {
-						if (e.getKey().equals(hide) || prefixMatch(hide, e.getKey())) {
-							add = false;
-							break;
-						}
-					}
-					if (add)
+					if (!isHidden(e.getKey()))
 						result.put(e.getKey(), e.getValue());
 				}
 				return result;
 			}
-
-			private boolean prefixMatch(String p, String s) {
-				return p.charAt(p.length() - 1) == '/' && s.startsWith(p);
-			}
 		};
 	}
 
+	/**
+	 * Whether {@code uploadpack.hideRefs} hides a reference.
+	 *
+	 * @param refName
+	 *            name of the reference.
+	 * @return true if the reference must not be advertised.
+	 */
+	boolean isHidden(String refName) {
+		for (String hide : hideRefs) {
+			if (refName.equals(hide) || prefixMatch(hide, refName))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean prefixMatch(String p, String s) {
+		return p.charAt(p.length() - 1) == '/' && s.startsWith(p);
+	}
+
 	static class FsckKeyNameHolder {
 		private static final Map<String, ObjectChecker.ErrorType> errors;
 
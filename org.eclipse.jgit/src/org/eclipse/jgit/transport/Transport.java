@@ -793,6 +793,9 @@ private static String findTrackingRefName(final String remoteName,
 
 	private long filterBlobLimit = -1;
 
+	/** Should fetch ask the remote for protocol v2? */
+	private final boolean protocolV2;
+
 	/** Timeout in seconds to wait before aborting an IO read or write. */
 	private int timeout;
 
@@ -824,6 +827,7 @@ protected Transport(final Repository local, final URIish uri) {
 		this.local = local;
 		this.uri = uri;
 		this.objectChecker = tc.newObjectChecker();
+		this.protocolV2 = tc.isProtocolV2();
 		this.credentialsProvider = CredentialsProvider.getDefault();
 		prePush = Hooks.prePush(local, hookOutRedirect);
 	}
@@ -838,6 +842,7 @@ protected Transport(final URIish uri) {
 		this.uri = uri;
 		this.local = null;
 		this.objectChecker = new ObjectChecker();
+		this.protocolV2 = false;
 		this.credentialsProvider = CredentialsProvider.getDefault();
 	}
 
@@ -1464,6 +1469,40 @@ public Collection<RemoteRefUpdate> findRemoteRefUpdatesFor(
 	public abstract FetchConnection openFetch() throws NotSupportedException,
 			TransportException;
 
+	/**
+	 * Begins a new connection for fetching from the remote repository.
+	 * <p>
+	 * Transports able to list references selectively (protocol v2) only ask
+	 * the remote for references which may match {@code refSpecs}; the
+	 * returned connection may therefore not advertise other references. The
+	 * default implementation ignores the specifications and calls
+	 * {@link #openFetch()}.
+	 *
+	 * @param refSpecs
+	 *            specifications of the references the caller will fetch; an
+	 *            empty collection lists all references.
+	 * @return a fresh connection to fetch from the remote repository.
+	 * @throws org.eclipse.jgit.errors.NotSupportedException
+	 *             the implementation does not support fetching.
+	 * @throws org.eclipse.jgit.errors.TransportException
+	 *             the remote connection could not be established.
+	 * @since 5.0
+	 */
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws NotSupportedException, TransportException {
+		return openFetch();
+	}
+
+	/**
+	 * Whether fetch connections should request protocol v2.
+	 *
+	 * @return true if {@code protocol.version} of the local repository is
+	 *         {@code 2}.
+	 */
+	boolean wantsProtocolV2() {
+		return protocolV2;
+	}
+
 	/**
 	 * Begins a new connection for pushing into the remote repository.
 	 *
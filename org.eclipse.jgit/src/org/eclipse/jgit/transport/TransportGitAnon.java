@@ -55,6 +55,7 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
@@ -124,7 +125,14 @@ public Transport open(URIish uri) throws NotSupportedException, TransportExcepti
 	/** {@inheritDoc} */
 	@Override
 	public FetchConnection openFetch() throws TransportException {
-		return new TcpFetchConnection();
+		return new TcpFetchConnection(Collections.<RefSpec> emptyList());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws TransportException {
+		return new TcpFetchConnection(refSpecs);
 	}
 
 	/** {@inheritDoc} */
@@ -163,8 +171,8 @@ Socket openConnection() throws TransportException {
 		return s;
 	}
 
-	void service(final String name, final PacketLineOut pckOut)
-			throws IOException {
+	void service(final String name, final PacketLineOut pckOut,
+			boolean requestV2) throws IOException {
 		final StringBuilder cmd = new StringBuilder();
 		cmd.append(name);
 		cmd.append(' ');
@@ -177,6 +185,12 @@ void service(final String name, final PacketLineOut pckOut)
 			cmd.append(uri.getPort());
 		}
 		cmd.append('\0');
+		if (requestV2) {
+			// Extra parameters follow the host after a second NUL.
+			cmd.append('\0');
+			cmd.append(GitProtocolConstants.VERSION_2_REQUEST);
+			cmd.append('\0');
+		}
 		pckOut.writeString(cmd.toString());
 		pckOut.flush();
 	}
@@ -184,7 +198,8 @@ void service(final String name, final PacketLineOut pckOut)
 	class TcpFetchConnection extends BasePackFetchConnection {
 		private Socket sock;
 
-		TcpFetchConnection() throws TransportException {
+		TcpFetchConnection(Collection<RefSpec> refSpecs)
+				throws TransportException {
 			super(TransportGitAnon.this);
 			sock = openConnection();
 			try {
@@ -195,13 +210,15 @@ class TcpFetchConnection extends BasePackFetchConnection {
 				sOut = new BufferedOutputStream(sOut);
 
 				init(sIn, sOut);
-				service("git-upload-pack", pckOut); //$NON-NLS-1$
+				service("git-upload-pack", pckOut, wantsProtocolV2()); //$NON-NLS-1$
 			} catch (IOException err) {
 				close();
 				throw new TransportException(uri,
 						JGitText.get().remoteHungUpUnexpectedly, err);
 			}
 			readAdvertisedRefs();
+			if (isProtocolV2())
+				lsRefs(refSpecs);
 		}
 
 		@Override
@@ -234,7 +251,7 @@ class TcpPushConnection extends BasePackPushConnection {
 				sOut = new BufferedOutputStream(sOut);
 
 				init(sIn, sOut);
-				service("git-receive-pack", pckOut); //$NON-NLS-1$
+				service("git-receive-pack", pckOut, false); //$NON-NLS-1$
 			} catch (IOException err) {
 				close();
 				throw new TransportException(uri,
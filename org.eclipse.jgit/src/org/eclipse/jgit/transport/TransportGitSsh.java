@@ -52,11 +52,13 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
@@ -83,6 +85,9 @@
  * enumeration, save file modification and hook execution.
  */
 public class TransportGitSsh extends SshTransport implements PackTransport {
+	/** Environment variable carrying the protocol version request. */
+	private static final String GIT_PROTOCOL = "GIT_PROTOCOL"; //$NON-NLS-1$
+
 	static final TransportProtocol PROTO_SSH = new TransportProtocol() {
 		private final String[] schemeNames = { "ssh", "ssh+git", "git+ssh" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
@@ -167,7 +172,14 @@ public RemoteSession getSession(URIish uri2,
 	/** {@inheritDoc} */
 	@Override
 	public FetchConnection openFetch() throws TransportException {
-		return new SshFetchConnection();
+		return new SshFetchConnection(Collections.<RefSpec> emptyList());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws TransportException {
+		return new SshFetchConnection(refSpecs);
 	}
 
 	/** {@inheritDoc} */
@@ -226,6 +238,13 @@ private class ExtSession implements RemoteSession {
 		@Override
 		public Process exec(String command, int timeout)
 				throws TransportException {
+			return exec(command, Collections.<String, String> emptyMap(),
+					timeout);
+		}
+
+		@Override
+		public Process exec(String command, Map<String, String> environment,
+				int timeout) throws TransportException {
 			String ssh = SystemReader.getInstance().getenv("GIT_SSH"); //$NON-NLS-1$
 			boolean putty = ssh.toLowerCase(Locale.ROOT).contains("plink"); //$NON-NLS-1$
 
@@ -238,6 +257,12 @@ public Process exec(String command, int timeout)
 				args.add(putty ? "-P" : "-p"); //$NON-NLS-1$ //$NON-NLS-2$
 				args.add(String.valueOf(getURI().getPort()));
 			}
+			if (!putty) {
+				for (String name : environment.keySet()) {
+					args.add("-o"); //$NON-NLS-1$
+					args.add("SendEnv=" + name); //$NON-NLS-1$
+				}
+			}
 			if (getURI().getUser() != null)
 				args.add(getURI().getUser() + "@" + getURI().getHost()); //$NON-NLS-1$
 			else
@@ -245,6 +270,7 @@ public Process exec(String command, int timeout)
 			args.add(command);
 
 			ProcessBuilder pb = createProcess(args);
+			pb.environment().putAll(environment);
 			try {
 				return pb.start();
 			} catch (IOException err) {
@@ -274,11 +300,16 @@ class SshFetchConnection extends BasePackFetchConnection {
 
 		private StreamCopyThread errorThread;
 
-		SshFetchConnection() throws TransportException {
+		SshFetchConnection(Collection<RefSpec> refSpecs)
+				throws TransportException {
 			super(TransportGitSsh.this);
 			try {
+				Map<String, String> env = Collections.emptyMap();
+				if (wantsProtocolV2())
+					env = Collections.singletonMap(GIT_PROTOCOL,
+							GitProtocolConstants.VERSION_2_REQUEST);
 				process = getSession().exec(commandFor(getOptionUploadPack()),
-						getTimeout());
+						env, getTimeout());
 				final MessageWriter msg = new MessageWriter();
 				setMessageWriter(msg);
 
@@ -305,6 +336,8 @@ class SshFetchConnection extends BasePackFetchConnection {
 						msgs);
 				throw cleanNotFound(notFound, msgs);
 			}
+			if (isProtocolV2())
+				lsRefs(refSpecs);
 		}
 
 		@Override
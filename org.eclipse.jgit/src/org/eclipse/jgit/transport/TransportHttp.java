@@ -53,6 +53,7 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_LOCATION;
 import static org.eclipse.jgit.util.HttpSupport.HDR_PRAGMA;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
@@ -338,11 +339,11 @@ public void setUseSmartHttp(final boolean on) {
 
 	@SuppressWarnings("resource") // Closed by caller
 	private FetchConnection getConnection(HttpConnection c, InputStream in,
-			String service) throws IOException {
+			String service, Collection<RefSpec> refSpecs) throws IOException {
 		BaseConnection f;
 		if (isSmartHttp(c, service)) {
-			readSmartHeaders(in, service);
-			f = new SmartHttpFetchConnection(in);
+			in = readSmartHeaders(in, service);
+			f = new SmartHttpFetchConnection(in, refSpecs);
 		} else {
 			// Assume this server doesn't support smart HTTP fetch
 			// and fall back on dumb object walking.
@@ -356,11 +357,18 @@ private FetchConnection getConnection(HttpConnection c, InputStream in,
 	@Override
 	public FetchConnection openFetch() throws TransportException,
 			NotSupportedException {
+		return openFetch(Collections.<RefSpec> emptyList());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs)
+			throws TransportException, NotSupportedException {
 		final String service = SVC_UPLOAD_PACK;
 		try {
 			final HttpConnection c = connect(service);
 			try (InputStream in = openInputStream(c)) {
-				return getConnection(c, in, service);
+				return getConnection(c, in, service, refSpecs);
 			}
 		} catch (NotSupportedException err) {
 			throw err;
@@ -495,6 +503,10 @@ private HttpConnection connect(final String service)
 				if (useSmartHttp) {
 					String exp = "application/x-" + service + "-advertisement"; //$NON-NLS-1$ //$NON-NLS-2$
 					conn.setRequestProperty(HDR_ACCEPT, exp + ", */*"); //$NON-NLS-1$
+					if (wantsProtocolV2(service)) {
+						conn.setRequestProperty(HDR_GIT_PROTOCOL,
+								GitProtocolConstants.VERSION_2_REQUEST);
+					}
 				} else {
 					conn.setRequestProperty(HDR_ACCEPT, "*/*"); //$NON-NLS-1$
 				}
@@ -872,8 +884,12 @@ private boolean isGzipContent(final HttpConnection c) {
 				|| ENCODING_X_GZIP.equals(c.getHeaderField(HDR_CONTENT_ENCODING));
 	}
 
-	private void readSmartHeaders(final InputStream in, final String service)
-			throws IOException {
+	private boolean wantsProtocolV2(String service) {
+		return SVC_UPLOAD_PACK.equals(service) && wantsProtocolV2();
+	}
+
+	private InputStream readSmartHeaders(final InputStream in,
+			final String service) throws IOException {
 		// A smart reply will have a '#' after the first 4 bytes, but
 		// a dumb reply cannot contain a '#' until after byte 41. Do a
 		// quick check to make sure its a smart reply before we parse
@@ -882,6 +898,12 @@ private void readSmartHeaders(final InputStream in, final String service)
 		final byte[] magic = new byte[5];
 		IO.readFully(in, magic, 0, magic.length);
 		if (magic[4] != '#') {
+			if (wantsProtocolV2(service)) {
+				// Protocol v2 servers may start right away with their
+				// capability advertisement.
+				return new UnionInputStream(new ByteArrayInputStream(magic),
+						in);
+			}
 			throw new TransportException(uri, MessageFormat.format(
 					JGitText.get().expectedPktLineWithService, RawParseUtils.decode(magic)));
 		}
@@ -898,6 +920,7 @@ private void readSmartHeaders(final InputStream in, final String service)
 		while (pckIn.readString() != PacketLineIn.END) {
 			// for now, ignore the remaining header lines
 		}
+		return in;
 	}
 
 	class HttpObjectDB extends WalkRemoteObjectDatabase {
@@ -1051,14 +1074,22 @@ void close() {
 	class SmartHttpFetchConnection extends BasePackFetchConnection {
 		private MultiRequestService svc;
 
-		SmartHttpFetchConnection(final InputStream advertisement)
-				throws TransportException {
+		SmartHttpFetchConnection(final InputStream advertisement,
+				Collection<RefSpec> refSpecs) throws TransportException {
 			super(TransportHttp.this);
 			statelessRPC = true;
 
 			init(advertisement, DisabledOutputStream.INSTANCE);
 			outNeedsEnd = false;
 			readAdvertisedRefs();
+
+			if (isProtocolV2()) {
+				MultiRequestService lsRefs = new MultiRequestService(
+						SVC_UPLOAD_PACK, true);
+				init(lsRefs.getInputStream(), lsRefs.getOutputStream());
+				outNeedsEnd = false;
+				lsRefs(refSpecs);
+			}
 		}
 
 		@Override
@@ -1066,7 +1097,8 @@ protected void doFetch(final ProgressMonitor monitor,
 				final Collection<Ref> want, final Set<ObjectId> have,
 				final OutputStream outputStream) throws TransportException {
 			try {
-				svc = new MultiRequestService(SVC_UPLOAD_PACK);
+				svc = new MultiRequestService(SVC_UPLOAD_PACK,
+						isProtocolV2());
 				init(svc.getInputStream(), svc.getOutputStream());
 				super.doFetch(monitor, want, have, outputStream);
 			} finally {
@@ -1117,8 +1149,16 @@ abstract class Service {
 
 		final UnionInputStream in;
 
+		/** Should requests ask the server for protocol v2? */
+		private final boolean protocolV2;
+
 		Service(String serviceName) {
+			this(serviceName, false);
+		}
+
+		Service(String serviceName, boolean protocolV2) {
 			this.serviceName = serviceName;
+			this.protocolV2 = protocolV2;
 			this.requestType = "application/x-" + serviceName + "-request"; //$NON-NLS-1$ //$NON-NLS-2$
 			this.responseType = "application/x-" + serviceName + "-result"; //$NON-NLS-1$ //$NON-NLS-2$
 
@@ -1134,6 +1174,10 @@ void openStream() throws IOException {
 			conn.setDoOutput(true);
 			conn.setRequestProperty(HDR_CONTENT_TYPE, requestType);
 			conn.setRequestProperty(HDR_ACCEPT, responseType);
+			if (protocolV2) {
+				conn.setRequestProperty(HDR_GIT_PROTOCOL,
+						GitProtocolConstants.VERSION_2_REQUEST);
+			}
 		}
 
 		void sendRequest() throws IOException {
@@ -1388,6 +1432,10 @@ class MultiRequestService extends Service {
 			super(serviceName);
 		}
 
+		MultiRequestService(String serviceName, boolean protocolV2) {
+			super(serviceName, protocolV2);
+		}
+
 		/** Keep opening send-receive pairs to the given URI. */
 		@Override
 		void execute() throws IOException {
@@ -44,6 +44,8 @@
 package org.eclipse.jgit.transport;
 
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_FETCH;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_LS_REFS;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_AGENT;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_REACHABLE_SHA1_IN_WANT;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_TIP_SHA1_IN_WANT;
@@ -58,26 +60,32 @@
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_SIDE_BAND;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_SIDE_BAND_64K;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_THIN_PACK;
+import static org.eclipse.jgit.transport.GitProtocolConstants.VERSION_2_REQUEST;
 
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BitmapIndex;
 import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Constants;
@@ -86,6 +94,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
@@ -211,11 +220,17 @@ public Set<String> getOptions() {
 	private final Repository db;
 
 	/** Revision traversal support over {@link #db}. */
-	private final RevWalk walk;
+	private RevWalk walk;
 
 	/** Configuration to pass into the PackWriter. */
 	private PackConfig packConfig;
 
+	/** Cache of previously sent packs; null if packs are always written. */
+	private PackResponseCache packResponseCache;
+
+	/** Name of {@link #db} in {@link #packResponseCache}. */
+	private String packResponseCacheKey;
+
 	/** Configuration for various transfer options. */
 	private TransferConfig transferConfig;
 
@@ -267,6 +282,9 @@ public Set<String> getOptions() {
 	private Set<String> options;
 	String userAgent;
 
+	/** Whether the client asked for protocol v2 in its extra parameters. */
+	private boolean clientRequestedV2;
+
 	/** Raw ObjectIds the client has asked for, before validating them. */
 	private final Set<ObjectId> wantIds = new HashSet<>();
 
@@ -276,6 +294,27 @@ public Set<String> getOptions() {
 	/** Objects on both sides, these don't have to be sent. */
 	private final Set<RevObject> commonBase = new HashSet<>();
 
+	/** {@link #commonBase} in the order the objects were found common. */
+	private final List<RevObject> commonList = new ArrayList<>();
+
+	/**
+	 * Most wants {@link #wantBitmaps} holds a bitmap for; each bitmap may cover
+	 * the whole repository, so further wants walk their commits instead.
+	 */
+	private static final int MAX_WANT_BITMAPS = 16;
+
+	/**
+	 * Objects reachable from each want not yet known to be satisfied, if the
+	 * repository has a bitmap index; null until first needed.
+	 */
+	private Map<RevObject, WantBitmap> wantBitmaps;
+
+	/** Computes {@link #wantBitmaps}; null without a bitmap index. */
+	private BitmapWalker wantBitmapWalker;
+
+	/** Walk used by {@link #wantBitmapWalker}; closed with it. */
+	private ObjectWalk wantObjectWalk;
+
 	/** Shallow commits the client already has. */
 	private final Set<ObjectId> clientShallowCommits = new HashSet<>();
 
@@ -297,18 +336,21 @@ public Set<String> getOptions() {
 	private Set<ObjectId> advertised;
 
 	/** Marked on objects the client has asked us to give them. */
-	private final RevFlag WANT;
+	private RevFlag WANT;
 
 	/** Marked on objects both we and the client have. */
-	private final RevFlag PEER_HAS;
+	private RevFlag PEER_HAS;
 
 	/** Marked on objects in {@link #commonBase}. */
-	private final RevFlag COMMON;
+	private RevFlag COMMON;
 
 	/** Objects where we found a path from the want list to a common base. */
-	private final RevFlag SATISFIED;
+	private RevFlag SATISFIED;
+
+	private RevFlagSet SAVE;
 
-	private final RevFlagSet SAVE;
+	/** Number of protocol v2 fetch commands served on this connection. */
+	private int fetchCommandsV2;
 
 	private RequestValidator requestValidator = new AdvertisedRequestValidator();
 
@@ -328,6 +370,12 @@ public Set<String> getOptions() {
 	 */
 	public UploadPack(final Repository copyFrom) {
 		db = copyFrom;
+		newRevWalk();
+		setTransferConfig(null);
+	}
+
+	/** Create {@link #walk} and the flags negotiation marks objects with. */
+	private void newRevWalk() {
 		walk = new RevWalk(db);
 		walk.setRetainBody(false);
 
@@ -342,8 +390,6 @@ public UploadPack(final Repository copyFrom) {
 		SAVE.add(PEER_HAS);
 		SAVE.add(COMMON);
 		SAVE.add(SATISFIED);
-
-		setTransferConfig(null);
 	}
 
 	/**
@@ -368,7 +414,11 @@ public final RevWalk getRevWalk() {
 	 * Get refs which were advertised to the client.
 	 *
 	 * @return all refs which were advertised to the client, or null if
-	 *         {@link #setAdvertisedRefs(Map)} has not been called yet.
+	 *         {@link #setAdvertisedRefs(Map)} has not been called yet. A
+	 *         stateless advertisement without an
+	 *         {@link org.eclipse.jgit.transport.AdvertiseRefsHook} or
+	 *         {@link org.eclipse.jgit.transport.RefFilter} streams the
+	 *         references from the ref database and leaves this null.
 	 */
 	public final Map<String, Ref> getAdvertisedRefs() {
 		return refs;
@@ -392,10 +442,35 @@ public void setAdvertisedRefs(Map<String, Ref> allRefs) {
 			refs = allRefs;
 		else
 			refs = db.getAllRefs();
+		refs = applyRefFilter(refs);
+	}
+
+	private Map<String, Ref> applyRefFilter(Map<String, Ref> allRefs) {
 		if (refFilter == RefFilter.DEFAULT)
-			refs = transferConfig.getRefFilter().filter(refs);
-		else
-			refs = refFilter.filter(refs);
+			return transferConfig.getRefFilter().filter(allRefs);
+		return refFilter.filter(allRefs);
+	}
+
+	/**
+	 * Set the extra parameters sent by the client alongside its request.
+	 * <p>
+	 * Clients pass these in the {@code Git-Protocol} HTTP header, after the
+	 * host of a {@code git://} request, or in the {@code GIT_PROTOCOL}
+	 * environment variable over SSH. A {@code version=2} parameter selects
+	 * wire protocol v2, if {@code protocol.version} is set to 2 in the
+	 * repository configuration.
+	 *
+	 * @param params
+	 *            parameters supplied by the client, split on {@code :} or
+	 *            {@code NUL}.
+	 * @since 5.0
+	 */
+	public void setExtraParameters(Collection<String> params) {
+		clientRequestedV2 = params.contains(VERSION_2_REQUEST);
+	}
+
+	private boolean useProtocolV2() {
+		return clientRequestedV2 && transferConfig.isProtocolV2();
 	}
 
 	/**
@@ -619,6 +694,36 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * Set the cache used to replay packs sent for identical requests.
+	 * <p>
+	 * Only clone-shaped requests, sharing no objects with the server, are
+	 * cached; incremental fetches and shallow requests always generate a new
+	 * pack. A replayed pack is not accompanied by
+	 * {@link PackStatistics}, so the {@link PostUploadHook} is not invoked and
+	 * {@link #getStatistics()} returns null for such requests.
+	 * <p>
+	 * A cache may be shared by several repositories. Packs are only replayed
+	 * to requests carrying the same repository key, so the caller must name
+	 * each repository uniquely and the same way in every {@code UploadPack}
+	 * opened on it, even through a different {@link Repository} instance.
+	 *
+	 * @param cache
+	 *            the cache; if null every pack is generated by a
+	 *            {@code PackWriter}.
+	 * @param repositoryKey
+	 *            name of the repository in the cache; required if
+	 *            {@code cache} is not null.
+	 * @since 5.0
+	 */
+	public void setPackResponseCache(PackResponseCache cache,
+			String repositoryKey) {
+		if (cache != null && repositoryKey == null)
+			throw new IllegalArgumentException();
+		this.packResponseCache = cache;
+		this.packResponseCacheKey = cache != null ? repositoryKey : null;
+	}
+
 	/**
 	 * Set configuration controlling transfer options.
 	 *
@@ -699,9 +804,14 @@ public void upload(final InputStream input, OutputStream output,
 
 			pckIn = new PacketLineIn(rawIn);
 			pckOut = new PacketLineOut(rawOut);
-			service();
+			if (useProtocolV2()) {
+				serviceV2();
+			} else {
+				service();
+			}
 		} finally {
 			msgOut = NullOutputStream.INSTANCE;
+			releaseWantBitmaps();
 			walk.close();
 			if (timer != null) {
 				try {
@@ -764,8 +874,10 @@ else if (requestValidator instanceof AnyRequestValidator)
 
 			if (!clientShallowCommits.isEmpty())
 				verifyClientShallow();
-			if (depth != 0)
-				processShallow();
+			if (depth != 0) {
+				writeShallowInfo(processShallow());
+				pckOut.end();
+			}
 			if (!clientShallowCommits.isEmpty())
 				walk.assumeShallow(clientShallowCommits);
 			sendPack = negotiate(accumulator);
@@ -817,10 +929,338 @@ else if (requestValidator instanceof AnyRequestValidator)
 			rawOut.stopBuffering();
 		}
 
+		releaseWantBitmaps();
 		if (sendPack)
 			sendPack(accumulator);
 	}
 
+	private void serviceV2() throws IOException {
+		try {
+			if (biDirectionalPipe) {
+				// Only a bidirectional pipe sends the capability
+				// advertisement here; stateless callers have already
+				// obtained it from sendAdvertisedRefs().
+				sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
+				while (serveOneCommandV2()) {
+					// Serve commands until the client hangs up.
+				}
+			} else {
+				serveOneCommandV2();
+			}
+		} catch (ServiceMayNotContinueException err) {
+			if (!err.isOutput() && err.getMessage() != null) {
+				try {
+					pckOut.writeString("ERR " + err.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					err.setOutput();
+				} catch (Throwable err2) {
+					// Ignore this secondary failure (and not mark output).
+				}
+			}
+			throw err;
+		} catch (PackProtocolException err) {
+			try {
+				pckOut.writeString("ERR " + err.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (Throwable err2) {
+				// Ignore this secondary failure.
+			}
+			throw err;
+		} finally {
+			if (!biDirectionalPipe) {
+				while (0 < rawIn.skip(2048) || 0 <= rawIn.read()) {
+					// Discard until EOF.
+				}
+			}
+			rawOut.stopBuffering();
+		}
+	}
+
+	/**
+	 * Serve a single protocol v2 command.
+	 *
+	 * @return true if the client may send another command; false once it
+	 *         has closed the connection.
+	 */
+	private boolean serveOneCommandV2() throws IOException {
+		String command;
+		try {
+			command = pckIn.readString();
+		} catch (EOFException eof) {
+			// The client is done sending commands.
+			return false;
+		}
+		if (command == PacketLineIn.END) {
+			return false;
+		}
+		if (command.equals("command=" + COMMAND_LS_REFS)) { //$NON-NLS-1$
+			lsRefsV2();
+		} else if (command.equals("command=" + COMMAND_FETCH)) { //$NON-NLS-1$
+			fetchV2();
+		} else {
+			throw new PackProtocolException(MessageFormat
+					.format(JGitText.get().unknownTransportCommand, command));
+		}
+		return true;
+	}
+
+	private List<String> getV2CapabilityAdvertisement() {
+		List<String> caps = new ArrayList<>();
+		caps.add("version 2"); //$NON-NLS-1$
+		caps.add(OPTION_AGENT + '=' + UserAgent.get());
+		caps.add(COMMAND_LS_REFS);
+		caps.add(COMMAND_FETCH + '=' + OPTION_SHALLOW
+				+ (transferConfig.isAllowFilter() ? " " + OPTION_FILTER : "")); //$NON-NLS-1$ //$NON-NLS-2$
+		return caps;
+	}
+
+	/**
+	 * Read the capabilities preceding the arguments of a v2 command.
+	 *
+	 * @return true if a delim packet introduced arguments; false if the
+	 *         command ended without any.
+	 */
+	private boolean readCapabilitiesV2() throws IOException {
+		options = new HashSet<>();
+		for (;;) {
+			String line = pckIn.readString();
+			if (line == PacketLineIn.DELIM) {
+				return true;
+			} else if (line == PacketLineIn.END) {
+				return false;
+			}
+			options.add(line);
+		}
+	}
+
+	private void lsRefsV2() throws IOException {
+		boolean symrefs = false;
+		boolean peel = false;
+		List<String> prefixes = new ArrayList<>();
+		if (readCapabilitiesV2()) {
+			String line;
+			while ((line = pckIn.readString()) != PacketLineIn.END) {
+				if (line.equals("symrefs")) { //$NON-NLS-1$
+					symrefs = true;
+				} else if (line.equals("peel")) { //$NON-NLS-1$
+					peel = true;
+				} else if (line.startsWith("ref-prefix ")) { //$NON-NLS-1$
+					prefixes.add(line.substring("ref-prefix ".length())); //$NON-NLS-1$
+				} else {
+					throw new PackProtocolException(MessageFormat.format(
+							JGitText.get().unexpectedPacketLine, line));
+				}
+			}
+		}
+		rawOut.stopBuffering();
+
+		advertiseRefsHook.advertiseRefs(this);
+		for (Ref ref : RefComparator.sort(getRefsByPrefix(prefixes))) {
+			ObjectId id = ref.getObjectId();
+			if (id == null) {
+				// Unborn branches have nothing to fetch.
+				continue;
+			}
+			StringBuilder line = new StringBuilder(id.name());
+			line.append(' ').append(ref.getName());
+			if (symrefs && ref.isSymbolic()) {
+				line.append(" symref-target:") //$NON-NLS-1$
+						.append(ref.getTarget().getName());
+			}
+			if (peel) {
+				if (!ref.isPeeled()) {
+					ref = db.peel(ref);
+				}
+				ObjectId peeled = ref.getPeeledObjectId();
+				if (peeled != null) {
+					line.append(" peeled:").append(peeled.name()); //$NON-NLS-1$
+				}
+			}
+			line.append('\n');
+			pckOut.writeString(line.toString());
+		}
+		pckOut.end();
+	}
+
+	/**
+	 * Collect the visible references matching any of the prefixes.
+	 * <p>
+	 * Unless an {@link AdvertiseRefsHook} already chose the advertised
+	 * references, only the requested parts of the reference database are
+	 * read, instead of the complete namespace a v0 advertisement needs.
+	 */
+	private Collection<Ref> getRefsByPrefix(List<String> prefixes)
+			throws IOException {
+		if (prefixes.isEmpty()) {
+			return getAdvertisedOrDefaultRefs().values();
+		}
+		Map<String, Ref> found = new HashMap<>();
+		if (refs != null) {
+			for (Ref ref : refs.values()) {
+				for (String prefix : prefixes) {
+					if (ref.getName().startsWith(prefix)) {
+						found.put(ref.getName(), ref);
+						break;
+					}
+				}
+			}
+			return found.values();
+		}
+		RefDatabase refdb = db.getRefDatabase();
+		for (String prefix : prefixes) {
+			for (Ref ref : refdb.getRefsByPrefix(prefix)) {
+				found.put(ref.getName(), ref);
+			}
+		}
+		return applyRefFilter(found).values();
+	}
+
+	/**
+	 * Forget the state of the previous fetch command on this connection.
+	 * <p>
+	 * The walk is replaced rather than reset, as flags on non-commit objects
+	 * and commits rewritten by {@link RevWalk#assumeShallow(Collection)}
+	 * would survive a reset.
+	 */
+	private void resetFetchStateV2() {
+		releaseWantBitmaps();
+		walk.close();
+		newRevWalk();
+		wantIds.clear();
+		wantAll.clear();
+		commonBase.clear();
+		commonList.clear();
+		clientShallowCommits.clear();
+		unshallowCommits.clear();
+		depth = 0;
+		filterBlobLimit = -1;
+		oldestTime = 0;
+		okToGiveUp = null;
+		sentReady = false;
+		advertised = null;
+		statistics = null;
+		msgOut = NullOutputStream.INSTANCE;
+	}
+
+	private void fetchV2() throws IOException {
+		if (fetchCommandsV2++ > 0) {
+			resetFetchStateV2();
+		}
+		PackStatistics.Accumulator accumulator = new PackStatistics.Accumulator();
+		long negotiateStart = System.currentTimeMillis();
+		List<ObjectId> peerHas = new ArrayList<>();
+		boolean doneReceived = false;
+		boolean filterReceived = false;
+		if (readCapabilitiesV2()) {
+			String line;
+			while ((line = pckIn.readString()) != PacketLineIn.END) {
+				if (line.startsWith("want ")) { //$NON-NLS-1$
+					wantIds.add(ObjectId.fromString(line.substring(5)));
+				} else if (line.startsWith("have ")) { //$NON-NLS-1$
+					peerHas.add(ObjectId.fromString(line.substring(5)));
+				} else if (line.equals("done")) { //$NON-NLS-1$
+					doneReceived = true;
+				} else if (line.equals(OPTION_THIN_PACK)
+						|| line.equals(OPTION_NO_PROGRESS)
+						|| line.equals(OPTION_INCLUDE_TAG)
+						|| line.equals(OPTION_OFS_DELTA)) {
+					options.add(line);
+				} else if (line.startsWith("shallow ")) { //$NON-NLS-1$
+					clientShallowCommits
+							.add(ObjectId.fromString(line.substring(8)));
+				} else if (line.startsWith("deepen ")) { //$NON-NLS-1$
+					depth = Integer.parseInt(line.substring(7));
+					if (depth <= 0) {
+						throw new PackProtocolException(
+								MessageFormat.format(JGitText.get().invalidDepth,
+										Integer.valueOf(depth)));
+					}
+				} else if (transferConfig.isAllowFilter()
+						&& line.startsWith(OPTION_FILTER + " ")) { //$NON-NLS-1$
+					if (filterReceived) {
+						throw new PackProtocolException(
+								JGitText.get().tooManyFilters);
+					}
+					filterReceived = true;
+					parseFilter(line.substring(OPTION_FILTER.length() + 1));
+				} else {
+					throw new PackProtocolException(MessageFormat.format(
+							JGitText.get().unexpectedPacketLine, line));
+				}
+			}
+		}
+		rawOut.stopBuffering();
+
+		// The packfile section is always multiplexed.
+		options.add(OPTION_SIDE_BAND_64K);
+		if (wantIds.isEmpty()) {
+			preUploadHook.onBeginNegotiateRound(this, wantIds, 0);
+			preUploadHook.onEndNegotiateRound(this, wantIds, 0, 0, false);
+			pckOut.end();
+			return;
+		}
+		accumulator.wants = wantIds.size();
+		accumulator.haves = peerHas.size();
+
+		// Without an advertisement every visible reference is a valid
+		// tip; validators which scan the references themselves need none.
+		if (requestValidator instanceof TipRequestValidator
+				|| requestValidator instanceof ReachableCommitTipRequestValidator
+				|| requestValidator instanceof AnyRequestValidator) {
+			advertised = Collections.emptySet();
+		} else {
+			advertised = refIdSet(getAdvertisedOrDefaultRefs().values());
+		}
+		accumulator.advertised = advertised.size();
+
+		List<ObjectId> shallows = Collections.emptyList();
+		if (!clientShallowCommits.isEmpty())
+			verifyClientShallow();
+		if (depth != 0)
+			shallows = processShallow();
+		if (!clientShallowCommits.isEmpty())
+			walk.assumeShallow(clientShallowCommits);
+
+		PacketLineOut nullOut = new PacketLineOut(NullOutputStream.INSTANCE);
+		boolean sectionSent = false;
+		if (doneReceived) {
+			processHaveLines(peerHas, ObjectId.zeroId(), nullOut);
+		} else {
+			List<ObjectId> haves = new ArrayList<>(peerHas);
+			processHaveLines(peerHas, ObjectId.zeroId(), nullOut);
+			pckOut.writeString("acknowledgments\n"); //$NON-NLS-1$
+			for (ObjectId id : haves) {
+				RevObject obj = walk.lookupOrNull(id);
+				if (obj != null && obj.has(PEER_HAS)) {
+					pckOut.writeString("ACK " + id.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			if (okToGiveUp()) {
+				pckOut.writeString("ready\n"); //$NON-NLS-1$
+			} else if (commonBase.isEmpty()) {
+				pckOut.writeString("NAK\n"); //$NON-NLS-1$
+			}
+			sectionSent = true;
+		}
+		accumulator.timeNegotiating += System.currentTimeMillis()
+				- negotiateStart;
+
+		boolean sendPack = doneReceived || okToGiveUp();
+		releaseWantBitmaps();
+		if (sendPack) {
+			if (sectionSent) {
+				pckOut.writeDelim();
+			}
+			if (depth != 0) {
+				pckOut.writeString("shallow-info\n"); //$NON-NLS-1$
+				writeShallowInfo(shallows);
+				pckOut.writeDelim();
+			}
+			pckOut.writeString("packfile\n"); //$NON-NLS-1$
+			sendPack(true, accumulator);
+		} else {
+			pckOut.end();
+		}
+	}
+
 	private static Set<ObjectId> refIdSet(Collection<Ref> refs) {
 		Set<ObjectId> ids = new HashSet<>(refs.size());
 		for (Ref ref : refs) {
@@ -836,7 +1276,23 @@ private static Set<ObjectId> refIdSet(Collection<Ref> refs) {
 		return ids;
 	}
 
-	private void processShallow() throws IOException {
+	private void writeShallowInfo(List<ObjectId> shallows) throws IOException {
+		for (ObjectId id : shallows)
+			pckOut.writeString("shallow " + id.name()); //$NON-NLS-1$
+		for (ObjectId id : unshallowCommits)
+			pckOut.writeString("unshallow " + id.name()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Find the boundary of the requested depth.
+	 * <p>
+	 * Commits leaving the client's shallow set are moved from
+	 * {@link #clientShallowCommits} to {@link #unshallowCommits}.
+	 *
+	 * @return commits the client should record as shallow.
+	 */
+	private List<ObjectId> processShallow() throws IOException {
+		List<ObjectId> shallows = new ArrayList<>();
 		int walkDepth = depth - 1;
 		try (DepthWalk.RevWalk depthWalk = new DepthWalk.RevWalk(
 				walk.getObjectReader(), walkDepth)) {
@@ -858,18 +1314,16 @@ private void processShallow() throws IOException {
 				// the client need to be marked as such
 				if (c.getDepth() == walkDepth
 						&& !clientShallowCommits.contains(c))
-					pckOut.writeString("shallow " + o.name()); //$NON-NLS-1$
+					shallows.add(c.copy());
 
 				// Commits not on the boundary which are shallow in the client
 				// need to become unshallowed
 				if (c.getDepth() < walkDepth
-						&& clientShallowCommits.remove(c)) {
+						&& clientShallowCommits.remove(c))
 					unshallowCommits.add(c.copy());
-					pckOut.writeString("unshallow " + c.name()); //$NON-NLS-1$
-				}
 			}
 		}
-		pckOut.end();
+		return shallows;
 	}
 
 	private void verifyClientShallow()
@@ -923,6 +1377,15 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			throw fail;
 		}
 
+		if (useProtocolV2()) {
+			// Protocol v2 advertises only capabilities; the client asks
+			// for the references it is interested in with ls-refs.
+			for (String capability : getV2CapabilityAdvertisement())
+				adv.writeOne(capability + '\n');
+			adv.end();
+			return;
+		}
+
 		adv.init(db);
 		adv.advertiseCapability(OPTION_INCLUDE_TAG);
 		adv.advertiseCapability(OPTION_MULTI_ACK_DETAILED);
@@ -949,9 +1412,25 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			adv.advertiseCapability(OPTION_FILTER);
 		}
 		adv.setDerefTags(true);
-		Map<String, Ref> advertisedOrDefaultRefs = getAdvertisedOrDefaultRefs();
-		findSymrefs(adv, advertisedOrDefaultRefs);
-		advertised = adv.send(advertisedOrDefaultRefs);
+		if (refs == null && !biDirectionalPipe
+				&& refFilter == RefFilter.DEFAULT) {
+			// Nothing reads the advertised map after a stateless
+			// advertisement, so stream the references from the ref database
+			// as they are read instead of loading them all first.
+			RefDatabase refDb = db.getRefDatabase();
+			if (!transferConfig.isHidden(Constants.HEAD)) {
+				Ref head = refDb.exactRef(Constants.HEAD);
+				if (head != null)
+					findSymrefs(adv, Collections.singletonMap(
+							Constants.HEAD, head));
+			}
+			advertised = adv.send(refDb,
+					r -> !transferConfig.isHidden(r.getName()));
+		} else {
+			Map<String, Ref> advertisedOrDefaultRefs = getAdvertisedOrDefaultRefs();
+			findSymrefs(adv, advertisedOrDefaultRefs);
+			advertised = adv.send(advertisedOrDefaultRefs);
+		}
 		if (adv.isEmpty())
 			adv.advertiseId(ObjectId.zeroId(), "capabilities^{}"); //$NON-NLS-1$
 		adv.end();
@@ -1019,37 +1498,11 @@ private void recvWants() throws IOException {
 
 			if (transferConfig.isAllowFilter()
 					&& line.startsWith(OPTION_FILTER + " ")) { //$NON-NLS-1$
-				String arg = line.substring(OPTION_FILTER.length() + 1);
-
 				if (filterReceived) {
 					throw new PackProtocolException(JGitText.get().tooManyFilters);
 				}
 				filterReceived = true;
-
-				if (arg.equals("blob:none")) { //$NON-NLS-1$
-					filterBlobLimit = 0;
-				} else if (arg.startsWith("blob:limit=")) { //$NON-NLS-1$
-					try {
-						filterBlobLimit = Long.parseLong(
-								arg.substring("blob:limit=".length())); //$NON-NLS-1$
-					} catch (NumberFormatException e) {
-						throw new PackProtocolException(
-								MessageFormat.format(JGitText.get().invalidFilter,
-										arg));
-					}
-				}
-				/*
-				 * We must have (1) either "blob:none" or
-				 * "blob:limit=" set (because we only support
-				 * blob size limits for now), and (2) if the
-				 * latter, then it must be nonnegative. Throw
-				 * if (1) or (2) is not met.
-				 */
-				if (filterBlobLimit < 0) {
-					throw new PackProtocolException(
-							MessageFormat.format(JGitText.get().invalidFilter,
-									arg));
-				}
+				parseFilter(line.substring(OPTION_FILTER.length() + 1));
 				continue;
 			}
 
@@ -1070,6 +1523,33 @@ private void recvWants() throws IOException {
 		}
 	}
 
+	private void parseFilter(String arg) throws PackProtocolException {
+		if (arg.equals("blob:none")) { //$NON-NLS-1$
+			filterBlobLimit = 0;
+		} else if (arg.startsWith("blob:limit=")) { //$NON-NLS-1$
+			try {
+				filterBlobLimit = Long.parseLong(
+						arg.substring("blob:limit=".length())); //$NON-NLS-1$
+			} catch (NumberFormatException e) {
+				throw new PackProtocolException(
+						MessageFormat.format(JGitText.get().invalidFilter,
+								arg));
+			}
+		}
+		/*
+		 * We must have (1) either "blob:none" or
+		 * "blob:limit=" set (because we only support
+		 * blob size limits for now), and (2) if the
+		 * latter, then it must be nonnegative. Throw
+		 * if (1) or (2) is not met.
+		 */
+		if (filterBlobLimit < 0) {
+			throw new PackProtocolException(
+					MessageFormat.format(JGitText.get().invalidFilter,
+							arg));
+		}
+	}
+
 	/**
 	 * Returns the clone/fetch depth. Valid only after calling recvWants(). A
 	 * depth of 1 means return only the wants.
@@ -1124,7 +1604,7 @@ private boolean negotiate(PackStatistics.Accumulator accumulator)
 			}
 
 			if (line == PacketLineIn.END) {
-				last = processHaveLines(peerHas, last);
+				last = processHaveLines(peerHas, last, pckOut);
 				if (commonBase.isEmpty() || multiAck != MultiAck.OFF)
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
 				if (noDone && sentReady) {
@@ -1139,7 +1619,7 @@ private boolean negotiate(PackStatistics.Accumulator accumulator)
 				peerHas.add(ObjectId.fromString(line.substring(5)));
 				accumulator.haves++;
 			} else if (line.equals("done")) { //$NON-NLS-1$
-				last = processHaveLines(peerHas, last);
+				last = processHaveLines(peerHas, last, pckOut);
 
 				if (commonBase.isEmpty())
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
@@ -1155,8 +1635,8 @@ else if (multiAck != MultiAck.OFF)
 		}
 	}
 
-	private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
-			throws IOException {
+	private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last,
+			PacketLineOut out) throws IOException {
 		preUploadHook.onBeginNegotiateRound(this, wantIds, peerHas.size());
 		if (wantAll.isEmpty() && !wantIds.isEmpty())
 			parseWants();
@@ -1200,13 +1680,13 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 				switch (multiAck) {
 				case OFF:
 					if (commonBase.size() == 1)
-						pckOut.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+						out.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				case CONTINUE:
-					pckOut.writeString("ACK " + obj.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					out.writeString("ACK " + obj.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				case DETAILED:
-					pckOut.writeString("ACK " + obj.name() + " common\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					out.writeString("ACK " + obj.name() + " common\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				}
 			}
@@ -1232,10 +1712,10 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 						case OFF:
 							break;
 						case CONTINUE:
-							pckOut.writeString("ACK " + id.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							out.writeString("ACK " + id.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
 							break;
 						case DETAILED:
-							pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							out.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
 							sentReady = true;
 							break;
 						}
@@ -1247,7 +1727,7 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 
 		if (multiAck == MultiAck.DETAILED && !didOkToGiveUp && okToGiveUp()) {
 			ObjectId id = peerHas.get(peerHas.size() - 1);
-			pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			out.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
 			sentReady = true;
 		}
 
@@ -1449,6 +1929,7 @@ private void addCommonBase(final RevObject o) {
 		if (!o.has(COMMON)) {
 			o.add(COMMON);
 			commonBase.add(o);
+			commonList.add(o);
 			okToGiveUp = null;
 		}
 	}
@@ -1478,6 +1959,22 @@ private boolean wantSatisfied(final RevObject want) throws IOException {
 		if (want.has(SATISFIED))
 			return true;
 
+		WantBitmap bitmap = getWantBitmap(want);
+		if (bitmap != null) {
+			// The want is computed once; each round then only tests the
+			// common objects found since the previous round, instead of
+			// walking the history again.
+			while (bitmap.tested < commonList.size()) {
+				RevObject obj = commonList.get(bitmap.tested++);
+				if (bitmap.reachable.contains(obj)) {
+					want.add(SATISFIED);
+					wantBitmaps.remove(want);
+					return true;
+				}
+			}
+			return false;
+		}
+
 		walk.resetRetain(SAVE);
 		walk.markStart((RevCommit) want);
 		if (oldestTime != 0)
@@ -1495,6 +1992,59 @@ private boolean wantSatisfied(final RevObject want) throws IOException {
 		return false;
 	}
 
+	/**
+	 * Get the objects reachable from a want with the bitmap index.
+	 *
+	 * @return the reachable objects, or null if the repository has no bitmap
+	 *         index and the caller must walk the commits instead.
+	 */
+	private WantBitmap getWantBitmap(RevObject want) throws IOException {
+		if (wantBitmaps == null) {
+			wantBitmaps = new HashMap<>();
+			ObjectReader reader = walk.getObjectReader();
+			BitmapIndex bitmapIndex = reader.getBitmapIndex();
+			if (bitmapIndex != null) {
+				wantObjectWalk = new ObjectWalk(reader);
+				wantBitmapWalker = new BitmapWalker(wantObjectWalk,
+						bitmapIndex, null);
+			}
+		}
+		if (wantBitmapWalker == null)
+			return null;
+
+		WantBitmap bitmap = wantBitmaps.get(want);
+		if (bitmap == null) {
+			if (wantBitmaps.size() >= MAX_WANT_BITMAPS)
+				return null;
+			bitmap = new WantBitmap(wantBitmapWalker.findObjects(
+					Collections.singleton(want), null, true));
+			wantBitmaps.put(want, bitmap);
+		}
+		return bitmap;
+	}
+
+	/** Objects reachable from a want, and how far it was tested. */
+	private static class WantBitmap {
+		final BitmapBuilder reachable;
+
+		/** Number of leading {@link UploadPack#commonList} entries tested. */
+		int tested;
+
+		WantBitmap(BitmapBuilder reachable) {
+			this.reachable = reachable;
+		}
+	}
+
+	/** Drop the want bitmaps once negotiation no longer needs them. */
+	private void releaseWantBitmaps() {
+		if (wantObjectWalk != null) {
+			wantObjectWalk.close();
+			wantObjectWalk = null;
+		}
+		wantBitmapWalker = null;
+		wantBitmaps = null;
+	}
+
 	private void sendPack(PackStatistics.Accumulator accumulator)
 			throws IOException {
 		final boolean sideband = options.contains(OPTION_SIDE_BAND)
@@ -1581,6 +2131,24 @@ private void sendPack(final boolean sideband,
 			throw noPack;
 		}
 
+		// Validators which need no advertisement leave the references
+		// unread, but include-tag still has to find the tags.
+		if (refs == null && options.contains(OPTION_INCLUDE_TAG))
+			getAdvertisedOrDefaultRefs();
+
+		ObjectId cacheKey = getPackResponseKey();
+		if (cacheKey != null && packResponseCache.replay(cacheKey, packOut)) {
+			packOut.flush();
+			if (sideband)
+				pckOut.end();
+			return;
+		}
+		PackResponseCache.Recorder recorder = null;
+		if (cacheKey != null) {
+			recorder = packResponseCache.record(cacheKey, packOut);
+			packOut = recorder;
+		}
+
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
@@ -1666,6 +2234,8 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 			}
 
 			pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
+			if (recorder != null)
+				recorder.commit();
 
 			if (msgOut != NullOutputStream.INSTANCE) {
 				String msg = pw.getStatistics().getMessage() + '\n';
@@ -1679,12 +2249,71 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 				postUploadHook.onPostUpload(statistics);
 			}
 			pw.close();
+			if (recorder != null)
+				recorder.close();
 		}
 
 		if (sideband)
 			pckOut.end();
 	}
 
+	/**
+	 * Compute the key of the pack to send in {@link #packResponseCache}.
+	 * <p>
+	 * Only clone-shaped requests, without common objects, are cached: the
+	 * haves of an incremental fetch are usually unique to one client, so its
+	 * entry would never be replayed and would only evict clone responses.
+	 * <p>
+	 * The key covers everything the pack contents depend on: the repository,
+	 * the wanted objects, the options changing the pack format, the object
+	 * filter, and the advertised references, whose state also decides which
+	 * tags are included. Any update of those references thus invalidates the
+	 * entry. Without advertised references no tags are added, and the wanted
+	 * objects and the advertised set alone determine the pack.
+	 *
+	 * @return the key, or null if the response should not be cached.
+	 */
+	private ObjectId getPackResponseKey() {
+		if (packResponseCache == null || depth > 0
+				|| !clientShallowCommits.isEmpty() || !commonBase.isEmpty())
+			return null;
+
+		MessageDigest md = Constants.newMessageDigest();
+		md.update(Constants.encode(
+				"repository " + packResponseCacheKey + '\n')); //$NON-NLS-1$
+
+		Set<AnyObjectId> wants = new TreeSet<>();
+		wants.addAll(wantAll.isEmpty() ? wantIds : wantAll);
+		for (AnyObjectId id : wants)
+			md.update(Constants.encode("want " + id.name() + '\n')); //$NON-NLS-1$
+
+		for (String option : new String[] { OPTION_OFS_DELTA,
+				OPTION_THIN_PACK, OPTION_INCLUDE_TAG }) {
+			if (options.contains(option))
+				md.update(Constants.encode(option + '\n'));
+		}
+		md.update(Constants.encode("filter " + filterBlobLimit + '\n')); //$NON-NLS-1$
+
+		if (refs == null) {
+			for (AnyObjectId id : new TreeSet<AnyObjectId>(advertised))
+				md.update(Constants.encode(
+						"advertised " + id.name() + '\n')); //$NON-NLS-1$
+			return ObjectId.fromRaw(md.digest());
+		}
+		for (Ref ref : RefComparator.sort(refs.values())) {
+			String target;
+			if (ref.isSymbolic())
+				target = ref.getTarget().getName();
+			else if (ref.getObjectId() != null)
+				target = ref.getObjectId().name();
+			else
+				target = ""; //$NON-NLS-1$
+			md.update(Constants.encode(
+					"ref " + ref.getName() + ' ' + target + '\n')); //$NON-NLS-1$
+		}
+		return ObjectId.fromRaw(md.digest());
+	}
+
 	private static void findSymrefs(
 			final RefAdvertiser adv, final Map<String, Ref> refs) {
 		Ref head = refs.get(Constants.HEAD);
@@ -888,6 +888,7 @@ void downloadPack(final ProgressMonitor monitor) throws IOException {
 				PackParser parser = inserter.newPackParser(s.in);
 				parser.setAllowThin(false);
 				parser.setObjectChecker(objCheck);
+				parser.setUntrustedInput(true);
 				parser.setLockMessage(lockMessage);
 				PackLock lock = parser.parse(monitor);
 				if (lock != null)
@@ -169,6 +169,14 @@ public class HttpSupport {
 	/** The {@code WWW-Authenticate} header. */
 	public static final String HDR_WWW_AUTHENTICATE = "WWW-Authenticate"; //$NON-NLS-1$
 
+	/**
+	 * The {@code Git-Protocol} header, carrying the extra parameters of a
+	 * smart HTTP request.
+	 *
+	 * @since 5.0
+	 */
+	public static final String HDR_GIT_PROTOCOL = "Git-Protocol"; //$NON-NLS-1$
+
 	/**
 	 * URL encode a value string into an output buffer.
 	 *